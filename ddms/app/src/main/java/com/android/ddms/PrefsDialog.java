@@ -21,6 +21,7 @@ import com.android.ddmlib.DdmPreferences;
 import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmuilib.DdmUiPreferences;
+import com.android.ddmuilib.logcat.LogCatArchive;
 import com.android.ddmuilib.logcat.LogCatMessageList;
 import com.android.ddmuilib.logcat.LogCatPanel;
 import com.android.sdkstats.DdmsPreferenceStore;
@@ -469,6 +470,24 @@ public final class PrefsDialog {
                         "Automatically enable/disable scroll lock based on the scrollbar position",
                         getFieldEditorParent());
                 addField(autoScrollLock);
+
+                BooleanFieldEditor archive = new BooleanFieldEditor(
+                        LogCatArchive.ARCHIVE_ENABLED_PREFKEY,
+                        "Archive logcat messages of devices to disk",
+                        getFieldEditorParent());
+                addField(archive);
+
+                DirectoryFieldEditor archiveFolder = new DirectoryFieldEditor(
+                        LogCatArchive.ARCHIVE_FOLDER_PREFKEY,
+                        "Logcat archive folder:",
+                        getFieldEditorParent());
+                addField(archiveFolder);
+
+                IntegerFieldEditor archiveSize = new IntegerFieldEditor(
+                        LogCatArchive.ARCHIVE_MAX_SIZE_PREFKEY,
+                        "Maximum size of the logcat archive of a device (MB)",
+                        getFieldEditorParent());
+                addField(archiveSize);
             }
         }
     }
@@ -0,0 +1,848 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log;
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatFilter;
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+/**
+ * An archive of the logcat messages of a device on disk, which keeps far
+ * more history than the {@link LogCatMessageList} on the heap.
+ *
+ * Messages are appended to segment files in a compact binary format, and
+ * numbered in the order they are added, across runs.  A segment is closed
+ * once it is full: an index of the offsets of its messages and a summary of
+ * their pids, application names, tags and log levels are then written next
+ * to it, and it is memory mapped for reading from then on.  Only the
+ * segment being written has its offsets on the heap, and only a few closed
+ * segments are mapped at a time, so the archive takes the same memory
+ * however long it gets.  Once the files of the segments take more than the
+ * maximum size, the oldest segments are deleted.
+ *
+ * Messages are searched from the newest back, skipping the segments whose
+ * summary rules out the filters.  The archive is only locked to look up a
+ * segment, not while its messages are read, so a search does not hold up
+ * the messages being added.  The index and summary of a segment are written
+ * to temporary files that are then renamed, the index last.  A segment that
+ * was being written when the archive was last left without being closed,
+ * or whose index or summary is missing or incomplete, has them rebuilt when
+ * the archive is opened.
+ */
+public final class LogCatArchive {
+    /** Preference key for whether the logcat messages of devices are archived. */
+    public static final String ARCHIVE_ENABLED_PREFKEY = "logcat.archive.enabled";
+
+    /** Preference key for the folder the archives of the devices are kept in. */
+    public static final String ARCHIVE_FOLDER_PREFKEY = "logcat.archive.folder";
+
+    /** Preference key for the maximum size of the archive of a device, in megabytes. */
+    public static final String ARCHIVE_MAX_SIZE_PREFKEY = "logcat.archive.max.size";
+
+    /** Default value for the maximum size of the archive of a device, in megabytes. */
+    public static final int ARCHIVE_MAX_SIZE_DEFAULT = 1024;
+
+    private static final String DATA_SUFFIX = ".log"; //$NON-NLS-1$
+    private static final String INDEX_SUFFIX = ".idx"; //$NON-NLS-1$
+    private static final String SUMMARY_SUFFIX = ".sum"; //$NON-NLS-1$
+    private static final String TEMP_SUFFIX = ".tmp"; //$NON-NLS-1$
+
+    private static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+    private static final int SEGMENT_MESSAGES = 64 * 1024;
+
+    // number of closed segments that are kept mapped
+    private static final int MAPPED_SEGMENTS = 8;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+
+    private final File mFolder;
+    private final int mSegmentSize;
+    private final int mSegmentMessages;
+    private final long mMaxSize;
+
+    // all the segments, oldest first, the last of which is being written unless the archive
+    // is closed, and the total size of their files
+    private final List<Segment> mSegments = new ArrayList<Segment>();
+    private Segment mCurrent;
+    private long mTotalSize;
+    private boolean mClosed;
+
+    // the closed segments that are mapped, least recently used first
+    private final Map<Segment, Boolean> mMapped = new LinkedHashMap<Segment, Boolean>(
+            MAPPED_SEGMENTS, 0.75f, true);
+
+    private final Encoder mEncoder = new Encoder();
+
+    /** Returns the default folder for the archives of the devices, in the user's home. */
+    public static String getDefaultFolder() {
+        return System.getProperty("user.home") + File.separator + ".android" //$NON-NLS-1$
+                + File.separator + "logcat"; //$NON-NLS-1$
+    }
+
+    /**
+     * Open the archive in the given folder, creating it if needed. Messages are added after
+     * the messages already in the archive.
+     * @param folder folder of the archive
+     * @param maxSize maximum size of the archive, in bytes
+     */
+    public LogCatArchive(File folder, long maxSize) throws IOException {
+        this(folder, maxSize, SEGMENT_SIZE, SEGMENT_MESSAGES);
+    }
+
+    LogCatArchive(File folder, long maxSize, int segmentSize, int segmentMessages)
+            throws IOException {
+        mFolder = folder;
+        mSegmentSize = segmentSize;
+        mSegmentMessages = segmentMessages;
+        mMaxSize = maxSize;
+
+        if (!folder.isDirectory() && !folder.mkdirs()) {
+            throw new IOException("Unable to create logcat archive folder " + folder);
+        }
+
+        long[] firstSequences = findSegments(folder);
+        long next = 0;
+        for (long first : firstSequences) {
+            Segment s = new Segment(folder, first);
+            s.mCount = readCount(s);
+            if (s.mCount < 0) {
+                // the archive was not closed while the segment was written, or was left
+                // while the index or summary of the segment was written
+                s.mCount = recover(s);
+            }
+            if (s.mCount == 0) {
+                // nothing was added while the segment was current
+                s.delete();
+                continue;
+            }
+            s.mFileSize = s.mDataFile.length() + s.mIndexFile.length()
+                    + s.mSummaryFile.length();
+            mSegments.add(s);
+            mTotalSize += s.mFileSize;
+            next = first + s.mCount;
+        }
+
+        mCurrent = startSegment(next);
+        deleteOldSegments();
+    }
+
+    /** Returns the sequence number of the oldest message in the archive. */
+    public synchronized long getStartSequence() {
+        return mSegments.get(0).mFirstSequence;
+    }
+
+    /** Returns one more than the sequence number of the newest message in the archive. */
+    public synchronized long getEndSequence() {
+        return mCurrent.mFirstSequence + mCurrent.mCount;
+    }
+
+    /**
+     * Append messages to the archive.
+     * @throws IOException if the messages could not be written, after which the archive is
+     *             closed
+     */
+    public synchronized void appendMessages(List<LogCatMessage> messages) throws IOException {
+        if (mClosed) {
+            throw new IOException("The logcat archive is closed");
+        }
+
+        try {
+            for (LogCatMessage m : messages) {
+                mEncoder.encode(m);
+                if (mEncoder.mLength > mSegmentSize) {
+                    // too long for any segment: archive it without its text
+                    mEncoder.encode(new LogCatMessage(m.getLogLevel(), m.getPid(), m.getTid(),
+                            m.getAppName(), m.getTag(), m.getTime(), ""));
+                }
+                if (mCurrent.mCount == mSegmentMessages
+                        || mCurrent.mSize + mEncoder.mLength > mSegmentSize) {
+                    finishSegment(mCurrent);
+                    mCurrent = startSegment(mCurrent.mFirstSequence + mCurrent.mCount);
+                }
+                mCurrent.append(mEncoder, m);
+                mTotalSize += mEncoder.mLength;
+            }
+            mCurrent.flush();
+            deleteOldSegments();
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Close the archive. Its messages can still be read, but no more can be added.
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        try {
+            finishSegment(mCurrent);
+        } catch (IOException e) {
+            // The segment is recovered the next time the archive is opened. Until then, it is
+            // read as while it was written.
+            Log.w("Logcat", "Unable to close logcat archive segment " + mCurrent.mDataFile);
+            try {
+                mCurrent.closeFile();
+            } catch (IOException e2) {
+                // ignore
+            }
+        }
+    }
+
+    /**
+     * Returns the message with the given sequence number, or null if it is not in the
+     * archive.
+     */
+    public LogCatMessage get(long sequence) throws IOException {
+        SegmentReader r;
+        synchronized (this) {
+            Segment s = findSegment(sequence);
+            if (s == null) {
+                return null;
+            }
+            r = openReader(s);
+        }
+        return r.read((int) (sequence - r.mFirstSequence));
+    }
+
+    /**
+     * Find the newest messages before a given one that are accepted by the required filters
+     * of a matcher. Messages can be added to the archive while it is searched.
+     * @param matcher matcher whose required filters the messages must match
+     * @param end one more than the sequence number of the newest message to look at
+     * @param maxMessages maximum number of messages to return
+     * @param maxScanned maximum number of messages to look at. Segments that are skipped
+     *            thanks to their summary do not count.
+     * @return the messages found, oldest first
+     */
+    Page findMessages(LogCatFilterMatcher matcher, long end, int maxMessages, int maxScanned)
+            throws IOException {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>();
+        List<Long> sequences = new ArrayList<Long>();
+        List<LogCatFilter> filters = matcher.getRequiredFilters();
+
+        Segment[] segments;
+        long scanStart;
+        synchronized (this) {
+            segments = mSegments.toArray(new Segment[mSegments.size()]);
+            scanStart = Math.min(end, getEndSequence());
+        }
+
+        int scanned = 0;
+        for (int i = segments.length - 1; i >= 0 && messages.size() < maxMessages
+                && scanned < maxScanned; i--) {
+            Segment s = segments[i];
+            if (s.mFirstSequence >= scanStart) {
+                continue;
+            }
+
+            SegmentReader r;
+            synchronized (this) {
+                if (!mSegments.contains(s)) {
+                    // deleted since the search started, as are the segments before it
+                    break;
+                }
+                r = mayMatch(s, filters) ? openReader(s) : null;
+            }
+            if (r == null) {
+                scanStart = s.mFirstSequence;
+                continue;
+            }
+
+            int index = (int) Math.min(scanStart - s.mFirstSequence, r.mCount);
+            while (index > 0 && messages.size() < maxMessages && scanned < maxScanned) {
+                index--;
+                scanned++;
+                LogCatMessage m = r.read(index);
+                if (matcher.isAccepted(matcher.match(m))) {
+                    messages.add(m);
+                    sequences.add(s.mFirstSequence + index);
+                }
+            }
+            scanStart = s.mFirstSequence + index;
+        }
+
+        Collections.reverse(messages);
+        Collections.reverse(sequences);
+        return new Page(messages, sequences, scanStart, scanStart <= getStartSequence());
+    }
+
+    /** Returns whether any message of a segment may be accepted by all the filters. */
+    private boolean mayMatch(Segment s, List<LogCatFilter> filters) throws IOException {
+        if (filters.isEmpty()) {
+            return true;
+        }
+
+        Summary summary = s.mSummary;
+        if (summary == null) {
+            try {
+                summary = readSummary(s.mSummaryFile);
+            } catch (IOException e) {
+                // cannot be read, e.g. deleted since the archive was opened: look at the
+                // messages instead
+                return true;
+            }
+        }
+        for (LogCatFilter f : filters) {
+            if (f.getLogLevel() != null
+                    && (summary.mLevels >>> f.getLogLevel().getPriority()) == 0) {
+                return false;
+            }
+            if (!f.getPid().isEmpty() && !summary.mPids.contains(f.getPid())) {
+                return false;
+            }
+            if (!mayMatch(summary.mAppNames, f.getAppName())
+                    || !mayMatch(summary.mTags, f.getTag())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static boolean mayMatch(Set<String> values, String regex) {
+        Pattern pattern = regex.isEmpty() ? null : LogCatFilterMatcher.compilePattern(regex);
+        if (pattern == null) {
+            return true;
+        }
+        for (String v : values) {
+            if (pattern.matcher(v).find()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Segment findSegment(long sequence) {
+        for (int i = mSegments.size() - 1; i >= 0; i--) {
+            Segment s = mSegments.get(i);
+            if (sequence >= s.mFirstSequence) {
+                return sequence < s.mFirstSequence + s.mCount ? s : null;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns a reader of the messages a segment has so far, which can be used without
+     * holding the lock of the archive.
+     */
+    private SegmentReader openReader(Segment s) throws IOException {
+        if (s.mOffsets != null) {
+            // Being written, or could not be finished: map what was written so far, and map it
+            // again only once more has been written. The offsets of the messages already added
+            // do not change.
+            if (s.mWritten == null || s.mWritten.capacity() < s.mSize) {
+                s.mWritten = map(s.mDataFile, s.mSize);
+            }
+            return new SegmentReader(s.mFirstSequence, s.mCount, s.mWritten, null, s.mOffsets);
+        }
+
+        if (s.mData == null) {
+            if (mMapped.size() == MAPPED_SEGMENTS) {
+                // drop the least recently used mapping; it is unmapped once it is collected
+                unmap(mMapped.keySet().iterator().next());
+            }
+            s.mData = map(s.mDataFile, s.mDataFile.length());
+            s.mIndex = map(s.mIndexFile, s.mIndexFile.length());
+        }
+        mMapped.put(s, Boolean.TRUE);
+        return new SegmentReader(s.mFirstSequence, s.mCount, s.mData, s.mIndex, null);
+    }
+
+    private void unmap(Segment s) {
+        s.mWritten = null;
+        s.mData = null;
+        s.mIndex = null;
+        mMapped.remove(s);
+    }
+
+    private Segment startSegment(long firstSequence) throws IOException {
+        Segment s = new Segment(mFolder, firstSequence);
+        s.startWriting(mSegmentMessages);
+        mSegments.add(s);
+        return s;
+    }
+
+    /** Writes the index and summary of a segment and closes its file. */
+    private void finishSegment(Segment s) throws IOException {
+        s.closeFile();
+        writeSummary(s.mSummaryFile, s.mSummary);
+        writeIndex(s.mIndexFile, s.mOffsets, s.mCount);
+        s.mOffsets = null;
+        s.mSummary = null;
+        s.mWritten = null;
+
+        s.mFileSize = s.mDataFile.length() + s.mIndexFile.length() + s.mSummaryFile.length();
+        mTotalSize += s.mFileSize - s.mSize;
+    }
+
+    /** Deletes the oldest segments until the rest fit in the maximum size. */
+    private void deleteOldSegments() {
+        while (mTotalSize > mMaxSize && mSegments.size() > 1) {
+            Segment s = mSegments.remove(0);
+            mTotalSize -= s.mFileSize;
+            // a file cannot be deleted while it is mapped on all platforms
+            unmap(s);
+            s.delete();
+        }
+    }
+
+    /**
+     * Rebuilds the index and summary of a segment from its data.
+     * @return number of messages in the segment
+     */
+    private static int recover(Segment s) throws IOException {
+        ByteBuffer data = map(s.mDataFile, s.mDataFile.length());
+        IntList offsets = new IntList();
+        Summary summary = new Summary();
+        while (data.hasRemaining()) {
+            int offset = data.position();
+            LogCatMessage m;
+            try {
+                m = decode(data);
+            } catch (RuntimeException e) {
+                // the last message was not completely written
+                break;
+            }
+            offsets.add(offset);
+            summary.add(m);
+        }
+
+        writeSummary(s.mSummaryFile, summary);
+        writeIndex(s.mIndexFile, offsets.toArray(), offsets.size());
+        return offsets.size();
+    }
+
+    private static long[] findSegments(File folder) {
+        List<Long> sequences = new ArrayList<Long>();
+        String[] names = folder.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.endsWith(DATA_SUFFIX)) {
+                    try {
+                        sequences.add(Long.parseLong(
+                                name.substring(0, name.length() - DATA_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // not a segment
+                    }
+                }
+            }
+        }
+
+        long[] result = new long[sequences.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = sequences.get(i);
+        }
+        Arrays.sort(result);
+        return result;
+    }
+
+    private static ByteBuffer map(File f, long size) throws IOException {
+        RandomAccessFile raf = new RandomAccessFile(f, "r"); //$NON-NLS-1$
+        try {
+            return raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, size);
+        } finally {
+            raf.close();
+        }
+    }
+
+    /**
+     * Returns the number of messages in the index of a segment, or -1 if its index or summary
+     * is missing, or its index does not have the offsets of as many messages as it says.
+     */
+    private static int readCount(Segment s) {
+        if (!s.mIndexFile.isFile() || !s.mSummaryFile.isFile()) {
+            return -1;
+        }
+
+        int count;
+        try {
+            DataInputStream in = new DataInputStream(new FileInputStream(s.mIndexFile));
+            try {
+                count = in.readInt();
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+        return s.mIndexFile.length() == 4 + 4L * count ? count : -1;
+    }
+
+    private static void writeIndex(File f, int[] offsets, int count) throws IOException {
+        File tempFile = new File(f.getPath() + TEMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(count);
+            for (int i = 0; i < count; i++) {
+                out.writeInt(offsets[i]);
+            }
+        } finally {
+            out.close();
+        }
+        rename(tempFile, f);
+    }
+
+    private static void writeSummary(File f, Summary summary) throws IOException {
+        File tempFile = new File(f.getPath() + TEMP_SUFFIX);
+        DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(new FileOutputStream(tempFile)));
+        try {
+            out.writeInt(summary.mLevels);
+            for (Set<String> values : summary.getSets()) {
+                out.writeInt(values.size());
+                for (String v : values) {
+                    out.writeUTF(v);
+                }
+            }
+        } finally {
+            out.close();
+        }
+        rename(tempFile, f);
+    }
+
+    /** Replaces a file with a completely written temporary file. */
+    private static void rename(File tempFile, File f) throws IOException {
+        if (!tempFile.renameTo(f)) {
+            // Windows does not replace existing files on rename.
+            f.delete();
+            if (!tempFile.renameTo(f)) {
+                tempFile.delete();
+                throw new IOException("Unable to create " + f);
+            }
+        }
+    }
+
+    private static Summary readSummary(File f) throws IOException {
+        DataInputStream in = new DataInputStream(
+                new BufferedInputStream(new FileInputStream(f)));
+        try {
+            Summary summary = new Summary();
+            summary.mLevels = in.readInt();
+            for (Set<String> values : summary.getSets()) {
+                int n = in.readInt();
+                for (int i = 0; i < n; i++) {
+                    values.add(in.readUTF());
+                }
+            }
+            return summary;
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Decodes the message at the position of the buffer, and moves the position past it.
+     * A message is its priority, followed by its pid, tid, application name, tag, time and
+     * text, each as a varint length and the UTF-8 bytes of the string.
+     */
+    private static LogCatMessage decode(ByteBuffer data) {
+        int priority = data.get();
+        LogLevel level = LogLevel.VERBOSE;
+        for (LogLevel l : LogLevel.values()) {
+            if (l.getPriority() == priority) {
+                level = l;
+            }
+        }
+        String pid = decodeString(data);
+        String tid = decodeString(data);
+        String appName = decodeString(data);
+        String tag = decodeString(data);
+        String time = decodeString(data);
+        String text = decodeString(data);
+        return new LogCatMessage(level, pid, tid, appName, tag, time, text);
+    }
+
+    private static String decodeString(ByteBuffer data) {
+        int length = 0;
+        for (int shift = 0; ; shift += 7) {
+            byte b = data.get();
+            length |= (b & 0x7f) << shift;
+            if (b >= 0) {
+                break;
+            }
+        }
+        if (length > data.remaining()) {
+            throw new IllegalStateException("Truncated logcat archive message");
+        }
+
+        byte[] bytes = new byte[length];
+        data.get(bytes);
+        return new String(bytes, UTF_8);
+    }
+
+    /** Encodes messages, one at a time, in a buffer that is reused. */
+    private static final class Encoder {
+        private byte[] mBytes = new byte[1024];
+        private int mLength;
+
+        void encode(LogCatMessage m) {
+            mLength = 0;
+            ensureSpace(1);
+            mBytes[mLength++] = (byte) m.getLogLevel().getPriority();
+            encode(m.getPid());
+            encode(m.getTid());
+            encode(m.getAppName());
+            encode(m.getTag());
+            encode(m.getTime());
+            encode(m.getMessage());
+        }
+
+        private void encode(String s) {
+            byte[] bytes = s.getBytes(UTF_8);
+            ensureSpace(5 + bytes.length);
+            int length = bytes.length;
+            while (length >= 0x80) {
+                mBytes[mLength++] = (byte) (length | 0x80);
+                length >>>= 7;
+            }
+            mBytes[mLength++] = (byte) length;
+            System.arraycopy(bytes, 0, mBytes, mLength, bytes.length);
+            mLength += bytes.length;
+        }
+
+        private void ensureSpace(int n) {
+            if (mLength + n > mBytes.length) {
+                mBytes = Arrays.copyOf(mBytes, Math.max(mBytes.length * 2, mLength + n));
+            }
+        }
+    }
+
+    /** The pids, application names, tags and log levels of the messages of a segment. */
+    private static final class Summary {
+        // bit p is set if there is a message of priority p
+        int mLevels;
+        final Set<String> mPids = new HashSet<String>();
+        final Set<String> mAppNames = new HashSet<String>();
+        final Set<String> mTags = new HashSet<String>();
+
+        void add(LogCatMessage m) {
+            mLevels |= 1 << m.getLogLevel().getPriority();
+            mPids.add(m.getPid());
+            mAppNames.add(m.getAppName());
+            mTags.add(m.getTag());
+        }
+
+        List<Set<String>> getSets() {
+            return Arrays.asList(mPids, mAppNames, mTags);
+        }
+    }
+
+    /** A segment of the archive, named after the sequence number of its first message. */
+    private static final class Segment {
+        final long mFirstSequence;
+        final File mDataFile;
+        final File mIndexFile;
+        final File mSummaryFile;
+        int mCount;
+        long mFileSize;
+
+        // while the segment is written
+        FileChannel mChannel;
+        int mSize;
+        int[] mOffsets;
+        Summary mSummary;
+        ByteBuffer mPending;
+        ByteBuffer mWritten; // mapping of what was written, once read
+
+        // once the segment is closed, while it is mapped
+        ByteBuffer mData;
+        ByteBuffer mIndex;
+
+        Segment(File folder, long firstSequence) {
+            mFirstSequence = firstSequence;
+            String name = String.format("%019d", firstSequence); //$NON-NLS-1$
+            mDataFile = new File(folder, name + DATA_SUFFIX);
+            mIndexFile = new File(folder, name + INDEX_SUFFIX);
+            mSummaryFile = new File(folder, name + SUMMARY_SUFFIX);
+        }
+
+        void startWriting(int maxMessages) throws IOException {
+            mChannel = new RandomAccessFile(mDataFile, "rw").getChannel(); //$NON-NLS-1$
+            mChannel.truncate(0);
+            mOffsets = new int[maxMessages];
+            mSummary = new Summary();
+            mPending = ByteBuffer.allocate(64 * 1024);
+        }
+
+        void append(Encoder encoder, LogCatMessage m) throws IOException {
+            if (encoder.mLength > mPending.remaining()) {
+                flush();
+            }
+            if (encoder.mLength > mPending.capacity()) {
+                write(ByteBuffer.wrap(encoder.mBytes, 0, encoder.mLength));
+            } else {
+                mPending.put(encoder.mBytes, 0, encoder.mLength);
+            }
+
+            mOffsets[mCount++] = mSize;
+            mSize += encoder.mLength;
+            mSummary.add(m);
+        }
+
+        /** Writes the messages appended so far to the file, so that they can be read. */
+        void flush() throws IOException {
+            mPending.flip();
+            write(mPending);
+            mPending.clear();
+        }
+
+        private void write(ByteBuffer b) throws IOException {
+            long position = mChannel.size();
+            while (b.hasRemaining()) {
+                position += mChannel.write(b, position);
+            }
+        }
+
+        void delete() {
+            // try all the files, even if one cannot be deleted
+            boolean deleted = mDataFile.delete();
+            deleted &= mIndexFile.delete();
+            deleted &= mSummaryFile.delete();
+            if (!deleted) {
+                Log.w("Logcat", "Unable to delete logcat archive segment " + mDataFile);
+            }
+        }
+
+        void closeFile() throws IOException {
+            if (mChannel != null) {
+                try {
+                    flush();
+                } finally {
+                    mChannel.close();
+                    mChannel = null;
+                    mPending = null;
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the messages of a segment from its mapped data, looking their offsets up either in
+     * its mapped index or, while the segment is written, in the offsets kept on the heap.
+     */
+    private static final class SegmentReader {
+        final long mFirstSequence;
+        final int mCount;
+        private final ByteBuffer mData;
+        private final ByteBuffer mIndex;
+        private final int[] mOffsets;
+
+        SegmentReader(long firstSequence, int count, ByteBuffer data, ByteBuffer index,
+                int[] offsets) {
+            mFirstSequence = firstSequence;
+            mCount = count;
+            mData = data.duplicate();
+            mIndex = index;
+            mOffsets = offsets;
+        }
+
+        LogCatMessage read(int index) {
+            int offset = mOffsets != null ? mOffsets[index] : mIndex.getInt(4 + 4 * index);
+            mData.position(offset);
+            return decode(mData);
+        }
+    }
+
+    /** A page of messages found in the archive. */
+    static final class Page {
+        private final List<LogCatMessage> mMessages;
+        private final List<Long> mSequences;
+        private final long mScanStart;
+        private final boolean mAtStart;
+
+        private Page(List<LogCatMessage> messages, List<Long> sequences, long scanStart,
+                boolean atStart) {
+            mMessages = messages;
+            mSequences = sequences;
+            mScanStart = scanStart;
+            mAtStart = atStart;
+        }
+
+        /** Returns the messages found, oldest first. */
+        public List<LogCatMessage> getMessages() {
+            return mMessages;
+        }
+
+        /** Returns the sequence number of a message of the page. */
+        public long getSequence(int index) {
+            return mSequences.get(index);
+        }
+
+        /**
+         * Returns the sequence number of the oldest message that was looked at. The next
+         * page ends there.
+         */
+        public long getScanStart() {
+            return mScanStart;
+        }
+
+        /** Returns whether the search reached the oldest message in the archive. */
+        public boolean isAtStart() {
+            return mAtStart;
+        }
+    }
+
+    /** A growing list of ints. */
+    private static final class IntList {
+        private int[] mValues = new int[1024];
+        private int mSize;
+
+        void add(int value) {
+            if (mSize == mValues.length) {
+                mValues = Arrays.copyOf(mValues, mSize * 2);
+            }
+            mValues[mSize++] = value;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        int[] toArray() {
+            return mValues;
+        }
+    }
+}
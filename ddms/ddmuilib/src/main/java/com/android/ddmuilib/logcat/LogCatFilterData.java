@@ -56,6 +56,15 @@ public class LogCatFilterData {
         }
     }
 
+    /**
+     * Increment the unread count by the number of new messages that were found to be
+     * accepted by this filter.
+     * @param count number of new messages accepted by this filter
+     */
+    public void addUnreadCount(int count) {
+        mUnreadCount += count;
+    }
+
     /**
      * Reset count of unread messages.
      */
@@ -0,0 +1,429 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatFilter;
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Matches a message against a number of {@link LogCatFilter}s at once.
+ *
+ * The filters are compiled together: their log levels and pids are turned
+ * into sets of filters that are looked up once per message, filters that
+ * use the same pattern share it, and the patterns that are plain strings
+ * are found together in a single pass over each field of the message.
+ * Only the patterns that are real regexes are run one by one, and only for
+ * the filters that the other checks have not already ruled out.  A message
+ * matches a filter exactly when {@link LogCatFilter#matches} would say so.
+ *
+ * The matcher does not change once it is built, so it can be used from any
+ * thread.
+ */
+final class LogCatFilterMatcher {
+    private final LogCatFilter[] mFilters;
+    private final int mFilterCount;
+
+    // the filters appended after the first mFilterCount, which a message must match to be accepted
+    private final BitSet mRequired = new BitSet();
+
+    // mLevelFilters[p] is the filters that accept messages of priority p
+    private final BitSet[] mLevelFilters;
+
+    private final BitSet mPidFilters = new BitSet();
+    private final Map<String, BitSet> mFiltersByPid = new HashMap<String, BitSet>();
+
+    private final FieldMatcher mAppNames = new FieldMatcher();
+    private final FieldMatcher mTags = new FieldMatcher();
+    private final FieldMatcher mTexts = new FieldMatcher();
+
+    /**
+     * Compile a matcher.
+     * @param filters filters whose matches are reported by {@link #match}
+     * @param requiredFilters filters that a message must all match to be accepted by
+     *            {@link #isAccepted}. They are numbered after the other filters.
+     */
+    LogCatFilterMatcher(List<LogCatFilter> filters, List<LogCatFilter> requiredFilters) {
+        mFilterCount = filters.size();
+        mFilters = new LogCatFilter[filters.size() + requiredFilters.size()];
+        for (int i = 0; i < mFilters.length; i++) {
+            mFilters[i] = i < mFilterCount ? filters.get(i) : requiredFilters.get(i - mFilterCount);
+        }
+        mRequired.set(mFilterCount, mFilters.length);
+
+        int maxPriority = 0;
+        for (LogLevel l : LogLevel.values()) {
+            maxPriority = Math.max(maxPriority, l.getPriority());
+        }
+        mLevelFilters = new BitSet[maxPriority + 1];
+        for (int p = 0; p < mLevelFilters.length; p++) {
+            mLevelFilters[p] = new BitSet();
+        }
+
+        for (int i = 0; i < mFilters.length; i++) {
+            LogCatFilter f = mFilters[i];
+
+            int minPriority = f.getLogLevel() == null ? 0 : f.getLogLevel().getPriority();
+            for (int p = minPriority; p < mLevelFilters.length; p++) {
+                mLevelFilters[p].set(i);
+            }
+
+            if (!f.getPid().isEmpty()) {
+                mPidFilters.set(i);
+                BitSet sameFilters = mFiltersByPid.get(f.getPid());
+                if (sameFilters == null) {
+                    sameFilters = new BitSet();
+                    mFiltersByPid.put(f.getPid(), sameFilters);
+                }
+                sameFilters.set(i);
+            }
+
+            mAppNames.add(f.getAppName(), i);
+            mTags.add(f.getTag(), i);
+            mTexts.add(f.getText(), i);
+        }
+
+        mAppNames.compile();
+        mTags.compile();
+        mTexts.compile();
+    }
+
+    /** Returns the number of filters reported by {@link #match}, not counting the required ones. */
+    int getFilterCount() {
+        return mFilterCount;
+    }
+
+    LogCatFilter getFilter(int index) {
+        return mFilters[index];
+    }
+
+    /** Returns the filters that a message must all match to be accepted. */
+    List<LogCatFilter> getRequiredFilters() {
+        return Arrays.asList(mFilters).subList(mFilterCount, mFilters.length);
+    }
+
+    /**
+     * Returns the indices of the filters that accept a message, including the required
+     * filters.
+     */
+    BitSet match(LogCatMessage m) {
+        int priority = Math.min(m.getLogLevel().getPriority(), mLevelFilters.length - 1);
+        BitSet matches = (BitSet) mLevelFilters[priority].clone();
+
+        if (!mPidFilters.isEmpty()) {
+            BitSet otherPids = (BitSet) mPidFilters.clone();
+            BitSet samePid = mFiltersByPid.get(m.getPid());
+            if (samePid != null) {
+                otherPids.andNot(samePid);
+            }
+            matches.andNot(otherPids);
+        }
+
+        mAppNames.match(m.getAppName(), matches);
+        mTags.match(m.getTag(), matches);
+        mTexts.match(m.getMessage(), matches);
+        return matches;
+    }
+
+    /** Returns whether the given matches include all the required filters. */
+    boolean isAccepted(BitSet matches) {
+        for (int i = mRequired.nextSetBit(0); i >= 0; i = mRequired.nextSetBit(i + 1)) {
+            if (!matches.get(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Compiles the regex of a field of a filter the way {@link LogCatFilter} does: it is case
+     * insensitive unless it contains an upper case character.
+     * @return the pattern, or null if the regex is invalid, in which case the filter does not
+     *         check the field
+     */
+    static Pattern compilePattern(String regex) {
+        try {
+            return Pattern.compile(regex, isCaseSensitive(regex) ? 0 : Pattern.CASE_INSENSITIVE);
+        } catch (PatternSyntaxException e) {
+            return null;
+        }
+    }
+
+    private static boolean isCaseSensitive(String regex) {
+        for (char c : regex.toCharArray()) {
+            if (Character.isUpperCase(c)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the string matched by a regex, if all it matches is that string, or null if
+     * it uses any regex construct other than escaping a punctuation character.
+     */
+    static String getLiteral(String regex) {
+        StringBuilder sb = new StringBuilder(regex.length());
+        for (int i = 0; i < regex.length(); i++) {
+            char c = regex.charAt(i);
+            if (c == '\\') {
+                if (i + 1 == regex.length() || Character.isLetterOrDigit(regex.charAt(i + 1))) {
+                    return null;
+                }
+                sb.append(regex.charAt(++i));
+            } else if (".^$|?*+()[]{}".indexOf(c) >= 0) { //$NON-NLS-1$
+                return null;
+            } else {
+                sb.append(c);
+            }
+        }
+        return sb.toString();
+    }
+
+    /** Folds the ASCII letters to lower case, as {@link Pattern#CASE_INSENSITIVE} does. */
+    static char foldCase(char c) {
+        return c >= 'A' && c <= 'Z' ? (char) (c + ('a' - 'A')) : c;
+    }
+
+    /** The patterns of all the filters for one field of the message. */
+    private static class FieldMatcher {
+        // filters that use each pattern, by pattern
+        private final Map<String, BitSet> mFiltersByPattern = new LinkedHashMap<String, BitSet>();
+
+        private final List<Pattern> mRegexes = new ArrayList<Pattern>();
+        private final List<BitSet> mRegexFilters = new ArrayList<BitSet>();
+        private LiteralMatcher mLiterals;
+        private LiteralMatcher mFoldedLiterals;
+
+        void add(String regex, int filter) {
+            if (regex.isEmpty()) {
+                return;
+            }
+
+            BitSet filters = mFiltersByPattern.get(regex);
+            if (filters == null) {
+                filters = new BitSet();
+                mFiltersByPattern.put(regex, filters);
+            }
+            filters.set(filter);
+        }
+
+        void compile() {
+            List<String> literals = new ArrayList<String>();
+            List<BitSet> literalFilters = new ArrayList<BitSet>();
+            List<String> foldedLiterals = new ArrayList<String>();
+            List<BitSet> foldedLiteralFilters = new ArrayList<BitSet>();
+
+            for (Map.Entry<String, BitSet> e : mFiltersByPattern.entrySet()) {
+                String regex = e.getKey();
+                boolean caseSensitive = isCaseSensitive(regex);
+                String literal = getLiteral(regex);
+                if (literal == null) {
+                    // as with LogCatFilter, the field is not checked if its regex is invalid
+                    Pattern pattern = compilePattern(regex);
+                    if (pattern != null) {
+                        mRegexes.add(pattern);
+                        mRegexFilters.add(e.getValue());
+                    }
+                } else if (caseSensitive) {
+                    literals.add(literal);
+                    literalFilters.add(e.getValue());
+                } else {
+                    foldedLiterals.add(literal);
+                    foldedLiteralFilters.add(e.getValue());
+                }
+            }
+
+            if (!literals.isEmpty()) {
+                mLiterals = new LiteralMatcher(literals, literalFilters, false);
+            }
+            if (!foldedLiterals.isEmpty()) {
+                mFoldedLiterals = new LiteralMatcher(foldedLiterals, foldedLiteralFilters, true);
+            }
+        }
+
+        /** Removes the filters whose pattern does not match the text from the matches. */
+        void match(String text, BitSet matches) {
+            if (mLiterals != null) {
+                mLiterals.match(text, matches);
+            }
+            if (mFoldedLiterals != null) {
+                mFoldedLiterals.match(text, matches);
+            }
+
+            for (int i = 0; i < mRegexes.size(); i++) {
+                BitSet filters = mRegexFilters.get(i);
+                if (filters.intersects(matches) && !mRegexes.get(i).matcher(text).find()) {
+                    matches.andNot(filters);
+                }
+            }
+        }
+    }
+
+    /**
+     * Finds any number of strings in a text in a single pass over it, with an Aho-Corasick
+     * automaton.
+     */
+    private static class LiteralMatcher {
+        private final boolean mFoldCase;
+
+        // filters that use each string, and all of them together
+        private final BitSet[] mFilters;
+        private final BitSet mAllFilters = new BitSet();
+
+        // the states of the automaton: the trie of the strings, where state 0 is the root.
+        // mLabels[s] is sorted, and mTargets[s][i] is the state reached from s by mLabels[s][i].
+        private char[][] mLabels;
+        private int[][] mTargets;
+        private int[] mFailures;
+        // strings that end at each state, including those that end at its failure states
+        private int[][] mOutputs;
+
+        LiteralMatcher(List<String> strings, List<BitSet> filters, boolean foldCase) {
+            mFoldCase = foldCase;
+            mFilters = filters.toArray(new BitSet[filters.size()]);
+            for (BitSet f : mFilters) {
+                mAllFilters.or(f);
+            }
+            build(strings);
+        }
+
+        private void build(List<String> strings) {
+            List<Map<Character, Integer>> edges = new ArrayList<Map<Character, Integer>>();
+            List<List<Integer>> ends = new ArrayList<List<Integer>>();
+            edges.add(new HashMap<Character, Integer>());
+            ends.add(new ArrayList<Integer>());
+
+            for (int i = 0; i < strings.size(); i++) {
+                int state = 0;
+                for (char c : strings.get(i).toCharArray()) {
+                    Integer next = edges.get(state).get(c);
+                    if (next == null) {
+                        next = edges.size();
+                        edges.add(new HashMap<Character, Integer>());
+                        ends.add(new ArrayList<Integer>());
+                        edges.get(state).put(c, next);
+                    }
+                    state = next;
+                }
+                ends.get(state).add(i);
+            }
+
+            int n = edges.size();
+            mLabels = new char[n][];
+            mTargets = new int[n][];
+            for (int s = 0; s < n; s++) {
+                Character[] labels = edges.get(s).keySet().toArray(new Character[0]);
+                Arrays.sort(labels);
+                mLabels[s] = new char[labels.length];
+                mTargets[s] = new int[labels.length];
+                for (int i = 0; i < labels.length; i++) {
+                    mLabels[s][i] = labels[i];
+                    mTargets[s][i] = edges.get(s).get(labels[i]);
+                }
+            }
+
+            // The failure state of each state is the longest proper suffix of its string that
+            // is also in the trie. The states are visited breadth first, so that the failure
+            // state of each state is done before it.
+            mFailures = new int[n];
+            mOutputs = new int[n][];
+            mOutputs[0] = toArray(ends.get(0));
+            int[] queue = new int[n];
+            int head = 0;
+            int tail = 0;
+            for (int target : mTargets[0]) {
+                queue[tail++] = target;
+            }
+            while (head < tail) {
+                int s = queue[head++];
+                List<Integer> outputs = ends.get(s);
+                for (int o : mOutputs[mFailures[s]]) {
+                    outputs.add(o);
+                }
+                mOutputs[s] = toArray(outputs);
+
+                for (int i = 0; i < mLabels[s].length; i++) {
+                    int target = mTargets[s][i];
+                    if (s != 0) {
+                        mFailures[target] = step(mFailures[s], mLabels[s][i]);
+                    }
+                    queue[tail++] = target;
+                }
+            }
+        }
+
+        /** Removes the filters whose string is not in the text from the matches. */
+        void match(String text, BitSet matches) {
+            if (!mAllFilters.intersects(matches)) {
+                return;
+            }
+
+            boolean[] found = new boolean[mFilters.length];
+            int foundCount = 0;
+            int state = 0;
+            for (int i = 0; i < text.length() && foundCount < found.length; i++) {
+                char c = text.charAt(i);
+                state = step(state, mFoldCase ? foldCase(c) : c);
+                for (int o : mOutputs[state]) {
+                    if (!found[o]) {
+                        found[o] = true;
+                        foundCount++;
+                    }
+                }
+            }
+
+            for (int i = 0; i < found.length; i++) {
+                if (!found[i]) {
+                    matches.andNot(mFilters[i]);
+                }
+            }
+        }
+
+        /** Returns the state reached from a state by a character. */
+        private int step(int state, char c) {
+            while (true) {
+                int i = Arrays.binarySearch(mLabels[state], c);
+                if (i >= 0) {
+                    return mTargets[state][i];
+                }
+                if (state == 0) {
+                    return 0;
+                }
+                state = mFailures[state];
+            }
+        }
+
+        private static int[] toArray(List<Integer> list) {
+            int[] a = new int[list.size()];
+            for (int i = 0; i < a.length; i++) {
+                a[i] = list.get(i);
+            }
+            return a;
+        }
+    }
+}
@@ -0,0 +1,535 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatFilter;
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Pattern;
+
+/**
+ * Indexes of the messages of a {@link LogCatMessageList}, used to find the
+ * messages that a filter may accept without going through all of them.
+ *
+ * For each pid, application name, tag and log level, and for each word of
+ * the message text, the index keeps the sequence numbers of the messages
+ * that have it, in increasing order.  A filter is answered by intersecting
+ * these lists: the application name and tag regexes of the filter are run
+ * once per distinct value rather than once per message, and a text regex
+ * that is a plain string narrows the messages down to those that have its
+ * words.  Words are runs of letters, compared with the ASCII letters folded
+ * to lower case.
+ *
+ * Messages that are pushed out of the list are dropped from the index as
+ * it goes, a few lists at a time.
+ *
+ * Messages are added and the index cleared by a single thread at a time,
+ * the writer, but the index is searched without any lock, like the list
+ * itself.  The lists of sequence numbers are only read through immutable
+ * views, which the writer publishes once it has added a batch of messages:
+ * the writer never changes the sequence numbers of a view, it copies them
+ * to a new array when the list has to grow or be compacted.
+ */
+final class LogCatMessageIndex {
+    private final Map<String, SequenceList> mPids =
+            new ConcurrentHashMap<String, SequenceList>();
+    private final Map<String, SequenceList> mAppNames =
+            new ConcurrentHashMap<String, SequenceList>();
+    private final Map<String, SequenceList> mTags =
+            new ConcurrentHashMap<String, SequenceList>();
+    private final Map<String, SequenceList> mWords =
+            new ConcurrentHashMap<String, SequenceList>();
+    private final SequenceList[] mLevels;
+    private final int mMinPriority;
+
+    // Only used by the writer: the lists changed since they were last published, and the
+    // number of messages added since the lists were last trimmed.
+    private final List<SequenceList> mChanged = new ArrayList<SequenceList>();
+    private int mAddedSinceTrim;
+
+    LogCatMessageIndex() {
+        int minPriority = Integer.MAX_VALUE;
+        int maxPriority = 0;
+        for (LogLevel l : LogLevel.values()) {
+            minPriority = Math.min(minPriority, l.getPriority());
+            maxPriority = Math.max(maxPriority, l.getPriority());
+        }
+        mMinPriority = minPriority;
+        mLevels = new SequenceList[maxPriority + 1];
+        for (int p = 0; p < mLevels.length; p++) {
+            mLevels[p] = new SequenceList();
+        }
+    }
+
+    /**
+     * Add a message to the index. It is only found once the index is published.
+     * @param sequence sequence number of the message
+     * @param m the message
+     * @param start sequence number of the first message still in the list
+     */
+    void add(long sequence, LogCatMessage m, long start) {
+        add(mPids, m.getPid(), sequence);
+        add(mAppNames, m.getAppName(), sequence);
+        add(mTags, m.getTag(), sequence);
+        add(mLevels[Math.min(m.getLogLevel().getPriority(), mLevels.length - 1)], sequence);
+
+        String text = m.getMessage();
+        int i = 0;
+        while (i < text.length()) {
+            if (!Character.isLetter(text.charAt(i))) {
+                i++;
+                continue;
+            }
+            int end = getWordEnd(text, i);
+            add(mWords, foldCase(text.substring(i, end)), sequence);
+            i = end;
+        }
+
+        // Trimming all the lists costs about as much as the messages in the list, so it is
+        // done once for as many messages added.
+        if (++mAddedSinceTrim > Math.max(sequence - start, 1024)) {
+            trim(start);
+        }
+    }
+
+    /** Publish the messages added so far, so that they can be found. */
+    void publish() {
+        for (SequenceList l : mChanged) {
+            l.publish();
+        }
+        mChanged.clear();
+    }
+
+    void clear() {
+        mPids.clear();
+        mAppNames.clear();
+        mTags.clear();
+        mWords.clear();
+        for (SequenceList l : mLevels) {
+            l.clear();
+            l.publish();
+        }
+        mChanged.clear();
+        mAddedSinceTrim = 0;
+    }
+
+    /**
+     * Find the messages that may be accepted by all the given filters.
+     * @param filters filters that the messages must all match
+     * @param start sequence number of the first message to consider
+     * @param end one more than the sequence number of the last message to consider
+     * @return the candidate messages
+     */
+    Candidates find(List<LogCatFilter> filters, long start, long end) {
+        long[] sequences = null;
+        boolean exact = true;
+
+        for (LogCatFilter f : filters) {
+            LogLevel level = f.getLogLevel();
+            if (level != null && level.getPriority() > mMinPriority) {
+                List<SequenceList> lists = new ArrayList<SequenceList>();
+                for (int p = level.getPriority(); p < mLevels.length; p++) {
+                    lists.add(mLevels[p]);
+                }
+                sequences = intersect(sequences, union(lists, start, end));
+            }
+
+            if (!f.getPid().isEmpty()) {
+                SequenceList l = mPids.get(f.getPid());
+                sequences = intersect(sequences,
+                        l == null ? new long[0] : l.toArray(start, end));
+            }
+
+            sequences = intersect(sequences, findValues(mAppNames, f.getAppName(), start, end));
+            sequences = intersect(sequences, findValues(mTags, f.getTag(), start, end));
+
+            if (!f.getText().isEmpty() && LogCatFilterMatcher.compilePattern(f.getText()) != null) {
+                exact = false;
+                String literal = LogCatFilterMatcher.getLiteral(f.getText());
+                if (literal != null) {
+                    sequences = intersect(sequences, findLiteral(literal, start, end));
+                }
+            }
+        }
+
+        return new Candidates(sequences, start, end, exact);
+    }
+
+    /**
+     * Returns the messages whose value matches the given regex, or null if the regex does not
+     * restrict the messages.
+     */
+    private static long[] findValues(Map<String, SequenceList> index, String regex, long start,
+            long end) {
+        if (regex.isEmpty()) {
+            return null;
+        }
+        Pattern pattern = LogCatFilterMatcher.compilePattern(regex);
+        if (pattern == null) {
+            return null;
+        }
+
+        List<SequenceList> lists = new ArrayList<SequenceList>();
+        for (Map.Entry<String, SequenceList> e : index.entrySet()) {
+            if (pattern.matcher(e.getKey()).find()) {
+                lists.add(e.getValue());
+            }
+        }
+        return union(lists, start, end);
+    }
+
+    /**
+     * Returns the messages whose text may contain the given string, or null if the words of
+     * the string do not restrict the messages.
+     */
+    private long[] findLiteral(String literal, long start, long end) {
+        String s = foldCase(literal);
+        long[] sequences = null;
+
+        int i = 0;
+        while (i < s.length()) {
+            if (!Character.isLetter(s.charAt(i))) {
+                i++;
+                continue;
+            }
+            int wordEnd = getWordEnd(s, i);
+            String word = s.substring(i, wordEnd);
+
+            // A word inside the string is a whole word of the text. A word at either end of
+            // the string may be the end of a longer word of the text.
+            boolean atStart = i == 0;
+            boolean atEnd = wordEnd == s.length();
+            if (!atStart && !atEnd) {
+                SequenceList l = mWords.get(word);
+                sequences = intersect(sequences, l == null ? new long[0] : l.toArray(start, end));
+            } else {
+                List<SequenceList> lists = new ArrayList<SequenceList>();
+                for (Map.Entry<String, SequenceList> e : mWords.entrySet()) {
+                    String w = e.getKey();
+                    if ((atStart && atEnd && w.contains(word))
+                            || (atStart && !atEnd && w.endsWith(word))
+                            || (!atStart && atEnd && w.startsWith(word))) {
+                        lists.add(e.getValue());
+                    }
+                }
+                sequences = intersect(sequences, union(lists, start, end));
+            }
+            i = wordEnd;
+        }
+        return sequences;
+    }
+
+    private void trim(long start) {
+        trim(mPids, start);
+        trim(mAppNames, start);
+        trim(mTags, start);
+        trim(mWords, start);
+        for (SequenceList l : mLevels) {
+            trim(l, start);
+        }
+        mAddedSinceTrim = 0;
+    }
+
+    private void trim(Map<String, SequenceList> index, long start) {
+        Iterator<SequenceList> it = index.values().iterator();
+        while (it.hasNext()) {
+            SequenceList l = it.next();
+            trim(l, start);
+            if (l.isEmpty()) {
+                it.remove();
+            }
+        }
+    }
+
+    private void trim(SequenceList l, long start) {
+        if (l.trim(start)) {
+            mChanged.add(l);
+        }
+    }
+
+    private void add(Map<String, SequenceList> index, String key, long sequence) {
+        SequenceList l = index.get(key);
+        if (l == null) {
+            l = new SequenceList();
+            index.put(key, l);
+        }
+        add(l, sequence);
+    }
+
+    private void add(SequenceList l, long sequence) {
+        if (l.add(sequence)) {
+            mChanged.add(l);
+        }
+    }
+
+    private static int getWordEnd(String s, int start) {
+        int end = start;
+        while (end < s.length() && Character.isLetter(s.charAt(end))) {
+            end++;
+        }
+        return end;
+    }
+
+    private static String foldCase(String s) {
+        char[] chars = s.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            chars[i] = LogCatFilterMatcher.foldCase(chars[i]);
+        }
+        return new String(chars);
+    }
+
+    /** Returns the sequence numbers in both a and b, where null stands for all of them. */
+    private static long[] intersect(long[] a, long[] b) {
+        if (a == null) {
+            return b;
+        } else if (b == null) {
+            return a;
+        }
+
+        long[] result = new long[Math.min(a.length, b.length)];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length && j < b.length) {
+            if (a[i] < b[j]) {
+                i++;
+            } else if (a[i] > b[j]) {
+                j++;
+            } else {
+                result[n++] = a[i];
+                i++;
+                j++;
+            }
+        }
+        return trimArray(result, n);
+    }
+
+    /** Returns the sequence numbers between start and end that are in any of the lists. */
+    private static long[] union(List<SequenceList> lists, long start, long end) {
+        List<long[]> arrays = new ArrayList<long[]>(lists.size());
+        for (SequenceList l : lists) {
+            arrays.add(l.toArray(start, end));
+        }
+        if (arrays.isEmpty()) {
+            return new long[0];
+        }
+
+        // merge the arrays two by two, so that each sequence number is merged log(n) times
+        while (arrays.size() > 1) {
+            List<long[]> merged = new ArrayList<long[]>((arrays.size() + 1) / 2);
+            for (int i = 0; i + 1 < arrays.size(); i += 2) {
+                merged.add(merge(arrays.get(i), arrays.get(i + 1)));
+            }
+            if (arrays.size() % 2 == 1) {
+                merged.add(arrays.get(arrays.size() - 1));
+            }
+            arrays = merged;
+        }
+        return arrays.get(0);
+    }
+
+    private static long[] merge(long[] a, long[] b) {
+        long[] result = new long[a.length + b.length];
+        int n = 0;
+        int i = 0;
+        int j = 0;
+        while (i < a.length || j < b.length) {
+            if (j == b.length || (i < a.length && a[i] < b[j])) {
+                result[n++] = a[i++];
+            } else if (i == a.length || b[j] < a[i]) {
+                result[n++] = b[j++];
+            } else {
+                result[n++] = a[i++];
+                j++;
+            }
+        }
+        return trimArray(result, n);
+    }
+
+    private static long[] trimArray(long[] a, int length) {
+        if (length == a.length) {
+            return a;
+        }
+        long[] result = new long[length];
+        System.arraycopy(a, 0, result, 0, length);
+        return result;
+    }
+
+    /**
+     * The messages that may be accepted by a set of filters. If the candidates are exact,
+     * they are exactly the messages accepted by the filters, otherwise each of them still
+     * has to be matched against the filters.
+     */
+    static final class Candidates {
+        private final long[] mSequences;
+        private final long mStart;
+        private final long mEnd;
+        private final boolean mExact;
+
+        private Candidates(long[] sequences, long start, long end, boolean exact) {
+            mSequences = sequences;
+            mStart = start;
+            mEnd = end;
+            mExact = exact;
+        }
+
+        boolean isExact() {
+            return mExact;
+        }
+
+        int size() {
+            return mSequences == null ? (int) (mEnd - mStart) : mSequences.length;
+        }
+
+        /** Returns the sequence number of the candidate at the given index. */
+        long getSequence(int index) {
+            return mSequences == null ? mStart + index : mSequences[index];
+        }
+    }
+
+    /**
+     * A growing list of increasing sequence numbers, which can be trimmed from the start. The
+     * writer changes the list, and readers read the view it last published.
+     */
+    private static final class SequenceList {
+        private static final View EMPTY = new View(new long[0], 0, 0);
+
+        // The sequence numbers of the list are mSequences[mStart..mEnd). The numbers before
+        // mEnd are never changed once they are added, so a view can share the array.
+        private long[] mSequences = new long[4];
+        private int mStart;
+        private int mEnd;
+        private boolean mChanged;
+
+        private volatile View mView = EMPTY;
+
+        /**
+         * Adds a sequence number to the list.
+         * @return true if this is the first change since the list was last published
+         */
+        boolean add(long sequence) {
+            // a word may be in a message more than once
+            if (mEnd > mStart && mSequences[mEnd - 1] == sequence) {
+                return false;
+            }
+            if (mEnd == mSequences.length) {
+                // always copy, as the array may be shared with a view
+                int count = mEnd - mStart;
+                long[] sequences = new long[Math.max(count * 2, 4)];
+                System.arraycopy(mSequences, mStart, sequences, 0, count);
+                mSequences = sequences;
+                mStart = 0;
+                mEnd = count;
+            }
+            mSequences[mEnd++] = sequence;
+            return setChanged();
+        }
+
+        /**
+         * Drops the sequence numbers before start.
+         * @return true if this is the first change since the list was last published
+         */
+        boolean trim(long start) {
+            int from = indexOf(mSequences, mStart, mEnd, start);
+            if (from == mStart) {
+                return false;
+            }
+            mStart = from;
+            if (mStart == mEnd) {
+                reset();
+            } else if (mEnd - mStart < mSequences.length / 4 && mSequences.length > 4) {
+                long[] sequences = new long[Math.max((mEnd - mStart) * 2, 4)];
+                System.arraycopy(mSequences, mStart, sequences, 0, mEnd - mStart);
+                mSequences = sequences;
+                mEnd -= mStart;
+                mStart = 0;
+            }
+            return setChanged();
+        }
+
+        void clear() {
+            reset();
+            mChanged = true;
+        }
+
+        private void reset() {
+            mSequences = new long[4];
+            mStart = 0;
+            mEnd = 0;
+        }
+
+        private boolean setChanged() {
+            boolean wasChanged = mChanged;
+            mChanged = true;
+            return !wasChanged;
+        }
+
+        boolean isEmpty() {
+            return mStart == mEnd;
+        }
+
+        /** Makes the sequence numbers added so far visible to readers. */
+        void publish() {
+            if (mChanged) {
+                mView = new View(mSequences, mStart, mEnd);
+                mChanged = false;
+            }
+        }
+
+        /** Returns the published sequence numbers between start and end. */
+        long[] toArray(long start, long end) {
+            View v = mView;
+            int from = indexOf(v.mSequences, v.mStart, v.mEnd, start);
+            int to = indexOf(v.mSequences, from, v.mEnd, end);
+            long[] result = new long[to - from];
+            System.arraycopy(v.mSequences, from, result, 0, result.length);
+            return result;
+        }
+
+        /** Returns the index of the first sequence number at or after the given one. */
+        private static int indexOf(long[] sequences, int low, int high, long sequence) {
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (sequences[mid] < sequence) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+
+    /** An immutable view of a list of sequence numbers. */
+    private static final class View {
+        final long[] mSequences;
+        final int mStart;
+        final int mEnd;
+
+        View(long[] sequences, int start, int end) {
+            mSequences = sequences;
+            mStart = start;
+            mEnd = end;
+        }
+    }
+}
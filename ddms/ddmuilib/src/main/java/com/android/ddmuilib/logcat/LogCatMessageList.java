@@ -16,16 +16,29 @@
 
 package com.android.ddmuilib.logcat;
 
+import com.android.ddmlib.logcat.LogCatFilter;
 import com.android.ddmlib.logcat.LogCatMessage;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
 import java.util.List;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.BlockingQueue;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 
 /**
  * Container for a list of log messages. The list of messages are
  * maintained in a circular buffer (FIFO).
+ *
+ * Each message gets a sequence number, one more than the message before
+ * it, which it keeps for as long as it is in the list.  The messages are
+ * written by a single thread, such as the logcat receiver, and read by any
+ * number of threads without locking: a reader takes a {@link Snapshot} of
+ * the sequence numbers in the list, and reads the messages straight out of
+ * the buffer.  Messages that are pushed out of the list while a reader is
+ * looking at them are skipped.  The methods that change the list are
+ * synchronized, which only orders the writer against resizing and
+ * clearing.
  */
 public final class LogCatMessageList {
     /** Preference key for size of the FIFO. */
@@ -36,7 +49,8 @@ public final class LogCatMessageList {
     public static final int MAX_MESSAGES_DEFAULT = 5000;
 
     private int mFifoSize;
-    private BlockingQueue<LogCatMessage> mQ;
+    private volatile Ring mRing;
+    private final LogCatMessageIndex mIndex = new LogCatMessageIndex();
 
     /**
      * Construct an empty message list.
@@ -44,27 +58,29 @@ public final class LogCatMessageList {
      */
     public LogCatMessageList(int maxMessages) {
         mFifoSize = maxMessages;
-
-        mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
+        mRing = new Ring(maxMessages, 0);
     }
 
     /**
-     * Resize the message list.
+     * Resize the message list.  Shrinking the list, or growing it within
+     * the buffer it already has, does not move any message.
      * @param n new size for the list
      */
     public synchronized void resize(int n) {
         mFifoSize = n;
 
-        if (mFifoSize > mQ.size()) {
-            /* if resizing to a bigger fifo, we can copy over all elements from the current mQ */
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize, true, mQ);
-        } else {
-            /* for a smaller fifo, copy over the last n entries */
-            LogCatMessage[] curMessages = mQ.toArray(new LogCatMessage[mQ.size()]);
-            mQ = new ArrayBlockingQueue<LogCatMessage>(mFifoSize);
-            for (int i = curMessages.length - mFifoSize; i < curMessages.length; i++) {
-                mQ.offer(curMessages[i]);
+        Ring ring = mRing;
+        long start = Math.max(ring.mStart, ring.mHead - n);
+        int capacity = Ring.getCapacity(n);
+        if (capacity > ring.capacity() || capacity < ring.capacity() / 4) {
+            /* copy the last n entries to a buffer of the new size */
+            Ring resized = new Ring(n, start);
+            for (long seq = start; seq < ring.mHead; seq++) {
+                resized.add(ring.get(seq), n);
             }
+            mRing = resized;
+        } else {
+            ring.mStart = start;
         }
     }
 
@@ -74,9 +90,19 @@ public final class LogCatMessageList {
      * @param m log to be inserted
      */
     public synchronized void appendMessages(final List<LogCatMessage> messages) {
-        ensureSpace(messages.size());
+        Ring ring = mRing;
+
+        // index the messages first, so that they can be found in the index once they are in
+        // the list
+        long sequence = ring.mHead;
         for (LogCatMessage m: messages) {
-            mQ.offer(m);
+            mIndex.add(sequence, m, Math.max(ring.mStart, sequence + 1 - mFifoSize));
+            sequence++;
+        }
+        mIndex.publish();
+
+        for (LogCatMessage m: messages) {
+            ring.add(m, mFifoSize);
         }
     }
 
@@ -85,11 +111,14 @@ public final class LogCatMessageList {
      * @return list of messages that were deleted to create additional space.
      */
     public synchronized List<LogCatMessage> ensureSpace(int messageCount) {
-        List<LogCatMessage> l = new ArrayList<LogCatMessage>(messageCount);
-
-        while (mQ.remainingCapacity() < messageCount) {
-            l.add(mQ.poll());
+        Ring ring = mRing;
+        long start = Math.min(Math.max(ring.mStart, ring.mHead + messageCount - mFifoSize),
+                ring.mHead);
+        List<LogCatMessage> l = new ArrayList<LogCatMessage>((int) (start - ring.mStart));
+        for (long seq = ring.mStart; seq < start; seq++) {
+            l.add(ring.get(seq));
         }
+        ring.mStart = start;
 
         return l;
     }
@@ -101,16 +130,211 @@ public final class LogCatMessageList {
      * @return the remaining capacity
      */
     public synchronized int remainingCapacity() {
-        return mQ.remainingCapacity();
+        Ring ring = mRing;
+        return mFifoSize - (int) (ring.mHead - ring.mStart);
     }
 
     /** Clear all messages in the list. */
     public synchronized void clear() {
-        mQ.clear();
+        Ring ring = mRing;
+        ring.mStart = ring.mHead;
+        for (int i = 0; i < ring.capacity(); i++) {
+            ring.mMessages.set(i, null);
+        }
+        mIndex.clear();
     }
 
     /** Obtain a copy of the message list. */
-    public synchronized List<LogCatMessage> getAllMessages() {
-        return new ArrayList<LogCatMessage>(mQ);
+    public List<LogCatMessage> getAllMessages() {
+        Snapshot snapshot = getSnapshot();
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(snapshot.size());
+        for (LogCatMessage m : snapshot) {
+            messages.add(m);
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the messages of a snapshot that are accepted by all the given filters. The
+     * messages are looked up in the indexes of the list, and only those that the indexes
+     * cannot rule out are matched against the filters.
+     */
+    List<LogCatMessage> findMessages(Snapshot snapshot, LogCatFilterMatcher matcher) {
+        LogCatMessageIndex.Candidates candidates = mIndex.find(matcher.getRequiredFilters(),
+                snapshot.getStartSequence(), snapshot.getEndSequence());
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(candidates.size());
+        for (int i = 0; i < candidates.size(); i++) {
+            LogCatMessage m = snapshot.get(candidates.getSequence(i));
+            if (m != null && (candidates.isExact() || matcher.isAccepted(matcher.match(m)))) {
+                messages.add(m);
+            }
+        }
+        return messages;
+    }
+
+    /**
+     * Returns the number of messages of a snapshot that are accepted by a filter.
+     */
+    int countMessages(Snapshot snapshot, LogCatFilter filter) {
+        LogCatMessageIndex.Candidates candidates = mIndex.find(
+                Collections.singletonList(filter),
+                snapshot.getStartSequence(), snapshot.getEndSequence());
+        if (candidates.isExact()) {
+            return candidates.size();
+        }
+
+        int count = 0;
+        for (int i = 0; i < candidates.size(); i++) {
+            LogCatMessage m = snapshot.get(candidates.getSequence(i));
+            if (m != null && filter.matches(m)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /** Returns the messages currently in the list, without copying them. */
+    public Snapshot getSnapshot() {
+        return getSnapshot(0);
+    }
+
+    /**
+     * Returns the messages currently in the list whose sequence number is at
+     * least fromSequence, without copying them.  Passing the end sequence of
+     * the previous snapshot returns the messages added since.
+     */
+    public Snapshot getSnapshot(long fromSequence) {
+        Ring ring = mRing;
+        long end = ring.mHead;
+        long start = Math.min(Math.max(ring.mStart, fromSequence), end);
+        return new Snapshot(ring, start, end);
+    }
+
+    /**
+     * The messages of the list between two sequence numbers, as they were
+     * when the snapshot was taken.  The messages are read from the list
+     * itself, so a message that has since been pushed out of the list reads
+     * as null, and is skipped by the iterator.
+     */
+    public static final class Snapshot implements Iterable<LogCatMessage> {
+        private final Ring mRing;
+        private final long mStart;
+        private final long mEnd;
+
+        private Snapshot(Ring ring, long start, long end) {
+            mRing = ring;
+            mStart = start;
+            mEnd = end;
+        }
+
+        /** Returns the sequence number of the first message of the snapshot. */
+        public long getStartSequence() {
+            return mStart;
+        }
+
+        /** Returns one more than the sequence number of the last message. */
+        public long getEndSequence() {
+            return mEnd;
+        }
+
+        /** Returns the number of messages in the snapshot when it was taken. */
+        public int size() {
+            return (int) (mEnd - mStart);
+        }
+
+        /**
+         * Returns the message with the given sequence number, or null if it
+         * is no longer in the list.
+         */
+        public LogCatMessage get(long sequence) {
+            if (sequence < mStart || sequence >= mEnd) {
+                throw new IndexOutOfBoundsException("sequence " + sequence
+                        + " is not in [" + mStart + ", " + mEnd + ")");
+            }
+            return mRing.get(sequence);
+        }
+
+        @Override
+        public Iterator<LogCatMessage> iterator() {
+            return new Iterator<LogCatMessage>() {
+                private long mSequence = mStart;
+                private LogCatMessage mNext = advance();
+
+                private LogCatMessage advance() {
+                    while (mSequence < mEnd) {
+                        LogCatMessage m = mRing.get(mSequence++);
+                        if (m != null) {
+                            return m;
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public boolean hasNext() {
+                    return mNext != null;
+                }
+
+                @Override
+                public LogCatMessage next() {
+                    if (mNext == null) {
+                        throw new NoSuchElementException();
+                    }
+                    LogCatMessage m = mNext;
+                    mNext = advance();
+                    return m;
+                }
+
+                @Override
+                public void remove() {
+                    throw new UnsupportedOperationException();
+                }
+            };
+        }
+    }
+
+    /**
+     * The circular buffer, indexed by sequence number modulo its capacity,
+     * which is a power of two.  The buffer holds the messages with sequence
+     * numbers in [mStart, mHead).  A message is written after mStart has
+     * moved past the message in its slot, and before mHead moves past it,
+     * so a reader that finds a message for a sequence number below mHead,
+     * and then finds mStart still at or below it, has the right message.
+     */
+    private static final class Ring {
+        final AtomicReferenceArray<LogCatMessage> mMessages;
+        final int mMask;
+        volatile long mStart;
+        volatile long mHead;
+
+        Ring(int size, long start) {
+            int capacity = getCapacity(size);
+            mMessages = new AtomicReferenceArray<LogCatMessage>(capacity);
+            mMask = capacity - 1;
+            mStart = start;
+            mHead = start;
+        }
+
+        static int getCapacity(int size) {
+            return Integer.highestOneBit(Math.max(size, 1) * 2 - 1);
+        }
+
+        int capacity() {
+            return mMask + 1;
+        }
+
+        void add(LogCatMessage m, int maxSize) {
+            long head = mHead;
+            if (head - mStart >= maxSize) {
+                mStart = head + 1 - maxSize;
+            }
+            mMessages.set((int) head & mMask, m);
+            mHead = head + 1;
+        }
+
+        LogCatMessage get(long sequence) {
+            LogCatMessage m = mMessages.get((int) sequence & mMask);
+            return sequence >= mStart ? m : null;
+        }
     }
 }
@@ -85,6 +85,7 @@ import java.io.FileWriter;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Collections;
 import java.util.List;
 import java.util.Map;
@@ -154,6 +155,14 @@ public final class LogCatPanel extends SelectionDependentPanel
     /** Index of the default filter in the saved filters column. */
     private static final int DEFAULT_FILTER_INDEX = 0;
 
+    /**
+     * Number of matching messages loaded at a time from the archive, and the most looked at,
+     * in steps of a few messages.
+     */
+    private static final int HISTORY_PAGE_SIZE = 1000;
+    private static final int HISTORY_SCAN_STEP = 20000;
+    private static final int HISTORY_SCAN_LIMIT = 200000;
+
     /* Text colors for the filter box */
     private static final Color VALID_FILTER_REGEX_COLOR =
             Display.getDefault().getSystemColor(SWT.COLOR_BLACK);
@@ -175,10 +184,22 @@ public final class LogCatPanel extends SelectionDependentPanel
     private Combo mLiveFilterLevelCombo;
     private Text mLiveFilterText;
 
-    private List<LogCatFilter> mCurrentFilters = Collections.emptyList();
+    // the saved filters, followed by the filters currently applied to the table
+    private volatile LogCatFilterMatcher mFilterMatcher;
 
     private Table mTable;
 
+    // messages shown in the table and the rows they are wrapped to, only used in the UI thread
+    private final LogCatRowIndex mRows = new LogCatRowIndex(0);
+
+    // The archive sequence number the next messages are loaded from, or -1 if unknown.
+    private long mHistoryEnd = -1;
+
+    // Whether messages are being loaded from the archive, in the background, and the number of
+    // times the table was reloaded, after which messages that are being loaded are dropped.
+    private boolean mHistoryLoading;
+    private volatile int mHistoryGeneration;
+
     private boolean mShouldScrollToLatestLog = true;
     private ToolItem mScrollLockCheckBox;
     private boolean mAutoScrollLock;
@@ -217,6 +238,8 @@ public final class LogCatPanel extends SelectionDependentPanel
         mLogBuffer = new ArrayList<LogCatMessage>(LogCatMessageList.MAX_MESSAGES_DEFAULT);
 
         initializeFilters();
+        mFilterMatcher = new LogCatFilterMatcher(mLogCatFilters,
+                Collections.<LogCatFilter>emptyList());
 
         setupDefaultPreferences();
         initializePreferenceUpdateListeners();
@@ -269,6 +292,11 @@ public final class LogCatPanel extends SelectionDependentPanel
                 LogCatMessageList.MAX_MESSAGES_DEFAULT);
         mPrefStore.setDefault(DISPLAY_FILTERS_COLUMN_PREFKEY, true);
         mPrefStore.setDefault(AUTO_SCROLL_LOCK_PREFKEY, true);
+        mPrefStore.setDefault(LogCatArchive.ARCHIVE_ENABLED_PREFKEY, false);
+        mPrefStore.setDefault(LogCatArchive.ARCHIVE_FOLDER_PREFKEY,
+                LogCatArchive.getDefaultFolder());
+        mPrefStore.setDefault(LogCatArchive.ARCHIVE_MAX_SIZE_PREFKEY,
+                LogCatArchive.ARCHIVE_MAX_SIZE_DEFAULT);
 
         /* Default Colors for different log levels. */
         PreferenceConverter.setDefault(mPrefStore, LogCatPanel.VERBOSE_COLOR_PREFKEY,
@@ -299,9 +327,7 @@ public final class LogCatPanel extends SelectionDependentPanel
                     Display.getDefault().syncExec(new Runnable() {
                         @Override
                         public void run() {
-                            for (TableItem it: mTable.getItems()) {
-                                it.setFont(mFont);
-                            }
+                            mTable.clearAll();
                         }
                     });
                 } else if (changedProperty.startsWith(MSG_COLOR_PREFKEY_PREFIX)) {
@@ -309,14 +335,7 @@ public final class LogCatPanel extends SelectionDependentPanel
                     Display.getDefault().syncExec(new Runnable() {
                        @Override
                        public void run() {
-                           Color c = mVerboseColor;
-                           for (TableItem it: mTable.getItems()) {
-                               Object data = it.getData();
-                               if (data instanceof LogCatMessage) {
-                                   c = getForegroundColor((LogCatMessage) data);
-                               }
-                               it.setForeground(c);
-                           }
+                           mTable.clearAll();
                        }
                     });
                 } else if (changedProperty.equals(LogCatMessageList.MAX_MESSAGES_PREFKEY)) {
@@ -835,41 +854,20 @@ public final class LogCatPanel extends SelectionDependentPanel
 
         List<LogCatMessage> selectedMessages = new ArrayList<LogCatMessage>(indices.length);
         for (int i : indices) {
-            Object data = mTable.getItem(i).getData();
-            if (data instanceof LogCatMessage) {
-                selectedMessages.add((LogCatMessage) data);
+            // only the first row of a message stands for the message, the other rows are
+            // just wrapped content
+            if (i < mRows.getRowCount() && mRows.isFirstRow(i)) {
+                selectedMessages.add(mRows.getMessage(mRows.getMessageIndex(i)));
             }
         }
 
         return selectedMessages;
     }
 
-    private List<LogCatMessage> applyCurrentFilters(List<LogCatMessage> msgList) {
-        List<LogCatMessage> filteredItems = new ArrayList<LogCatMessage>(msgList.size());
-
-        for (LogCatMessage msg: msgList) {
-            if (isMessageAccepted(msg, mCurrentFilters)) {
-                filteredItems.add(msg);
-            }
-        }
-
-        return filteredItems;
-    }
-
-    private boolean isMessageAccepted(LogCatMessage msg, List<LogCatFilter> filters) {
-        for (LogCatFilter f : filters) {
-            if (!f.matches(msg)) {
-                // not accepted by this filter
-                return false;
-            }
-        }
-
-        // accepted by all filters
-        return true;
-    }
-
     private void createLogcatViewTable(Composite parent) {
-        mTable = new Table(parent, SWT.FULL_SELECTION | SWT.MULTI);
+        // The table is virtual: it only asks for the text of the rows that are shown, so
+        // adding and removing messages does not depend on how many are in the table.
+        mTable = new Table(parent, SWT.FULL_SELECTION | SWT.MULTI | SWT.VIRTUAL);
 
         mTable.setLayoutData(new GridData(GridData.FILL_BOTH));
         mTable.getHorizontalBar().setVisible(true);
@@ -922,6 +920,13 @@ public final class LogCatPanel extends SelectionDependentPanel
             }
         });
 
+        mTable.addListener(SWT.SetData, new Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                fillItem((TableItem) event.item, event.index);
+            }
+        });
+
         // Update the label provider whenever the text column's width changes
         TableColumn textColumn = mTable.getColumn(properties.length - 1);
         textColumn.addControlListener(new ControlAdapter() {
@@ -1022,9 +1027,17 @@ public final class LogCatPanel extends SelectionDependentPanel
             };
         };
 
+        final Action historyAction = new Action("Load older messages from archive") {
+            @Override
+            public void run() {
+                loadHistory();
+            };
+        };
+
         final MenuManager mgr = new MenuManager();
         mgr.add(filterAction);
         mgr.add(findAction);
+        mgr.add(historyAction);
         final Menu menu = mgr.createContextMenu(table);
 
         table.addListener(SWT.MenuDetect, new Listener() {
@@ -1040,8 +1053,98 @@ public final class LogCatPanel extends SelectionDependentPanel
 
                 // Show the menu only if it is not inside the header
                 table.setMenu(header ? null : menu);
+                historyAction.setEnabled(mReceiver != null && mReceiver.getArchive() != null
+                        && !mHistoryLoading);
+            }
+        });
+    }
+
+    /**
+     * Load the page of archived messages that precedes the messages in the table, and add the
+     * ones accepted by the current filters to the start of the table. The archive is searched
+     * in a different (non UI) thread.
+     */
+    private void loadHistory() {
+        final LogCatArchive archive = mReceiver == null ? null : mReceiver.getArchive();
+        if (archive == null || mHistoryEnd < 0 || mHistoryLoading) {
+            return;
+        }
+
+        mHistoryLoading = true;
+        final int generation = mHistoryGeneration;
+        final LogCatFilterMatcher matcher = mFilterMatcher;
+        final long end = mHistoryEnd;
+        Thread t = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                LogCatArchive.Page page = null;
+                IOException error = null;
+                try {
+                    // search in short steps, and stop if the table is reloaded meanwhile
+                    long stepEnd = end;
+                    for (int scanned = 0; scanned < HISTORY_SCAN_LIMIT
+                            && generation == mHistoryGeneration;
+                            scanned += HISTORY_SCAN_STEP) {
+                        page = archive.findMessages(matcher, stepEnd, HISTORY_PAGE_SIZE,
+                                HISTORY_SCAN_STEP);
+                        stepEnd = page.getScanStart();
+                        if (!page.getMessages().isEmpty() || page.isAtStart()) {
+                            break;
+                        }
+                    }
+                } catch (IOException e) {
+                    error = e;
+                }
+
+                final LogCatArchive.Page result = page;
+                final IOException resultError = error;
+                Display.getDefault().asyncExec(new Runnable() {
+                    @Override
+                    public void run() {
+                        showHistory(generation, result, resultError);
+                    }
+                });
             }
         });
+        t.setName("Loading logcat messages from archive..");
+        t.start();
+    }
+
+    /** Add a page of messages loaded from the archive to the start of the table. */
+    private void showHistory(int generation, LogCatArchive.Page page, IOException error) {
+        if (mTable.isDisposed() || generation != mHistoryGeneration) {
+            return;
+        }
+        mHistoryLoading = false;
+
+        if (error != null) {
+            MessageDialog.openError(mTable.getShell(), "Unable to read logcat archive.",
+                    "Unexpected error while reading the logcat archive: " + error.getMessage());
+            return;
+        }
+        if (page == null) {
+            return;
+        }
+        mHistoryEnd = page.getScanStart();
+
+        List<LogCatMessage> messages = page.getMessages();
+        if (messages.isEmpty()) {
+            MessageDialog.openInformation(mTable.getShell(), "Logcat archive",
+                    page.isAtStart() ? "There are no older messages in the archive."
+                            : "No older messages matched in the part of the archive searched."
+                                    + " Load again to search further back.");
+            return;
+        }
+
+        // keep the rows in view, and show the newest of the messages just above them
+        setScrollToLatestLog(false);
+        mScrollLockCheckBox.setSelection(false);
+        int rowsAdded = mRows.addFirst(messages);
+        mFindTarget.scrollBy(-rowsAdded);
+        mTable.deselectAll();
+        mTable.setItemCount(mRows.getRowCount());
+        mTable.clearAll();
+        mTable.setTopIndex(rowsAdded - 1);
     }
 
     public void recomputeWrapWidth() {
@@ -1064,6 +1167,33 @@ public final class LogCatPanel extends SelectionDependentPanel
 
         int OFFSET_AT_END_OF_LINE = 10; // leave some space at the end of the line
         mWrapWidthInChars -= OFFSET_AT_END_OF_LINE;
+
+        rewrapTable();
+    }
+
+    /** Wrap the messages in the table to the current wrap width. */
+    private void rewrapTable() {
+        if (mRows.getWrapWidth() == mWrapWidthInChars) {
+            return;
+        }
+
+        // keep the message at the top of the table in view
+        int topMessage = -1;
+        if (mRows.getRowCount() > 0) {
+            topMessage = mRows.getMessageIndex(
+                    Math.min(mTable.getTopIndex(), mRows.getRowCount() - 1));
+        }
+
+        mRows.setWrapWidth(mWrapWidthInChars);
+        mTable.deselectAll();
+        mTable.setItemCount(mRows.getRowCount());
+        mTable.clearAll();
+
+        if (mShouldScrollToLatestLog) {
+            scrollToLatestLog();
+        } else if (topMessage != -1) {
+            mTable.setTopIndex(mRows.getFirstRow(topMessage));
+        }
     }
 
     private void setScrollToLatestLog(boolean scroll) {
@@ -1132,7 +1262,7 @@ public final class LogCatPanel extends SelectionDependentPanel
     }
 
     private void updateAppliedFilters() {
-        mCurrentFilters = getFiltersToApply();
+        mFilterMatcher = new LogCatFilterMatcher(mLogCatFilters, getFiltersToApply());
         reloadLogBuffer();
     }
 
@@ -1165,15 +1295,40 @@ public final class LogCatPanel extends SelectionDependentPanel
     @Override
     public void bufferChanged(List<LogCatMessage> addedMessages,
             List<LogCatMessage> deletedMessages) {
-        updateUnreadCount(addedMessages);
+        // Match each message against all the filters at once, both to count the unread
+        // messages of the saved filters and to find the ones to show.
+        LogCatFilterMatcher matcher = mFilterMatcher;
+        int[] matchCounts = new int[matcher.getFilterCount()];
+        List<LogCatMessage> acceptedMessages = new ArrayList<LogCatMessage>(addedMessages.size());
+        for (LogCatMessage m : addedMessages) {
+            BitSet matches = matcher.match(m);
+            for (int i = matches.nextSetBit(0); i >= 0 && i < matchCounts.length;
+                    i = matches.nextSetBit(i + 1)) {
+                matchCounts[i]++;
+            }
+            if (matcher.isAccepted(matches)) {
+                acceptedMessages.add(m);
+            }
+        }
+
+        int deletedCount = 0;
+        for (LogCatMessage m : deletedMessages) {
+            if (matcher.isAccepted(matcher.match(m))) {
+                deletedCount++;
+            }
+        }
+
+        addToTable(matcher, matchCounts, acceptedMessages, deletedCount);
+    }
+
+    private void addToTable(LogCatFilterMatcher matcher, int[] matchCounts,
+            List<LogCatMessage> acceptedMessages, int deletedCount) {
+        updateUnreadCount(matcher, matchCounts);
         refreshFiltersTable();
 
         synchronized (mLogBuffer) {
-            addedMessages = applyCurrentFilters(addedMessages);
-            deletedMessages = applyCurrentFilters(deletedMessages);
-
-            mLogBuffer.addAll(addedMessages);
-            mDeletedLogCount += deletedMessages.size();
+            mLogBuffer.addAll(acceptedMessages);
+            mDeletedLogCount += deletedCount;
         }
 
         refreshLogCatTable();
@@ -1181,6 +1336,10 @@ public final class LogCatPanel extends SelectionDependentPanel
 
     private void reloadLogBuffer() {
         mTable.removeAll();
+        mRows.clear();
+        mHistoryEnd = -1;
+        mHistoryLoading = false;
+        mHistoryGeneration++;
 
         synchronized (mLogBuffer) {
             mLogBuffer.clear();
@@ -1191,25 +1350,38 @@ public final class LogCatPanel extends SelectionDependentPanel
             return;
         }
 
-        List<LogCatMessage> addedMessages = mReceiver.getMessages().getAllMessages();
-        List<LogCatMessage> deletedMessages = Collections.emptyList();
-        bufferChanged(addedMessages, deletedMessages);
+        // Look the messages up in the indexes of the message list instead of matching
+        // all of them against the filters.
+        LogCatMessageList messages = mReceiver.getMessages();
+        LogCatMessageList.Snapshot snapshot = messages.getSnapshot();
+        mHistoryEnd = mReceiver.getArchiveSequence(snapshot.getStartSequence());
+        LogCatFilterMatcher matcher = mFilterMatcher;
+        int[] matchCounts = new int[matcher.getFilterCount()];
+        for (int i = 0; i < matchCounts.length; i++) {
+            if (i != mCurrentSelectedFilterIndex) {
+                matchCounts[i] = messages.countMessages(snapshot, matcher.getFilter(i));
+            }
+        }
+        addToTable(matcher, matchCounts, messages.findMessages(snapshot, matcher), 0);
     }
 
     /**
      * When new messages are received, and they match a saved filter, update
      * the unread count associated with that filter.
-     * @param receivedMessages list of new messages received
+     * @param matcher matcher whose filters are the saved filters
+     * @param matchCounts number of new messages that match each saved filter
      */
-    private void updateUnreadCount(List<LogCatMessage> receivedMessages) {
-        for (int i = 0; i < mLogCatFilters.size(); i++) {
+    private void updateUnreadCount(LogCatFilterMatcher matcher, int[] matchCounts) {
+        for (int i = 0; i < matcher.getFilterCount(); i++) {
             if (i == mCurrentSelectedFilterIndex) {
                 /* no need to update unread count for currently selected filter */
                 continue;
             }
-            LogCatFilter f = mLogCatFilters.get(i);
+            LogCatFilter f = matcher.getFilter(i);
             LogCatFilterData fd = mLogCatFilterData.get(f);
-            fd.updateUnreadCount(receivedMessages);
+            if (fd != null) {
+                fd.addUnreadCount(matchCounts[i]);
+            }
         }
     }
 
@@ -1246,10 +1418,11 @@ public final class LogCatPanel extends SelectionDependentPanel
     /**
      * The {@link LogCatTableRefresherTask} takes care of refreshing the table with the
      * new log messages that have been received. Since the log behaves like a circular buffer,
-     * the first step is to remove items from the top of the table (if necessary). This step
-     * is complicated by the fact that a single log message may span multiple rows if the message
-     * was wrapped. Once the deleted items are removed, the new messages are added to the bottom
-     * of the table. If scroll lock is enabled, the item that was original visible is made visible
+     * the first step is to remove rows from the top of the table (if necessary). A single log
+     * message may span multiple rows if the message was wrapped, which the row index keeps
+     * track of. Once the deleted rows are removed, the new messages are added to the bottom
+     * of the table. The table is virtual, so none of this touches the rows that are not
+     * shown. If scroll lock is enabled, the item that was original visible is made visible
      * again, if not, the last item is made visible.
      */
     private class LogCatTableRefresherTask implements Runnable {
@@ -1280,63 +1453,18 @@ public final class LogCatPanel extends SelectionDependentPanel
 
                 deletedMessageCount = mDeletedLogCount;
                 mDeletedLogCount = 0;
-
-                mFindTarget.scrollBy(deletedMessageCount);
             }
 
-            int originalItemCount = mTable.getItemCount();
-
-            // Remove entries from the start of the table if they were removed in the log buffer
-            // This is complicated by the fact that a single message may span multiple TableItems
-            // if it was word-wrapped.
-            deletedMessageCount -= removeFromTable(mTable, deletedMessageCount);
-
-            // Compute number of table items that were deleted from the table.
-            int deletedItemCount = originalItemCount - mTable.getItemCount();
-
-            // If there are more messages to delete (after deleting messages from the table),
-            // then delete them from the start of the newly added messages list
-            if (deletedMessageCount > 0) {
-                assert deletedMessageCount < newMessages.size();
-                for (int i = 0; i < deletedMessageCount; i++) {
-                    newMessages.remove(0);
-                }
-            }
-
-            // Add the remaining messages to the table.
-            for (LogCatMessage m: newMessages) {
-                List<String> wrappedMessageList = wrapMessage(m.getMessage(), mWrapWidthInChars);
-                Color c = getForegroundColor(m);
-                for (int i = 0; i < wrappedMessageList.size(); i++) {
-                    TableItem item = new TableItem(mTable, SWT.NONE);
-
-                    if (i == 0) {
-                        // Only set the message data in the first item. This allows code that
-                        // examines the table item data (such as copy selection) to distinguish
-                        // between real messages versus lines that are really just wrapped
-                        // content from the previous message.
-                        item.setData(m);
-
-                        item.setText(new String[] {
-                                Character.toString(m.getLogLevel().getPriorityLetter()),
-                                m.getTime(),
-                                m.getPid(),
-                                m.getTid(),
-                                m.getAppName(),
-                                m.getTag(),
-                                wrappedMessageList.get(i)
-                        });
-                    } else {
-                        item.setText(new String[] {
-                                "", "", "", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-                                "", "", "", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
-                                wrappedMessageList.get(i)
-                        });
-                    }
-                    item.setForeground(c);
-                    item.setFont(mFont);
-                }
+            // Remove messages from the start of the table if they were removed in the log
+            // buffer, and add the new messages at the end. Their rows are filled in when shown.
+            // Once older messages have been loaded from the archive, the messages removed from
+            // the log buffer are kept, so that no messages are missing after the older ones.
+            int deletedItemCount = mRows.update(newMessages, deletedMessageCount);
+            if (deletedItemCount > 0) {
+                mTable.remove(0, deletedItemCount - 1);
             }
+            mFindTarget.scrollBy(deletedItemCount);
+            mTable.setItemCount(mRows.getRowCount());
 
             if (mShouldScrollToLatestLog) {
                 scrollToLatestLog();
@@ -1359,42 +1487,41 @@ public final class LogCatPanel extends SelectionDependentPanel
                 }
             });
         }
+    }
 
-        /**
-         * Removes given number of messages from the table, starting at the top of the table.
-         * Note that the number of messages deleted is not equal to the number of rows
-         * deleted since a single message could span multiple rows. This method first calculates
-         * the number of rows that correspond to the number of messages to delete, and then
-         * removes all those rows.
-         * @param table table from which messages should be removed
-         * @param msgCount number of messages to be removed
-         * @return number of messages that were actually removed
-         */
-        private int removeFromTable(Table table, int msgCount) {
-            int deletedMessageCount = 0; // # of messages that have been deleted
-            int lastItemToDelete = 0;    // index of the last item that should be deleted
-
-            while (deletedMessageCount < msgCount && lastItemToDelete < table.getItemCount()) {
-                // only rows that begin a message have their item data set
-                TableItem item = table.getItem(lastItemToDelete);
-                if (item.getData() != null) {
-                    deletedMessageCount++;
-                }
-
-                lastItemToDelete++;
-            }
-
-            // If there are any table items left over at the end that are wrapped over from the
-            // previous message, mark them for deletion as well.
-            if (lastItemToDelete < table.getItemCount()
-                    && table.getItem(lastItemToDelete).getData() == null) {
-                lastItemToDelete++;
-            }
-
-            table.remove(0, lastItemToDelete - 1);
+    /**
+     * Fill in a row of the table when it is about to be shown. Only the first row of a message
+     * has its item data set. This allows code that examines the table item data to distinguish
+     * between real messages versus lines that are really just wrapped content from the
+     * previous message.
+     */
+    private void fillItem(TableItem item, int row) {
+        if (row < 0 || row >= mRows.getRowCount()) {
+            return;
+        }
 
-            return deletedMessageCount;
+        LogCatMessage m = mRows.getMessage(mRows.getMessageIndex(row));
+        String text = mRows.getRowText(row);
+        if (mRows.isFirstRow(row)) {
+            item.setData(m);
+            item.setText(new String[] {
+                    Character.toString(m.getLogLevel().getPriorityLetter()),
+                    m.getTime(),
+                    m.getPid(),
+                    m.getTid(),
+                    m.getAppName(),
+                    m.getTag(),
+                    text
+            });
+        } else {
+            item.setText(new String[] {
+                    "", "", "", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    "", "", "", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+                    text
+            });
         }
+        item.setForeground(getForegroundColor(m));
+        item.setFont(mFont);
     }
 
     /** Scroll to the last line. */
@@ -1404,38 +1531,6 @@ public final class LogCatPanel extends SelectionDependentPanel
         }
     }
 
-    /**
-     * Splits the message into multiple lines if the message length exceeds given width.
-     * If the message was split, then a wrap character \u23ce is appended to the end of all
-     * lines but the last one.
-     */
-    private List<String> wrapMessage(String msg, int wrapWidth) {
-        if (msg.length() < wrapWidth) {
-            return Collections.singletonList(msg);
-        }
-
-        List<String> wrappedMessages = new ArrayList<String>();
-
-        int offset = 0;
-        int len = msg.length();
-
-        while (len > 0) {
-            int copylen = Math.min(wrapWidth, len);
-            String s = msg.substring(offset, offset + copylen);
-
-            offset += copylen;
-            len -= copylen;
-
-            if (len > 0) { // if there are more lines following, then append a wrap marker
-                s += " \u23ce"; //$NON-NLS-1$
-            }
-
-            wrappedMessages.add(s);
-        }
-
-        return wrappedMessages;
-    }
-
     private Color getForegroundColor(LogCatMessage m) {
         LogLevel l = m.getLogLevel();
 
@@ -1566,14 +1661,13 @@ public final class LogCatPanel extends SelectionDependentPanel
 
         @Override
         public int getItemCount() {
-            return mTable.getItemCount();
+            return mRows.getRowCount();
         }
 
         @Override
         public String getItem(int index) {
-            Object data = mTable.getItem(index).getData();
-            if (data != null) {
-                return data.toString();
+            if (index < mRows.getRowCount() && mRows.isFirstRow(index)) {
+                return mRows.getMessage(mRows.getMessageIndex(index)).toString();
             }
 
             return null;
@@ -17,6 +17,7 @@
 package com.android.ddmuilib.logcat;
 
 import com.android.ddmlib.IDevice;
+import com.android.ddmlib.Log;
 import com.android.ddmlib.Log.LogLevel;
 import com.android.ddmlib.logcat.LogCatListener;
 import com.android.ddmlib.logcat.LogCatMessage;
@@ -24,6 +25,8 @@ import com.android.ddmlib.logcat.LogCatReceiverTask;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
@@ -44,6 +47,15 @@ public final class LogCatReceiver implements LogCatListener {
     private Set<ILogCatBufferChangeListener> mLogCatMessageListeners;
     private IPreferenceStore mPrefStore;
 
+    // archive of the messages, if enabled; the archive sequence number of a
+    // message is its sequence number in mLogMessages plus mArchiveBase.
+    private volatile LogCatArchive mArchive;
+    private long mArchiveBase;
+
+    // Held while messages are added, so that they are added to the archive in the order of
+    // mLogMessages. The lock of mLogMessages itself is not held while they are archived.
+    private final Object mLogLock = new Object();
+
     /**
      * Construct a LogCat message receiver for provided device. This will launch a
      * logcat command on the device, and monitor the output of that command in
@@ -58,6 +70,7 @@ public final class LogCatReceiver implements LogCatListener {
 
         mLogCatMessageListeners = new HashSet<ILogCatBufferChangeListener>();
         mLogMessages = new LogCatMessageList(getFifoSize());
+        openArchive();
 
         startReceiverThread();
     }
@@ -77,6 +90,11 @@ public final class LogCatReceiver implements LogCatListener {
         }
 
         mCurrentDevice = null;
+
+        LogCatArchive archive = mArchive;
+        if (archive != null) {
+            archive.close();
+        }
     }
 
     private int getFifoSize() {
@@ -84,6 +102,33 @@ public final class LogCatReceiver implements LogCatListener {
         return n == 0 ? LogCatMessageList.MAX_MESSAGES_DEFAULT : n;
     }
 
+    private void openArchive() {
+        if (mCurrentDevice == null
+                || !mPrefStore.getBoolean(LogCatArchive.ARCHIVE_ENABLED_PREFKEY)) {
+            return;
+        }
+
+        String folder = mPrefStore.getString(LogCatArchive.ARCHIVE_FOLDER_PREFKEY);
+        if (folder.isEmpty()) {
+            folder = LogCatArchive.getDefaultFolder();
+        }
+        int maxSize = mPrefStore.getInt(LogCatArchive.ARCHIVE_MAX_SIZE_PREFKEY);
+        if (maxSize <= 0) {
+            maxSize = LogCatArchive.ARCHIVE_MAX_SIZE_DEFAULT;
+        }
+
+        // one archive per device, in a folder named after its serial number
+        String name = mCurrentDevice.getSerialNumber().replaceAll("[^A-Za-z0-9._-]", "_");
+        try {
+            LogCatArchive archive = new LogCatArchive(new File(folder, name),
+                    maxSize * 1024L * 1024L);
+            mArchiveBase = archive.getEndSequence();
+            mArchive = archive;
+        } catch (IOException e) {
+            Log.e("Logcat", e);
+        }
+    }
+
     private void startReceiverThread() {
         if (mCurrentDevice == null) {
             return;
@@ -100,13 +145,46 @@ public final class LogCatReceiver implements LogCatListener {
     @Override
     public void log(List<LogCatMessage> newMessages) {
         List<LogCatMessage> deletedMessages;
-        synchronized (mLogMessages) {
-            deletedMessages = mLogMessages.ensureSpace(newMessages.size());
-            mLogMessages.appendMessages(newMessages);
+        synchronized (mLogLock) {
+            synchronized (mLogMessages) {
+                deletedMessages = mLogMessages.ensureSpace(newMessages.size());
+                mLogMessages.appendMessages(newMessages);
+            }
+            archiveMessages(newMessages);
         }
         sendLogChangedEvent(newMessages, deletedMessages);
     }
 
+    private void archiveMessages(List<LogCatMessage> messages) {
+        LogCatArchive archive = mArchive;
+        if (archive == null) {
+            return;
+        }
+
+        try {
+            archive.appendMessages(messages);
+        } catch (IOException e) {
+            // the messages can no longer be archived, but the archive can still be read
+            Log.e("Logcat", e);
+        }
+    }
+
+    /**
+     * Get the archive of the messages received from the device.
+     * @return the archive, or null if the messages are not archived
+     */
+    LogCatArchive getArchive() {
+        return mArchive;
+    }
+
+    /**
+     * Returns the archive sequence number of a message, from its sequence number in the list
+     * returned by {@link #getMessages()}.
+     */
+    long getArchiveSequence(long sequence) {
+        return mArchiveBase + sequence;
+    }
+
     /**
      * Get the list of logcat messages received from currently active device.
      * @return list of messages if currently listening, null otherwise
@@ -0,0 +1,274 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The rows of the logcat table: the messages shown in the table, each of
+ * which takes one row per line it is wrapped to.
+ *
+ * The row of the first line of each message is worked out when the message
+ * is added, so that the table can look up the text of any row without
+ * wrapping the messages before it.  Messages are added at the end and
+ * removed from the start, both in constant time.  Older messages, loaded
+ * from an archive, can also be added at the start, in time linear in the
+ * number of messages.  The index is not thread safe; it is only used from
+ * the UI thread.
+ */
+final class LogCatRowIndex {
+    /** Marker appended to all but the last line of a wrapped message. */
+    static final String WRAP_MARKER = " \u23ce"; //$NON-NLS-1$
+
+    private static final int INITIAL_CAPACITY = 1024;
+
+    private int mWrapWidth;
+
+    // The messages are mMessages[mStart..mEnd), and mFirstRows[i] is the
+    // row of the first line of mMessages[i], counted from the first message
+    // added at the end since the index was last cleared.
+    private LogCatMessage[] mMessages = new LogCatMessage[INITIAL_CAPACITY];
+    private long[] mFirstRows = new long[INITIAL_CAPACITY];
+    private int mStart;
+    private int mEnd;
+    private long mNextRow;
+
+    // Whether older messages have been added from the archive since the
+    // index was last cleared.
+    private boolean mHasHistory;
+
+    LogCatRowIndex(int wrapWidth) {
+        mWrapWidth = wrapWidth;
+    }
+
+    int getWrapWidth() {
+        return mWrapWidth;
+    }
+
+    /**
+     * Wraps the messages to a new width.  This has to go through all the
+     * messages, so it is only done when the width changes.
+     */
+    void setWrapWidth(int wrapWidth) {
+        if (wrapWidth == mWrapWidth) {
+            return;
+        }
+        mWrapWidth = wrapWidth;
+
+        long row = 0;
+        for (int i = mStart; i < mEnd; i++) {
+            mFirstRows[i] = row;
+            row += getLineCount(mMessages[i]);
+        }
+        mNextRow = row;
+    }
+
+    void add(LogCatMessage m) {
+        if (mEnd == mMessages.length) {
+            makeRoom();
+        }
+        mMessages[mEnd] = m;
+        mFirstRows[mEnd] = mNextRow;
+        mEnd++;
+        mNextRow += getLineCount(m);
+    }
+
+    /**
+     * Adds messages at the end, after removing the messages that have left the log buffer.
+     * These are the oldest messages received: the first messages of the index, and then the
+     * first of the new messages if there are more. Once older messages have been added from
+     * the archive, the messages that leave the log buffer are in the archive as well, so they
+     * are kept instead, and the messages of the index stay contiguous.
+     * @param messages messages to add, oldest first
+     * @param removedCount number of messages that have left the log buffer
+     * @return number of rows that were removed from the start
+     */
+    int update(List<LogCatMessage> messages, int removedCount) {
+        int removedRows = 0;
+        if (!mHasHistory) {
+            int n = Math.min(removedCount, getMessageCount());
+            removedRows = removeFirst(n);
+            messages = messages.subList(Math.min(removedCount - n, messages.size()),
+                    messages.size());
+        }
+        for (LogCatMessage m : messages) {
+            add(m);
+        }
+        return removedRows;
+    }
+
+    /**
+     * Adds older messages, loaded from the archive, before the first message of the index.
+     * @param messages messages to add, oldest first
+     * @return number of rows that were added
+     */
+    int addFirst(List<LogCatMessage> messages) {
+        mHasHistory = true;
+        int n = messages.size();
+        if (mStart < n) {
+            makeRoomAtStart(n);
+        }
+
+        long row = mStart == mEnd ? mNextRow : mFirstRows[mStart];
+        long firstRow = row;
+        for (int i = n - 1; i >= 0; i--) {
+            LogCatMessage m = messages.get(i);
+            row -= getLineCount(m);
+            mStart--;
+            mMessages[mStart] = m;
+            mFirstRows[mStart] = row;
+        }
+        if (mStart + n == mEnd) {
+            // the index was empty
+            mNextRow = firstRow;
+        }
+        return (int) (firstRow - row);
+    }
+
+    /**
+     * Removes messages from the start of the index.
+     * @param count number of messages to remove
+     * @return number of rows that were removed
+     */
+    int removeFirst(int count) {
+        count = Math.min(count, getMessageCount());
+        if (count <= 0) {
+            return 0;
+        }
+
+        long firstRow = mFirstRows[mStart];
+        Arrays.fill(mMessages, mStart, mStart + count, null);
+        mStart += count;
+        if (mStart == mEnd) {
+            int rows = (int) (mNextRow - firstRow);
+            clear();
+            return rows;
+        }
+        return (int) (mFirstRows[mStart] - firstRow);
+    }
+
+    void clear() {
+        Arrays.fill(mMessages, mStart, mEnd, null);
+        mStart = 0;
+        mEnd = 0;
+        mNextRow = 0;
+        mHasHistory = false;
+    }
+
+    int getMessageCount() {
+        return mEnd - mStart;
+    }
+
+    int getRowCount() {
+        return mStart == mEnd ? 0 : (int) (mNextRow - mFirstRows[mStart]);
+    }
+
+    LogCatMessage getMessage(int index) {
+        return mMessages[mStart + index];
+    }
+
+    /** Returns the row of the first line of the message at the given index. */
+    int getFirstRow(int index) {
+        return (int) (mFirstRows[mStart + index] - mFirstRows[mStart]);
+    }
+
+    /** Returns the index of the message that the given row is a line of. */
+    int getMessageIndex(int row) {
+        long key = mFirstRows[mStart] + row;
+        int i = Arrays.binarySearch(mFirstRows, mStart, mEnd, key);
+        if (i < 0) {
+            // not a first line: the message is the one before the insertion point
+            i = -i - 2;
+        }
+        return i - mStart;
+    }
+
+    /** Returns whether the given row is the first line of its message. */
+    boolean isFirstRow(int row) {
+        return getFirstRow(getMessageIndex(row)) == row;
+    }
+
+    /** Returns the line of its message shown in the given row. */
+    String getRowText(int row) {
+        int index = getMessageIndex(row);
+        String msg = getMessage(index).getMessage();
+        int lineCount = getLineCount(msg);
+        if (lineCount == 1) {
+            return msg;
+        }
+
+        int line = row - getFirstRow(index);
+        int start = line * mWrapWidth;
+        String s = msg.substring(start, Math.min(start + mWrapWidth, msg.length()));
+        return line < lineCount - 1 ? s + WRAP_MARKER : s;
+    }
+
+    private int getLineCount(LogCatMessage m) {
+        return getLineCount(m.getMessage());
+    }
+
+    /**
+     * Returns the number of lines a message is wrapped to.  A message is
+     * only wrapped if it is at least as long as the wrap width.
+     */
+    private int getLineCount(String msg) {
+        int len = msg.length();
+        if (mWrapWidth <= 0 || len < mWrapWidth) {
+            return 1;
+        }
+        return (len + mWrapWidth - 1) / mWrapWidth;
+    }
+
+    /** Moves the messages along the arrays, growing them, so that n messages fit before them. */
+    private void makeRoomAtStart(int n) {
+        int count = getMessageCount();
+        int length = Math.max(mMessages.length, Integer.highestOneBit(count + n) * 2);
+        LogCatMessage[] messages = new LogCatMessage[length];
+        long[] firstRows = new long[length];
+
+        System.arraycopy(mMessages, mStart, messages, n, count);
+        System.arraycopy(mFirstRows, mStart, firstRows, n, count);
+        mMessages = messages;
+        mFirstRows = firstRows;
+        mStart = n;
+        mEnd = n + count;
+    }
+
+    /** Moves the messages to the start of the arrays, growing them if they are over half full. */
+    private void makeRoom() {
+        int count = getMessageCount();
+        LogCatMessage[] messages = mMessages;
+        long[] firstRows = mFirstRows;
+        if (count > mMessages.length / 2) {
+            messages = new LogCatMessage[mMessages.length * 2];
+            firstRows = new long[mMessages.length * 2];
+        }
+
+        System.arraycopy(mMessages, mStart, messages, 0, count);
+        System.arraycopy(mFirstRows, mStart, firstRows, 0, count);
+        if (messages == mMessages) {
+            Arrays.fill(mMessages, count, mEnd, null);
+        }
+        mMessages = messages;
+        mFirstRows = firstRows;
+        mStart = 0;
+        mEnd = count;
+    }
+}
@@ -0,0 +1,326 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatFilter;
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+public class LogCatArchiveTest extends TestCase {
+    private static final int SEGMENT_SIZE = 1024;
+    private static final int SEGMENT_MESSAGES = 10;
+
+    private File mFolder;
+
+    @Override
+    protected void setUp() throws Exception {
+        mFolder = File.createTempFile("logcat", "archive");
+        assertTrue(mFolder.delete());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        File[] files = mFolder.listFiles();
+        if (files != null) {
+            for (File f : files) {
+                f.delete();
+            }
+        }
+        mFolder.delete();
+    }
+
+    private LogCatArchive openArchive(long maxSize) throws IOException {
+        return new LogCatArchive(mFolder, maxSize, SEGMENT_SIZE, SEGMENT_MESSAGES);
+    }
+
+    private static List<LogCatMessage> createMessages(int first, int count) {
+        LogLevel[] levels = LogLevel.values();
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count);
+        for (int i = first; i < first + count; i++) {
+            messages.add(new LogCatMessage(levels[i % levels.length], Integer.toString(i % 7),
+                    "1", "app" + i % 3, "tag" + i % 5, "01-01 00:00:00.000",
+                    "message " + i + " \u00e9t\u00e9"));
+        }
+        return messages;
+    }
+
+    private static void assertSameMessage(LogCatMessage expected, LogCatMessage actual) {
+        assertEquals(expected.toString(), actual.toString());
+        assertEquals(expected.getLogLevel(), actual.getLogLevel());
+        assertEquals(expected.getAppName(), actual.getAppName());
+    }
+
+    private int countDataFiles() {
+        int n = 0;
+        for (String name : mFolder.list()) {
+            if (name.endsWith(".log")) {
+                n++;
+            }
+        }
+        return n;
+    }
+
+    public void testAppendAndGet() throws IOException {
+        LogCatArchive archive = openArchive(1024 * 1024);
+        List<LogCatMessage> messages = createMessages(0, 35);
+        archive.appendMessages(messages.subList(0, 5));
+        archive.appendMessages(messages.subList(5, 35));
+
+        assertEquals(0, archive.getStartSequence());
+        assertEquals(35, archive.getEndSequence());
+        assertEquals(4, countDataFiles());
+        for (int i = 0; i < messages.size(); i++) {
+            assertSameMessage(messages.get(i), archive.get(i));
+        }
+        assertNull(archive.get(35));
+        archive.close();
+    }
+
+    public void testReopen() throws IOException {
+        LogCatArchive archive = openArchive(1024 * 1024);
+        List<LogCatMessage> messages = createMessages(0, 25);
+        archive.appendMessages(messages.subList(0, 15));
+        archive.close();
+
+        archive = openArchive(1024 * 1024);
+        assertEquals(15, archive.getEndSequence());
+        archive.appendMessages(messages.subList(15, 25));
+        for (int i = 0; i < messages.size(); i++) {
+            assertSameMessage(messages.get(i), archive.get(i));
+        }
+        archive.close();
+
+        // opening and closing an archive without adding messages leaves no empty segment
+        openArchive(1024 * 1024).close();
+        archive = openArchive(1024 * 1024);
+        assertEquals(25, archive.getEndSequence());
+        archive.close();
+    }
+
+    public void testRecoverUnclosedSegment() throws IOException {
+        LogCatArchive archive = openArchive(1024 * 1024);
+        List<LogCatMessage> messages = createMessages(0, 14);
+        archive.appendMessages(messages);
+
+        // the archive is opened again without closing it first
+        archive = openArchive(1024 * 1024);
+        assertEquals(14, archive.getEndSequence());
+        for (int i = 0; i < messages.size(); i++) {
+            assertSameMessage(messages.get(i), archive.get(i));
+        }
+        archive.close();
+    }
+
+    private File getSegmentFile(long firstSequence, String suffix) {
+        return new File(mFolder, String.format("%019d", firstSequence) + suffix);
+    }
+
+    public void testRecoverIncompleteSegmentFiles() throws IOException {
+        LogCatArchive archive = openArchive(1024 * 1024);
+        List<LogCatMessage> messages = createMessages(0, 35);
+        archive.appendMessages(messages);
+        archive.close();
+
+        // as if the archive was left while the index and summaries were written
+        RandomAccessFile index = new RandomAccessFile(getSegmentFile(0, ".idx"), "rw");
+        index.setLength(10);
+        index.close();
+        new RandomAccessFile(getSegmentFile(20, ".idx"), "rw").setLength(0);
+        assertTrue(getSegmentFile(10, ".sum").delete());
+
+        archive = openArchive(1024 * 1024);
+        assertEquals(0, archive.getStartSequence());
+        assertEquals(35, archive.getEndSequence());
+        for (int i = 0; i < messages.size(); i++) {
+            assertSameMessage(messages.get(i), archive.get(i));
+        }
+        for (String name : mFolder.list()) {
+            assertFalse(name, name.endsWith(".tmp"));
+        }
+
+        // a summary that is gone while the archive is open does not rule the segment out
+        assertTrue(getSegmentFile(0, ".sum").delete());
+        LogCatFilter filter = new LogCatFilter("name", "tag3", "", "", "", LogLevel.VERBOSE);
+        LogCatFilterMatcher matcher = new LogCatFilterMatcher(
+                Collections.<LogCatFilter>emptyList(), Collections.singletonList(filter));
+        LogCatArchive.Page page = archive.findMessages(matcher, 35, 100, 100);
+        assertEquals(7, page.getMessages().size());
+        assertEquals(3, page.getSequence(0));
+        archive.close();
+    }
+
+    public void testReadAfterClose() throws IOException {
+        LogCatArchive archive = openArchive(1024 * 1024);
+        List<LogCatMessage> messages = createMessages(0, 20);
+        archive.appendMessages(messages);
+        archive.close();
+
+        assertSameMessage(messages.get(18), archive.get(18));
+        LogCatFilter filter = new LogCatFilter("name", "tag3", "", "", "", LogLevel.VERBOSE);
+        LogCatFilterMatcher matcher = new LogCatFilterMatcher(
+                Collections.<LogCatFilter>emptyList(), Collections.singletonList(filter));
+        LogCatArchive.Page page = archive.findMessages(matcher, 20, 1, 100);
+        assertEquals(1, page.getMessages().size());
+        assertEquals(18, page.getSequence(0));
+
+        try {
+            archive.appendMessages(messages);
+            fail("Messages added to a closed archive");
+        } catch (IOException e) {
+            // expected
+        }
+    }
+
+    private long getFolderSize() {
+        long size = 0;
+        for (File f : mFolder.listFiles()) {
+            size += f.length();
+        }
+        return size;
+    }
+
+    public void testMaxSize() throws IOException {
+        long maxSize = 3 * SEGMENT_SIZE;
+        LogCatArchive archive = openArchive(maxSize);
+        List<LogCatMessage> messages = createMessages(0, 200);
+        archive.appendMessages(messages);
+        archive.close();
+
+        // the oldest segments are deleted once the files take more than the maximum size, no
+        // matter how full the segments are
+        long start = archive.getStartSequence();
+        assertTrue(start > 0);
+        assertTrue(getFolderSize() <= maxSize);
+        assertTrue(getFolderSize() > maxSize - SEGMENT_SIZE);
+        assertNull(archive.get(start - 1));
+        assertSameMessage(messages.get((int) start), archive.get(start));
+
+        // reopening the archive starts a new segment without deleting more history
+        for (int i = 0; i < 5; i++) {
+            archive = openArchive(maxSize);
+            archive.appendMessages(createMessages(0, 1));
+            archive.close();
+        }
+        assertTrue(archive.getStartSequence() <= start + 10);
+        assertTrue(getFolderSize() <= maxSize);
+    }
+
+    public void testFindMessages() throws IOException {
+        LogCatArchive archive = openArchive(1024 * 1024);
+        List<LogCatMessage> messages = createMessages(0, 200);
+        archive.appendMessages(messages);
+
+        LogCatFilter filter = new LogCatFilter("name", "tag[12]", "", "", "", LogLevel.INFO);
+        LogCatFilterMatcher matcher = new LogCatFilterMatcher(
+                Collections.<LogCatFilter>emptyList(), Collections.singletonList(filter));
+        List<LogCatMessage> expected = new ArrayList<LogCatMessage>();
+        for (LogCatMessage m : messages.subList(0, 150)) {
+            if (filter.matches(m)) {
+                expected.add(m);
+            }
+        }
+
+        // page back from the 150th message, a few messages at a time
+        List<LogCatMessage> found = new ArrayList<LogCatMessage>();
+        long end = 150;
+        boolean atStart = false;
+        while (!atStart) {
+            LogCatArchive.Page page = archive.findMessages(matcher, end, 7, 1000);
+            found.addAll(0, page.getMessages());
+            if (!page.getMessages().isEmpty()) {
+                assertTrue(page.getSequence(0) >= page.getScanStart());
+                assertSameMessage(messages.get((int) page.getSequence(0)),
+                        page.getMessages().get(0));
+            }
+            end = page.getScanStart();
+            atStart = page.isAtStart();
+        }
+        assertEquals(expected.size(), found.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertSameMessage(expected.get(i), found.get(i));
+        }
+
+        // the search stops after looking at the given number of messages
+        LogCatArchive.Page page = archive.findMessages(matcher, 150, 1000, 30);
+        assertEquals(120, page.getScanStart());
+        assertFalse(page.isAtStart());
+
+        // segments without messages from the pid are skipped without looking at them
+        filter = new LogCatFilter("name", "", "", "99", "", LogLevel.VERBOSE);
+        matcher = new LogCatFilterMatcher(
+                Collections.<LogCatFilter>emptyList(), Collections.singletonList(filter));
+        page = archive.findMessages(matcher, 200, 1000, 1);
+        assertTrue(page.getMessages().isEmpty());
+        assertTrue(page.isAtStart());
+        archive.close();
+    }
+
+    /** Adds messages to the log buffer, the archive and the rows of the table, like logcat. */
+    private static void receive(List<LogCatMessage> messages, LogCatMessageList buffer,
+            LogCatArchive archive, LogCatRowIndex rows) throws IOException {
+        int deleted = buffer.ensureSpace(messages.size()).size();
+        buffer.appendMessages(messages);
+        archive.appendMessages(messages);
+        rows.update(messages, deleted);
+    }
+
+    private static void assertContiguous(LogCatRowIndex rows, int first, int count) {
+        assertEquals(count, rows.getMessageCount());
+        for (int i = 0; i < count; i++) {
+            String text = rows.getMessage(i).getMessage();
+            assertEquals(first + i, Integer.parseInt(text.split(" ")[1]));
+        }
+    }
+
+    public void testHistoryAfterBufferOverflow() throws IOException {
+        LogCatArchive archive = openArchive(1024 * 1024);
+        LogCatMessageList buffer = new LogCatMessageList(20);
+        LogCatRowIndex rows = new LogCatRowIndex(0);
+        List<LogCatMessage> messages = createMessages(0, 100);
+        for (int i = 0; i < 50; i += 5) {
+            receive(messages.subList(i, i + 5), buffer, archive, rows);
+        }
+        assertContiguous(rows, 30, 20);
+
+        // load the messages before the table from the archive
+        LogCatFilterMatcher matcher = new LogCatFilterMatcher(
+                Collections.<LogCatFilter>emptyList(), Collections.<LogCatFilter>emptyList());
+        LogCatArchive.Page page = archive.findMessages(matcher, 30, 10, 1000);
+        rows.addFirst(page.getMessages());
+        assertContiguous(rows, 20, 30);
+
+        // the messages that leave the log buffer now stay in the table
+        for (int i = 50; i < 100; i += 7) {
+            receive(messages.subList(i, Math.min(i + 7, 100)), buffer, archive, rows);
+        }
+        assertEquals(20, buffer.getAllMessages().size());
+        assertContiguous(rows, 20, 80);
+
+        page = archive.findMessages(matcher, page.getScanStart(), 10, 1000);
+        rows.addFirst(page.getMessages());
+        assertContiguous(rows, 10, 90);
+        archive.close();
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatFilter;
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class LogCatFilterMatcherTest extends TestCase {
+    private static final String[] PATTERNS = {
+        "", "act", "Act", "activity", "ctiv", "tivity", "system", "Sys", "s", "ty",
+        "a.t", "^act", "ity$", "[0-9]+", "sys|act", "com\\.android", "foo(", "\\d",
+    };
+
+    private static final String[] WORDS = {
+        "Activity", "activity", "ACT", "system", "System", "com.android.launcher", "comxandroid",
+        "42", "tivity", "", "foo(",
+    };
+
+    private static LogCatFilter createFilter(String tag, String text, String pid, String app,
+            LogLevel level) {
+        return new LogCatFilter("name", tag, text, pid, app, level);
+    }
+
+    private static LogCatMessage createMessage(LogLevel level, String pid, String app, String tag,
+            String text) {
+        return new LogCatMessage(level, pid, "1", app, tag, "time", text);
+    }
+
+    public void testGetLiteral() {
+        assertEquals("act", LogCatFilterMatcher.getLiteral("act"));
+        assertEquals("com.android", LogCatFilterMatcher.getLiteral("com\\.android"));
+        assertNull(LogCatFilterMatcher.getLiteral("a.t"));
+        assertNull(LogCatFilterMatcher.getLiteral("\\d"));
+        assertNull(LogCatFilterMatcher.getLiteral("a\\"));
+    }
+
+    public void testMatch() {
+        List<LogCatFilter> filters = new ArrayList<LogCatFilter>();
+        filters.add(createFilter("act", "", "", "", LogLevel.VERBOSE));
+        filters.add(createFilter("", "", "12", "", LogLevel.VERBOSE));
+        filters.add(createFilter("", "", "", "", LogLevel.WARN));
+        filters.add(createFilter("Act", "ity", "", "", LogLevel.VERBOSE));
+        LogCatFilterMatcher matcher = new LogCatFilterMatcher(filters,
+                Collections.<LogCatFilter>emptyList());
+
+        BitSet matches = matcher.match(
+                createMessage(LogLevel.INFO, "12", "app", "ActivityManager", "activity"));
+        assertEquals("{0, 1, 3}", matches.toString());
+
+        matches = matcher.match(
+                createMessage(LogLevel.ERROR, "13", "app", "activitymanager", "activity"));
+        assertEquals("{0, 2}", matches.toString());
+        assertTrue(matcher.isAccepted(matches));
+    }
+
+    public void testRequiredFilters() {
+        List<LogCatFilter> required = new ArrayList<LogCatFilter>();
+        required.add(createFilter("tag", "", "", "", LogLevel.VERBOSE));
+        required.add(createFilter("", "text", "", "", LogLevel.VERBOSE));
+        LogCatFilterMatcher matcher = new LogCatFilterMatcher(
+                Collections.<LogCatFilter>emptyList(), required);
+
+        assertEquals(0, matcher.getFilterCount());
+        assertTrue(matcher.isAccepted(matcher.match(
+                createMessage(LogLevel.INFO, "1", "app", "tag", "some text"))));
+        assertFalse(matcher.isAccepted(matcher.match(
+                createMessage(LogLevel.INFO, "1", "app", "tag", "something else"))));
+    }
+
+    /** The matcher must agree with {@link LogCatFilter#matches} on any filter and message. */
+    public void testSameAsLogCatFilter() {
+        Random r = new Random(42);
+        LogLevel[] levels = LogLevel.values();
+        String[] pids = { "", "1", "2" };
+
+        List<LogCatFilter> filters = new ArrayList<LogCatFilter>();
+        for (int i = 0; i < 200; i++) {
+            filters.add(createFilter(
+                    PATTERNS[r.nextInt(PATTERNS.length)],
+                    PATTERNS[r.nextInt(PATTERNS.length)],
+                    pids[r.nextInt(pids.length)],
+                    PATTERNS[r.nextInt(PATTERNS.length)],
+                    levels[r.nextInt(levels.length)]));
+        }
+        LogCatFilterMatcher matcher = new LogCatFilterMatcher(filters,
+                Collections.<LogCatFilter>emptyList());
+
+        for (int i = 0; i < 2000; i++) {
+            LogCatMessage m = createMessage(
+                    levels[r.nextInt(levels.length)],
+                    pids[1 + r.nextInt(pids.length - 1)],
+                    createText(r), createText(r), createText(r));
+            BitSet matches = matcher.match(m);
+            for (int j = 0; j < filters.size(); j++) {
+                assertEquals(filters.get(j).matches(m), matches.get(j));
+            }
+        }
+    }
+
+    private static String createText(Random r) {
+        StringBuilder sb = new StringBuilder();
+        int n = r.nextInt(4);
+        for (int i = 0; i < n; i++) {
+            sb.append(WORDS[r.nextInt(WORDS.length)]);
+            sb.append(' ');
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatFilter;
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+public class LogCatMessageIndexTest extends TestCase {
+    private static final String[] TAGS = {
+        "ActivityManager", "dalvikvm", "System.out", "WindowManager", "libc",
+    };
+
+    private static final String[] WORDS = {
+        "Start", "proc", "com.android.launcher", "activity", "GC_CONCURRENT", "freed", "42K",
+        "ActivityThread", "wake-lock", "...", "",
+    };
+
+    private static final String[] TEXT_PATTERNS = {
+        "", "activity", "Activity", "proc com", "com.android", "com\\.android", "freed 42",
+        "gc_", "tivity", "wake-lock", "[0-9]+K", "nothing", "(",
+    };
+
+    private static LogCatFilter createFilter(String tag, String text, String pid, String app,
+            LogLevel level) {
+        return new LogCatFilter("name", tag, text, pid, app, level);
+    }
+
+    private static List<LogCatMessage> createMessages(Random r, int count) {
+        LogLevel[] levels = LogLevel.values();
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count);
+        for (int i = 0; i < count; i++) {
+            StringBuilder text = new StringBuilder();
+            int n = r.nextInt(5);
+            for (int j = 0; j < n; j++) {
+                text.append(WORDS[r.nextInt(WORDS.length)]);
+                text.append(' ');
+            }
+            messages.add(new LogCatMessage(levels[r.nextInt(levels.length)],
+                    Integer.toString(r.nextInt(5)), "1", "app" + r.nextInt(3),
+                    TAGS[r.nextInt(TAGS.length)], "time", text.toString()));
+        }
+        return messages;
+    }
+
+    private static List<LogCatFilter> createFilters(Random r, int count) {
+        LogLevel[] levels = LogLevel.values();
+        String[] tags = { "", "activity", "Manager", "^lib", "System\\." };
+        String[] pids = { "", "1", "3" };
+        String[] apps = { "", "app1", "app[12]" };
+
+        List<LogCatFilter> filters = new ArrayList<LogCatFilter>(count);
+        for (int i = 0; i < count; i++) {
+            filters.add(createFilter(tags[r.nextInt(tags.length)],
+                    TEXT_PATTERNS[r.nextInt(TEXT_PATTERNS.length)],
+                    pids[r.nextInt(pids.length)],
+                    apps[r.nextInt(apps.length)],
+                    levels[r.nextInt(levels.length)]));
+        }
+        return filters;
+    }
+
+    private static List<LogCatMessage> filter(Iterable<LogCatMessage> messages,
+            List<LogCatFilter> filters) {
+        List<LogCatMessage> result = new ArrayList<LogCatMessage>();
+        for (LogCatMessage m : messages) {
+            boolean accepted = true;
+            for (LogCatFilter f : filters) {
+                accepted &= f.matches(m);
+            }
+            if (accepted) {
+                result.add(m);
+            }
+        }
+        return result;
+    }
+
+    public void testFindMessages() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        list.appendMessages(Collections.singletonList(new LogCatMessage(LogLevel.INFO, "1", "1",
+                "app", "ActivityManager", "time", "Start proc com.android.launcher")));
+        list.appendMessages(Collections.singletonList(new LogCatMessage(LogLevel.DEBUG, "2",
+                "1", "app", "dalvikvm", "time", "GC_CONCURRENT freed 42K")));
+
+        LogCatMessageList.Snapshot snapshot = list.getSnapshot();
+        List<LogCatFilter> filters = Collections.singletonList(
+                createFilter("", "android.launch", "", "", LogLevel.VERBOSE));
+        LogCatFilterMatcher matcher = new LogCatFilterMatcher(
+                Collections.<LogCatFilter>emptyList(), filters);
+        List<LogCatMessage> found = list.findMessages(snapshot, matcher);
+        assertEquals(1, found.size());
+        assertEquals("ActivityManager", found.get(0).getTag());
+
+        assertEquals(1, list.countMessages(snapshot,
+                createFilter("vm", "", "", "", LogLevel.VERBOSE)));
+        assertEquals(1, list.countMessages(snapshot,
+                createFilter("", "", "", "", LogLevel.INFO)));
+        assertEquals(0, list.countMessages(snapshot,
+                createFilter("", "freed 4", "1", "", LogLevel.VERBOSE)));
+    }
+
+    public void testClear() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        list.appendMessages(createMessages(new Random(1), 5));
+        list.clear();
+        list.appendMessages(createMessages(new Random(2), 3));
+
+        LogCatFilter all = createFilter("", "", "", "", LogLevel.VERBOSE);
+        assertEquals(3, list.countMessages(list.getSnapshot(), all));
+    }
+
+    /** The indexes must find the same messages as matching the filters against all of them. */
+    public void testSameAsLogCatFilter() {
+        Random r = new Random(42);
+        LogCatMessageList list = new LogCatMessageList(3000);
+
+        for (int round = 0; round < 10; round++) {
+            // add more messages than the list holds, so that some are pushed out of it
+            list.appendMessages(createMessages(r, 1000));
+
+            LogCatMessageList.Snapshot snapshot = list.getSnapshot();
+            for (int i = 0; i < 20; i++) {
+                List<LogCatFilter> filters = createFilters(r, 1 + r.nextInt(2));
+                LogCatFilterMatcher matcher = new LogCatFilterMatcher(
+                        Collections.<LogCatFilter>emptyList(), filters);
+                List<LogCatMessage> expected = filter(snapshot, filters);
+                assertEquals(expected, list.findMessages(snapshot, matcher));
+                assertEquals(filter(snapshot, filters.subList(0, 1)).size(),
+                        list.countMessages(snapshot, filters.get(0)));
+            }
+        }
+    }
+
+    /** The indexes are searched while messages are added, without holding up the writer. */
+    public void testFindWhileAdding() throws InterruptedException {
+        Random r = new Random(7);
+        final List<LogCatMessage> messages = createMessages(r, 20000);
+        final LogCatMessageList list = new LogCatMessageList(messages.size());
+
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < messages.size(); i += 50) {
+                    list.appendMessages(messages.subList(i, i + 50));
+                }
+            }
+        });
+        writer.start();
+
+        // every message of a snapshot must be found, as none is pushed out of the list
+        do {
+            LogCatMessageList.Snapshot snapshot = list.getSnapshot();
+            List<LogCatFilter> filters = createFilters(r, 1);
+            LogCatFilterMatcher matcher = new LogCatFilterMatcher(
+                    Collections.<LogCatFilter>emptyList(), filters);
+            assertEquals(filter(snapshot, filters), list.findMessages(snapshot, matcher));
+        } while (writer.isAlive());
+        writer.join();
+    }
+}
@@ -0,0 +1,179 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class LogCatMessageListTest extends TestCase {
+    private static List<LogCatMessage> createMessages(int first, int count) {
+        List<LogCatMessage> messages = new ArrayList<LogCatMessage>(count);
+        for (int i = first; i < first + count; i++) {
+            messages.add(new LogCatMessage(LogLevel.INFO, "1", "1", "app", "tag", "time",
+                    Integer.toString(i)));
+        }
+        return messages;
+    }
+
+    private static List<String> getTexts(Iterable<LogCatMessage> messages) {
+        List<String> texts = new ArrayList<String>();
+        for (LogCatMessage m : messages) {
+            texts.add(m.getMessage());
+        }
+        return texts;
+    }
+
+    private static List<String> getTexts(int first, int count) {
+        return getTexts(createMessages(first, count));
+    }
+
+    public void testAppend() {
+        LogCatMessageList list = new LogCatMessageList(10);
+        list.appendMessages(createMessages(0, 4));
+
+        assertEquals(getTexts(0, 4), getTexts(list.getAllMessages()));
+        assertEquals(6, list.remainingCapacity());
+    }
+
+    public void testEnsureSpace() {
+        LogCatMessageList list = new LogCatMessageList(5);
+        list.appendMessages(createMessages(0, 4));
+
+        List<LogCatMessage> deleted = list.ensureSpace(3);
+        assertEquals(getTexts(0, 2), getTexts(deleted));
+        list.appendMessages(createMessages(4, 3));
+        assertEquals(getTexts(2, 5), getTexts(list.getAllMessages()));
+        assertEquals(0, list.remainingCapacity());
+    }
+
+    public void testAppendPastCapacity() {
+        LogCatMessageList list = new LogCatMessageList(3);
+        list.appendMessages(createMessages(0, 7));
+
+        assertEquals(getTexts(4, 3), getTexts(list.getAllMessages()));
+    }
+
+    public void testSnapshotSequences() {
+        LogCatMessageList list = new LogCatMessageList(4);
+        list.appendMessages(createMessages(0, 6));
+
+        LogCatMessageList.Snapshot snapshot = list.getSnapshot();
+        assertEquals(2, snapshot.getStartSequence());
+        assertEquals(6, snapshot.getEndSequence());
+        assertEquals(4, snapshot.size());
+        assertEquals("3", snapshot.get(3).getMessage());
+    }
+
+    public void testSnapshotFromCursor() {
+        LogCatMessageList list = new LogCatMessageList(100);
+        list.appendMessages(createMessages(0, 5));
+        long cursor = list.getSnapshot().getEndSequence();
+
+        list.appendMessages(createMessages(5, 3));
+        LogCatMessageList.Snapshot snapshot = list.getSnapshot(cursor);
+        assertEquals(getTexts(5, 3), getTexts(snapshot));
+        assertEquals(0, list.getSnapshot(snapshot.getEndSequence()).size());
+    }
+
+    public void testSnapshotSkipsDeletedMessages() {
+        LogCatMessageList list = new LogCatMessageList(4);
+        list.appendMessages(createMessages(0, 4));
+        LogCatMessageList.Snapshot snapshot = list.getSnapshot();
+
+        // The new messages push out the first two of the snapshot, whose
+        // slots they reuse.
+        list.appendMessages(createMessages(4, 2));
+        assertNull(snapshot.get(0));
+        assertNull(snapshot.get(1));
+        assertEquals(getTexts(2, 2), getTexts(snapshot));
+    }
+
+    public void testResize() {
+        LogCatMessageList list = new LogCatMessageList(8);
+        list.appendMessages(createMessages(0, 8));
+
+        list.resize(3);
+        assertEquals(getTexts(5, 3), getTexts(list.getAllMessages()));
+        assertEquals(5, list.getSnapshot().getStartSequence());
+
+        list.resize(6);
+        list.appendMessages(createMessages(8, 2));
+        assertEquals(getTexts(5, 5), getTexts(list.getAllMessages()));
+
+        list.resize(100);
+        list.appendMessages(createMessages(10, 50));
+        assertEquals(getTexts(5, 55), getTexts(list.getAllMessages()));
+        assertEquals(60, list.getSnapshot().getEndSequence());
+    }
+
+    public void testClear() {
+        LogCatMessageList list = new LogCatMessageList(8);
+        list.appendMessages(createMessages(0, 5));
+        LogCatMessageList.Snapshot snapshot = list.getSnapshot();
+
+        list.clear();
+        assertEquals(0, list.getAllMessages().size());
+        assertEquals(0, getTexts(snapshot).size());
+
+        // Sequence numbers keep increasing across a clear.
+        list.appendMessages(createMessages(5, 2));
+        assertEquals(5, list.getSnapshot().getStartSequence());
+        assertEquals(getTexts(5, 2), getTexts(list.getAllMessages()));
+    }
+
+    public void testConcurrentReader() throws InterruptedException {
+        final LogCatMessageList list = new LogCatMessageList(64);
+        final int numMessages = 200000;
+        Thread writer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < numMessages; i += 10) {
+                    list.ensureSpace(10);
+                    list.appendMessages(createMessages(i, 10));
+                    if (i % 10000 == 0) {
+                        list.resize(i % 20000 == 0 ? 16 : 256);
+                    }
+                }
+            }
+        });
+        writer.start();
+
+        // Every message read must be the one with its sequence number, and
+        // the messages of a snapshot must be in order.
+        while (writer.isAlive()) {
+            LogCatMessageList.Snapshot snapshot = list.getSnapshot();
+            for (long seq = snapshot.getStartSequence(); seq < snapshot.getEndSequence(); seq++) {
+                LogCatMessage m = snapshot.get(seq);
+                if (m != null) {
+                    assertEquals(Long.toString(seq), m.getMessage());
+                }
+            }
+            int previous = -1;
+            for (LogCatMessage m : snapshot) {
+                int value = Integer.parseInt(m.getMessage());
+                assertTrue(value > previous);
+                previous = value;
+            }
+        }
+        writer.join();
+        assertEquals(numMessages, list.getSnapshot().getEndSequence());
+    }
+}
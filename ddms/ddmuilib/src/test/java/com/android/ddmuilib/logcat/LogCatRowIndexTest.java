@@ -0,0 +1,168 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.ddmuilib.logcat;
+
+import com.android.ddmlib.Log.LogLevel;
+import com.android.ddmlib.logcat.LogCatMessage;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+
+public class LogCatRowIndexTest extends TestCase {
+    private static LogCatMessage createMessage(String text) {
+        return new LogCatMessage(LogLevel.INFO, "1", "1", "app", "tag", "time", text);
+    }
+
+    private static String repeat(char c, int n) {
+        StringBuilder sb = new StringBuilder(n);
+        for (int i = 0; i < n; i++) {
+            sb.append(c);
+        }
+        return sb.toString();
+    }
+
+    public void testWrappedRows() {
+        LogCatRowIndex rows = new LogCatRowIndex(4);
+        rows.add(createMessage("abc"));
+        rows.add(createMessage("abcdefghij"));
+        rows.add(createMessage("abcd"));
+
+        assertEquals(3, rows.getMessageCount());
+        assertEquals(5, rows.getRowCount());
+
+        assertEquals("abc", rows.getRowText(0));
+        assertEquals("abcd" + LogCatRowIndex.WRAP_MARKER, rows.getRowText(1));
+        assertEquals("efgh" + LogCatRowIndex.WRAP_MARKER, rows.getRowText(2));
+        assertEquals("ij", rows.getRowText(3));
+        assertEquals("abcd", rows.getRowText(4));
+
+        assertTrue(rows.isFirstRow(1));
+        assertFalse(rows.isFirstRow(2));
+        assertFalse(rows.isFirstRow(3));
+        assertEquals(1, rows.getMessageIndex(3));
+        assertEquals(4, rows.getFirstRow(2));
+    }
+
+    public void testRemoveFirst() {
+        LogCatRowIndex rows = new LogCatRowIndex(4);
+        rows.add(createMessage("abcdefgh"));
+        rows.add(createMessage("a"));
+        rows.add(createMessage("abcdef"));
+
+        assertEquals(2, rows.removeFirst(1));
+        assertEquals(3, rows.getRowCount());
+        assertEquals("a", rows.getRowText(0));
+        assertEquals(1, rows.getMessageIndex(2));
+
+        // removing more messages than there are empties the index
+        assertEquals(3, rows.removeFirst(5));
+        assertEquals(0, rows.getMessageCount());
+        assertEquals(0, rows.getRowCount());
+    }
+
+    public void testUpdate() {
+        LogCatRowIndex rows = new LogCatRowIndex(4);
+        rows.add(createMessage("abcdef"));
+        rows.add(createMessage("a"));
+
+        // the removed messages are the first of the index, then the first of the new ones
+        assertEquals(2, rows.update(Arrays.asList(createMessage("b")), 1));
+        assertEquals(2, rows.getMessageCount());
+        assertEquals("a", rows.getRowText(0));
+        assertEquals(2, rows.update(Arrays.asList(createMessage("c"), createMessage("d"),
+                createMessage("e")), 3));
+        assertEquals(2, rows.getMessageCount());
+        assertEquals("d", rows.getRowText(0));
+        assertEquals("e", rows.getRowText(1));
+    }
+
+    public void testAddFirst() {
+        LogCatRowIndex rows = new LogCatRowIndex(4);
+        rows.add(createMessage("a"));
+        rows.add(createMessage("abcdef"));
+
+        assertEquals(3, rows.addFirst(Arrays.asList(createMessage("abcde"), createMessage("b"))));
+        assertEquals(4, rows.getMessageCount());
+        assertEquals(6, rows.getRowCount());
+        assertEquals("abcd" + LogCatRowIndex.WRAP_MARKER, rows.getRowText(0));
+        assertEquals("b", rows.getRowText(2));
+        assertEquals("a", rows.getRowText(3));
+        assertEquals(2, rows.getMessageIndex(3));
+
+        // once there are older messages, no messages are removed
+        assertEquals(0, rows.update(Arrays.asList(createMessage("c")), 2));
+        assertEquals(5, rows.getMessageCount());
+        assertEquals(7, rows.getRowCount());
+        assertEquals("a", rows.getRowText(3));
+        assertEquals("c", rows.getRowText(6));
+        assertEquals(4, rows.getFirstRow(3));
+
+        rows.clear();
+        assertEquals(1, rows.addFirst(Arrays.asList(createMessage("d"))));
+        rows.add(createMessage("e"));
+        assertEquals(2, rows.getRowCount());
+        assertEquals("e", rows.getRowText(1));
+
+        for (int i = 0; i < 1000; i++) {
+            rows.addFirst(Arrays.asList(createMessage(repeat('x', i % 3))));
+        }
+        assertEquals(1002, rows.getMessageCount());
+        assertEquals(1002, rows.getRowCount());
+        assertEquals("", rows.getRowText(0));
+        assertEquals(1001, rows.getMessageIndex(1001));
+    }
+
+    public void testSetWrapWidth() {
+        LogCatRowIndex rows = new LogCatRowIndex(4);
+        rows.add(createMessage("a"));
+        rows.add(createMessage("abcdefghij"));
+        rows.removeFirst(1);
+        assertEquals(3, rows.getRowCount());
+
+        rows.setWrapWidth(5);
+        assertEquals(2, rows.getRowCount());
+        assertEquals("fghij", rows.getRowText(1));
+
+        rows.setWrapWidth(20);
+        assertEquals(1, rows.getRowCount());
+        assertEquals("abcdefghij", rows.getRowText(0));
+    }
+
+    public void testManyMessages() {
+        LogCatRowIndex rows = new LogCatRowIndex(10);
+        int added = 0;
+        int removed = 0;
+        for (int i = 0; i < 10000; i++) {
+            rows.add(createMessage(repeat('x', i % 25)));
+            added++;
+            if (rows.getMessageCount() > 500) {
+                rows.removeFirst(100);
+                removed += 100;
+            }
+        }
+
+        assertEquals(added - removed, rows.getMessageCount());
+        int row = 0;
+        for (int i = 0; i < rows.getMessageCount(); i++) {
+            assertEquals(row, rows.getFirstRow(i));
+            assertEquals(i, rows.getMessageIndex(row));
+            int len = rows.getMessage(i).getMessage().length();
+            row += len < 10 ? 1 : (len + 9) / 10;
+        }
+        assertEquals(row, rows.getRowCount());
+    }
+}
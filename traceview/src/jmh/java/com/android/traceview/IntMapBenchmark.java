@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.HashMap;
+
+/**
+ * Compares the method lookup done for every record of a trace, in records
+ * per second, through the boxed HashMap the loader used to keep and through
+ * IntMap.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class IntMapBenchmark {
+    static final int RECORDS = 1000000;
+
+    @Param({"50000"})
+    public int methods;
+
+    private int[] mRecordMethodIds;
+    private HashMap<Integer, MethodData> mHashMap;
+    private IntMap<MethodData> mIntMap;
+
+    @Setup
+    public void setUp() {
+        mRecordMethodIds = new SyntheticTrace("dual", 8, methods, RECORDS, 42).methodIds();
+        mHashMap = new HashMap<Integer, MethodData>();
+        mIntMap = new IntMap<MethodData>();
+        for (int m = 0; m < methods; m++) {
+            int id = SyntheticTrace.methodId(m);
+            MethodData methodData = new MethodData(id, "C" + m);
+            mHashMap.put(id, methodData);
+            mIntMap.put(id, methodData);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void hashMap(Blackhole blackhole) {
+        for (int methodId : mRecordMethodIds) {
+            blackhole.consume(mHashMap.get(methodId & ~0x03));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public void intMap(Blackhole blackhole) {
+        for (int methodId : mRecordMethodIds) {
+            blackhole.consume(mIntMap.get(methodId & ~0x03));
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Measures how many records per second DmTraceReader loads from a synthetic
+ * trace, both for the whole load and for each of its stages: the key
+ * section, the data section, and the analysis of the profile.  Each stage
+ * starts from a reader that has just finished the stages before it.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class LoaderBenchmark {
+    static final int RECORDS = 1000000;
+
+    @Param({"50000"})
+    public int methods;
+
+    @Param({"8"})
+    public int threads;
+
+    @Param({"12"})
+    public int depth;
+
+    @Param({"dual"})
+    public String clock;
+
+    private File mTrace;
+
+    @Setup(Level.Trial)
+    public void writeTrace() throws IOException {
+        mTrace = new SyntheticTrace(clock, threads, methods, RECORDS, depth, 42).write();
+    }
+
+    @TearDown(Level.Trial)
+    public void deleteTrace() {
+        mTrace.delete();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public DmTraceReader load() throws IOException {
+        return new DmTraceReader(mTrace.getPath(), false);
+    }
+
+    /**
+     * Counts the methods of the key section as its records.
+     */
+    @Benchmark
+    public long parseKeys(KeyCounter counter) throws IOException {
+        counter.methods += methods;
+        return new DmTraceReader(mTrace.getPath()).parseKeys();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public DmTraceReader parseData(KeysParsed keys) throws IOException {
+        keys.mReader.parseData(keys.mOffset);
+        return keys.mReader;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(RECORDS)
+    public DmTraceReader analyzeData(DataParsed data) {
+        data.mReader.analyzeData();
+        return data.mReader;
+    }
+
+    /**
+     * The number of methods whose keys were parsed, reported per second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class KeyCounter {
+        public long methods;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            methods = 0;
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class KeysParsed {
+        DmTraceReader mReader;
+        long mOffset;
+
+        @Setup(Level.Invocation)
+        public void parseKeys(LoaderBenchmark benchmark) throws IOException {
+            mReader = new DmTraceReader(benchmark.mTrace.getPath());
+            mOffset = mReader.parseKeys();
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class DataParsed {
+        DmTraceReader mReader;
+
+        @Setup(Level.Invocation)
+        public void parseData(LoaderBenchmark benchmark) throws IOException {
+            mReader = new DmTraceReader(benchmark.mTrace.getPath());
+            mReader.parseData(mReader.parseKeys());
+        }
+    }
+}
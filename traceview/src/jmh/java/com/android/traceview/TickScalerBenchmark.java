@@ -0,0 +1,76 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Measures the tick and pixel math the timeline does for each frame, over
+ * the ranges of a zoom from a whole trace down to a few microseconds.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TickScalerBenchmark {
+    static final int RANGES = 1000;
+    static final int PIXELS = 1600;
+    static final double TRACE_LENGTH = 60e6;
+
+    private final TickScaler mScaler = new TickScaler(0, 0, PIXELS, TimeLineView.PixelsPerTick);
+
+    /**
+     * Computes the ticks of each range, as the view does when it zooms.
+     */
+    @Benchmark
+    @OperationsPerInvocation(RANGES)
+    public void computeTicks(Blackhole blackhole) {
+        double range = TRACE_LENGTH;
+        for (int i = 0; i < RANGES; i++) {
+            mScaler.setMinVal(i);
+            mScaler.setMaxVal(i + range);
+            mScaler.computeTicks(i % 2 == 0);
+            blackhole.consume(mScaler.getTickIncrement());
+            range *= 0.99;
+        }
+    }
+
+    /**
+     * Converts every pixel of a range to a time and back, as the strips and
+     * the mouse handlers do.
+     */
+    @Benchmark
+    @OperationsPerInvocation(PIXELS)
+    public void pixelToValue(Blackhole blackhole) {
+        mScaler.setMinVal(0);
+        mScaler.setMaxVal(TRACE_LENGTH);
+        mScaler.computeTicks(true);
+        for (int pixel = 0; pixel < PIXELS; pixel++) {
+            blackhole.consume(mScaler.valueToPixel(mScaler.pixelToValue(pixel)));
+        }
+    }
+}
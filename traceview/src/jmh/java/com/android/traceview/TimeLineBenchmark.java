@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import org.eclipse.swt.graphics.Color;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
+
+/**
+ * Measures the work behind each frame of the timeline, without a Display:
+ * building the segments of the rows from the calls of a synthetic trace,
+ * in calls per second, and computing the strips of the visible range, in
+ * frames per second.  The visible range is the middle 1/zoom of the trace,
+ * 1600 pixels wide.
+ */
+@BenchmarkMode(Mode.Throughput)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = "-Xmx2g")
+@State(Scope.Benchmark)
+public class TimeLineBenchmark {
+    static final int RECORDS = 1000000;
+    static final int PIXELS = 1600;
+
+    @Param({"50000"})
+    public int methods;
+
+    @Param({"8"})
+    public int threads;
+
+    @Param({"12"})
+    public int depth;
+
+    @Param({"dual"})
+    public String clock;
+
+    @Param({"1", "1000"})
+    public int zoom;
+
+    private DmTraceReader mReader;
+    private TimeLineView.TimeLineData mData;
+    private TickScaler mScaleInfo;
+    private Color mColor;
+
+    @Setup(Level.Trial)
+    public void loadTrace() throws Exception {
+        File trace = new SyntheticTrace(clock, threads, methods, RECORDS, depth, 42).write();
+        try {
+            mReader = new DmTraceReader(trace.getPath(), false);
+        } finally {
+            trace.delete();
+        }
+
+        // Only the methods with a color are drawn, as in the view.
+        mColor = newColor();
+        for (MethodData md : mReader.getMethods()) {
+            md.setColor(mColor);
+            md.setFadedColor(mColor);
+        }
+
+        mData = new TimeLineView.TimeLineData(mReader.getThreadLabels());
+        mData.setData(mReader.getThreads(), mReader.getTimeLineCalls());
+        double range = (double) (mData.getMaxTime() - mData.getMinTime()) / zoom;
+        double minVal = mData.getMinTime() + (zoom - 1) * range / 2;
+        mScaleInfo = new TickScaler(minVal, minVal + range, PIXELS, TimeLineView.PixelsPerTick);
+        mScaleInfo.computeTicks(true);
+    }
+
+    @Benchmark
+    public TimeLineView.TimeLineData segments(CallCounter counter) {
+        CallTable calls = mReader.getTimeLineCalls();
+        counter.calls += calls.size();
+        TimeLineView.TimeLineData data = new TimeLineView.TimeLineData(
+                mReader.getThreadLabels());
+        data.setData(mReader.getThreads(), calls);
+        return data;
+    }
+
+    @Benchmark
+    public int strips() {
+        TimeLineView.StripComputation computation = new TimeLineView.StripComputation(
+                mData, mScaleInfo, mData.getNumRows() - 1, null, null, false, mColor, mColor);
+        computation.computeStrips();
+        return computation.getNumStrips();
+    }
+
+    /**
+     * The number of calls turned into segments, reported per
+     * second.
+     */
+    @State(Scope.Thread)
+    @AuxCounters
+    public static class CallCounter {
+        public long calls;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            calls = 0;
+        }
+    }
+
+    /**
+     * Returns a Color that belongs to no Device.  Colors normally need a
+     * Display, but the strips only pass them along and compare them with
+     * null, so any instance will do.
+     */
+    private static Color newColor() throws Exception {
+        Class<?> unsafeClass = Class.forName("sun.misc.Unsafe");
+        Field field = unsafeClass.getDeclaredField("theUnsafe");
+        field.setAccessible(true);
+        Method allocateInstance = unsafeClass.getMethod("allocateInstance", Class.class);
+        return (Color) allocateInstance.invoke(field.get(null), Color.class);
+    }
+}
@@ -18,148 +18,95 @@ package com.android.traceview;
 
 import org.eclipse.swt.graphics.Color;
 
-class Call implements TimeLineView.Block {
-    final private ThreadData mThreadData;
-    final private MethodData mMethodData;
-    final Call mCaller; // the caller, or null if this is the root
+/**
+ * A call of a method.  While a trace is parsed, its calls are MutableCalls;
+ * once they are finished, they are kept in a CallTable, which hands out
+ * Calls that only point at a row of the table.
+ */
+abstract class Call implements TimeLineView.Block {
 
-    private String mName;
-    private boolean mIsRecursive;
+    public abstract ThreadData getThreadData();
 
-    long mGlobalStartTime;
-    long mGlobalEndTime;
+    public int getThreadId() {
+        return getThreadData().getId();
+    }
 
-    long mThreadStartTime;
-    long mThreadEndTime;
+    /**
+     * Returns the caller, or null if this is the root call of its thread.
+     */
+    abstract Call getCaller();
 
-    long mInclusiveRealTime; // real time spent in this call including its children
-    long mExclusiveRealTime; // real time spent in this call including its children
+    abstract long getThreadStartTime();
 
-    long mInclusiveCpuTime; // cpu time spent in this call including its children
-    long mExclusiveCpuTime; // cpu time spent in this call excluding its children
+    abstract long getThreadEndTime();
 
-    Call(ThreadData threadData, MethodData methodData, Call caller) {
-        mThreadData = threadData;
-        mMethodData = methodData;
-        mName = methodData.getProfileName();
-        mCaller = caller;
-    }
-
-    public void updateName() {
-        mName = mMethodData.getProfileName();
-    }
+    public abstract boolean isRecursive();
 
     @Override
     public double addWeight(int x, int y, double weight) {
-        return mMethodData.addWeight(x, y, weight);
+        return getMethodData().addWeight(x, y, weight);
     }
 
     @Override
     public void clearWeight() {
-        mMethodData.clearWeight();
-    }
-
-    @Override
-    public long getStartTime() {
-        return mGlobalStartTime;
-    }
-
-    @Override
-    public long getEndTime() {
-        return mGlobalEndTime;
-    }
-
-    @Override
-    public long getExclusiveCpuTime() {
-        return mExclusiveCpuTime;
-    }
-
-    @Override
-    public long getInclusiveCpuTime() {
-        return mInclusiveCpuTime;
-    }
-
-    @Override
-    public long getExclusiveRealTime() {
-        return mExclusiveRealTime;
-    }
-
-    @Override
-    public long getInclusiveRealTime() {
-        return mInclusiveRealTime;
+        getMethodData().clearWeight();
     }
 
     @Override
     public Color getColor() {
-        return mMethodData.getColor();
+        return getMethodData().getColor();
     }
 
     @Override
     public String getName() {
-        return mName;
-    }
-
-    public void setName(String name) {
-        mName = name;
-    }
-
-    public ThreadData getThreadData() {
-        return mThreadData;
-    }
-
-    public int getThreadId() {
-        return mThreadData.getId();
-    }
-
-    @Override
-    public MethodData getMethodData() {
-        return mMethodData;
+        // The profile name follows the rank of the method, which changes
+        // when the methods are ranked.
+        return getMethodData().getProfileName();
     }
 
     @Override
     public boolean isContextSwitch() {
-        return mMethodData.getId() == -1;
+        return getMethodData().getId() == -1;
     }
 
     @Override
     public boolean isIgnoredBlock() {
         // Ignore the top-level call or context switches within the top-level call.
-        return mCaller == null || isContextSwitch() && mCaller.mCaller == null;
+        Call caller = getCaller();
+        return caller == null || isContextSwitch() && caller.getCaller() == null;
     }
 
     @Override
     public TimeLineView.Block getParentBlock() {
-        return mCaller;
+        return getCaller();
     }
 
-    public boolean isRecursive() {
-        return mIsRecursive;
-    }
-
-    void setRecursive(boolean isRecursive) {
-        mIsRecursive = isRecursive;
-    }
-
-    void addCpuTime(long elapsedCpuTime) {
-        mExclusiveCpuTime += elapsedCpuTime;
-        mInclusiveCpuTime += elapsedCpuTime;
+    /**
+     * Record time spent in the method call in the profile of methodData,
+     * which is either the method of this call or a private copy of it.
+     * callerMethodData is the matching method (or copy) of the caller.
+     */
+    void addToProfile(MethodData methodData, MethodData callerMethodData) {
+        addToProfile(methodData, callerMethodData, getInclusiveCpuTime(), getExclusiveCpuTime(),
+                getInclusiveRealTime(), getExclusiveRealTime());
     }
 
     /**
-     * Record time spent in the method call.
+     * Record the given times, rather than those of the whole call, as the
+     * time spent in the method call.  This is used for the part of a call
+     * that is inside a range of time.
      */
-    void finish() {
-        if (mCaller != null) {
-            mCaller.mInclusiveCpuTime += mInclusiveCpuTime;
-            mCaller.mInclusiveRealTime += mInclusiveRealTime;
-        }
-
-        mMethodData.addElapsedExclusive(mExclusiveCpuTime, mExclusiveRealTime);
-        if (!mIsRecursive) {
-            mMethodData.addTopExclusive(mExclusiveCpuTime, mExclusiveRealTime);
+    void addToProfile(MethodData methodData, MethodData callerMethodData,
+            long inclusiveCpuTime, long exclusiveCpuTime,
+            long inclusiveRealTime, long exclusiveRealTime) {
+        boolean isRecursive = isRecursive();
+        Call caller = getCaller();
+        methodData.addElapsedExclusive(exclusiveCpuTime, exclusiveRealTime);
+        if (!isRecursive) {
+            methodData.addTopExclusive(exclusiveCpuTime, exclusiveRealTime);
         }
-        mMethodData.addElapsedInclusive(mInclusiveCpuTime, mInclusiveRealTime,
-                mIsRecursive, mCaller);
+        methodData.addElapsedInclusive(inclusiveCpuTime, inclusiveRealTime,
+                isRecursive, callerMethodData, caller != null && caller.isRecursive());
     }
 
     public static final class TraceAction {
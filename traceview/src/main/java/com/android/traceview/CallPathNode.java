@@ -0,0 +1,183 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A node of the call path trie of a thread: one distinct stack of methods,
+ * with the times of every call made through that stack added together.
+ *
+ * The root of each thread's trie stands for the thread's root call.  Calls
+ * find their node when they are entered, and add their times to it when
+ * they are finished, so the trie does not need the calls to be kept.
+ */
+class CallPathNode {
+    // Nodes with more children than this find them through an IntMap
+    // rather than by walking the list of siblings.
+    private static final int MAX_UNINDEXED_CHILDREN = 8;
+
+    private final MethodData mMethodData;
+    private final CallPathNode mParent;
+
+    // The children, in the order they were first called, linked through
+    // mNextSibling.  Most nodes have few children, so this takes less memory
+    // than a map per node.
+    private CallPathNode mFirstChild;
+    private CallPathNode mLastChild;
+    private CallPathNode mNextSibling;
+    private int mNumChildren;
+    private IntMap<CallPathNode> mChildIndex;
+
+    long mInclusiveCpuTime;
+    long mExclusiveCpuTime;
+    long mInclusiveRealTime;
+    long mExclusiveRealTime;
+    int mNumCalls;
+
+    CallPathNode(MethodData methodData, CallPathNode parent) {
+        mMethodData = methodData;
+        mParent = parent;
+    }
+
+    MethodData getMethodData() {
+        return mMethodData;
+    }
+
+    CallPathNode getParent() {
+        return mParent;
+    }
+
+    /**
+     * Returns the number of calls between this node and the root.
+     */
+    int getDepth() {
+        int depth = 0;
+        for (CallPathNode node = mParent; node != null; node = node.mParent) {
+            depth++;
+        }
+        return depth;
+    }
+
+    CallPathNode getFirstChild() {
+        return mFirstChild;
+    }
+
+    CallPathNode getNextSibling() {
+        return mNextSibling;
+    }
+
+    /**
+     * Returns the node for calls to methodData made from this node,
+     * creating it if needed.
+     */
+    CallPathNode getChild(MethodData methodData) {
+        int id = methodData.getId();
+        CallPathNode child;
+        if (mChildIndex != null) {
+            child = mChildIndex.get(id);
+        } else {
+            child = mFirstChild;
+            while (child != null && child.mMethodData.getId() != id) {
+                child = child.mNextSibling;
+            }
+        }
+        if (child != null) {
+            return child;
+        }
+
+        child = new CallPathNode(methodData, this);
+        if (mLastChild == null) {
+            mFirstChild = child;
+        } else {
+            mLastChild.mNextSibling = child;
+        }
+        mLastChild = child;
+        mNumChildren++;
+        if (mChildIndex != null) {
+            mChildIndex.put(id, child);
+        } else if (mNumChildren > MAX_UNINDEXED_CHILDREN) {
+            mChildIndex = new IntMap<CallPathNode>(mNumChildren * 2);
+            for (CallPathNode node = mFirstChild; node != null; node = node.mNextSibling) {
+                mChildIndex.put(node.mMethodData.getId(), node);
+            }
+        }
+        return child;
+    }
+
+    void add(MutableCall call) {
+        mInclusiveCpuTime += call.mInclusiveCpuTime;
+        mExclusiveCpuTime += call.mExclusiveCpuTime;
+        mInclusiveRealTime += call.mInclusiveRealTime;
+        mExclusiveRealTime += call.mExclusiveRealTime;
+        mNumCalls++;
+    }
+
+    /**
+     * Sets the inclusive times of this node and its descendants to their
+     * exclusive times plus the inclusive times of their children, for
+     * sampled traces, where only exclusive times are recorded.
+     */
+    void computeInclusiveTimes() {
+        mInclusiveCpuTime = mExclusiveCpuTime;
+        mInclusiveRealTime = mExclusiveRealTime;
+        for (CallPathNode child = mFirstChild; child != null; child = child.mNextSibling) {
+            child.computeInclusiveTimes();
+            mInclusiveCpuTime += child.mInclusiveCpuTime;
+            mInclusiveRealTime += child.mInclusiveRealTime;
+        }
+    }
+
+    /**
+     * Writes this node and its descendants, for a TraceIndex.
+     */
+    void write(DataOutput out) throws IOException {
+        out.writeLong(mInclusiveCpuTime);
+        out.writeLong(mExclusiveCpuTime);
+        out.writeLong(mInclusiveRealTime);
+        out.writeLong(mExclusiveRealTime);
+        out.writeInt(mNumCalls);
+        out.writeInt(mNumChildren);
+        for (CallPathNode child = mFirstChild; child != null; child = child.mNextSibling) {
+            out.writeInt(child.mMethodData.getId());
+            child.write(out);
+        }
+    }
+
+    /**
+     * Reads the nodes written by write() into this node, which must be
+     * empty.  The methods of the children are looked up in methods.
+     */
+    void read(DataInput in, IntMap<MethodData> methods) throws IOException {
+        mInclusiveCpuTime = in.readLong();
+        mExclusiveCpuTime = in.readLong();
+        mInclusiveRealTime = in.readLong();
+        mExclusiveRealTime = in.readLong();
+        mNumCalls = in.readInt();
+        int numChildren = in.readInt();
+        for (int i = 0; i < numChildren; i++) {
+            int id = in.readInt();
+            MethodData md = methods.get(id);
+            if (md == null) {
+                throw new IOException("Unknown method " + id + " in a call path");
+            }
+            getChild(md).read(in, methods);
+        }
+    }
+}
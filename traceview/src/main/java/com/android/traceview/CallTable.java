@@ -0,0 +1,548 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * The calls of a trace, stored a column per field rather than an object
+ * per call.  A call takes 36 bytes, plus 32 more with a thread clock,
+ * instead of the hundred or so of a MutableCall, and a scan of one field
+ * only touches that field.  While a trace with a global clock is parsed,
+ * a call is added as soon as it is entered, so that only the calls on the
+ * stacks of the threads are MutableCalls.
+ *
+ * Each call is a row, which comes after the row of its caller.  The calls
+ * are read either by row, or through getCall(), which returns a Call that
+ * only holds the row.  The inclusive real time of a call is not stored:
+ * once a call is finished it is the span of the call.
+ */
+class CallTable {
+    // The caller of the calls made directly by the root call of a thread.
+    static final int ROOT = -1;
+
+    private int mSize;
+    private ThreadData[] mThreads;
+    private MethodData[] mMethods;
+    private int[] mCallers;
+    private final BitSet mRecursive = new BitSet();
+    private long[] mGlobalStartTimes;
+    private long[] mGlobalEndTimes;
+    private long[] mExclusiveRealTimes;
+
+    // Only allocated once a call has a thread time, so they are never
+    // allocated for traces with only a wall clock.
+    private long[] mThreadStartTimes;
+    private long[] mThreadEndTimes;
+    private long[] mInclusiveCpuTimes;
+    private long[] mExclusiveCpuTimes;
+
+    // The rows of each thread, by thread id, in the order of compareRows().
+    private IntMap<int[]> mThreadRows;
+
+    CallTable(int capacity) {
+        capacity = Math.max(capacity, 16);
+        mThreads = new ThreadData[capacity];
+        mMethods = new MethodData[capacity];
+        mCallers = new int[capacity];
+        mGlobalStartTimes = new long[capacity];
+        mGlobalEndTimes = new long[capacity];
+        mExclusiveRealTimes = new long[capacity];
+    }
+
+    /**
+     * Returns a table of the given finished calls, which are in the order
+     * they were entered, or in the order they exited if exitOrder is set.
+     * The caller of each call must be in the list too, unless it is the
+     * root call of its thread.
+     */
+    static CallTable create(ArrayList<MutableCall> calls, boolean exitOrder) {
+        CallTable table = new CallTable(calls.size());
+        int numCalls = calls.size();
+        for (int i = 0; i < numCalls; i++) {
+            // A call exits after its callees, so it comes first in reverse.
+            table.add(calls.get(exitOrder ? numCalls - 1 - i : i));
+        }
+        return table;
+    }
+
+    /**
+     * Adds a call, after its caller, and returns its row.  A call may be
+     * added as soon as it is entered, and its times updated by finish()
+     * once it has exited.
+     */
+    int add(MutableCall call) {
+        MutableCall caller = call.mCaller;
+        if (caller == null) {
+            throw new IllegalArgumentException("root calls are not kept in a call table");
+        }
+        int callerRow = ROOT;
+        if (caller.mCaller != null) {
+            callerRow = caller.mRow;
+            if (callerRow < 0 || callerRow >= mSize) {
+                throw new IllegalStateException("the caller of a call must be added before it");
+            }
+        }
+
+        int row = addRow(call.getThreadData(), call.getMethodData(), callerRow,
+                call.isRecursive());
+        mGlobalStartTimes[row] = call.mGlobalStartTime;
+        if (call.mThreadStartTime != 0) {
+            allocateThreadTimes();
+        }
+        if (mThreadStartTimes != null) {
+            mThreadStartTimes[row] = call.mThreadStartTime;
+        }
+        call.mRow = row;
+        finish(call);
+        return row;
+    }
+
+    /**
+     * Copies the end times of a call that was added to the table before it
+     * exited.
+     */
+    void finish(MutableCall call) {
+        int row = call.mRow;
+        mGlobalEndTimes[row] = call.mGlobalEndTime;
+        mExclusiveRealTimes[row] = call.mExclusiveRealTime;
+        if (call.mThreadEndTime != 0 || call.mInclusiveCpuTime != 0) {
+            allocateThreadTimes();
+        }
+        if (mThreadStartTimes != null) {
+            mThreadEndTimes[row] = call.mThreadEndTime;
+            mInclusiveCpuTimes[row] = call.mInclusiveCpuTime;
+            mExclusiveCpuTimes[row] = call.mExclusiveCpuTime;
+        }
+    }
+
+    /**
+     * Merges tables of calls into one, where the i-th call of the merged table
+     * is the next call of tables[order[i]].  The caller of each call must be
+     * in the same table.  Each column of the tables is dropped as soon as it
+     * has been merged, so that only one column is held twice, and the tables
+     * cannot be used afterwards.
+     */
+    static CallTable merge(CallTable[] tables, int[] order) {
+        int size = order.length;
+        CallTable merged = new CallTable(0);
+        merged.mSize = size;
+
+        // The row in the merged table of each call of each table.
+        int[][] rows = new int[tables.length][];
+        for (int t = 0; t < tables.length; t++) {
+            rows[t] = new int[tables[t].mSize];
+        }
+        int[] next = new int[tables.length];
+        for (int row = 0; row < size; row++) {
+            int t = order[row];
+            rows[t][next[t]++] = row;
+        }
+
+        merged.mThreads = new ThreadData[size];
+        merged.mMethods = new MethodData[size];
+        Arrays.fill(next, 0);
+        for (int row = 0; row < size; row++) {
+            CallTable table = tables[order[row]];
+            int tableRow = next[order[row]]++;
+            merged.mThreads[row] = table.mThreads[tableRow];
+            merged.mMethods[row] = table.mMethods[tableRow];
+            if (table.mRecursive.get(tableRow)) {
+                merged.mRecursive.set(row);
+            }
+        }
+        for (CallTable table : tables) {
+            table.mThreads = null;
+            table.mMethods = null;
+        }
+
+        merged.mCallers = new int[size];
+        Arrays.fill(next, 0);
+        for (int row = 0; row < size; row++) {
+            int t = order[row];
+            int caller = tables[t].mCallers[next[t]++];
+            merged.mCallers[row] = caller == ROOT ? ROOT : rows[t][caller];
+        }
+        rows = null;
+        for (CallTable table : tables) {
+            table.mCallers = null;
+        }
+
+        long[][] columns = new long[tables.length][];
+        for (int t = 0; t < tables.length; t++) {
+            columns[t] = tables[t].mGlobalStartTimes;
+            tables[t].mGlobalStartTimes = null;
+        }
+        merged.mGlobalStartTimes = mergeColumn(columns, order);
+        for (int t = 0; t < tables.length; t++) {
+            columns[t] = tables[t].mGlobalEndTimes;
+            tables[t].mGlobalEndTimes = null;
+        }
+        merged.mGlobalEndTimes = mergeColumn(columns, order);
+        for (int t = 0; t < tables.length; t++) {
+            columns[t] = tables[t].mExclusiveRealTimes;
+            tables[t].mExclusiveRealTimes = null;
+        }
+        merged.mExclusiveRealTimes = mergeColumn(columns, order);
+
+        boolean haveThreadTimes = false;
+        for (CallTable table : tables) {
+            haveThreadTimes |= table.mThreadStartTimes != null;
+        }
+        if (haveThreadTimes) {
+            for (int t = 0; t < tables.length; t++) {
+                columns[t] = tables[t].mThreadStartTimes;
+                tables[t].mThreadStartTimes = null;
+            }
+            merged.mThreadStartTimes = mergeColumn(columns, order);
+            for (int t = 0; t < tables.length; t++) {
+                columns[t] = tables[t].mThreadEndTimes;
+                tables[t].mThreadEndTimes = null;
+            }
+            merged.mThreadEndTimes = mergeColumn(columns, order);
+            for (int t = 0; t < tables.length; t++) {
+                columns[t] = tables[t].mInclusiveCpuTimes;
+                tables[t].mInclusiveCpuTimes = null;
+            }
+            merged.mInclusiveCpuTimes = mergeColumn(columns, order);
+            for (int t = 0; t < tables.length; t++) {
+                columns[t] = tables[t].mExclusiveCpuTimes;
+                tables[t].mExclusiveCpuTimes = null;
+            }
+            merged.mExclusiveCpuTimes = mergeColumn(columns, order);
+        }
+        for (CallTable table : tables) {
+            table.mSize = 0;
+        }
+        return merged;
+    }
+
+    /**
+     * Merges a column of each table, as merge() does.  A null column stands
+     * for a column of zeros.
+     */
+    private static long[] mergeColumn(long[][] columns, int[] order) {
+        long[] merged = new long[order.length];
+        int[] next = new int[columns.length];
+        for (int row = 0; row < order.length; row++) {
+            int t = order[row];
+            long[] column = columns[t];
+            merged[row] = column != null ? column[next[t]] : 0;
+            next[t]++;
+        }
+        Arrays.fill(columns, null);
+        return merged;
+    }
+
+    private int addRow(ThreadData threadData, MethodData methodData, int callerRow,
+            boolean isRecursive) {
+        if (mSize == mCallers.length) {
+            grow();
+        }
+        int row = mSize++;
+        mThreads[row] = threadData;
+        mMethods[row] = methodData;
+        mCallers[row] = callerRow;
+        if (isRecursive) {
+            mRecursive.set(row);
+        }
+        mThreadRows = null;
+        return row;
+    }
+
+    private void allocateThreadTimes() {
+        if (mThreadStartTimes == null) {
+            mThreadStartTimes = new long[mCallers.length];
+            mThreadEndTimes = new long[mCallers.length];
+            mInclusiveCpuTimes = new long[mCallers.length];
+            mExclusiveCpuTimes = new long[mCallers.length];
+        }
+    }
+
+    private void grow() {
+        int capacity = Math.max(mCallers.length + (mCallers.length >> 1), 16);
+        mThreads = Arrays.copyOf(mThreads, capacity);
+        mMethods = Arrays.copyOf(mMethods, capacity);
+        mCallers = Arrays.copyOf(mCallers, capacity);
+        mGlobalStartTimes = Arrays.copyOf(mGlobalStartTimes, capacity);
+        mGlobalEndTimes = Arrays.copyOf(mGlobalEndTimes, capacity);
+        mExclusiveRealTimes = Arrays.copyOf(mExclusiveRealTimes, capacity);
+        if (mThreadStartTimes != null) {
+            mThreadStartTimes = Arrays.copyOf(mThreadStartTimes, capacity);
+            mThreadEndTimes = Arrays.copyOf(mThreadEndTimes, capacity);
+            mInclusiveCpuTimes = Arrays.copyOf(mInclusiveCpuTimes, capacity);
+            mExclusiveCpuTimes = Arrays.copyOf(mExclusiveCpuTimes, capacity);
+        }
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    /**
+     * Returns the call at row.  Each call returns a new Call, but Calls of
+     * the same row are equal.
+     */
+    Call getCall(int row) {
+        return new Entry(row);
+    }
+
+    ThreadData getThreadData(int row) {
+        return mThreads[row];
+    }
+
+    MethodData getMethodData(int row) {
+        return mMethods[row];
+    }
+
+    /**
+     * Returns the row of the caller, or ROOT if the caller is the root call of
+     * the thread.
+     */
+    int getCaller(int row) {
+        return mCallers[row];
+    }
+
+    /**
+     * Returns the number of callers of row, including the root call.
+     */
+    int getDepth(int row) {
+        int depth = 1;
+        for (int caller = mCallers[row]; caller != ROOT; caller = mCallers[caller]) {
+            depth++;
+        }
+        return depth;
+    }
+
+    boolean isRecursive(int row) {
+        return mRecursive.get(row);
+    }
+
+    long getGlobalStartTime(int row) {
+        return mGlobalStartTimes[row];
+    }
+
+    long getGlobalEndTime(int row) {
+        return mGlobalEndTimes[row];
+    }
+
+    long getThreadStartTime(int row) {
+        return mThreadStartTimes != null ? mThreadStartTimes[row] : 0;
+    }
+
+    long getThreadEndTime(int row) {
+        return mThreadEndTimes != null ? mThreadEndTimes[row] : 0;
+    }
+
+    long getInclusiveCpuTime(int row) {
+        return mInclusiveCpuTimes != null ? mInclusiveCpuTimes[row] : 0;
+    }
+
+    long getExclusiveCpuTime(int row) {
+        return mExclusiveCpuTimes != null ? mExclusiveCpuTimes[row] : 0;
+    }
+
+    long getInclusiveRealTime(int row) {
+        return mGlobalEndTimes[row] - mGlobalStartTimes[row];
+    }
+
+    long getExclusiveRealTime(int row) {
+        return mExclusiveRealTimes[row];
+    }
+
+    /**
+     * Returns the rows of the calls of a thread, or null if it has none,
+     * ordered by start time.  Of the calls that start together, the longer
+     * one contains the other, and of calls with the same times, the caller
+     * comes first.  So the calls that are running at a given time are the
+     * callers of the last call that starts before it.
+     */
+    synchronized int[] getThreadRows(int threadId) {
+        if (mThreadRows == null) {
+            mThreadRows = createThreadRows();
+        }
+        return mThreadRows.get(threadId);
+    }
+
+    private IntMap<int[]> createThreadRows() {
+        IntMap<int[]> counts = new IntMap<int[]>();
+        for (int row = 0; row < mSize; row++) {
+            int[] count = counts.get(mThreads[row].getId());
+            if (count == null) {
+                count = new int[1];
+                counts.put(mThreads[row].getId(), count);
+            }
+            count[0]++;
+        }
+
+        IntMap<int[]> threadRows = new IntMap<int[]>(counts.size());
+        for (int i = 0; i < counts.size(); i++) {
+            threadRows.put(counts.keyAt(i), new int[counts.valueAt(i)[0]]);
+            counts.valueAt(i)[0] = 0;
+        }
+        for (int row = 0; row < mSize; row++) {
+            int threadId = mThreads[row].getId();
+            threadRows.get(threadId)[counts.get(threadId)[0]++] = row;
+        }
+
+        // The rows are usually in order already, and only sorted if not.
+        for (int i = 0; i < threadRows.size(); i++) {
+            int[] rows = threadRows.valueAt(i);
+            for (int j = 1; j < rows.length; j++) {
+                if (compareRows(rows[j - 1], rows[j]) > 0) {
+                    sortRows(rows, 0, rows.length, rows.clone());
+                    break;
+                }
+            }
+        }
+        return threadRows;
+    }
+
+    /**
+     * Sorts rows[start, end) with a merge sort, using scratch, which holds
+     * the same rows, as the buffer.
+     */
+    private void sortRows(int[] rows, int start, int end, int[] scratch) {
+        if (end - start < 2) {
+            return;
+        }
+        int mid = (start + end) >>> 1;
+        sortRows(scratch, start, mid, rows);
+        sortRows(scratch, mid, end, rows);
+        if (compareRows(scratch[mid - 1], scratch[mid]) <= 0) {
+            System.arraycopy(scratch, start, rows, start, end - start);
+            return;
+        }
+        int left = start;
+        int right = mid;
+        for (int i = start; i < end; i++) {
+            if (right >= end || left < mid && compareRows(scratch[left], scratch[right]) <= 0) {
+                rows[i] = scratch[left++];
+            } else {
+                rows[i] = scratch[right++];
+            }
+        }
+    }
+
+    private int compareRows(int row1, int row2) {
+        if (mGlobalStartTimes[row1] != mGlobalStartTimes[row2]) {
+            return mGlobalStartTimes[row1] < mGlobalStartTimes[row2] ? -1 : 1;
+        }
+        if (mGlobalEndTimes[row1] != mGlobalEndTimes[row2]) {
+            return mGlobalEndTimes[row1] > mGlobalEndTimes[row2] ? -1 : 1;
+        }
+        return getDepth(row1) - getDepth(row2);
+    }
+
+    /**
+     * A call of the table, which only holds its row.
+     */
+    private class Entry extends Call {
+        private final int mRow;
+
+        Entry(int row) {
+            mRow = row;
+        }
+
+        @Override
+        public ThreadData getThreadData() {
+            return mThreads[mRow];
+        }
+
+        @Override
+        public MethodData getMethodData() {
+            return mMethods[mRow];
+        }
+
+        @Override
+        Call getCaller() {
+            int caller = mCallers[mRow];
+            return caller == ROOT ? mThreads[mRow].getRootCall() : new Entry(caller);
+        }
+
+        @Override
+        public boolean isIgnoredBlock() {
+            // Only the root call has no caller.
+            return mCallers[mRow] == ROOT && isContextSwitch();
+        }
+
+        @Override
+        public long getStartTime() {
+            return mGlobalStartTimes[mRow];
+        }
+
+        @Override
+        public long getEndTime() {
+            return mGlobalEndTimes[mRow];
+        }
+
+        @Override
+        long getThreadStartTime() {
+            return CallTable.this.getThreadStartTime(mRow);
+        }
+
+        @Override
+        long getThreadEndTime() {
+            return CallTable.this.getThreadEndTime(mRow);
+        }
+
+        @Override
+        public long getExclusiveCpuTime() {
+            return CallTable.this.getExclusiveCpuTime(mRow);
+        }
+
+        @Override
+        public long getInclusiveCpuTime() {
+            return CallTable.this.getInclusiveCpuTime(mRow);
+        }
+
+        @Override
+        public long getExclusiveRealTime() {
+            return mExclusiveRealTimes[mRow];
+        }
+
+        @Override
+        public long getInclusiveRealTime() {
+            return CallTable.this.getInclusiveRealTime(mRow);
+        }
+
+        @Override
+        public boolean isRecursive() {
+            return mRecursive.get(mRow);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Entry)) {
+                return false;
+            }
+            Entry other = (Entry) obj;
+            return other.mRow == mRow && other.getTable() == CallTable.this;
+        }
+
+        @Override
+        public int hashCode() {
+            return mRow;
+        }
+
+        private CallTable getTable() {
+            return CallTable.this;
+        }
+    }
+}
@@ -0,0 +1,338 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import com.android.traceview.TraceDiff.CallDiff;
+import com.android.traceview.TraceDiff.DiffNode;
+import com.android.traceview.TraceDiff.MethodDiff;
+
+import org.eclipse.jface.viewers.IColorProvider;
+import org.eclipse.jface.viewers.ITableLabelProvider;
+import org.eclipse.jface.viewers.ITreeContentProvider;
+import org.eclipse.jface.viewers.LabelProvider;
+import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.jface.viewers.Viewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Tree;
+import org.eclipse.swt.widgets.TreeColumn;
+
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * The content of the diff view: the methods of a TraceDiff, each with the
+ * differences in its parents and children, in the layout of the profile
+ * view.  Positive deltas are regressions.
+ */
+class DiffProvider implements ITreeContentProvider {
+
+    private TraceDiff mDiff;
+    private MethodDiff[] mRoots;
+    private TreeViewer mTreeViewer;
+    private SelectionAdapter mListener;
+    private String mColumnNames[] = { "Name",
+            "Incl Cpu Time \u0394", "Incl Cpu Time \u0394%", "Excl Cpu Time \u0394",
+            "Incl Real Time \u0394", "Incl Real Time \u0394%", "Excl Real Time \u0394",
+            "Calls \u0394" };
+    private int mColumnWidths[] = { 370,
+            110, 110, 110,
+            110, 110, 110,
+            80 };
+    private static final int COL_NAME = 0;
+    private static final int COL_INCLUSIVE_CPU_TIME = 1;
+    private static final int COL_INCLUSIVE_CPU_TIME_PER = 2;
+    private static final int COL_EXCLUSIVE_CPU_TIME = 3;
+    private static final int COL_INCLUSIVE_REAL_TIME = 4;
+    private static final int COL_INCLUSIVE_REAL_TIME_PER = 5;
+    private static final int COL_EXCLUSIVE_REAL_TIME = 6;
+    private static final int COL_CALLS = 7;
+
+    DiffProvider(TraceDiff diff) {
+        mDiff = diff;
+        mRoots = diff.getMethods();
+    }
+
+    void setTreeViewer(TreeViewer treeViewer) {
+        mTreeViewer = treeViewer;
+    }
+
+    String[] getColumnNames() {
+        return mColumnNames;
+    }
+
+    int[] getColumnWidths() {
+        int[] widths = Arrays.copyOf(mColumnWidths, mColumnWidths.length);
+        if (!mDiff.getBase().haveCpuTime() || !mDiff.getCurrent().haveCpuTime()) {
+            widths[COL_INCLUSIVE_CPU_TIME] = 0;
+            widths[COL_INCLUSIVE_CPU_TIME_PER] = 0;
+            widths[COL_EXCLUSIVE_CPU_TIME] = 0;
+        }
+        if (!mDiff.getBase().haveRealTime() || !mDiff.getCurrent().haveRealTime()) {
+            widths[COL_INCLUSIVE_REAL_TIME] = 0;
+            widths[COL_INCLUSIVE_REAL_TIME_PER] = 0;
+            widths[COL_EXCLUSIVE_REAL_TIME] = 0;
+        }
+        return widths;
+    }
+
+    int getColumnAlignment(int col) {
+        return col == COL_NAME ? SWT.LEFT : SWT.RIGHT;
+    }
+
+    @Override
+    public Object[] getChildren(Object element) {
+        if (element instanceof MethodDiff) {
+            return ((MethodDiff) element).getNodes();
+        }
+        if (element instanceof DiffNode) {
+            return ((DiffNode) element).getChildren();
+        }
+        return new Object[0];
+    }
+
+    @Override
+    public Object getParent(Object element) {
+        return null;
+    }
+
+    @Override
+    public boolean hasChildren(Object element) {
+        if (element instanceof MethodDiff)
+            return ((MethodDiff) element).getNodes().length != 0;
+        return element instanceof DiffNode;
+    }
+
+    @Override
+    public Object[] getElements(Object element) {
+        return mRoots;
+    }
+
+    @Override
+    public void dispose() {
+    }
+
+    @Override
+    public void inputChanged(Viewer arg0, Object arg1, Object arg2) {
+    }
+
+    Object getRoot() {
+        return "root";
+    }
+
+    SelectionAdapter getColumnListener() {
+        if (mListener == null)
+            mListener = new ColumnListener();
+        return mListener;
+    }
+
+    LabelProvider getLabelProvider() {
+        return new DiffLabelProvider();
+    }
+
+    class DiffLabelProvider extends LabelProvider implements
+            ITableLabelProvider, IColorProvider {
+        Color colorRegression;
+        Color colorImprovement;
+        Color colorParentsBack;
+        Color colorChildrenBack;
+        TraceUnits traceUnits;
+
+        DiffLabelProvider() {
+            Display display = Display.getCurrent();
+            colorRegression = display.getSystemColor(SWT.COLOR_DARK_RED);
+            colorImprovement = display.getSystemColor(SWT.COLOR_DARK_GREEN);
+            colorParentsBack = new Color(display, 230, 230, 255); // blue
+            colorChildrenBack = new Color(display, 255, 255, 210); // yellow
+            traceUnits = mDiff.getCurrent().getTraceUnits();
+        }
+
+        @Override
+        public String getColumnText(Object element, int col) {
+            if (element instanceof MethodDiff) {
+                MethodDiff diff = (MethodDiff) element;
+                MethodData base = diff.getBase();
+                if (col == COL_NAME) {
+                    if (base == null)
+                        return diff.getName() + " (new)";
+                    if (diff.getCurrent() == null)
+                        return diff.getName() + " (removed)";
+                    return diff.getName();
+                }
+                if (col == COL_INCLUSIVE_CPU_TIME)
+                    return formatTime(diff.getInclusiveCpuDelta());
+                if (col == COL_INCLUSIVE_CPU_TIME_PER)
+                    return formatPercent(diff.getInclusiveCpuDelta(),
+                            base != null ? base.getElapsedInclusiveCpuTime() : 0);
+                if (col == COL_EXCLUSIVE_CPU_TIME)
+                    return formatTime(diff.getExclusiveCpuDelta());
+                if (col == COL_INCLUSIVE_REAL_TIME)
+                    return formatTime(diff.getInclusiveRealDelta());
+                if (col == COL_INCLUSIVE_REAL_TIME_PER)
+                    return formatPercent(diff.getInclusiveRealDelta(),
+                            base != null ? base.getElapsedInclusiveRealTime() : 0);
+                if (col == COL_EXCLUSIVE_REAL_TIME)
+                    return formatTime(diff.getExclusiveRealDelta());
+                if (col == COL_CALLS)
+                    return String.format("%+d", diff.getCallsDelta());
+                return "";
+            }
+            if (element instanceof CallDiff) {
+                CallDiff diff = (CallDiff) element;
+                if (col == COL_NAME)
+                    return diff.getName();
+                if (col == COL_INCLUSIVE_CPU_TIME)
+                    return formatTime(diff.getInclusiveCpuDelta());
+                if (col == COL_INCLUSIVE_REAL_TIME)
+                    return formatTime(diff.getInclusiveRealDelta());
+                if (col == COL_CALLS)
+                    return String.format("%+d", diff.getCallsDelta());
+                return "";
+            }
+            if (element instanceof DiffNode) {
+                if (col == COL_NAME)
+                    return ((DiffNode) element).getLabel();
+                return "";
+            }
+            return "col" + col;
+        }
+
+        private String formatTime(long delta) {
+            return String.format("%+.3f", traceUnits.getScaledValue(delta));
+        }
+
+        private String formatPercent(long delta, long base) {
+            if (base == 0)
+                return delta == 0 ? "" : "new";
+            return String.format("%+.1f%%", delta * 100.0 / base);
+        }
+
+        @Override
+        public Image getColumnImage(Object element, int col) {
+            if (col != COL_NAME)
+                return null;
+            MethodData md = null;
+            if (element instanceof MethodDiff)
+                md = ((MethodDiff) element).getCurrent();
+            else if (element instanceof CallDiff)
+                md = ((CallDiff) element).getCurrentMethod();
+            return md != null ? md.getImage() : null;
+        }
+
+        @Override
+        public Color getForeground(Object element) {
+            if (element instanceof MethodDiff) {
+                long delta = ((MethodDiff) element).getInclusiveDelta(mDiff.getTimeBase());
+                if (delta > 0)
+                    return colorRegression;
+                if (delta < 0)
+                    return colorImprovement;
+            }
+            return null;
+        }
+
+        @Override
+        public Color getBackground(Object element) {
+            if (element instanceof CallDiff) {
+                if (((CallDiff) element).isParent())
+                    return colorParentsBack;
+                return colorChildrenBack;
+            }
+            if (element instanceof DiffNode) {
+                if (((DiffNode) element).isParent())
+                    return colorParentsBack;
+                return colorChildrenBack;
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Sorts the methods by the delta in the selected column, largest
+     * regression first, or in the reverse order when the column is selected
+     * again.
+     */
+    class ColumnListener extends SelectionAdapter {
+        private int mColumn = -1;
+        private boolean mIncreasing;
+
+        @Override
+        public void widgetSelected(SelectionEvent event) {
+            TreeColumn column = (TreeColumn) event.widget;
+            Tree tree = column.getParent();
+            final int col = tree.indexOf(column);
+            if (col == mColumn) {
+                mIncreasing = !mIncreasing;
+            } else {
+                mColumn = col;
+                mIncreasing = col == COL_NAME;
+            }
+
+            Arrays.sort(mRoots, new Comparator<MethodDiff>() {
+                @Override
+                public int compare(MethodDiff diff1, MethodDiff diff2) {
+                    int result;
+                    if (col == COL_NAME) {
+                        result = diff1.getName().compareTo(diff2.getName());
+                    } else {
+                        long delta1 = getDelta(diff1, col);
+                        long delta2 = getDelta(diff2, col);
+                        result = delta1 < delta2 ? -1 : (delta1 > delta2 ? 1 : 0);
+                        if (result == 0)
+                            return diff1.getName().compareTo(diff2.getName());
+                    }
+                    return mIncreasing ? result : -result;
+                }
+            });
+            tree.setSortColumn(column);
+            tree.setSortDirection(mIncreasing ? SWT.UP : SWT.DOWN);
+            mTreeViewer.refresh();
+        }
+
+        private long getDelta(MethodDiff diff, int col) {
+            switch (col) {
+                case COL_INCLUSIVE_CPU_TIME:
+                    return diff.getInclusiveCpuDelta();
+                case COL_INCLUSIVE_CPU_TIME_PER:
+                    return percent(diff.getInclusiveCpuDelta(), diff.getBase() != null
+                            ? diff.getBase().getElapsedInclusiveCpuTime() : 0);
+                case COL_EXCLUSIVE_CPU_TIME:
+                    return diff.getExclusiveCpuDelta();
+                case COL_INCLUSIVE_REAL_TIME:
+                    return diff.getInclusiveRealDelta();
+                case COL_INCLUSIVE_REAL_TIME_PER:
+                    return percent(diff.getInclusiveRealDelta(), diff.getBase() != null
+                            ? diff.getBase().getElapsedInclusiveRealTime() : 0);
+                case COL_EXCLUSIVE_REAL_TIME:
+                    return diff.getExclusiveRealDelta();
+                default:
+                    return diff.getCallsDelta();
+            }
+        }
+
+        // Tenths of a percent, with new methods above every other increase.
+        private long percent(long delta, long base) {
+            if (base == 0)
+                return delta == 0 ? 0 : (delta > 0 ? Long.MAX_VALUE : Long.MIN_VALUE);
+            return delta * 1000 / base;
+        }
+    }
+}
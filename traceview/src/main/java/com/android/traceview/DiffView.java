@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import com.android.traceview.TraceDiff.CallDiff;
+import com.android.traceview.TraceDiff.MethodDiff;
+
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.ISelectionChangedListener;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.SelectionChangedEvent;
+import org.eclipse.jface.viewers.TreeViewer;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Tree;
+import org.eclipse.swt.widgets.TreeColumn;
+
+import java.util.ArrayList;
+
+/**
+ * Shows how the profile of the trace in the window differs from the profile
+ * of a base trace.  Selecting a method highlights it in the timeline.
+ */
+class DiffView extends Composite {
+
+    private TreeViewer mTreeViewer;
+    private SelectionController mSelectionController;
+
+    DiffView(Composite parent, TraceDiff diff, String baseName,
+            SelectionController selectionController) {
+        super(parent, SWT.NONE);
+        setLayout(new GridLayout(1, false));
+        mSelectionController = selectionController;
+
+        Label label = new Label(this, SWT.NONE);
+        label.setText(getSummary(diff, baseName));
+        label.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+        mTreeViewer = new TreeViewer(this, SWT.SINGLE | SWT.NONE);
+        mTreeViewer.setUseHashlookup(true);
+        DiffProvider provider = new DiffProvider(diff);
+        provider.setTreeViewer(mTreeViewer);
+        SelectionAdapter listener = provider.getColumnListener();
+        Tree tree = mTreeViewer.getTree();
+        tree.setHeaderVisible(true);
+        tree.setLayoutData(new GridData(GridData.FILL_BOTH));
+
+        String[] columnNames = provider.getColumnNames();
+        int[] columnWidths = provider.getColumnWidths();
+        for (int ii = 0; ii < columnWidths.length; ++ii) {
+            TreeColumn column = new TreeColumn(tree, SWT.LEFT);
+            column.setText(columnNames[ii]);
+            column.setWidth(columnWidths[ii]);
+            column.setMoveable(true);
+            column.addSelectionListener(listener);
+            column.setAlignment(provider.getColumnAlignment(ii));
+        }
+
+        // Make the rows as short as in the profile view.
+        tree.addListener(SWT.MeasureItem, new Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                event.height = event.gc.getFontMetrics().getHeight();
+            }
+        });
+
+        mTreeViewer.setContentProvider(provider);
+        mTreeViewer.setLabelProvider(provider.getLabelProvider());
+        mTreeViewer.setInput(provider.getRoot());
+
+        mTreeViewer.addSelectionChangedListener(new ISelectionChangedListener() {
+            @Override
+            public void selectionChanged(SelectionChangedEvent ev) {
+                ISelection sel = ev.getSelection();
+                if (sel.isEmpty() || !(sel instanceof IStructuredSelection))
+                    return;
+                Object element = ((IStructuredSelection) sel).getFirstElement();
+                MethodData md = null;
+                if (element instanceof MethodDiff)
+                    md = ((MethodDiff) element).getCurrent();
+                else if (element instanceof CallDiff)
+                    md = ((CallDiff) element).getCurrentMethod();
+                if (md == null)
+                    return;
+                ArrayList<Selection> selections = new ArrayList<Selection>();
+                selections.add(Selection.highlight("MethodData", md));
+                mSelectionController.change(selections, "DiffView");
+            }
+        });
+    }
+
+    private static String getSummary(TraceDiff diff, String baseName) {
+        TimeBase timeBase = diff.getTimeBase();
+        String clock = timeBase == TimeBase.CPU_TIME ? "cpu" : "real";
+        long baseTime = getTotalTime(diff.getBase(), timeBase);
+        long currentTime = getTotalTime(diff.getCurrent(), timeBase);
+        TraceUnits units = diff.getCurrent().getTraceUnits();
+        String change = baseTime == 0 ? ""
+                : String.format(" (%+.1f%%)", (currentTime - baseTime) * 100.0 / baseTime);
+        return String.format("Compared with %s: total %s time %.3f -> %.3f%s",
+                baseName, clock, units.getScaledValue(baseTime),
+                units.getScaledValue(currentTime), change);
+    }
+
+    private static long getTotalTime(TraceReader reader, TimeBase timeBase) {
+        if (timeBase == TimeBase.CPU_TIME)
+            return reader.getTotalCpuTime();
+        return reader.getTotalRealTime();
+    }
+}
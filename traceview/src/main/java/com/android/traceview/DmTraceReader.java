@@ -16,21 +16,26 @@
 
 package com.android.traceview;
 
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.nio.BufferUnderflowException;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.PriorityQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -46,37 +51,113 @@ public class DmTraceReader extends TraceReader {
     // many microseconds.
     private static final long MIN_CONTEXT_SWITCH_TIME_USEC = 100;
 
+    // The largest part of the data section that is mapped into memory at once.
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    // The initial size of the array that the key section is scanned in.
+    private static final int KEY_BLOCK_SIZE = 64 * 1024;
+
+    // When streaming, the initial timeline keeps only the calls that last at
+    // least 1/STREAMING_RESOLUTION of the whole trace.  Other calls are folded
+    // into the profile and dropped.
+    private static final int STREAMING_RESOLUTION = 4096;
+
+    // The range of trace sizes, in records, that are parsed in parallel.
+    // Smaller traces are not worth splitting up.  Calls are ordered by twice
+    // the index of their record, which must fit in an int.
+    private static final long MIN_PARALLEL_RECORDS = 1 << 16;
+    private static final long MAX_PARALLEL_RECORDS = Integer.MAX_VALUE / 2;
+
     private enum ClockSource {
         THREAD_CPU, WALL, DUAL,
     };
 
     private int mVersionNumber;
-    private boolean mRegression;
+    boolean mRegression;
+    boolean mParallel; // whether large traces may be parsed in parallel
+    private boolean mStreaming;
+    private int mSamplingInterval;
     private ProfileProvider mProfileProvider;
     private String mTraceFileName;
     private MethodData mTopLevel;
-    private ArrayList<Call> mCallList;
+    private CallTable mCalls;
     private HashMap<String, String> mPropertiesMap;
-    private HashMap<Integer, MethodData> mMethodMap;
-    private HashMap<Integer, ThreadData> mThreadMap;
+    private IntMap<MethodData> mMethodMap;
+    private IntMap<ThreadData> mThreadMap;
     private ThreadData[] mSortedThreads;
     private MethodData[] mSortedMethods;
+    private MethodIndex mMethodIndex;
     private long mTotalCpuTime;
     private long mTotalRealTime;
     private MethodData mContextSwitch;
     private int mRecordSize;
     private ClockSource mClockSource;
+    private long mDataOffset;
+    private long mTimeRecordsMinDuration;
 
     // A regex for matching the thread "id name" lines in the .key file
     private static final Pattern mIdNamePattern = Pattern.compile("(\\d+)\t(.*)");  //$NON-NLS-1$
 
     public DmTraceReader(String traceFileName, boolean regression) throws IOException {
-        mTraceFileName = traceFileName;
+        this(traceFileName, regression, false);
+    }
+
+    public DmTraceReader(String traceFileName, boolean regression, boolean streaming)
+            throws IOException {
+        this(traceFileName, regression, streaming, false);
+    }
+
+    /**
+     * Creates a reader for the given trace.  When streaming, calls are folded
+     * into the profile as soon as they exit and only the calls that the
+     * timeline may draw are kept in memory.  This requires a global clock
+     * (wall or dual), otherwise the whole trace is read as usual.
+     *
+     * If useIndex is set, the analyzed trace is saved in a TraceIndex next to
+     * the trace file, and read back from there while the trace is unchanged.
+     * The index is ignored in regression mode.
+     */
+    public DmTraceReader(String traceFileName, boolean regression, boolean streaming,
+            boolean useIndex) throws IOException {
+        this(traceFileName, regression, streaming, useIndex, 0);
+    }
+
+    /**
+     * Creates a reader for a trace recorded by the sampling profiler, which
+     * sampled the stacks of the threads every samplingInterval microseconds,
+     * or for an instrumented trace if samplingInterval is 0.
+     *
+     * The records of a sampled trace are the changes in the stacks between
+     * samples, so its calls are artifacts of the sampling.  Instead of
+     * creating calls, the reader adds up the time spent in each stack in the
+     * call path tries of the threads, and derives the profile from those.
+     * There are no calls to show in the timeline, and neither streaming nor
+     * the trace index apply.
+     */
+    public DmTraceReader(String traceFileName, boolean regression, boolean streaming,
+            boolean useIndex, int samplingInterval) throws IOException {
+        this(traceFileName);
         mRegression = regression;
+        mSamplingInterval = samplingInterval;
+        mStreaming = streaming && samplingInterval == 0;
+
+        useIndex &= !regression && samplingInterval == 0;
+        if (useIndex && readIndex()) {
+            return;
+        }
+        generateTrees();
+        if (useIndex) {
+            writeIndex();
+        }
+    }
+
+    DmTraceReader(String traceFileName) {
+        mTraceFileName = traceFileName;
+        mParallel = Runtime.getRuntime().availableProcessors() > 1;
         mPropertiesMap = new HashMap<String, String>();
-        mMethodMap = new HashMap<Integer, MethodData>();
-        mThreadMap = new HashMap<Integer, ThreadData>();
-        mCallList = new ArrayList<Call>();
+        mMethodMap = new IntMap<MethodData>();
+        mThreadMap = new IntMap<ThreadData>();
+        mCalls = new CallTable(0);
 
         // Create a single top-level MethodData object to hold the profile data
         // for time spent in the unknown caller.
@@ -84,7 +165,27 @@ public class DmTraceReader extends TraceReader {
         mContextSwitch = new MethodData(-1, "(context switch)");
         mMethodMap.put(0, mTopLevel);
         mMethodMap.put(-1, mContextSwitch);
-        generateTrees();
+    }
+
+    /**
+     * Creates a reader that has only read the key section and the header of
+     * the data section.  It has no profile and no timeline, and can only
+     * replay the calls of the trace with replayCalls(), in memory that does
+     * not depend on the length of the trace.  Its threads are in the order
+     * of the key section.
+     */
+    static DmTraceReader readHeader(String traceFileName) throws IOException {
+        DmTraceReader reader = new DmTraceReader(traceFileName);
+        long offset = reader.parseKeys();
+        FileInputStream dataFile = new FileInputStream(traceFileName);
+        try {
+            reader.readDataHeader(dataFile.getChannel(), offset);
+        } finally {
+            dataFile.close();
+        }
+        Collection<ThreadData> threads = reader.mThreadMap.values();
+        reader.mSortedThreads = threads.toArray(new ThreadData[threads.size()]);
+        return reader;
     }
 
     void generateTrees() throws IOException {
@@ -93,6 +194,73 @@ public class DmTraceReader extends TraceReader {
         analyzeData();
     }
 
+    /**
+     * Replaces the state of this reader with the trace index, if there is a
+     * valid one.  Returns true if it did.
+     */
+    private boolean readIndex() {
+        TraceIndex index;
+        try {
+            index = TraceIndex.read(mTraceFileName, mStreaming);
+        } catch (IOException e) {
+            System.err.println("Warning: ignoring the trace index: " + e.getMessage());
+            return false;
+        }
+        if (index == null) {
+            return false;
+        }
+        if (index.mClockSource < 0 || index.mClockSource >= ClockSource.values().length) {
+            System.err.println("Warning: ignoring the trace index: unknown clock source");
+            return false;
+        }
+
+        mVersionNumber = index.mVersionNumber;
+        mClockSource = ClockSource.values()[index.mClockSource];
+        mRecordSize = index.mRecordSize;
+        mDataOffset = index.mDataOffset;
+        mTimeRecordsMinDuration = index.mTimeRecordsMinDuration;
+        mTotalCpuTime = index.mTotalCpuTime;
+        mTotalRealTime = index.mTotalRealTime;
+        mPropertiesMap = index.mPropertiesMap;
+        mMethodMap = index.mMethodMap;
+        mThreadMap = index.mThreadMap;
+        mSortedThreads = index.mSortedThreads;
+        mSortedMethods = index.mSortedMethods;
+        mCalls = index.mCalls;
+        mTopLevel = mMethodMap.get(0);
+        mContextSwitch = mMethodMap.get(-1);
+
+        // The methods are already sorted; only their profile nodes remain.
+        final TimeBase timeBase = getPreferredTimeBase();
+        for (MethodData md : mSortedMethods) {
+            md.analyzeData(timeBase);
+        }
+        return true;
+    }
+
+    private void writeIndex() {
+        TraceIndex index = new TraceIndex();
+        index.mStreaming = mStreaming;
+        index.mVersionNumber = mVersionNumber;
+        index.mClockSource = mClockSource.ordinal();
+        index.mRecordSize = mRecordSize;
+        index.mDataOffset = mDataOffset;
+        index.mTimeRecordsMinDuration = mTimeRecordsMinDuration;
+        index.mTotalCpuTime = mTotalCpuTime;
+        index.mTotalRealTime = mTotalRealTime;
+        index.mPropertiesMap = mPropertiesMap;
+        index.mMethodMap = mMethodMap;
+        index.mThreadMap = mThreadMap;
+        index.mSortedThreads = mSortedThreads;
+        index.mSortedMethods = mSortedMethods;
+        index.mCalls = mCalls;
+        try {
+            index.write(mTraceFileName);
+        } catch (IOException e) {
+            System.err.println("Warning: cannot write the trace index: " + e.getMessage());
+        }
+    }
+
     @Override
     public ProfileProvider getProfileProvider() {
         if (mProfileProvider == null)
@@ -100,19 +268,28 @@ public class DmTraceReader extends TraceReader {
         return mProfileProvider;
     }
 
-    private MappedByteBuffer mapFile(String filename, long offset) throws IOException {
-        MappedByteBuffer buffer = null;
-        FileInputStream dataFile = new FileInputStream(filename);
-        try {
-            File file = new File(filename);
-            FileChannel fc = dataFile.getChannel();
-            buffer = fc.map(FileChannel.MapMode.READ_ONLY, offset, file.length() - offset);
-            buffer.order(ByteOrder.LITTLE_ENDIAN);
+    @Override
+    public int getSamplingInterval() {
+        return mSamplingInterval;
+    }
 
-            return buffer;
-        } finally {
-            dataFile.close(); // this *also* closes the associated channel, fc
+    /**
+     * Returns the search index of the methods, which is built the first time
+     * it is needed, since most sessions never search.
+     */
+    @Override
+    public synchronized MethodIndex getMethodIndex() {
+        if (mMethodIndex == null) {
+            mMethodIndex = new MethodIndex(mSortedMethods);
         }
+        return mMethodIndex;
+    }
+
+    private MappedByteBuffer mapFile(FileChannel fc, long offset, long length)
+            throws IOException {
+        MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, offset, length);
+        buffer.order(ByteOrder.LITTLE_ENDIAN);
+        return buffer;
     }
 
     private void readDataFileHeader(MappedByteBuffer buffer) {
@@ -155,88 +332,409 @@ public class DmTraceReader extends TraceReader {
             offsetToData -= 2;
         }
 
+        int minRecordSize = (version == 1 ? 1 : 2) + 4
+                + (mClockSource == ClockSource.DUAL ? 8 : 4);
+        if (mRecordSize < minRecordSize) {
+            System.err.printf(
+                    "Error: record size %d is too small; expected at least %d\n",
+                    mRecordSize, minRecordSize);
+            throw new RuntimeException();
+        }
+
         // Skip over offsetToData bytes
         while (offsetToData-- > 0) {
             buffer.get();
         }
     }
 
-    private void parseData(long offset) throws IOException {
-        MappedByteBuffer buffer = mapFile(mTraceFileName, offset);
+    /**
+     * Reads the header of the data section, which starts at offset, and
+     * finds the first record.
+     */
+    private void readDataHeader(FileChannel fc, long offset) throws IOException {
+        MappedByteBuffer buffer = mapFile(fc, offset,
+                Math.min(MAP_WINDOW_SIZE, fc.size() - offset));
         readDataFileHeader(buffer);
+        mDataOffset = offset + buffer.position();
+    }
 
+    void parseData(long offset) throws IOException {
         ArrayList<TraceAction> trace = null;
-        if (mClockSource == ClockSource.THREAD_CPU) {
-            trace = new ArrayList<TraceAction>();
+        FileInputStream dataFile = new FileInputStream(mTraceFileName);
+        try {
+            FileChannel fc = dataFile.getChannel();
+            readDataHeader(fc, offset);
+
+            if (mSamplingInterval > 0) {
+                parseSamples(fc);
+                return;
+            }
+
+            if (mClockSource == ClockSource.THREAD_CPU) {
+                if (mStreaming) {
+                    // Without a global clock the timeline can only be
+                    // reconstructed once the whole trace has been read.
+                    System.err.println("Warning: cannot stream a trace without a global clock; "
+                            + "reading the whole trace instead.");
+                    mStreaming = false;
+                }
+                trace = new ArrayList<TraceAction>();
+            }
+
+            if (mStreaming) {
+                CallWindow window = new CallWindow();
+                parseRecords(fc, mThreadMap, trace, window);
+                mTimeRecordsMinDuration = window.finish();
+                mCalls = CallTable.create(window.mCalls, true);
+            } else if (trace != null) {
+                parseRecords(fc, mThreadMap, trace, null);
+            } else if (!mParallel || !parseRecordsInParallel(fc)) {
+                // Most records enter or exit a call, so there are about
+                // half as many calls as records.
+                long numRecords = (fc.size() - mDataOffset) / mRecordSize;
+                mCalls = new CallTable((int) Math.min(numRecords / 2, Integer.MAX_VALUE));
+                parseRecords(fc, mThreadMap, trace, null);
+            }
+        } finally {
+            dataFile.close(); // this *also* closes the associated channel, fc
         }
 
-        final boolean haveThreadClock = mClockSource != ClockSource.WALL;
         final boolean haveGlobalClock = mClockSource != ClockSource.THREAD_CPU;
 
+        // Recreate the global timeline from thread times, if needed.
+        if (!haveGlobalClock) {
+            long globalTime = 0;
+            ThreadData prevThreadData = null;
+            for (TraceAction traceAction : trace) {
+                MutableCall call = traceAction.mCall;
+                ThreadData threadData = call.getThreadData();
+
+                if (traceAction.mAction == TraceAction.ACTION_ENTER) {
+                    long threadTime = call.mThreadStartTime;
+                    globalTime += call.mThreadStartTime - threadData.mThreadCurrentTime;
+                    call.mGlobalStartTime = globalTime;
+                    if (!threadData.mHaveGlobalTime) {
+                        threadData.mHaveGlobalTime = true;
+                        threadData.mGlobalStartTime = globalTime;
+                    }
+                    threadData.mThreadCurrentTime = threadTime;
+                } else if (traceAction.mAction == TraceAction.ACTION_EXIT) {
+                    long threadTime = call.mThreadEndTime;
+                    globalTime += call.mThreadEndTime - threadData.mThreadCurrentTime;
+                    call.mGlobalEndTime = globalTime;
+                    threadData.mGlobalEndTime = globalTime;
+                    threadData.mThreadCurrentTime = threadTime;
+                } // else, ignore ACTION_INCOMPLETE calls, nothing to do
+                prevThreadData = threadData;
+            }
+            addTracedCalls(trace);
+        }
+
+        // Calculate the total time spent.
+        mTotalCpuTime = 0;
+        mTotalRealTime = 0;
+        for (ThreadData threadData : mThreadMap.values()) {
+            MutableCall rootCall = threadData.getRootCall();
+            threadData.updateRootCallTimeBounds();
+            rootCall.finish();
+            mTotalCpuTime += rootCall.mInclusiveCpuTime;
+            mTotalRealTime += rootCall.mInclusiveRealTime;
+        }
+
+        if (mRegression) {
+            System.out.format("totalCpuTime %dus\n", mTotalCpuTime);
+            System.out.format("totalRealTime %dus\n", mTotalRealTime);
+
+            dumpThreadTimes();
+            dumpCallTimes();
+        }
+    }
+
+    /**
+     * Runs every record of the data section through the call stacks of the
+     * threads in threadMap.  Calls are finished as soon as they exit.  If
+     * window is not null, they are handed to the window, which decides
+     * whether to keep them; otherwise each call is added to mCalls as it is
+     * entered.  Without a global clock, the calls are only recorded in trace,
+     * and finished by addTracedCalls() once the global timeline is rebuilt.
+     */
+    private void parseRecords(FileChannel fc, IntMap<ThreadData> threadMap,
+            ArrayList<TraceAction> trace, CallWindow window) throws IOException {
+        CallTable calls = window == null && trace == null ? mCalls : null;
+        readRecords(fc, new RecordParser(threadMap, trace, window, calls));
+    }
+
+    /**
+     * Finishes the calls of a trace without a global clock, children before
+     * their callers, and adds them to mCalls in the order they were entered.
+     */
+    private void addTracedCalls(ArrayList<TraceAction> trace) {
+        int numCalls = 0;
+        for (int i = trace.size() - 1; i >= 0; i--) {
+            TraceAction traceAction = trace.get(i);
+            MutableCall call = traceAction.mCall;
+            if (traceAction.mAction == TraceAction.ACTION_ENTER && call.mCaller != null) {
+                call.updateRealTime();
+                call.finish();
+                numCalls++;
+            }
+        }
+        mCalls = new CallTable(numCalls);
+        for (TraceAction traceAction : trace) {
+            MutableCall call = traceAction.mCall;
+            if (traceAction.mAction == TraceAction.ACTION_ENTER && call.mCaller != null) {
+                mCalls.add(call);
+            }
+        }
+    }
+
+    /**
+     * Reads every record of the data section and hands it to parser.
+     */
+    private void readRecords(FileChannel fc, RecordParser parser) throws IOException {
+        // Map the data section a window at a time.  The windows hold whole
+        // records so that no record straddles two of them.
+        final long windowSize = MAP_WINDOW_SIZE - MAP_WINDOW_SIZE % mRecordSize;
+        final long dataEnd = fc.size();
+        long position = mDataOffset;
+
         // Parse all call records to obtain elapsed time information.
-        ThreadData prevThreadData = null;
-        for (;;) {
-            int threadId;
-            int methodId;
-            long threadTime, globalTime;
-            try {
-                int recordSize = mRecordSize;
-
-                if (mVersionNumber == 1) {
-                    threadId = buffer.get();
-                    recordSize -= 1;
-                } else {
-                    threadId = buffer.getShort();
-                    recordSize -= 2;
-                }
+        while (dataEnd - position >= mRecordSize && !parser.isStopped()) {
+            MappedByteBuffer buffer = mapFile(fc, position,
+                    Math.min(windowSize, dataEnd - position));
+            position += buffer.capacity();
+
+            while (buffer.remaining() >= mRecordSize && !parser.isStopped()) {
+                parser.readRecord(buffer);
+                parser.parseRecord();
+            }
+        }
+        if (!parser.isStopped()) {
+            parser.endTrace();
+        }
+    }
 
-                methodId = buffer.getInt();
-                recordSize -= 4;
+    /**
+     * Parses the data section with one task per thread.  This is only valid
+     * with a global clock: without one, context switches are detected by
+     * looking at consecutive records of different threads.
+     *
+     * A first pass decodes the records and splits them by thread.  Each task
+     * then runs the records of its thread through the call stack into a
+     * table of its own, finishing the calls as they exit and recording the
+     * profile in private copies of the methods.  Finally the copies are
+     * merged into the real methods, and the tables are merged into mCalls in
+     * the order in which the serial parser adds the calls.
+     *
+     * Returns false, without parsing anything, if the trace is too small or
+     * too large to be split.
+     */
+    private boolean parseRecordsInParallel(FileChannel fc) throws IOException {
+        final long dataEnd = fc.size();
+        final long numRecords = (dataEnd - mDataOffset) / mRecordSize;
+        if (numRecords < MIN_PARALLEL_RECORDS || numRecords > MAX_PARALLEL_RECORDS) {
+            return false;
+        }
 
-                switch (mClockSource) {
-                    case WALL:
-                        threadTime = 0;
-                        globalTime = buffer.getInt();
-                        recordSize -= 4;
-                        break;
-                    case DUAL:
-                        threadTime = buffer.getInt();
-                        globalTime = buffer.getInt();
-                        recordSize -= 8;
-                        break;
-                    default:
-                    case THREAD_CPU:
-                        threadTime = buffer.getInt();
-                        globalTime = 0;
-                        recordSize -= 4;
-                        break;
+        // Split the records by thread.  The thread ids are at most 16 bits.
+        ThreadRecords[] recordsByThread = new ThreadRecords[1 << 16];
+        final long windowSize = MAP_WINDOW_SIZE - MAP_WINDOW_SIZE % mRecordSize;
+        RecordParser reader = new RecordParser(null, null, null, null);
+        long position = mDataOffset;
+        int index = 0;
+        while (dataEnd - position >= mRecordSize) {
+            MappedByteBuffer buffer = mapFile(fc, position,
+                    Math.min(windowSize, dataEnd - position));
+            position += buffer.capacity();
+
+            while (buffer.remaining() >= mRecordSize) {
+                reader.readRecord(buffer);
+                int threadId = reader.mThreadId & 0xffff;
+                ThreadRecords records = recordsByThread[threadId];
+                if (records == null) {
+                    // Create any missing threads now, so that the tasks
+                    // only need to read the thread map.
+                    getThreadData(mThreadMap, reader.mThreadId);
+                    records = new ThreadRecords(reader.mThreadId);
+                    recordsByThread[threadId] = records;
                 }
+                records.add(index++, reader);
+                // Likewise for methods.
+                getMethodData(reader.mMethodId & ~0x03);
+            }
+        }
 
-                while (recordSize-- > 0) {
-                    buffer.get();
-                }
-            } catch (BufferUnderflowException ex) {
-                break;
+        // Start the threads with the most records first.
+        ArrayList<ThreadParser> parsers = new ArrayList<ThreadParser>();
+        for (ThreadData threadData : mThreadMap.values()) {
+            ThreadRecords records = recordsByThread[threadData.getId() & 0xffff];
+            if (records != null && records.mThreadId == threadData.getId()) {
+                parsers.add(new ThreadParser(threadData, records));
+            }
+        }
+        // Each task drops the records of its thread once it has parsed them.
+        recordsByThread = null;
+        Collections.sort(parsers, new Comparator<ThreadParser>() {
+            @Override
+            public int compare(ThreadParser tp1, ThreadParser tp2) {
+                return tp2.mNumRecords - tp1.mNumRecords;
+            }
+        });
+
+        ForkJoinPool pool = new ForkJoinPool();
+        try {
+            for (Future<ThreadParser> future : pool.invokeAll(parsers)) {
+                future.get();
+            }
+        } catch (InterruptedException e) {
+            throw new InterruptedIOException("Interrupted while parsing the trace");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new RuntimeException(cause);
+        } finally {
+            pool.shutdown();
+        }
+
+        // Merge the profiles of the threads.
+        for (ThreadParser parser : parsers) {
+            for (MethodData profile : parser.mProfile.values()) {
+                mMethodMap.get(profile.getId()).addProfile(profile, mMethodMap);
+            }
+        }
+
+        // Merge the calls into the order of the records that created them.
+        PriorityQueue<ThreadParser> queue = new PriorityQueue<ThreadParser>(
+                Math.max(parsers.size(), 1), new Comparator<ThreadParser>() {
+            @Override
+            public int compare(ThreadParser tp1, ThreadParser tp2) {
+                return tp1.nextCallOrder() - tp2.nextCallOrder();
+            }
+        });
+        int numCalls = 0;
+        CallTable[] tables = new CallTable[parsers.size()];
+        for (int i = 0; i < tables.length; i++) {
+            ThreadParser parser = parsers.get(i);
+            parser.mIndex = i;
+            tables[i] = parser.mCalls;
+            numCalls += parser.mCalls.size();
+            if (parser.hasNextCall()) {
+                queue.add(parser);
+            }
+        }
+        int[] order = new int[numCalls];
+        for (int i = 0; i < numCalls; i++) {
+            ThreadParser parser = queue.poll();
+            order[i] = parser.mIndex;
+            parser.mNextCall++;
+            if (parser.hasNextCall()) {
+                queue.add(parser);
             }
+        }
+        mCalls = CallTable.merge(tables, order);
+        return true;
+    }
+
+    private MethodData getMethodData(int methodId) {
+        MethodData methodData = mMethodMap.get(methodId);
+        if (methodData == null) {
+            String name = String.format("(0x%1$x)", methodId);  //$NON-NLS-1$
+            methodData = new MethodData(methodId, name);
+            mMethodMap.put(methodId, methodData);
+        }
+        return methodData;
+    }
 
-            int methodAction = methodId & 0x03;
-            methodId = methodId & ~0x03;
-            MethodData methodData = mMethodMap.get(methodId);
-            if (methodData == null) {
-                String name = String.format("(0x%1$x)", methodId);  //$NON-NLS-1$
-                methodData = new MethodData(methodId, name);
-                mMethodMap.put(methodId, methodData);
+    private ThreadData getThreadData(IntMap<ThreadData> threadMap, int threadId) {
+        ThreadData threadData = threadMap.get(threadId);
+        if (threadData == null) {
+            String name = String.format("[%1$d]", threadId);  //$NON-NLS-1$
+            threadData = new ThreadData(threadId, name, mTopLevel);
+            threadMap.put(threadId, threadData);
+        }
+        return threadData;
+    }
+
+    /**
+     * Runs records through the call stacks of a set of threads.
+     */
+    private class RecordParser {
+        private final IntMap<ThreadData> mThreads;
+        private final ArrayList<TraceAction> mTrace;
+        private final CallWindow mWindow;
+        private final CallTable mCalls;
+        final boolean mHaveThreadClock = mClockSource != ClockSource.WALL;
+        final boolean mHaveGlobalClock = mClockSource != ClockSource.THREAD_CPU;
+        private ThreadData mPrevThreadData;
+
+        // If not null, the order of each call added to mCalls: twice the index
+        // of the record that created it, plus one if the record entered it.
+        IntList mCallOrder;
+        int mRecordIndex;
+
+        // The fields of the last record read.
+        int mThreadId;
+        int mMethodId;
+        long mThreadTime;
+        long mGlobalTime;
+
+        RecordParser(IntMap<ThreadData> threadMap, ArrayList<TraceAction> trace,
+                CallWindow window, CallTable calls) {
+            mThreads = threadMap;
+            mTrace = trace;
+            mWindow = window;
+            mCalls = calls;
+        }
+
+        void readRecord(ByteBuffer buffer) {
+            int recordSize = mRecordSize;
+
+            if (mVersionNumber == 1) {
+                mThreadId = buffer.get();
+                recordSize -= 1;
+            } else {
+                mThreadId = buffer.getShort();
+                recordSize -= 2;
             }
 
-            ThreadData threadData = mThreadMap.get(threadId);
-            if (threadData == null) {
-                String name = String.format("[%1$d]", threadId);  //$NON-NLS-1$
-                threadData = new ThreadData(threadId, name, mTopLevel);
-                mThreadMap.put(threadId, threadData);
+            mMethodId = buffer.getInt();
+            recordSize -= 4;
+
+            switch (mClockSource) {
+                case WALL:
+                    mThreadTime = 0;
+                    mGlobalTime = buffer.getInt();
+                    recordSize -= 4;
+                    break;
+                case DUAL:
+                    mThreadTime = buffer.getInt();
+                    mGlobalTime = buffer.getInt();
+                    recordSize -= 8;
+                    break;
+                default:
+                case THREAD_CPU:
+                    mThreadTime = buffer.getInt();
+                    mGlobalTime = 0;
+                    recordSize -= 4;
+                    break;
+            }
+
+            while (recordSize-- > 0) {
+                buffer.get();
             }
+        }
+
+        void parseRecord() {
+            final long threadTime = mThreadTime;
+            final long globalTime = mGlobalTime;
+            int methodAction = mMethodId & 0x03;
+            MethodData methodData = getMethodData(mMethodId & ~0x03);
+            ThreadData threadData = getThreadData(mThreads, mThreadId);
 
             long elapsedGlobalTime = 0;
-            if (haveGlobalClock) {
+            if (mHaveGlobalClock) {
                 if (!threadData.mHaveGlobalTime) {
                     threadData.mGlobalStartTime = globalTime;
                     threadData.mHaveGlobalTime = true;
@@ -246,7 +744,7 @@ public class DmTraceReader extends TraceReader {
                 threadData.mGlobalEndTime = globalTime;
             }
 
-            if (haveThreadClock) {
+            if (mHaveThreadClock) {
                 long elapsedThreadTime = 0;
                 if (!threadData.mHaveThreadTime) {
                     threadData.mThreadStartTime = threadTime;
@@ -257,7 +755,7 @@ public class DmTraceReader extends TraceReader {
                 }
                 threadData.mThreadEndTime = threadTime;
 
-                if (!haveGlobalClock) {
+                if (!mHaveGlobalClock) {
                     // Detect context switches whenever execution appears to switch from one
                     // thread to another.  This assumption is only valid on uniprocessor
                     // systems (which is why we now have a dual clock mode).
@@ -266,68 +764,81 @@ public class DmTraceReader extends TraceReader {
                     // thread.  We arbitrarily set the start and end time of the context
                     // switch such that the context switch occurs in the middle of the thread
                     // time and itself accounts for zero thread time.
-                    if (prevThreadData != null && prevThreadData != threadData) {
+                    if (mPrevThreadData != null && mPrevThreadData != threadData) {
                         // Begin context switch from previous thread.
-                        Call switchCall = prevThreadData.enter(mContextSwitch, trace);
-                        switchCall.mThreadStartTime = prevThreadData.mThreadEndTime;
-                        mCallList.add(switchCall);
+                        MutableCall switchCall = mPrevThreadData.enter(mContextSwitch, mTrace);
+                        switchCall.mThreadStartTime = mPrevThreadData.mThreadEndTime;
 
                         // Return from context switch to current thread.
-                        Call top = threadData.top();
+                        MutableCall top = threadData.top();
                         if (top.getMethodData() == mContextSwitch) {
-                            threadData.exit(mContextSwitch, trace);
+                            threadData.exit(mContextSwitch, mTrace);
                             long beforeSwitch = elapsedThreadTime / 2;
                             top.mThreadStartTime += beforeSwitch;
                             top.mThreadEndTime = top.mThreadStartTime;
                         }
                     }
-                    prevThreadData = threadData;
+                    mPrevThreadData = threadData;
                 } else {
-                    // If we have a global clock, then we can detect context switches (or blocking
-                    // calls or cpu suspensions or clock anomalies) by comparing global time to
-                    // thread time for successive calls that occur on the same thread.
+                    // If we have a global clock, then we can detect context switches (or
+                    // blocking calls or cpu suspensions or clock anomalies) by comparing
+                    // global time to thread time for successive calls that occur on the
+                    // same thread.
                     // As above, we represent the context switch using a special method call.
                     long sleepTime = elapsedGlobalTime - elapsedThreadTime;
                     if (sleepTime > MIN_CONTEXT_SWITCH_TIME_USEC) {
-                        Call switchCall = threadData.enter(mContextSwitch, trace);
+                        MutableCall switchCall = threadData.enter(mContextSwitch, mTrace);
                         long beforeSwitch = elapsedThreadTime / 2;
                         long afterSwitch = elapsedThreadTime - beforeSwitch;
-                        switchCall.mGlobalStartTime = globalTime - elapsedGlobalTime + beforeSwitch;
+                        switchCall.mGlobalStartTime = globalTime - elapsedGlobalTime
+                                + beforeSwitch;
                         switchCall.mGlobalEndTime = globalTime - afterSwitch;
                         switchCall.mThreadStartTime = threadTime - afterSwitch;
                         switchCall.mThreadEndTime = switchCall.mThreadStartTime;
-                        threadData.exit(mContextSwitch, trace);
-                        mCallList.add(switchCall);
+                        threadData.exit(mContextSwitch, mTrace);
+                        if (mWindow != null) {
+                            closeCall(switchCall, mWindow);
+                        } else if (mCalls != null) {
+                            addCall(switchCall, 0);
+                            finishCall(switchCall);
+                        }
                     }
                 }
 
                 // Add thread CPU time.
-                Call top = threadData.top();
+                MutableCall top = threadData.top();
                 top.addCpuTime(elapsedThreadTime);
             }
 
             switch (methodAction) {
                 case METHOD_TRACE_ENTER: {
-                    Call call = threadData.enter(methodData, trace);
-                    if (haveGlobalClock) {
+                    MutableCall call = threadData.enter(methodData, mTrace);
+                    if (mHaveGlobalClock) {
                         call.mGlobalStartTime = globalTime;
                     }
-                    if (haveThreadClock) {
+                    if (mHaveThreadClock) {
                         call.mThreadStartTime = threadTime;
                     }
-                    mCallList.add(call);
+                    if (mCalls != null) {
+                        addCall(call, 1);
+                    }
                     break;
                 }
                 case METHOD_TRACE_EXIT:
                 case METHOD_TRACE_UNROLL: {
-                    Call call = threadData.exit(methodData, trace);
+                    MutableCall call = threadData.exit(methodData, mTrace);
                     if (call != null) {
-                        if (haveGlobalClock) {
+                        if (mHaveGlobalClock) {
                             call.mGlobalEndTime = globalTime;
                         }
-                        if (haveThreadClock) {
+                        if (mHaveThreadClock) {
                             call.mThreadEndTime = threadTime;
                         }
+                        if (mWindow != null) {
+                            closeCall(call, mWindow);
+                        } else if (mCalls != null) {
+                            finishCall(call);
+                        }
                     }
                     break;
                 }
@@ -336,57 +847,80 @@ public class DmTraceReader extends TraceReader {
             }
         }
 
-        // Exit any pending open-ended calls.
-        for (ThreadData threadData : mThreadMap.values()) {
-            threadData.endTrace(trace);
+        /**
+         * Returns true if the listener of the window has stopped the replay.
+         */
+        boolean isStopped() {
+            return mWindow != null && mWindow.mStopped;
         }
 
-        // Recreate the global timeline from thread times, if needed.
-        if (!haveGlobalClock) {
-            long globalTime = 0;
-            prevThreadData = null;
-            for (TraceAction traceAction : trace) {
-                Call call = traceAction.mCall;
-                ThreadData threadData = call.getThreadData();
-
-                if (traceAction.mAction == TraceAction.ACTION_ENTER) {
-                    long threadTime = call.mThreadStartTime;
-                    globalTime += call.mThreadStartTime - threadData.mThreadCurrentTime;
-                    call.mGlobalStartTime = globalTime;
-                    if (!threadData.mHaveGlobalTime) {
-                        threadData.mHaveGlobalTime = true;
-                        threadData.mGlobalStartTime = globalTime;
-                    }
-                    threadData.mThreadCurrentTime = threadTime;
-                } else if (traceAction.mAction == TraceAction.ACTION_EXIT) {
-                    long threadTime = call.mThreadEndTime;
-                    globalTime += call.mThreadEndTime - threadData.mThreadCurrentTime;
-                    call.mGlobalEndTime = globalTime;
-                    threadData.mGlobalEndTime = globalTime;
-                    threadData.mThreadCurrentTime = threadTime;
-                } // else, ignore ACTION_INCOMPLETE calls, nothing to do
-                prevThreadData = threadData;
+        private void addCall(MutableCall call, int order) {
+            mCalls.add(call);
+            if (mCallOrder != null) {
+                mCallOrder.add(2 * mRecordIndex + order);
             }
         }
 
-        // Finish updating all calls and calculate the total time spent.
-        for (int i = mCallList.size() - 1; i >= 0; i--) {
-            Call call = mCallList.get(i);
+        /**
+         * Finishes a call of mCalls that has exited.  All of its children have
+         * already been finished, so its times are final.
+         */
+        void finishCall(MutableCall call) {
+            call.updateRealTime();
+            call.finish();
+            mCalls.finish(call);
+        }
 
-            // Calculate exclusive real-time by subtracting inclusive real time
-            // accumulated by children from the total span.
-            long realTime = call.mGlobalEndTime - call.mGlobalStartTime;
-            call.mExclusiveRealTime = Math.max(realTime - call.mInclusiveRealTime, 0);
-            call.mInclusiveRealTime = realTime;
+        void endTrace() {
+            if (mWindow != null || mCalls != null) {
+                // Close the calls that are still open at the end of the trace,
+                // innermost first so that each call sees all of its children.
+                for (ThreadData threadData : mThreads.values()) {
+                    MutableCall call = threadData.top();
+                    while (call.mCaller != null) {
+                        call.mGlobalEndTime = threadData.mGlobalEndTime;
+                        call.mThreadEndTime = threadData.mThreadEndTime;
+                        threadData.exit(call.getMethodData(), null);
+                        if (mWindow != null) {
+                            closeCall(call, mWindow);
+                        } else {
+                            finishCall(call);
+                        }
+                        call = threadData.top();
+                    }
+                }
+            }
 
-            call.finish();
+            // Exit any pending open-ended calls.
+            for (ThreadData threadData : mThreads.values()) {
+                threadData.endTrace(mTrace);
+            }
         }
+    }
+
+    /**
+     * Parses a sampled trace into the call path tries of the threads, and
+     * derives the profile of the methods from the tries.
+     */
+    private void parseSamples(FileChannel fc) throws IOException {
+        readRecords(fc, new SampleParser());
+
         mTotalCpuTime = 0;
         mTotalRealTime = 0;
         for (ThreadData threadData : mThreadMap.values()) {
-            Call rootCall = threadData.getRootCall();
+            CallPathNode root = threadData.getCallPaths();
+            root.computeInclusiveTimes();
+            root.mNumCalls = 1;
+
+            MutableCall rootCall = threadData.getRootCall();
             threadData.updateRootCallTimeBounds();
-            rootCall.finish();
+            rootCall.mInclusiveCpuTime = root.mInclusiveCpuTime;
+            rootCall.mExclusiveCpuTime = root.mExclusiveCpuTime;
+            rootCall.mInclusiveRealTime = root.mInclusiveRealTime;
+            rootCall.mExclusiveRealTime = root.mExclusiveRealTime;
+            rootCall.addToProfile(mTopLevel, null);
+            addCallPathsToProfile(root, false, new IntMap<int[]>(), null);
+
             mTotalCpuTime += rootCall.mInclusiveCpuTime;
             mTotalRealTime += rootCall.mInclusiveRealTime;
         }
@@ -396,66 +930,584 @@ public class DmTraceReader extends TraceReader {
             System.out.format("totalRealTime %dus\n", mTotalRealTime);
 
             dumpThreadTimes();
-            dumpCallTimes();
         }
     }
 
-    static final int PARSE_VERSION = 0;
-    static final int PARSE_THREADS = 1;
-    static final int PARSE_METHODS = 2;
-    static final int PARSE_OPTIONS = 4;
+    /**
+     * Adds the times of the call paths below node to the profile of their
+     * methods, as if each path was a call made as many times as the path was
+     * entered.  If profiles is not null, the times are added to copies of
+     * the methods kept there instead.
+     *
+     * onStack counts how many times each method is on the path to node, to
+     * tell recursive calls from the others.
+     */
+    private static void addCallPathsToProfile(CallPathNode node, boolean isRecursive,
+            IntMap<int[]> onStack, IntMap<MethodData> profiles) {
+        MethodData caller = node.getMethodData();
+        if (profiles != null) {
+            caller = getProfile(profiles, caller);
+        }
+        for (CallPathNode child = node.getFirstChild(); child != null;
+                child = child.getNextSibling()) {
+            MethodData method = child.getMethodData();
+            int[] num = onStack.get(method.getId());
+            if (num == null) {
+                num = new int[1];
+                onStack.put(method.getId(), num);
+            }
+            boolean childIsRecursive = num[0] > 0;
+            if (profiles != null) {
+                method = getProfile(profiles, method);
+            }
 
-    long parseKeys() throws IOException {
-        long offset = 0;
-        BufferedReader in = null;
-        try {
-            in = new BufferedReader(new InputStreamReader(
-                    new FileInputStream(mTraceFileName), "US-ASCII"));
+            method.addElapsedExclusive(child.mExclusiveCpuTime, child.mExclusiveRealTime);
+            if (!childIsRecursive) {
+                method.addTopExclusive(child.mExclusiveCpuTime, child.mExclusiveRealTime);
+            }
+            method.addElapsedInclusive(child.mInclusiveCpuTime, child.mInclusiveRealTime,
+                    childIsRecursive, caller, isRecursive, child.mNumCalls);
 
-            int mode = PARSE_VERSION;
-            String line = null;
-            while (true) {
-                line = in.readLine();
-                if (line == null) {
-                    throw new IOException("Key section does not have an *end marker");
+            num[0]++;
+            addCallPathsToProfile(child, childIsRecursive, onStack, profiles);
+            num[0]--;
+        }
+    }
+
+    /**
+     * Runs the records of a sampled trace through the call path tries of
+     * the threads, without creating calls.  The records are the changes in
+     * the stack of a thread between two samples, so the time since the
+     * previous record of a thread is added to the path that it leaves.
+     */
+    private class SampleParser extends RecordParser {
+        private final IntMap<SampledThread> mSampledThreads = new IntMap<SampledThread>();
+
+        SampleParser() {
+            super(mThreadMap, null, null, null);
+        }
+
+        @Override
+        void parseRecord() {
+            SampledThread thread = mSampledThreads.get(mThreadId);
+            if (thread == null) {
+                thread = new SampledThread(getThreadData(mThreadMap, mThreadId));
+                mSampledThreads.put(mThreadId, thread);
+            }
+            ThreadData threadData = thread.mThreadData;
+            CallPathNode path = thread.mPath;
+
+            if (mHaveGlobalClock) {
+                if (!threadData.mHaveGlobalTime) {
+                    threadData.mGlobalStartTime = mGlobalTime;
+                    threadData.mHaveGlobalTime = true;
+                } else {
+                    path.mExclusiveRealTime += mGlobalTime - threadData.mGlobalEndTime;
+                }
+                threadData.mGlobalEndTime = mGlobalTime;
+            }
+            if (mHaveThreadClock) {
+                if (!threadData.mHaveThreadTime) {
+                    threadData.mThreadStartTime = mThreadTime;
+                    threadData.mHaveThreadTime = true;
+                } else {
+                    path.mExclusiveCpuTime += mThreadTime - threadData.mThreadEndTime;
                 }
+                threadData.mThreadEndTime = mThreadTime;
+            }
 
-                // Calculate how much we have read from the file so far.  The
-                // extra byte is for the line ending not included by readLine().
-                offset += line.length() + 1;
-                if (line.startsWith("*")) {
-                    if (line.equals("*version")) {
-                        mode = PARSE_VERSION;
-                        continue;
-                    }
-                    if (line.equals("*threads")) {
-                        mode = PARSE_THREADS;
-                        continue;
-                    }
-                    if (line.equals("*methods")) {
-                        mode = PARSE_METHODS;
-                        continue;
-                    }
-                    if (line.equals("*end")) {
+            MethodData methodData = getMethodData(mMethodId & ~0x03);
+            int methodAction = mMethodId & 0x03;
+            switch (methodAction) {
+                case METHOD_TRACE_ENTER:
+                    threadData.setNotEmpty();
+                    path = path.getChild(methodData);
+                    path.mNumCalls++;
+                    break;
+                case METHOD_TRACE_EXIT:
+                case METHOD_TRACE_UNROLL:
+                    if (path.getParent() == null) {
                         break;
                     }
-                }
-                switch (mode) {
-                case PARSE_VERSION:
-                    mVersionNumber = Integer.decode(line);
-                    mode = PARSE_OPTIONS;
-                    break;
-                case PARSE_THREADS:
-                    parseThread(line);
+                    if (path.getMethodData() != methodData) {
+                        String error = "Method exit (" + methodData.getName()
+                                + ") does not match current method ("
+                                + path.getMethodData().getName() + ")";
+                        throw new RuntimeException(error);
+                    }
+                    path = path.getParent();
                     break;
-                case PARSE_METHODS:
-                    parseMethod(line);
+                default:
+                    throw new RuntimeException("Unrecognized method action: " + methodAction);
+            }
+            thread.mPath = path;
+        }
+
+        @Override
+        void endTrace() {
+        }
+    }
+
+    /**
+     * A thread of a sampled trace, and the call path it is in.
+     */
+    private static class SampledThread {
+        final ThreadData mThreadData;
+        CallPathNode mPath;
+
+        SampledThread(ThreadData threadData) {
+            mThreadData = threadData;
+            mPath = threadData.getCallPaths();
+        }
+    }
+
+    /**
+     * Parses the records of a single thread for parseRecordsInParallel().
+     */
+    private class ThreadParser implements Callable<ThreadParser> {
+        final ThreadData mThreadData;
+        final int mNumRecords;
+        ThreadRecords mRecords; // dropped once they are parsed
+        final CallTable mCalls;
+        final IntList mCallOrder = new IntList();
+
+        // Private copies of the methods, holding the profile of this thread.
+        final IntMap<MethodData> mProfile = new IntMap<MethodData>();
+
+        // The index of the table of this thread in the merge, and the next
+        // call of the table to merge.
+        int mIndex;
+        int mNextCall;
+
+        ThreadParser(ThreadData threadData, ThreadRecords records) {
+            mThreadData = threadData;
+            mNumRecords = records.mSize;
+            mRecords = records;
+            // Every call but the context switches is entered by a record.
+            mCalls = new CallTable(records.mNumEnters);
+        }
+
+        @Override
+        public ThreadParser call() {
+            IntMap<ThreadData> threadMap = new IntMap<ThreadData>();
+            threadMap.put(mThreadData.getId(), mThreadData);
+            RecordParser parser = new RecordParser(threadMap, null, null, mCalls) {
+                @Override
+                void finishCall(MutableCall call) {
+                    call.updateRealTime();
+                    call.addTimeToCaller();
+                    MutableCall caller = call.mCaller;
+                    call.addToProfile(getProfile(call.getMethodData()),
+                            caller != null ? getProfile(caller.getMethodData()) : null);
+                    call.addToCallPath();
+                    mCalls.finish(call);
+                }
+            };
+            parser.mCallOrder = mCallOrder;
+            parser.mThreadId = mThreadData.getId();
+
+            ThreadRecords records = mRecords;
+            for (int i = 0; i < records.mSize; i++) {
+                parser.mRecordIndex = records.mIndexes[i];
+                parser.mMethodId = records.mMethodIds[i];
+                parser.mThreadTime = records.mThreadTimes[i];
+                parser.mGlobalTime = records.mGlobalTimes[i];
+                parser.parseRecord();
+            }
+            parser.endTrace();
+            mRecords = null;
+            return this;
+        }
+
+        private MethodData getProfile(MethodData methodData) {
+            MethodData profile = mProfile.get(methodData.getId());
+            if (profile == null) {
+                profile = new MethodData(methodData.getId(), methodData.getClassName());
+                mProfile.put(methodData.getId(), profile);
+            }
+            return profile;
+        }
+
+        boolean hasNextCall() {
+            return mNextCall < mCalls.size();
+        }
+
+        int nextCallOrder() {
+            return mCallOrder.get(mNextCall);
+        }
+    }
+
+    /**
+     * The records of a single thread, and their indexes in the trace.
+     */
+    private static class ThreadRecords {
+        final int mThreadId;
+        int[] mIndexes = new int[16];
+        int[] mMethodIds = new int[16];
+        int[] mThreadTimes = new int[16];
+        int[] mGlobalTimes = new int[16];
+        int mSize;
+        int mNumEnters;
+
+        ThreadRecords(int threadId) {
+            mThreadId = threadId;
+        }
+
+        void add(int index, RecordParser reader) {
+            if (mSize == mIndexes.length) {
+                int capacity = mSize * 2;
+                mIndexes = Arrays.copyOf(mIndexes, capacity);
+                mMethodIds = Arrays.copyOf(mMethodIds, capacity);
+                mThreadTimes = Arrays.copyOf(mThreadTimes, capacity);
+                mGlobalTimes = Arrays.copyOf(mGlobalTimes, capacity);
+            }
+            mIndexes[mSize] = index;
+            mMethodIds[mSize] = reader.mMethodId;
+            mThreadTimes[mSize] = (int) reader.mThreadTime;
+            mGlobalTimes[mSize] = (int) reader.mGlobalTime;
+            mSize++;
+            if ((reader.mMethodId & 0x03) == METHOD_TRACE_ENTER) {
+                mNumEnters++;
+            }
+        }
+    }
+
+    /**
+     * Finishes a call that has exited while streaming.  All of its children
+     * have already been finished, so its times are final.
+     */
+    private void closeCall(MutableCall call, CallWindow window) {
+        call.updateRealTime();
+        if (window.mUpdateProfile) {
+            call.finish();
+        } else {
+            call.addTimeToCaller();
+        }
+        window.add(call);
+    }
+
+    /**
+     * Decides which calls to keep while streaming.  Only the calls that overlap
+     * [mStartTime, mEndTime] and last at least mMinDuration are kept, so that
+     * memory use depends on what the timeline can draw rather than on the
+     * length of the trace.
+     */
+    private static class CallWindow {
+        // The smallest number of calls kept before pruning the initial pass.
+        private static final int MIN_PRUNE_SIZE = 1 << 16;
+
+        final long mStartTime;
+        final long mEndTime;
+        final boolean mUpdateProfile;
+        long mMinDuration;
+        ArrayList<MutableCall> mCalls = new ArrayList<MutableCall>();
+
+        // If not null, every call goes to the listener and none are kept,
+        // until the listener stops the replay.
+        private final CallListener mListener;
+        boolean mStopped;
+
+        // The initial pass keeps calls for the whole trace, whose length is not
+        // known until the end.  Instead, the minimum duration is raised as the
+        // trace grows and calls that have become too short are pruned.
+        private final boolean mWholeTrace;
+        private long mTraceStartTime = Long.MAX_VALUE;
+        private long mTraceEndTime = Long.MIN_VALUE;
+        private int mPruneSize = MIN_PRUNE_SIZE;
+
+        /** Creates the window for the initial pass, which also builds the profile. */
+        CallWindow() {
+            mStartTime = Long.MIN_VALUE;
+            mEndTime = Long.MAX_VALUE;
+            mUpdateProfile = true;
+            mWholeTrace = true;
+            mListener = null;
+        }
+
+        CallWindow(long startTime, long endTime, long minDuration) {
+            mStartTime = startTime;
+            mEndTime = endTime;
+            mMinDuration = minDuration;
+            mUpdateProfile = false;
+            mWholeTrace = false;
+            mListener = null;
+        }
+
+        CallWindow(CallListener listener) {
+            mStartTime = Long.MIN_VALUE;
+            mEndTime = Long.MAX_VALUE;
+            mUpdateProfile = false;
+            mWholeTrace = false;
+            mListener = listener;
+        }
+
+        void add(MutableCall call) {
+            if (mListener != null) {
+                if (!mStopped && !mListener.callExited(call)) {
+                    mStopped = true;
+                }
+                return;
+            }
+            long startTime = call.mGlobalStartTime;
+            long endTime = call.mGlobalEndTime;
+            if (mWholeTrace) {
+                mTraceStartTime = Math.min(mTraceStartTime, startTime);
+                mTraceEndTime = Math.max(mTraceEndTime, endTime);
+            }
+            if (endTime < mStartTime || startTime > mEndTime
+                    || endTime - startTime < mMinDuration) {
+                return;
+            }
+            mCalls.add(call);
+            if (mWholeTrace && mCalls.size() >= mPruneSize) {
+                prune();
+                mPruneSize = Math.max(MIN_PRUNE_SIZE, 2 * mCalls.size());
+            }
+        }
+
+        /**
+         * Prunes the calls that are too short for the final length of the
+         * trace and returns the minimum duration of the calls that were kept.
+         */
+        long finish() {
+            if (mWholeTrace) {
+                prune();
+            }
+            return mMinDuration;
+        }
+
+        private void prune() {
+            mMinDuration = Math.max(mMinDuration,
+                    (mTraceEndTime - mTraceStartTime) / STREAMING_RESOLUTION);
+            ArrayList<MutableCall> calls = new ArrayList<MutableCall>();
+            for (MutableCall call : mCalls) {
+                if (call.mGlobalEndTime - call.mGlobalStartTime >= mMinDuration) {
+                    calls.add(call);
+                }
+            }
+            mCalls = calls;
+        }
+    }
+
+    /**
+     * Reads the lines of the key section.  The mapped file is copied a
+     * block at a time into an array, which is much faster to scan than the
+     * buffer, and each line is left in the block between mLineStart and
+     * mLineEnd, without its "\n" or "\r\n".
+     */
+    private class KeyReader {
+        private final FileChannel mChannel;
+        private final long mSize;
+        private MappedByteBuffer mWindow;
+        private long mWindowPosition;
+
+        // The file offset of the start of the block, and the index of the
+        // start of the next line in it.
+        byte[] mBlock = new byte[KEY_BLOCK_SIZE];
+        private int mBlockLength;
+        private long mBlockPosition;
+        private int mNext;
+
+        int mLineStart;
+        int mLineEnd;
+
+        KeyReader(FileChannel fc) throws IOException {
+            mChannel = fc;
+            mSize = fc.size();
+        }
+
+        boolean nextLine() throws IOException {
+            int newline = mNext;
+            while (true) {
+                while (newline < mBlockLength && mBlock[newline] != '\n') {
+                    newline++;
+                }
+                if (newline < mBlockLength) {
                     break;
-                case PARSE_OPTIONS:
-                    parseOption(line);
+                }
+                int consumed = mNext;
+                if (!fill()) {
+                    if (mNext == mBlockLength) {
+                        return false;
+                    }
+                    // The last line has no line ending.
+                    newline = mBlockLength;
                     break;
                 }
+                newline -= consumed;
+            }
+
+            mLineStart = mNext;
+            mLineEnd = newline;
+            if (mLineEnd > mLineStart && mBlock[mLineEnd - 1] == '\r') {
+                mLineEnd--;
+            }
+            mNext = Math.min(newline + 1, mBlockLength);
+            return true;
+        }
+
+        /**
+         * Returns the file offset of the start of the next line.
+         */
+        long getPosition() {
+            return mBlockPosition + mNext;
+        }
+
+        /**
+         * Moves the rest of the block to its start, and appends more of the
+         * file to it.  Returns false at the end of the file.
+         */
+        private boolean fill() throws IOException {
+            int remaining = mBlockLength - mNext;
+            if (mNext == 0 && remaining == mBlock.length) {
+                mBlock = Arrays.copyOf(mBlock, mBlock.length * 2);
+            } else {
+                System.arraycopy(mBlock, mNext, mBlock, 0, remaining);
+            }
+            mBlockPosition += mNext;
+            mBlockLength = remaining;
+            mNext = 0;
+
+            long position = mBlockPosition + mBlockLength;
+            if (position >= mSize) {
+                return false;
+            }
+            if (mWindow == null || position >= mWindowPosition + mWindow.capacity()) {
+                mWindowPosition = position;
+                mWindow = mapFile(mChannel, position, Math.min(MAP_WINDOW_SIZE, mSize - position));
+            }
+            mWindow.position((int) (position - mWindowPosition));
+            int count = Math.min(mBlock.length - mBlockLength, mWindow.remaining());
+            mWindow.get(mBlock, mBlockLength, count);
+            mBlockLength += count;
+            return true;
+        }
+    }
+
+    /**
+     * Splits a line of the key section into its tab separated tokens, in
+     * place.  As with String.split, trailing empty tokens are dropped.
+     *
+     * The methods of a class are usually listed together, so the string
+     * last returned for each token is kept, and returned again without
+     * looking in the pool if the token is the same.
+     */
+    private static class KeyTokenizer {
+        private byte[] mLine;
+        private int[] mStarts = new int[8];
+        private int[] mEnds = new int[8];
+        private String[] mLast = new String[8];
+        private int mSize;
+
+        void reset(byte[] line, int start, int end) {
+            mLine = line;
+            mSize = 0;
+            int tokenStart = start;
+            for (int i = start; i < end; i++) {
+                if (line[i] == '\t') {
+                    add(tokenStart, i);
+                    tokenStart = i + 1;
+                }
+            }
+            add(tokenStart, end);
+            while (mSize > 1 && mStarts[mSize - 1] == mEnds[mSize - 1]) {
+                mSize--;
+            }
+        }
+
+        private void add(int start, int end) {
+            if (mSize == mStarts.length) {
+                mStarts = Arrays.copyOf(mStarts, mSize * 2);
+                mEnds = Arrays.copyOf(mEnds, mSize * 2);
+                mLast = Arrays.copyOf(mLast, mSize * 2);
+            }
+            mStarts[mSize] = start;
+            mEnds[mSize++] = end;
+        }
+
+        int size() {
+            return mSize;
+        }
+
+        String getString(int index, StringPool pool) {
+            if (index >= mSize) {
+                throw new ArrayIndexOutOfBoundsException("Missing token " + index);
+            }
+            int start = mStarts[index];
+            int end = mEnds[index];
+            String last = mLast[index];
+            if (last != null && last.length() == end - start) {
+                int i = start;
+                while (i < end && last.charAt(i - start) == mLine[i]) {
+                    i++;
+                }
+                if (i == end) {
+                    return last;
+                }
+            }
+            return mLast[index] = pool.get(mLine, start, end);
+        }
+
+        boolean startsWith(int index, char c) {
+            return mStarts[index] < mEnds[index] && mLine[mStarts[index]] == c;
+        }
+
+        long getLong(int index) {
+            if (index >= mSize) {
+                throw new NumberFormatException("Missing number");
+            }
+            return decodeLong(mLine, mStarts[index], mEnds[index]);
+        }
+    }
+
+    /**
+     * Decodes a number the way Long.decode does, from bytes start to end.
+     */
+    static long decodeLong(byte[] bytes, int start, int end) {
+        int i = start;
+        boolean negative = false;
+        if (i < end && (bytes[i] == '-' || bytes[i] == '+')) {
+            negative = bytes[i++] == '-';
+        }
+        int radix = 10;
+        if (i + 1 < end && bytes[i] == '0' && (bytes[i + 1] == 'x' || bytes[i + 1] == 'X')) {
+            radix = 16;
+            i += 2;
+        } else if (i < end && bytes[i] == '#') {
+            radix = 16;
+            i++;
+        } else if (i + 1 < end && bytes[i] == '0') {
+            radix = 8;
+            i++;
+        }
+        if (i == end) {
+            throw new NumberFormatException(StringPool.decode(bytes, start, end));
+        }
+        long value = 0;
+        for (; i < end; i++) {
+            int c = bytes[i];
+            int letter = c | 0x20;
+            int digit = c >= '0' && c <= '9' ? c - '0'
+                    : letter >= 'a' && letter <= 'z' ? letter - 'a' + 10 : -1;
+            if (digit < 0 || digit >= radix) {
+                throw new NumberFormatException(StringPool.decode(bytes, start, end));
             }
+            value = value * radix + digit;
+        }
+        return negative ? -value : value;
+    }
+
+    static final int PARSE_VERSION = 0;
+    static final int PARSE_THREADS = 1;
+    static final int PARSE_METHODS = 2;
+    static final int PARSE_OPTIONS = 4;
+
+    long parseKeys() throws IOException {
+        long offset = 0;
+        FileInputStream in = null;
+        try {
+            in = new FileInputStream(mTraceFileName);
+            offset = parseKeys(in.getChannel());
         } catch (FileNotFoundException ex) {
             System.err.println(ex.getMessage());
         } finally {
@@ -471,6 +1523,70 @@ public class DmTraceReader extends TraceReader {
         return offset;
     }
 
+    /**
+     * Parses the key section from the mapped file, and returns the offset
+     * of the byte after its *end line.  Names are looked up in the string
+     * pool from their bytes, so only the ones it does not have yet are
+     * decoded.
+     */
+    private long parseKeys(FileChannel fc) throws IOException {
+        KeyReader in = new KeyReader(fc);
+        KeyTokenizer tokenizer = new KeyTokenizer();
+        StringPool pool = new StringPool();
+        int mode = PARSE_VERSION;
+        while (in.nextLine()) {
+            byte[] line = in.mBlock;
+            int start = in.mLineStart;
+            int end = in.mLineEnd;
+            if (end > start && line[start] == '*') {
+                if (equals(line, start, end, "*version")) {
+                    mode = PARSE_VERSION;
+                    continue;
+                }
+                if (equals(line, start, end, "*threads")) {
+                    mode = PARSE_THREADS;
+                    continue;
+                }
+                if (equals(line, start, end, "*methods")) {
+                    mode = PARSE_METHODS;
+                    continue;
+                }
+                if (equals(line, start, end, "*end")) {
+                    return in.getPosition();
+                }
+            }
+            switch (mode) {
+            case PARSE_VERSION:
+                mVersionNumber = (int) decodeLong(line, start, end);
+                mode = PARSE_OPTIONS;
+                break;
+            case PARSE_THREADS:
+                parseThread(line, start, end);
+                break;
+            case PARSE_METHODS:
+                tokenizer.reset(line, start, end);
+                parseMethod(tokenizer, pool);
+                break;
+            case PARSE_OPTIONS:
+                parseOption(StringPool.decode(line, start, end));
+                break;
+            }
+        }
+        throw new IOException("Key section does not have an *end marker");
+    }
+
+    private static boolean equals(byte[] bytes, int start, int end, String s) {
+        if (end - start != s.length()) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (bytes[i] != s.charAt(i - start)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
     void parseOption(String line) {
         String[] tokens = line.split("=");
         if (tokens.length == 2) {
@@ -490,6 +1606,22 @@ public class DmTraceReader extends TraceReader {
         }
     }
 
+    private void parseThread(byte[] line, int start, int end) {
+        // Thread lines are an id, a tab and a name.  Anything else is left
+        // to the pattern, which finds the id and name anywhere in the line.
+        int tab = start;
+        while (tab < end && line[tab] >= '0' && line[tab] <= '9') {
+            tab++;
+        }
+        if (tab == start || tab == end || line[tab] != '\t') {
+            parseThread(StringPool.decode(line, start, end));
+            return;
+        }
+        int id = (int) decodeLong(line, start, tab);
+        String name = StringPool.decode(line, tab + 1, end);
+        mThreadMap.put(id, new ThreadData(id, name, mTopLevel));
+    }
+
     void parseThread(String line) {
         String idStr = null;
         String name = null;
@@ -505,27 +1637,26 @@ public class DmTraceReader extends TraceReader {
         mThreadMap.put(id, new ThreadData(id, name, mTopLevel));
     }
 
-    void parseMethod(String line) {
-        String[] tokens = line.split("\t");
-        int id = Long.decode(tokens[0]).intValue();
-        String className = tokens[1];
+    private void parseMethod(KeyTokenizer tokens, StringPool pool) {
+        int id = (int) tokens.getLong(0);
+        String className = tokens.getString(1, pool);
         String methodName = null;
         String signature = null;
         String pathname = null;
         int lineNumber = -1;
-        if (tokens.length == 6) {
-            methodName = tokens[2];
-            signature = tokens[3];
-            pathname = tokens[4];
-            lineNumber = Integer.decode(tokens[5]);
-            pathname = constructPathname(className, pathname);
-        } else if (tokens.length > 2) {
-            if (tokens[3].startsWith("(")) {
-                methodName = tokens[2];
-                signature = tokens[3];
+        if (tokens.size() == 6) {
+            methodName = tokens.getString(2, pool);
+            signature = tokens.getString(3, pool);
+            pathname = tokens.getString(4, pool);
+            lineNumber = (int) tokens.getLong(5);
+            pathname = pool.get(constructPathname(className, pathname));
+        } else if (tokens.size() > 3) {
+            if (tokens.startsWith(3, '(')) {
+                methodName = tokens.getString(2, pool);
+                signature = tokens.getString(3, pool);
             } else {
-                pathname = tokens[2];
-                lineNumber = Integer.decode(tokens[3]);
+                pathname = tokens.getString(2, pool);
+                lineNumber = (int) tokens.getLong(3);
             }
         }
 
@@ -541,7 +1672,7 @@ public class DmTraceReader extends TraceReader {
         return pathname;
     }
 
-    private void analyzeData() {
+    void analyzeData() {
         final TimeBase timeBase = getPreferredTimeBase();
 
         // Sort the threads into decreasing cpu time
@@ -558,86 +1689,206 @@ public class DmTraceReader extends TraceReader {
             }
         });
 
-        // Sort the methods into decreasing inclusive time
-        Collection<MethodData> mv = mMethodMap.values();
-        MethodData[] methods;
-        methods = mv.toArray(new MethodData[mv.size()]);
-        Arrays.sort(methods, new Comparator<MethodData>() {
+        rankMethods(timeBase);
+
+        if (mRegression) {
+            dumpMethodStats();
+        }
+    }
+
+    /**
+     * Sorts the methods with time in timeBase into decreasing inclusive time,
+     * and numbers them by rank.  The calls name themselves after the rank of
+     * their method when they are drawn, so ranking the methods again in
+     * another time base does not touch the calls.
+     */
+    synchronized void rankMethods(final TimeBase timeBase) {
+        if (mSortedMethods != null) {
+            for (MethodData md : mSortedMethods) {
+                md.setRank(-1);
+            }
+        }
+        mSortedMethods = new MethodSorter() {
             @Override
-            public int compare(MethodData md1, MethodData md2) {
-                if (timeBase.getElapsedInclusiveTime(md2) > timeBase.getElapsedInclusiveTime(md1))
-                    return 1;
-                if (timeBase.getElapsedInclusiveTime(md2) < timeBase.getElapsedInclusiveTime(md1))
-                    return -1;
+            long getTime(MethodData md) {
+                return timeBase.getElapsedInclusiveTime(md);
+            }
+
+            @Override
+            int compareTies(MethodData md1, MethodData md2) {
                 return md1.getName().compareTo(md2.getName());
             }
-        });
+        }.sort(mMethodMap.values());
 
-        // Count the number of methods with non-zero inclusive time
-        int nonZero = 0;
-        for (MethodData md : methods) {
-            if (timeBase.getElapsedInclusiveTime(md) == 0)
-                break;
-            nonZero += 1;
+        // Let each method analyze its profile data
+        for (int ii = 0; ii < mSortedMethods.length; ++ii) {
+            mSortedMethods[ii].setRank(ii);
+            mSortedMethods[ii].analyzeData(timeBase);
         }
+        mMethodIndex = null;
+    }
 
-        // Copy the methods with non-zero time
-        mSortedMethods = new MethodData[nonZero];
-        int ii = 0;
-        for (MethodData md : methods) {
-            if (timeBase.getElapsedInclusiveTime(md) == 0)
-                break;
-            md.setRank(ii);
-            mSortedMethods[ii++] = md;
+    /*
+     * The timeline reads the calls straight from the table, a row per call.
+     */
+    @Override
+    CallTable getTimeLineCalls() {
+        if (mRegression) {
+            dumpTimeRecs(mCalls);
+            System.exit(0);
         }
+        return mCalls;
+    }
 
-        // Let each method analyze its profile data
-        for (MethodData md : mSortedMethods) {
-            md.analyzeData(timeBase);
+    /*
+     * When streaming, this replays the trace to recreate the calls that
+     * overlap [startTime, endTime] and last at least minDuration.
+     */
+    @Override
+    CallTable getTimeLineCalls(long startTime, long endTime, long minDuration) {
+        if (!mStreaming) {
+            return getTimeLineCalls();
         }
 
-        // Update all the calls to include the method rank in
-        // their name.
-        for (Call call : mCallList) {
-            call.updateName();
+        return replay(new CallWindow(startTime, endTime, minDuration));
+    }
+
+    /**
+     * Replays the trace into copies of the threads and returns the calls
+     * that the window keeps.
+     */
+    private CallTable replay(CallWindow window) {
+        FileInputStream dataFile = null;
+        try {
+            dataFile = new FileInputStream(mTraceFileName);
+            parseRecords(dataFile.getChannel(), copyThreads(), null, window);
+        } catch (IOException e) {
+            System.err.println("Failed to read the trace file: " + e.getMessage());
+        } finally {
+            if (dataFile != null) {
+                try {
+                    dataFile.close();
+                } catch (IOException ignore) {
+                }
+            }
         }
+        return CallTable.create(window.mCalls, true);
+    }
 
-        if (mRegression) {
-            dumpMethodStats();
+    /**
+     * Replays the trace into copies of the threads and hands every call to
+     * listener as it exits, without keeping any of them, until the listener
+     * stops the replay.  The calls that are still running at the end of the
+     * trace exit at the last time of their thread.  Without a global clock,
+     * the context switches are left out and the global times of the calls
+     * are 0.
+     */
+    void replayCalls(CallListener listener) throws IOException {
+        if (mSamplingInterval > 0) {
+            throw new IllegalStateException("sampled traces have no calls");
+        }
+        FileInputStream dataFile = new FileInputStream(mTraceFileName);
+        try {
+            parseRecords(dataFile.getChannel(), copyThreads(), null, new CallWindow(listener));
+        } finally {
+            dataFile.close();
         }
     }
 
-    /*
-     * This method computes a list of records that describe the the execution
-     * timeline for each thread. Each record is a pair: (row, block) where: row:
-     * is the ThreadData object block: is the call (containing the start and end
-     * times)
+    /**
+     * Receives the calls of a trace replayed by replayCalls().
+     */
+    interface CallListener {
+        /**
+         * Receives a call that has exited.  Returns false to stop the
+         * replay, skipping the rest of the trace.
+         */
+        boolean callExited(Call call);
+    }
+
+    private IntMap<ThreadData> copyThreads() {
+        IntMap<ThreadData> threadMap = new IntMap<ThreadData>();
+        for (ThreadData threadData : mThreadMap.values()) {
+            threadMap.put(threadData.getId(), new ThreadData(threadData));
+        }
+        return threadMap;
+    }
+
+    /**
+     * Returns the calls that may overlap [startTime, endTime].  These are
+     * all the calls, unless streaming, when the trace is replayed to find
+     * the calls in the range instead.  Sampled traces have no calls.
      */
     @Override
-    public ArrayList<TimeLineView.Record> getThreadTimeRecords() {
-        TimeLineView.Record record;
-        ArrayList<TimeLineView.Record> timeRecs;
-        timeRecs = new ArrayList<TimeLineView.Record>();
+    CallTable getCalls(long startTime, long endTime) {
+        if (mSamplingInterval > 0) {
+            return null;
+        }
+        if (mStreaming) {
+            return replay(new CallWindow(startTime, endTime, 0));
+        }
+        return mCalls;
+    }
 
-        // For each thread, push a "toplevel" call that encompasses the
-        // entire execution of the thread.
-        for (ThreadData threadData : mSortedThreads) {
-            if (!threadData.isEmpty() && threadData.getId() != 0) {
-                record = new TimeLineView.Record(threadData, threadData.getRootCall());
-                timeRecs.add(record);
+    /**
+     * Returns the profiles of the methods called by the given threads only.
+     * The profiles are copies of the methods, analyzed like the methods
+     * themselves, in no particular order.  This needs every call, so it is
+     * not available when streaming.
+     */
+    MethodData[] getThreadProfiles(ThreadData[] threads) {
+        if (mStreaming) {
+            throw new IllegalStateException("streaming readers only keep the visible calls");
+        }
+
+        IntMap<ThreadData> selected = new IntMap<ThreadData>();
+        IntMap<MethodData> profiles = new IntMap<MethodData>();
+        for (ThreadData threadData : threads) {
+            selected.put(threadData.getId(), threadData);
+            Call rootCall = threadData.getRootCall();
+            rootCall.addToProfile(getProfile(profiles, rootCall.getMethodData()), null);
+            if (mSamplingInterval > 0) {
+                addCallPathsToProfile(threadData.getCallPaths(), false, new IntMap<int[]>(),
+                        profiles);
             }
         }
+        for (int row = 0; row < mCalls.size(); row++) {
+            if (selected.get(mCalls.getThreadData(row).getId()) == null) {
+                continue;
+            }
+            Call call = mCalls.getCall(row);
+            call.addToProfile(getProfile(profiles, call.getMethodData()),
+                    getProfile(profiles, call.getCaller().getMethodData()));
+        }
 
-        for (Call call : mCallList) {
-            record = new TimeLineView.Record(call.getThreadData(), call);
-            timeRecs.add(record);
+        TimeBase timeBase = getPreferredTimeBase();
+        MethodData[] methods = new MethodData[profiles.size()];
+        for (int i = 0; i < methods.length; i++) {
+            methods[i] = profiles.valueAt(i);
+            methods[i].analyzeData(timeBase);
         }
+        return methods;
+    }
 
-        if (mRegression) {
-            dumpTimeRecs(timeRecs);
-            System.exit(0);
+    static MethodData getProfile(IntMap<MethodData> profiles, MethodData methodData) {
+        MethodData profile = profiles.get(methodData.getId());
+        if (profile == null) {
+            profile = new MethodData(methodData.getId(), methodData.getClassName(),
+                    methodData.getMethodName(), methodData.getSignature(),
+                    methodData.getPathname(), methodData.getLineNumber());
+            profiles.put(methodData.getId(), profile);
         }
-        return timeRecs;
+        return profile;
+    }
+
+    @Override
+    public boolean isStreaming() {
+        return mStreaming;
+    }
+
+    @Override
+    public long getTimeRecordsMinDuration() {
+        return mTimeRecordsMinDuration;
     }
 
     private void dumpThreadTimes() {
@@ -655,12 +1906,13 @@ public class DmTraceReader extends TraceReader {
     private void dumpCallTimes() {
         System.out.print("\nCall Times\n");
         System.out.print("id  t-start    t-end  g-start    g-end    excl.    incl.  method\n");
-        for (Call call : mCallList) {
+        for (int row = 0; row < mCalls.size(); row++) {
             System.out.format("%2d %8d %8d %8d %8d %8d %8d  %s\n",
-                    call.getThreadId(), call.mThreadStartTime, call.mThreadEndTime,
-                    call.mGlobalStartTime, call.mGlobalEndTime,
-                    call.mExclusiveCpuTime, call.mInclusiveCpuTime,
-                    call.getMethodData().getName());
+                    mCalls.getThreadData(row).getId(),
+                    mCalls.getThreadStartTime(row), mCalls.getThreadEndTime(row),
+                    mCalls.getGlobalStartTime(row), mCalls.getGlobalEndTime(row),
+                    mCalls.getExclusiveCpuTime(row), mCalls.getInclusiveCpuTime(row),
+                    mCalls.getMethodData(row).getName());
         }
     }
 
@@ -675,15 +1927,26 @@ public class DmTraceReader extends TraceReader {
         }
     }
 
-    private void dumpTimeRecs(ArrayList<TimeLineView.Record> timeRecs) {
+    private void dumpTimeRecs(CallTable calls) {
         System.out.print("\nTime Records\n");
         System.out.print("id  t-start    t-end  g-start    g-end  method\n");
-        for (TimeLineView.Record record : timeRecs) {
-            Call call = (Call) record.block;
+        // Each thread has a "toplevel" call that encompasses the entire
+        // execution of the thread.
+        for (ThreadData threadData : mSortedThreads) {
+            if (!threadData.isEmpty() && threadData.getId() != 0) {
+                MutableCall call = threadData.getRootCall();
+                System.out.format("%2d %8d %8d %8d %8d  %s\n",
+                        call.getThreadId(), call.mThreadStartTime, call.mThreadEndTime,
+                        call.mGlobalStartTime, call.mGlobalEndTime,
+                        call.getMethodData().getName());
+            }
+        }
+        for (int row = 0; row < calls.size(); row++) {
             System.out.format("%2d %8d %8d %8d %8d  %s\n",
-                    call.getThreadId(), call.mThreadStartTime, call.mThreadEndTime,
-                    call.mGlobalStartTime, call.mGlobalEndTime,
-                    call.getMethodData().getName());
+                    calls.getThreadData(row).getId(),
+                    calls.getThreadStartTime(row), calls.getThreadEndTime(row),
+                    calls.getGlobalStartTime(row), calls.getGlobalEndTime(row),
+                    calls.getMethodData(row).getName());
         }
     }
 
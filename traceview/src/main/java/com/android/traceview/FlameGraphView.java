@@ -0,0 +1,493 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.KeyAdapter;
+import org.eclipse.swt.events.KeyEvent;
+import org.eclipse.swt.events.MouseAdapter;
+import org.eclipse.swt.events.MouseEvent;
+import org.eclipse.swt.events.MouseMoveListener;
+import org.eclipse.swt.events.MouseTrackAdapter;
+import org.eclipse.swt.events.PaintEvent;
+import org.eclipse.swt.events.PaintListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.GC;
+import org.eclipse.swt.graphics.Rectangle;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Canvas;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.ScrollBar;
+
+import java.util.ArrayList;
+
+/**
+ * Draws the call path tries of the threads as a flame graph, with the root
+ * at the bottom, or as an icicle graph, with the root at the top.  The
+ * width of each call path is proportional to its inclusive time.
+ *
+ * Clicking a call path zooms in so that it fills the width of the view,
+ * and Escape zooms back out.  Only the call paths that are at least a
+ * pixel wide and intersect the area being repainted are visited, so the
+ * cost of a repaint does not depend on the size of the tries.
+ */
+class FlameGraphView extends Composite {
+    private static final int ROW_HEIGHT = 16;
+    private static final int TEXT_MARGIN = 2;
+
+    // Call paths narrower than this are not drawn, and neither are their
+    // children.
+    private static final double MIN_WIDTH = 1.0;
+
+    private final TraceReader mReader;
+    private final SelectionController mSelectionController;
+    private final boolean mUseCpuTime;
+
+    // The root call path of each non-empty thread, and the thread names.
+    private final CallPathNode[] mRoots;
+    private final String[] mRootNames;
+    private final long mTotalTime;
+    private final int mNumRows;
+
+    private final Canvas mCanvas;
+    private final Label mDetails;
+    private final Color mColorBackground;
+    private final Color mColorText;
+    private final Color mColorBorder;
+    private final Color mColorAncestor;
+
+    private boolean mIcicle;
+    private int mScrollOffsetY;
+
+    // The call path that fills the width of the view, or null to show every
+    // thread.
+    private CallPathNode mZoom;
+
+    private CallPathNode mHoverNode;
+    private boolean mHoverAll;
+    private Rectangle mHoverBounds;
+
+    FlameGraphView(Composite parent, TraceReader reader, SelectionController selectionController) {
+        super(parent, SWT.NONE);
+        mReader = reader;
+        mSelectionController = selectionController;
+        mUseCpuTime = reader.getPreferredTimeBase() == TimeBase.CPU_TIME;
+
+        ArrayList<CallPathNode> roots = new ArrayList<CallPathNode>();
+        ArrayList<String> rootNames = new ArrayList<String>();
+        long totalTime = 0;
+        int maxDepth = 0;
+        for (ThreadData threadData : reader.getThreads()) {
+            CallPathNode root = threadData.getCallPaths();
+            if (threadData.isEmpty() || root == null || getTime(root) <= 0) {
+                continue;
+            }
+            roots.add(root);
+            rootNames.add(threadData.getName());
+            totalTime += getTime(root);
+            maxDepth = Math.max(maxDepth, getMaxDepth(root));
+        }
+        mRoots = roots.toArray(new CallPathNode[roots.size()]);
+        mRootNames = rootNames.toArray(new String[rootNames.size()]);
+        mTotalTime = totalTime;
+        // One row for all threads, plus one per depth of the tries.
+        mNumRows = mRoots.length != 0 ? maxDepth + 2 : 1;
+
+        Display display = getDisplay();
+        mColorBackground = display.getSystemColor(SWT.COLOR_WHITE);
+        mColorText = display.getSystemColor(SWT.COLOR_BLACK);
+        mColorBorder = display.getSystemColor(SWT.COLOR_WHITE);
+        mColorAncestor = display.getSystemColor(SWT.COLOR_GRAY);
+
+        GridLayout gridLayout = new GridLayout(2, false);
+        gridLayout.marginWidth = 0;
+        gridLayout.marginHeight = 0;
+        setLayout(gridLayout);
+
+        final Button icicle = new Button(this, SWT.CHECK);
+        icicle.setText("Icicle");
+        icicle.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                mIcicle = icicle.getSelection();
+                updateScrollBar(true);
+                mCanvas.redraw();
+            }
+        });
+
+        mDetails = new Label(this, SWT.NONE);
+        mDetails.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
+
+        mCanvas = new Canvas(this, SWT.NO_BACKGROUND | SWT.DOUBLE_BUFFERED | SWT.V_SCROLL);
+        GridData data = new GridData(GridData.FILL_BOTH);
+        data.horizontalSpan = 2;
+        mCanvas.setLayoutData(data);
+
+        mCanvas.addPaintListener(new PaintListener() {
+            @Override
+            public void paintControl(PaintEvent pe) {
+                draw(pe.gc, new Rectangle(pe.x, pe.y, pe.width, pe.height));
+            }
+        });
+        mCanvas.addListener(SWT.Resize, new Listener() {
+            @Override
+            public void handleEvent(Event event) {
+                updateScrollBar(false);
+            }
+        });
+        mCanvas.getVerticalBar().addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent e) {
+                mScrollOffsetY = mCanvas.getVerticalBar().getSelection();
+                mCanvas.redraw();
+            }
+        });
+        mCanvas.addMouseMoveListener(new MouseMoveListener() {
+            @Override
+            public void mouseMove(MouseEvent me) {
+                hover(me.x, me.y);
+            }
+        });
+        mCanvas.addMouseTrackListener(new MouseTrackAdapter() {
+            @Override
+            public void mouseExit(MouseEvent me) {
+                hover(-1, -1);
+            }
+        });
+        mCanvas.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseUp(MouseEvent me) {
+                mCanvas.setFocus();
+                if (me.button == 1) {
+                    click(me.x, me.y);
+                }
+            }
+        });
+        mCanvas.addKeyListener(new KeyAdapter() {
+            @Override
+            public void keyPressed(KeyEvent event) {
+                if (event.keyCode == SWT.ESC && mZoom != null) {
+                    zoom(mZoom.getParent());
+                }
+            }
+        });
+        updateScrollBar(true);
+    }
+
+    private long getTime(CallPathNode node) {
+        return mUseCpuTime ? node.mInclusiveCpuTime : node.mInclusiveRealTime;
+    }
+
+    private static int getMaxDepth(CallPathNode node) {
+        int maxDepth = 0;
+        for (CallPathNode child = node.getFirstChild(); child != null;
+                child = child.getNextSibling()) {
+            maxDepth = Math.max(maxDepth, getMaxDepth(child) + 1);
+        }
+        return maxDepth;
+    }
+
+    private void updateScrollBar(boolean reset) {
+        ScrollBar scrollBar = mCanvas.getVerticalBar();
+        int height = mCanvas.getClientArea().height;
+        int contentHeight = mNumRows * ROW_HEIGHT;
+        scrollBar.setMaximum(Math.max(contentHeight, 1));
+        scrollBar.setThumb(Math.max(Math.min(height, contentHeight), 1));
+        scrollBar.setPageIncrement(Math.max(height, 1));
+        scrollBar.setIncrement(ROW_HEIGHT);
+        // Start with the root in view.
+        if (reset) {
+            scrollBar.setSelection(mIcicle ? 0 : contentHeight);
+        }
+        mScrollOffsetY = scrollBar.getSelection();
+    }
+
+    /**
+     * Returns the y coordinate of the top of the given row.
+     */
+    private int getRowY(int row) {
+        if (mIcicle) {
+            return row * ROW_HEIGHT - mScrollOffsetY;
+        }
+        int height = Math.max(mNumRows * ROW_HEIGHT, mCanvas.getClientArea().height);
+        return height - (row + 1) * ROW_HEIGHT - mScrollOffsetY;
+    }
+
+    /**
+     * Returns the row at the given y coordinate, or -1 if there is none.
+     */
+    private int getRow(int y) {
+        int row;
+        if (mIcicle) {
+            row = (y + mScrollOffsetY) / ROW_HEIGHT;
+        } else {
+            int height = Math.max(mNumRows * ROW_HEIGHT, mCanvas.getClientArea().height);
+            int offset = height - (y + mScrollOffsetY);
+            row = offset > 0 ? (offset - 1) / ROW_HEIGHT : -1;
+        }
+        return row >= 0 && row < mNumRows ? row : -1;
+    }
+
+    private static int getRow(CallPathNode node) {
+        return node.getDepth() + 1;
+    }
+
+    private void draw(GC gc, Rectangle clip) {
+        gc.setBackground(mColorBackground);
+        gc.fillRectangle(clip);
+        if (mRoots.length == 0) {
+            return;
+        }
+        int width = mCanvas.getClientArea().width;
+        int charWidth = gc.getFontMetrics().getAverageCharWidth();
+
+        // The ancestors of the zoomed call path span the whole width.
+        drawBox(gc, clip, 0, 0, width, "All threads", mColorAncestor, charWidth);
+        for (CallPathNode node = mZoom; node != null; node = node.getParent()) {
+            drawBox(gc, clip, getRow(node), 0, width, getName(node),
+                    node == mZoom ? getColor(node) : mColorAncestor, charWidth);
+        }
+
+        if (mZoom != null) {
+            drawChildren(gc, clip, mZoom, getRow(mZoom), 0, width, charWidth);
+        } else {
+            double scale = (double) width / mTotalTime;
+            double x = 0;
+            for (CallPathNode root : mRoots) {
+                double w = getTime(root) * scale;
+                drawNode(gc, clip, root, 1, x, w, charWidth);
+                x += w;
+            }
+        }
+
+        if (mHoverBounds != null) {
+            gc.setForeground(mColorText);
+            gc.drawRectangle(mHoverBounds.x, mHoverBounds.y, mHoverBounds.width - 1,
+                    mHoverBounds.height - 1);
+        }
+    }
+
+    private void drawNode(GC gc, Rectangle clip, CallPathNode node, int row, double x,
+            double w, int charWidth) {
+        if (w < MIN_WIDTH || x > clip.x + clip.width || x + w < clip.x) {
+            return;
+        }
+        int y = getRowY(row);
+        // The children are further from the root, so they are outside the
+        // clip too.
+        if (mIcicle ? y >= clip.y + clip.height : y + ROW_HEIGHT <= clip.y) {
+            return;
+        }
+        drawBox(gc, clip, row, (int) x, (int) (x + w) - (int) x, getName(node),
+                getColor(node), charWidth);
+        drawChildren(gc, clip, node, row, x, w, charWidth);
+    }
+
+    private void drawChildren(GC gc, Rectangle clip, CallPathNode node, int row, double x,
+            double w, int charWidth) {
+        long time = getTime(node);
+        if (time <= 0) {
+            return;
+        }
+        double scale = w / time;
+        for (CallPathNode child = node.getFirstChild(); child != null;
+                child = child.getNextSibling()) {
+            double childWidth = getTime(child) * scale;
+            drawNode(gc, clip, child, row + 1, x, childWidth, charWidth);
+            x += childWidth;
+        }
+    }
+
+    private void drawBox(GC gc, Rectangle clip, int row, int x, int w, String name,
+            Color color, int charWidth) {
+        int y = getRowY(row);
+        if (y >= clip.y + clip.height || y + ROW_HEIGHT <= clip.y || w <= 0) {
+            return;
+        }
+        gc.setBackground(color);
+        gc.fillRectangle(x, y, w, ROW_HEIGHT);
+        if (w > 2) {
+            gc.setForeground(mColorBorder);
+            gc.drawLine(x + w - 1, y, x + w - 1, y + ROW_HEIGHT - 1);
+            gc.drawLine(x, y + ROW_HEIGHT - 1, x + w - 1, y + ROW_HEIGHT - 1);
+        }
+
+        int maxChars = (w - 2 * TEXT_MARGIN) / Math.max(charWidth, 1);
+        if (maxChars >= 3) {
+            String text = name.length() <= maxChars ? name
+                    : name.substring(0, maxChars - 2) + "..";
+            gc.setForeground(mColorText);
+            gc.drawString(text, x + TEXT_MARGIN, y + 1, true);
+        }
+    }
+
+    private String getName(CallPathNode node) {
+        if (node.getParent() == null) {
+            for (int i = 0; i < mRoots.length; i++) {
+                if (mRoots[i] == node) {
+                    return mRootNames[i];
+                }
+            }
+        }
+        return node.getMethodData().getProfileName();
+    }
+
+    private Color getColor(CallPathNode node) {
+        Color color = node.getParent() != null ? node.getMethodData().getColor() : null;
+        return color != null ? color : mColorAncestor;
+    }
+
+    /**
+     * Returns the call path at the given point, or null.  Sets mHoverAll
+     * instead if the point is on the row for all threads, and mHoverBounds
+     * to the bounds of what was found.
+     */
+    private CallPathNode findNode(int px, int py) {
+        mHoverAll = false;
+        mHoverBounds = null;
+        int row = getRow(py);
+        int width = mCanvas.getClientArea().width;
+        if (row < 0 || mRoots.length == 0 || px < 0 || px >= width) {
+            return null;
+        }
+        if (row == 0) {
+            mHoverAll = true;
+            mHoverBounds = new Rectangle(0, getRowY(row), width, ROW_HEIGHT);
+            return null;
+        }
+
+        // The zoomed call path and its ancestors span the whole width.
+        for (CallPathNode node = mZoom; node != null; node = node.getParent()) {
+            if (getRow(node) == row) {
+                mHoverBounds = new Rectangle(0, getRowY(row), width, ROW_HEIGHT);
+                return node;
+            }
+        }
+
+        // Otherwise walk down from the zoomed call path, through the child
+        // under the point at each row.
+        CallPathNode parent = mZoom;
+        double x = 0;
+        double w = width;
+        int nextRow = mZoom != null ? getRow(mZoom) + 1 : 1;
+        for (; nextRow <= row; nextRow++) {
+            long time = parent != null ? getTime(parent) : mTotalTime;
+            double scale = time > 0 ? w / time : 0;
+            CallPathNode found = null;
+            int rootIndex = 0;
+            CallPathNode child = parent != null ? parent.getFirstChild() : mRoots[rootIndex];
+            while (child != null) {
+                double childWidth = getTime(child) * scale;
+                if (px >= x && px < x + childWidth) {
+                    found = child;
+                    w = childWidth;
+                    break;
+                }
+                x += childWidth;
+                if (parent != null) {
+                    child = child.getNextSibling();
+                } else {
+                    child = ++rootIndex < mRoots.length ? mRoots[rootIndex] : null;
+                }
+            }
+            if (found == null || w < MIN_WIDTH) {
+                return null;
+            }
+            parent = found;
+        }
+        mHoverBounds = new Rectangle((int) x, getRowY(row), (int) (x + w) - (int) x,
+                ROW_HEIGHT);
+        return parent;
+    }
+
+    private void hover(int x, int y) {
+        Rectangle oldBounds = mHoverBounds;
+        CallPathNode node = findNode(x, y);
+        if (node == mHoverNode && equals(oldBounds, mHoverBounds)) {
+            return;
+        }
+        mHoverNode = node;
+
+        // Only repaint the boxes that gain or lose the hover outline.
+        if (oldBounds != null) {
+            mCanvas.redraw(oldBounds.x, oldBounds.y, oldBounds.width, oldBounds.height, false);
+        }
+        if (mHoverBounds != null) {
+            mCanvas.redraw(mHoverBounds.x, mHoverBounds.y, mHoverBounds.width,
+                    mHoverBounds.height, false);
+        }
+
+        if (node != null) {
+            mDetails.setText(getDetails(node));
+        } else if (mHoverAll) {
+            mDetails.setText(String.format("All threads: %s",
+                    formatTime(mTotalTime)));
+        } else {
+            mDetails.setText("");
+        }
+    }
+
+    private static boolean equals(Rectangle r1, Rectangle r2) {
+        return r1 == null ? r2 == null : r1.equals(r2);
+    }
+
+    private String getDetails(CallPathNode node) {
+        long time = getTime(node);
+        long exclusive = mUseCpuTime ? node.mExclusiveCpuTime : node.mExclusiveRealTime;
+        double percent = mTotalTime > 0 ? time * 100.0 / mTotalTime : 0;
+        return String.format("%s: %s inclusive (%.1f%%), %s exclusive, %d calls",
+                getName(node), formatTime(time), percent, formatTime(exclusive),
+                node.mNumCalls);
+    }
+
+    private String formatTime(long time) {
+        TraceUnits units = mReader.getTraceUnits();
+        return String.format("%s %s", units.valueOf(time), units.label());
+    }
+
+    private void click(int x, int y) {
+        CallPathNode node = findNode(x, y);
+        if (node != null) {
+            zoom(node);
+            if (node.getParent() != null) {
+                ArrayList<Selection> selections = new ArrayList<Selection>();
+                selections.add(Selection.highlight("MethodData", node.getMethodData()));
+                mSelectionController.change(selections, "FlameGraphView");
+            }
+        } else if (mHoverAll) {
+            zoom(null);
+        }
+    }
+
+    private void zoom(CallPathNode node) {
+        if (node == mZoom) {
+            return;
+        }
+        mZoom = node;
+        mHoverNode = null;
+        mHoverBounds = null;
+        mCanvas.redraw();
+    }
+}
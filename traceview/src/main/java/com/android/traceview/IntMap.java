@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.AbstractCollection;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * A map from int keys to non-null values that does not box its keys, used
+ * for the method and thread ids of a trace.
+ *
+ * The entries are stored densely in insertion order, so that they can be
+ * walked by index, and are found through an open addressing table of
+ * indexes.  Looking up a key allocates nothing.  Entries cannot be removed
+ * individually.
+ */
+class IntMap<V> {
+    private int[] mKeys;
+    private Object[] mValues;
+    private int mSize;
+
+    // One more than the index of the entry that hashes to each slot, or 0 if
+    // the slot is empty.  The table is at most half full.
+    private int[] mSlots;
+
+    IntMap() {
+        this(4);
+    }
+
+    IntMap(int capacity) {
+        int tableSize = 8;
+        while (tableSize < capacity * 2) {
+            tableSize <<= 1;
+        }
+        mKeys = new int[tableSize / 2];
+        mValues = new Object[tableSize / 2];
+        mSlots = new int[tableSize];
+    }
+
+    int size() {
+        return mSize;
+    }
+
+    int keyAt(int index) {
+        return mKeys[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    V valueAt(int index) {
+        return (V) mValues[index];
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(int key) {
+        int mask = mSlots.length - 1;
+        for (int slot = hash(key) & mask; ; slot = (slot + 1) & mask) {
+            int entry = mSlots[slot];
+            if (entry == 0) {
+                return null;
+            }
+            if (mKeys[entry - 1] == key) {
+                return (V) mValues[entry - 1];
+            }
+        }
+    }
+
+    /**
+     * Maps key to value, returning the value it replaces, if any.
+     */
+    @SuppressWarnings("unchecked")
+    V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException();
+        }
+
+        int mask = mSlots.length - 1;
+        int slot = hash(key) & mask;
+        for (int entry = mSlots[slot]; entry != 0; entry = mSlots[slot]) {
+            if (mKeys[entry - 1] == key) {
+                V previous = (V) mValues[entry - 1];
+                mValues[entry - 1] = value;
+                return previous;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (mSize == mKeys.length) {
+            grow();
+            mask = mSlots.length - 1;
+            slot = hash(key) & mask;
+            while (mSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        mKeys[mSize] = key;
+        mValues[mSize] = value;
+        mSize++;
+        mSlots[slot] = mSize;
+        return null;
+    }
+
+    void clear() {
+        Arrays.fill(mValues, 0, mSize, null);
+        Arrays.fill(mSlots, 0);
+        mSize = 0;
+    }
+
+    /**
+     * Returns a view of the values, in insertion order.
+     */
+    Collection<V> values() {
+        return new AbstractCollection<V>() {
+            @Override
+            public Iterator<V> iterator() {
+                return new Iterator<V>() {
+                    private int mIndex;
+
+                    @Override
+                    public boolean hasNext() {
+                        return mIndex < mSize;
+                    }
+
+                    @Override
+                    public V next() {
+                        if (mIndex >= mSize) {
+                            throw new NoSuchElementException();
+                        }
+                        return valueAt(mIndex++);
+                    }
+
+                    @Override
+                    public void remove() {
+                        throw new UnsupportedOperationException();
+                    }
+                };
+            }
+
+            @Override
+            public int size() {
+                return mSize;
+            }
+        };
+    }
+
+    private void grow() {
+        int capacity = mKeys.length * 2;
+        mKeys = Arrays.copyOf(mKeys, capacity);
+        mValues = Arrays.copyOf(mValues, capacity);
+        mSlots = new int[capacity * 2];
+
+        int mask = mSlots.length - 1;
+        for (int i = 0; i < mSize; i++) {
+            int slot = hash(mKeys[i]) & mask;
+            while (mSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+            mSlots[slot] = i + 1;
+        }
+    }
+
+    private static int hash(int key) {
+        // Method ids are addresses with their low bits clear, so spread the
+        // high bits down before masking.
+        int h = key * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
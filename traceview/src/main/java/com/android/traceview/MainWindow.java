@@ -31,26 +31,35 @@ import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Shell;
+import org.eclipse.swt.widgets.TabFolder;
+import org.eclipse.swt.widgets.TabItem;
 
+import java.io.BufferedWriter;
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.nio.channels.FileChannel;
-import java.util.HashMap;
 import java.util.Properties;
+import java.util.zip.GZIPOutputStream;
 
 public class MainWindow extends ApplicationWindow {
 
     private final static String PING_NAME = "Traceview";
 
+    // The size of the buffers an export is written through.
+    private static final int EXPORT_BUFFER_SIZE = 64 * 1024;
+
     private TraceReader mReader;
     private String mTraceName;
-
-    // A global cache of string names.
-    public static HashMap<String, String> sStringCache = new HashMap<String, String>();
+    private TraceReader mBaseReader;
+    private String mBaseName;
 
     public MainWindow(String traceName, TraceReader reader) {
         super(null);
@@ -60,6 +69,14 @@ public class MainWindow extends ApplicationWindow {
         addMenuBar();
     }
 
+    /**
+     * Adds a view of the differences from the profile of another trace.
+     */
+    void setBase(String baseName, TraceReader baseReader) {
+        mBaseName = baseName;
+        mBaseReader = baseReader;
+    }
+
     public void run() {
         setBlockOnOpen(true);
         open();
@@ -105,8 +122,22 @@ public class MainWindow extends ApplicationWindow {
         // Create the timeline view
         new TimeLineView(sashForm1, mReader, selectionController);
 
-        // Create the profile view
-        new ProfileView(sashForm1, mReader, selectionController);
+        // Create the profile view, the flame graph and, if there is a base
+        // trace to compare with, the diff view
+        TabFolder tabFolder = new TabFolder(sashForm1, SWT.TOP);
+        TabItem profileItem = new TabItem(tabFolder, SWT.NONE);
+        profileItem.setText("Profile");
+        profileItem.setControl(new ProfileView(tabFolder, mReader, selectionController));
+        TabItem flameGraphItem = new TabItem(tabFolder, SWT.NONE);
+        flameGraphItem.setText("Flame Graph");
+        flameGraphItem.setControl(new FlameGraphView(tabFolder, mReader, selectionController));
+        if (mBaseReader != null) {
+            TabItem diffItem = new TabItem(tabFolder, SWT.NONE);
+            diffItem.setText("Diff");
+            diffItem.setToolTipText(mBaseName);
+            diffItem.setControl(new DiffView(tabFolder, new TraceDiff(mBaseReader, mReader),
+                    new File(mBaseName).getName(), selectionController));
+        }
         return sashForm1;
     }
 
@@ -181,6 +212,34 @@ public class MainWindow extends ApplicationWindow {
         return temp.getPath();
     }
 
+    /**
+     * Returns the path of the trace to read for the name given on the command
+     * line, or exits if there is none.
+     */
+    private static String findTraceFile(String traceName) {
+        // If the filename as given doesn't exist...
+        if (!new File(traceName).exists()) {
+            // Try appending .trace.
+            if (new File(traceName + ".trace").exists()) {
+                traceName = traceName + ".trace";
+            // Next, see if it is the old two-file trace.
+            } else if (new File(traceName + ".data").exists()
+                && new File(traceName + ".key").exists()) {
+                try {
+                    traceName = makeTempTraceFile(traceName);
+                } catch (IOException e) {
+                    System.err.printf("cannot convert old trace file '%s'\n", traceName);
+                    System.exit(1);
+                }
+            // Otherwise, give up.
+            } else {
+                System.err.printf("trace file '%s' not found\n", traceName);
+                System.exit(1);
+            }
+        }
+        return traceName;
+    }
+
     /**
      * Returns the tools revision number.
      */
@@ -222,20 +281,119 @@ public class MainWindow extends ApplicationWindow {
     }
 
 
-    public static void main(String[] args) {
-        TraceReader reader = null;
-        boolean regression = false;
+    /**
+     * Writes a report of the trace to stdout, without touching SWT.
+     */
+    private static void writeReport(DmTraceReader reader, TraceReport.Format format,
+            TraceReport.SortKey sortKey, int limit, String threadFilter, String methodFilter) {
+        TraceReport report = new TraceReport(reader);
+        report.setFormat(format);
+        if (sortKey != null) {
+            report.setSortKey(sortKey);
+        }
+        if (limit >= 0) {
+            report.setLimit(limit);
+        }
+        report.setThreadFilter(threadFilter);
+        report.setMethodFilter(methodFilter);
+        try {
+            report.write(new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
+        } catch (IOException e) {
+            System.err.printf("Failed to write the report: %s%n", e.getMessage());
+            System.exit(1);
+        }
+    }
 
-        // ping the usage server
+    private static void writeBatchReport(String[] traceNames, int samplingInterval,
+            int threads, long memoryBudget, TraceReport.Format format,
+            TraceReport.SortKey sortKey, int limit, String methodFilter) {
+        TraceBatch batch = new TraceBatch(traceNames,
+                sortKey != null ? sortKey : TraceReport.SortKey.INCLUSIVE_CPU);
+        batch.setSamplingInterval(samplingInterval);
+        if (threads > 0) {
+            batch.setThreads(threads);
+        }
+        if (memoryBudget > 0) {
+            batch.setMemoryBudget(memoryBudget);
+        }
+        batch.setFormat(format);
+        if (limit >= 0) {
+            batch.setLimit(limit);
+        }
+        batch.setMethodFilter(methodFilter);
+        try {
+            batch.run();
+            batch.write(new BufferedWriter(new OutputStreamWriter(System.out, "UTF-8")));
+        } catch (InterruptedException e) {
+            System.exit(1);
+        } catch (IOException e) {
+            System.err.printf("Failed to write the report: %s%n", e.getMessage());
+            System.exit(1);
+        }
+    }
 
-        String revision = getRevision();
-        if (revision != null) {
-            new SdkStatsService().ping(PING_NAME, revision);
+    /**
+     * Writes the calls of the trace to exportName as Chrome trace events,
+     * compressed with gzip if the name ends in .gz, or to stdout if it is -.
+     * If the export fails, the partial file is deleted.
+     */
+    private static void exportTrace(String traceName, String exportName) {
+        boolean toFile = !exportName.equals("-");
+        Closeable out = null;
+        boolean exported = false;
+        try {
+            DmTraceReader reader = DmTraceReader.readHeader(traceName);
+            OutputStream stream = toFile ? new FileOutputStream(exportName) : System.out;
+            out = stream;
+            if (exportName.endsWith(".gz")) {
+                stream = new GZIPOutputStream(stream, EXPORT_BUFFER_SIZE);
+                out = stream;
+            }
+            Writer writer = new BufferedWriter(new OutputStreamWriter(stream, "UTF-8"),
+                    EXPORT_BUFFER_SIZE);
+            out = writer;
+            new TraceEventWriter(reader, writer).write();
+            writer.close();
+            exported = true;
+        } catch (IOException e) {
+            System.err.printf("Failed to export the trace: %s%n", e.getMessage());
+        } finally {
+            if (!exported && out != null) {
+                try {
+                    out.close();
+                } catch (IOException ignore) {
+                }
+                if (toFile) {
+                    new File(exportName).delete();
+                }
+            }
+        }
+        if (!exported) {
+            System.exit(1);
         }
+    }
+
+    public static void main(String[] args) {
+        DmTraceReader reader = null;
+        boolean regression = false;
+        boolean streaming = false;
+        boolean useIndex = false;
+        int samplingInterval = 0;
+        TraceReport.Format format = null;
+        TraceReport.SortKey sortKey = null;
+        int limit = -1;
+        String threadFilter = null;
+        String methodFilter = null;
+        String baseName = null;
+        boolean aggregate = false;
+        int threads = 0;
+        long memoryBudget = 0;
+        String exportName = null;
 
         // Process command line arguments
         int argc = 0;
         int len = args.length;
+        boolean badArgs = false;
         while (argc < len) {
             String arg = args[argc];
             if (arg.charAt(0) != '-') {
@@ -243,58 +401,169 @@ public class MainWindow extends ApplicationWindow {
             }
             if (arg.equals("-r")) {
                 regression = true;
+            } else if (arg.equals("-s")) {
+                streaming = true;
+            } else if (arg.equals("-i")) {
+                useIndex = true;
+            } else if (argc + 1 < len && arg.equals("-p")) {
+                try {
+                    samplingInterval = Integer.parseInt(args[++argc]);
+                } catch (NumberFormatException e) {
+                    badArgs = true;
+                }
+                badArgs |= samplingInterval <= 0;
+            } else if (argc + 1 < len && arg.equals("-f")) {
+                String value = args[++argc];
+                if (value.equals("csv")) {
+                    format = TraceReport.Format.CSV;
+                } else if (value.equals("json")) {
+                    format = TraceReport.Format.JSON;
+                } else {
+                    badArgs = true;
+                }
+            } else if (argc + 1 < len && arg.equals("-k")) {
+                sortKey = TraceReport.SortKey.fromName(args[++argc]);
+                badArgs |= sortKey == null;
+            } else if (argc + 1 < len && arg.equals("-n")) {
+                try {
+                    limit = Integer.parseInt(args[++argc]);
+                } catch (NumberFormatException e) {
+                    badArgs = true;
+                }
+            } else if (argc + 1 < len && arg.equals("-t")) {
+                threadFilter = args[++argc];
+            } else if (argc + 1 < len && arg.equals("-m")) {
+                methodFilter = args[++argc];
+            } else if (argc + 1 < len && arg.equals("-e")) {
+                exportName = args[++argc];
+            } else if (argc + 1 < len && arg.equals("-d")) {
+                baseName = args[++argc];
+            } else if (arg.equals("-a")) {
+                aggregate = true;
+            } else if (argc + 1 < len && arg.equals("-j")) {
+                try {
+                    threads = Integer.parseInt(args[++argc]);
+                } catch (NumberFormatException e) {
+                    badArgs = true;
+                }
+                badArgs |= threads <= 0;
+            } else if (argc + 1 < len && arg.equals("-x")) {
+                try {
+                    memoryBudget = Long.parseLong(args[++argc]) * 1024 * 1024;
+                } catch (NumberFormatException e) {
+                    badArgs = true;
+                }
+                badArgs |= memoryBudget <= 0;
             } else {
                 break;
             }
             argc++;
         }
-        if (argc != len - 1) {
-            System.out.printf("Usage: java %s [-r] trace%n", MainWindow.class.getName());
+
+        // A profile of some threads needs all of the calls.
+        badArgs |= streaming && threadFilter != null;
+        badArgs |= format != null && baseName != null;
+        badArgs |= aggregate && (format == null || threadFilter != null);
+        badArgs |= !aggregate && (threads > 0 || memoryBudget > 0);
+        badArgs |= exportName != null && (regression || streaming || useIndex
+                || samplingInterval > 0 || format != null || baseName != null || aggregate);
+        if (badArgs || (aggregate ? argc == len : argc != len - 1)) {
+            System.out.printf("Usage: java %s [-r] [-s] [-i] [-p usec] [-d base] "
+                    + "[-f csv|json [options]] trace%n", MainWindow.class.getName());
+            System.out.printf("       java %s [-p usec] -a [-j threads] [-x mb] "
+                    + "-f csv|json [options] trace...%n", MainWindow.class.getName());
+            System.out.printf("       java %s -e out trace%n", MainWindow.class.getName());
             System.out.printf("  -r   regression only%n");
+            System.out.printf("  -s   stream the trace, keeping just the visible calls in memory%n");
+            System.out.printf("  -i   save the analyzed trace in trace%s to reopen it faster%n",
+                    TraceIndex.SUFFIX);
+            System.out.printf("  -p   the trace was sampled every usec microseconds%n");
+            System.out.printf("  -d   compare the profile with the one of the base trace%n");
+            System.out.printf("  -f   write a report to stdout instead of opening a window%n");
+            System.out.printf("  -a   report how method times are distributed across the traces%n");
+            System.out.printf("  -j   how many traces to load at once (default one per cpu)%n");
+            System.out.printf("  -x   the megabytes of heap the traces being loaded may use%n");
+            System.out.printf("  -e   export the calls to out as Chrome trace events (JSON, "
+                    + "gzipped if out ends in .gz, - for stdout)%n");
+            System.out.printf("Report options:%n");
+            System.out.printf("  -k incl-cpu|excl-cpu|incl-real|excl-real%n");
+            System.out.printf("             the time to rank methods by%n");
+            System.out.printf("  -n count   the number of methods (default 20, 0 for all)%n");
+            System.out.printf("  -t thread  only threads named like thread (not with -s or -a)%n");
+            System.out.printf("  -m method  only methods whose name contains method%n");
+            return;
+        }
+
+        // ping the usage server, unless a script is running us
+
+        if (format == null && exportName == null) {
+            String revision = getRevision();
+            if (revision != null) {
+                new SdkStatsService().ping(PING_NAME, revision);
+            }
+        }
+
+        if (aggregate) {
+            String[] traceNames = new String[len - argc];
+            for (int i = 0; i < traceNames.length; i++) {
+                traceNames[i] = findTraceFile(args[argc + i]);
+            }
+            writeBatchReport(traceNames, samplingInterval, threads, memoryBudget, format,
+                    sortKey, limit, methodFilter);
             return;
         }
 
         String traceName = args[len - 1];
+        if (exportName != null) {
+            exportTrace(findTraceFile(traceName), exportName);
+            return;
+        }
+
         File file = new File(traceName);
         if (file.exists() && file.isDirectory()) {
             System.out.printf("Qemu trace files not supported yet.\n");
             System.exit(1);
             // reader = new QtraceReader(traceName);
         } else {
-            // If the filename as given doesn't exist...
-            if (!file.exists()) {
-                // Try appending .trace.
-                if (new File(traceName + ".trace").exists()) {
-                    traceName = traceName + ".trace";
-                // Next, see if it is the old two-file trace.
-                } else if (new File(traceName + ".data").exists()
-                    && new File(traceName + ".key").exists()) {
-                    try {
-                        traceName = makeTempTraceFile(traceName);
-                    } catch (IOException e) {
-                        System.err.printf("cannot convert old trace file '%s'\n", traceName);
-                        System.exit(1);
-                    }
-                // Otherwise, give up.
-                } else {
-                    System.err.printf("trace file '%s' not found\n", traceName);
-                    System.exit(1);
-                }
+            traceName = findTraceFile(traceName);
+            try {
+                reader = new DmTraceReader(traceName, regression, streaming, useIndex,
+                        samplingInterval);
+            } catch (IOException e) {
+                System.err.printf("Failed to read the trace file");
+                e.printStackTrace();
+                System.exit(1);
+                return;
             }
+        }
 
+        DmTraceReader baseReader = null;
+        if (baseName != null) {
+            baseName = findTraceFile(baseName);
             try {
-                reader = new DmTraceReader(traceName, regression);
+                baseReader = new DmTraceReader(baseName, regression, streaming, useIndex,
+                        samplingInterval);
             } catch (IOException e) {
-                System.err.printf("Failed to read the trace file");
+                System.err.printf("Failed to read the base trace file");
                 e.printStackTrace();
                 System.exit(1);
                 return;
             }
         }
 
+        if (format != null) {
+            writeReport(reader, format, sortKey, limit, threadFilter, methodFilter);
+            return;
+        }
+
         reader.getTraceUnits().setTimeScale(TraceUnits.TimeScale.MilliSeconds);
 
         Display.setAppName("Traceview");
-        new MainWindow(traceName, reader).run();
+        MainWindow window = new MainWindow(traceName, reader);
+        if (baseReader != null) {
+            baseReader.getTraceUnits().setTimeScale(TraceUnits.TimeScale.MilliSeconds);
+            window.setBase(baseName, baseReader);
+        }
+        window.run();
     }
 }
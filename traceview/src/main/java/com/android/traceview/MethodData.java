@@ -19,11 +19,11 @@ package com.android.traceview;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Image;
 
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collection;
 import java.util.Comparator;
-import java.util.HashMap;
 
 public class MethodData {
 
@@ -47,16 +47,17 @@ public class MethodData {
     private Color mFadedColor;
     private Image mImage;
     private Image mFadedImage;
-    private HashMap<Integer, ProfileData> mParents;
-    private HashMap<Integer, ProfileData> mChildren;
+    private IntMap<ProfileData> mParents;
+    private IntMap<ProfileData> mChildren;
 
     // The parents of this method when this method was in a recursive call
-    private HashMap<Integer, ProfileData> mRecursiveParents;
+    private IntMap<ProfileData> mRecursiveParents;
 
     // The children of this method when this method was in a recursive call
-    private HashMap<Integer, ProfileData> mRecursiveChildren;
+    private IntMap<ProfileData> mRecursiveChildren;
 
     private ProfileNode[] mProfileNodes;
+    private TimeBase mTimeBase;
     private int mX;
     private int mY;
     private double mWeight;
@@ -68,8 +69,6 @@ public class MethodData {
         mSignature = null;
         mPathname = null;
         mLineNumber = -1;
-        computeName();
-        computeProfileName();
     }
 
     public MethodData(int id, String className, String methodName,
@@ -80,8 +79,6 @@ public class MethodData {
         mSignature = signature;
         mPathname = pathname;
         mLineNumber = lineNumber;
-        computeName();
-        computeProfileName();
     }
 
     public double addWeight(int x, int y, double weight) {
@@ -103,9 +100,14 @@ public class MethodData {
         return mRank;
     }
 
+    /**
+     * Sets the rank of this method, which prefixes its profile name.  The
+     * names are computed when they are first needed, since most methods of
+     * a large trace are never shown.
+     */
     public void setRank(int rank) {
         mRank = rank;
-        computeProfileName();
+        mProfileName = null;
     }
 
     public void addElapsedExclusive(long cpuTime, long realTime) {
@@ -114,48 +116,56 @@ public class MethodData {
     }
 
     public void addElapsedInclusive(long cpuTime, long realTime,
-            boolean isRecursive, Call parent) {
+            boolean isRecursive, MethodData parentMethod, boolean parentIsRecursive) {
+        addElapsedInclusive(cpuTime, realTime, isRecursive, parentMethod, parentIsRecursive, 1);
+    }
+
+    /**
+     * Adds the times of numCalls calls made from the same caller, as
+     * recorded together in a call path.
+     */
+    void addElapsedInclusive(long cpuTime, long realTime, boolean isRecursive,
+            MethodData parentMethod, boolean parentIsRecursive, int numCalls) {
         if (isRecursive == false) {
             mElapsedInclusiveCpuTime += cpuTime;
             mElapsedInclusiveRealTime += realTime;
-            mNumCalls[0] += 1;
+            mNumCalls[0] += numCalls;
         } else {
-            mNumCalls[1] += 1;
+            mNumCalls[1] += numCalls;
         }
 
-        if (parent == null)
+        if (parentMethod == null)
             return;
 
         // Find the child method in the parent
-        MethodData parentMethod = parent.getMethodData();
-        if (parent.isRecursive()) {
-            parentMethod.mRecursiveChildren = updateInclusive(cpuTime, realTime,
+        if (parentIsRecursive) {
+            parentMethod.mRecursiveChildren = updateInclusive(cpuTime, realTime, numCalls,
                     parentMethod, this, false,
                     parentMethod.mRecursiveChildren);
         } else {
-            parentMethod.mChildren = updateInclusive(cpuTime, realTime,
+            parentMethod.mChildren = updateInclusive(cpuTime, realTime, numCalls,
                     parentMethod, this, false, parentMethod.mChildren);
         }
 
         // Find the parent method in the child
         if (isRecursive) {
-            mRecursiveParents = updateInclusive(cpuTime, realTime, this, parentMethod, true,
-                    mRecursiveParents);
+            mRecursiveParents = updateInclusive(cpuTime, realTime, numCalls, this,
+                    parentMethod, true, mRecursiveParents);
         } else {
-            mParents = updateInclusive(cpuTime, realTime, this, parentMethod, true,
+            mParents = updateInclusive(cpuTime, realTime, numCalls, this, parentMethod, true,
                     mParents);
         }
     }
 
-    private HashMap<Integer, ProfileData> updateInclusive(long cpuTime, long realTime,
+    private IntMap<ProfileData> updateInclusive(long cpuTime, long realTime, int numCalls,
             MethodData contextMethod, MethodData elementMethod,
-            boolean elementIsParent, HashMap<Integer, ProfileData> map) {
+            boolean elementIsParent, IntMap<ProfileData> map) {
         if (map == null) {
-            map = new HashMap<Integer, ProfileData>(4);
+            map = new IntMap<ProfileData>(4);
         } else {
             ProfileData profileData = map.get(elementMethod.mId);
             if (profileData != null) {
-                profileData.addElapsedInclusive(cpuTime, realTime);
+                profileData.addElapsedInclusive(cpuTime, realTime, numCalls);
                 return map;
             }
         }
@@ -163,87 +173,140 @@ public class MethodData {
         ProfileData elementData = new ProfileData(contextMethod,
                 elementMethod, elementIsParent);
         elementData.setElapsedInclusive(cpuTime, realTime);
-        elementData.setNumCalls(1);
+        elementData.setNumCalls(numCalls);
         map.put(elementMethod.mId, elementData);
         return map;
     }
 
-    public void analyzeData(TimeBase timeBase) {
-        // Sort the parents and children into decreasing inclusive time
-        ProfileData[] sortedParents;
-        ProfileData[] sortedChildren;
-        ProfileData[] sortedRecursiveParents;
-        ProfileData[] sortedRecursiveChildren;
-
-        sortedParents = sortProfileData(mParents, timeBase);
-        sortedChildren = sortProfileData(mChildren, timeBase);
-        sortedRecursiveParents = sortProfileData(mRecursiveParents, timeBase);
-        sortedRecursiveChildren = sortProfileData(mRecursiveChildren, timeBase);
-
-        // Add "self" time to the top of the sorted children
-        sortedChildren = addSelf(sortedChildren);
-
-        // Create the ProfileNode objects that we need
-        ArrayList<ProfileNode> nodes = new ArrayList<ProfileNode>();
-        ProfileNode profileNode;
-        if (mParents != null) {
-            profileNode = new ProfileNode("Parents", this, sortedParents,
-                    true, false);
-            nodes.add(profileNode);
+    /**
+     * Adds the times recorded in profile, a copy of this method that was
+     * filled in separately.  The methods that profile refers to are replaced
+     * by the methods with the same id in methods.
+     */
+    void addProfile(MethodData profile, IntMap<MethodData> methods) {
+        mElapsedExclusiveCpuTime += profile.mElapsedExclusiveCpuTime;
+        mElapsedInclusiveCpuTime += profile.mElapsedInclusiveCpuTime;
+        mTopExclusiveCpuTime += profile.mTopExclusiveCpuTime;
+        mElapsedExclusiveRealTime += profile.mElapsedExclusiveRealTime;
+        mElapsedInclusiveRealTime += profile.mElapsedInclusiveRealTime;
+        mTopExclusiveRealTime += profile.mTopExclusiveRealTime;
+        mNumCalls[0] += profile.mNumCalls[0];
+        mNumCalls[1] += profile.mNumCalls[1];
+
+        mParents = addProfileData(mParents, profile.mParents, methods);
+        mChildren = addProfileData(mChildren, profile.mChildren, methods);
+        mRecursiveParents = addProfileData(mRecursiveParents, profile.mRecursiveParents,
+                methods);
+        mRecursiveChildren = addProfileData(mRecursiveChildren, profile.mRecursiveChildren,
+                methods);
+    }
+
+    private IntMap<ProfileData> addProfileData(IntMap<ProfileData> map,
+            IntMap<ProfileData> profileMap, IntMap<MethodData> methods) {
+        if (profileMap == null) {
+            return map;
         }
-        if (mChildren != null) {
-            profileNode = new ProfileNode("Children", this, sortedChildren,
-                    false, false);
-            nodes.add(profileNode);
+        if (map == null) {
+            map = new IntMap<ProfileData>(4);
         }
-        if (mRecursiveParents!= null) {
-            profileNode = new ProfileNode("Parents while recursive", this,
-                    sortedRecursiveParents, true, true);
-            nodes.add(profileNode);
+        for (int i = 0; i < profileMap.size(); i++) {
+            ProfileData profileData = profileMap.valueAt(i);
+            MethodData elementMethod = profileData.mElement;
+            ProfileData elementData = map.get(elementMethod.mId);
+            if (elementData == null) {
+                elementData = new ProfileData(this, methods.get(elementMethod.mId),
+                        profileData.mElementIsParent);
+                map.put(elementMethod.mId, elementData);
+            }
+            elementData.mElapsedInclusiveCpuTime += profileData.mElapsedInclusiveCpuTime;
+            elementData.mElapsedInclusiveRealTime += profileData.mElapsedInclusiveRealTime;
+            elementData.mNumCalls += profileData.mNumCalls;
+        }
+        return map;
+    }
+
+    /**
+     * Writes the times recorded for this method, for a TraceIndex.
+     */
+    void writeProfile(DataOutput out) throws IOException {
+        out.writeLong(mElapsedExclusiveCpuTime);
+        out.writeLong(mElapsedInclusiveCpuTime);
+        out.writeLong(mTopExclusiveCpuTime);
+        out.writeLong(mElapsedExclusiveRealTime);
+        out.writeLong(mElapsedInclusiveRealTime);
+        out.writeLong(mTopExclusiveRealTime);
+        out.writeInt(mNumCalls[0]);
+        out.writeInt(mNumCalls[1]);
+        writeProfileData(out, mParents);
+        writeProfileData(out, mChildren);
+        writeProfileData(out, mRecursiveParents);
+        writeProfileData(out, mRecursiveChildren);
+    }
+
+    /**
+     * Reads the times written by writeProfile().  The parents and children
+     * are looked up in methods.
+     */
+    void readProfile(DataInput in, IntMap<MethodData> methods) throws IOException {
+        mElapsedExclusiveCpuTime = in.readLong();
+        mElapsedInclusiveCpuTime = in.readLong();
+        mTopExclusiveCpuTime = in.readLong();
+        mElapsedExclusiveRealTime = in.readLong();
+        mElapsedInclusiveRealTime = in.readLong();
+        mTopExclusiveRealTime = in.readLong();
+        mNumCalls[0] = in.readInt();
+        mNumCalls[1] = in.readInt();
+        mParents = readProfileData(in, true, methods);
+        mChildren = readProfileData(in, false, methods);
+        mRecursiveParents = readProfileData(in, true, methods);
+        mRecursiveChildren = readProfileData(in, false, methods);
+    }
+
+    private static void writeProfileData(DataOutput out, IntMap<ProfileData> map)
+            throws IOException {
+        if (map == null) {
+            out.writeInt(-1);
+            return;
         }
-        if (mRecursiveChildren != null) {
-            profileNode = new ProfileNode("Children while recursive", this,
-                    sortedRecursiveChildren, false, true);
-            nodes.add(profileNode);
+        out.writeInt(map.size());
+        for (int i = 0; i < map.size(); i++) {
+            ProfileData profileData = map.valueAt(i);
+            out.writeInt(profileData.mElement.mId);
+            out.writeLong(profileData.mElapsedInclusiveCpuTime);
+            out.writeLong(profileData.mElapsedInclusiveRealTime);
+            out.writeInt(profileData.mNumCalls);
         }
-        mProfileNodes = nodes.toArray(new ProfileNode[nodes.size()]);
     }
 
-    // Create and return a ProfileData[] array that is a sorted copy
-    // of the given HashMap values.
-    private ProfileData[] sortProfileData(HashMap<Integer, ProfileData> map,
-            final TimeBase timeBase) {
-        if (map == null)
+    private IntMap<ProfileData> readProfileData(DataInput in, boolean elementIsParent,
+            IntMap<MethodData> methods) throws IOException {
+        int size = in.readInt();
+        if (size < 0) {
             return null;
-
-        // Convert the hash values to an array of ProfileData
-        Collection<ProfileData> values = map.values();
-        ProfileData[] sorted = values.toArray(new ProfileData[values.size()]);
-
-        // Sort the array by elapsed inclusive time
-        Arrays.sort(sorted, new Comparator<ProfileData>() {
-            @Override
-            public int compare(ProfileData pd1, ProfileData pd2) {
-                if (timeBase.getElapsedInclusiveTime(pd2) > timeBase.getElapsedInclusiveTime(pd1))
-                    return 1;
-                if (timeBase.getElapsedInclusiveTime(pd2) < timeBase.getElapsedInclusiveTime(pd1))
-                    return -1;
-                return 0;
+        }
+        IntMap<ProfileData> map = new IntMap<ProfileData>(size);
+        for (int i = 0; i < size; i++) {
+            int id = in.readInt();
+            MethodData element = methods.get(id);
+            if (element == null) {
+                throw new IOException("Unknown method " + id + " in the profile of " + mId);
             }
-        });
-        return sorted;
+            ProfileData profileData = new ProfileData(this, element, elementIsParent);
+            profileData.setElapsedInclusive(in.readLong(), in.readLong());
+            profileData.setNumCalls(in.readInt());
+            map.put(id, profileData);
+        }
+        return map;
     }
 
-    private ProfileData[] addSelf(ProfileData[] children) {
-        ProfileData[] pdata;
-        if (children == null) {
-            pdata = new ProfileData[1];
-        } else {
-            pdata = new ProfileData[children.length + 1];
-            System.arraycopy(children, 0, pdata, 1, children.length);
-        }
-        pdata[0] = new ProfileSelf(this);
-        return pdata;
+    /**
+     * Prepares the profile nodes of this method, which sort their parents
+     * and children into decreasing inclusive time in timeBase when they are
+     * first expanded.
+     */
+    public void analyzeData(TimeBase timeBase) {
+        mTimeBase = timeBase;
+        mProfileNodes = null;
     }
 
     public void addTopExclusive(long cpuTime, long realTime) {
@@ -279,6 +342,8 @@ public class MethodData {
     }
 
     public String getName() {
+        if (mName == null)
+            computeName();
         return mName;
     }
 
@@ -291,6 +356,8 @@ public class MethodData {
     }
 
     public String getProfileName() {
+        if (mProfileName == null)
+            computeProfileName();
         return mProfileName;
     }
 
@@ -300,7 +367,7 @@ public class MethodData {
 
     public void computeProfileName() {
         if (mRank == -1) {
-            mProfileName = mName;
+            mProfileName = getName();
             return;
         }
 
@@ -319,6 +386,14 @@ public class MethodData {
         return mNumCalls[0] + mNumCalls[1];
     }
 
+    int getNumCalls() {
+        return mNumCalls[0];
+    }
+
+    int getNumRecursiveCalls() {
+        return mNumCalls[1];
+    }
+
     public Color getColor() {
         return mColor;
     }
@@ -389,6 +464,27 @@ public class MethodData {
     }
 
     public ProfileNode[] getProfileNodes() {
+        if (mProfileNodes == null && mTimeBase != null) {
+            // Create the ProfileNode objects that we need
+            ArrayList<ProfileNode> nodes = new ArrayList<ProfileNode>();
+            if (mParents != null) {
+                nodes.add(new ProfileNode("Parents", this, mParents, mTimeBase,
+                        true, false));
+            }
+            if (mChildren != null) {
+                nodes.add(new ProfileNode("Children", this, mChildren, mTimeBase,
+                        false, false));
+            }
+            if (mRecursiveParents != null) {
+                nodes.add(new ProfileNode("Parents while recursive", this,
+                        mRecursiveParents, mTimeBase, true, true));
+            }
+            if (mRecursiveChildren != null) {
+                nodes.add(new ProfileNode("Children while recursive", this,
+                        mRecursiveChildren, mTimeBase, false, true));
+            }
+            mProfileNodes = nodes.toArray(new ProfileNode[nodes.size()]);
+        }
         return mProfileNodes;
     }
 
@@ -0,0 +1,437 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import com.android.utils.SdkUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * A search index over the names of the methods of a trace, so that the
+ * profile view can find methods as the user types.
+ *
+ * For each sequence of three characters, the index keeps the list of the
+ * methods whose lower case name contains it.  A query only needs to check
+ * the methods that are in the lists of all of its trigrams, or of the
+ * literal parts of a regular expression.  As with the linear search it
+ * replaces, a query with no upper case letters ignores case.
+ *
+ * The matches are ranked: methods whose method name starts with the query
+ * first, then methods where the query starts a part of the name, then the
+ * rest, each in decreasing order of inclusive time.
+ */
+class MethodIndex {
+    private static final int GRAM = 3;
+
+    private static final int RANK_METHOD_NAME = 0;
+    private static final int RANK_NAME_PART = 1;
+    private static final int RANK_OTHER = 2;
+    private static final int NUM_RANKS = 3;
+
+    // The methods, in decreasing order of inclusive time, and their names
+    // in lower case.
+    private final MethodData[] mMethods;
+    private final String[] mLowerNames;
+
+    // The indexes in mMethods of the methods that contain each trigram,
+    // in increasing order.
+    private final IntMap<int[]> mPostings;
+
+    // The last plain query and the methods that matched it.  A query that
+    // contains it can only match a subset of them, which is the common case
+    // when typing.
+    private String mLastQuery;
+    private boolean mLastIgnoreCase;
+    private int[] mLastMatches;
+
+    MethodIndex(MethodData[] methods) {
+        mMethods = Arrays.copyOf(methods, methods.length);
+        Arrays.sort(mMethods, new Comparator<MethodData>() {
+            @Override
+            public int compare(MethodData md1, MethodData md2) {
+                return md1.getRank() - md2.getRank();
+            }
+        });
+        mLowerNames = new String[mMethods.length];
+
+        IntMap<Postings> postings = new IntMap<Postings>();
+        for (int ii = 0; ii < mMethods.length; ii++) {
+            String name = mMethods[ii].getName().toLowerCase();
+            mLowerNames[ii] = name;
+            for (int jj = 0; jj + GRAM <= name.length(); jj++) {
+                int key = trigram(name, jj);
+                Postings list = postings.get(key);
+                if (list == null) {
+                    list = new Postings();
+                    postings.put(key, list);
+                }
+                list.add(ii);
+            }
+        }
+
+        mPostings = new IntMap<int[]>(postings.size());
+        for (int ii = 0; ii < postings.size(); ii++) {
+            Postings list = postings.valueAt(ii);
+            mPostings.put(postings.keyAt(ii), Arrays.copyOf(list.mIds, list.mSize));
+        }
+    }
+
+    int size() {
+        return mMethods.length;
+    }
+
+    /**
+     * Returns the methods whose name contains query, best match first.
+     */
+    MethodData[] find(String query) {
+        boolean ignoreCase = !SdkUtils.hasUpperCaseCharacter(query);
+        String lowerQuery = query.toLowerCase();
+
+        int[] candidates;
+        if (mLastQuery != null && (mLastIgnoreCase || !ignoreCase)
+                && (mLastIgnoreCase ? lowerQuery : query).contains(mLastQuery)) {
+            candidates = mLastMatches;
+        } else {
+            candidates = getCandidates(new String[] { lowerQuery });
+        }
+
+        if (ignoreCase) {
+            query = lowerQuery;
+        }
+        Ranking ranking = new Ranking(candidates.length);
+        for (int ii : candidates) {
+            String name = ignoreCase ? mLowerNames[ii] : mMethods[ii].getName();
+            int start = name.indexOf(query);
+            if (start < 0) {
+                continue;
+            }
+            int rank = RANK_OTHER;
+            if (name.startsWith(query, getMethodNameStart(ii))) {
+                rank = RANK_METHOD_NAME;
+            } else {
+                for (; start >= 0; start = name.indexOf(query, start + 1)) {
+                    if (isNamePartStart(name, start)) {
+                        rank = RANK_NAME_PART;
+                        break;
+                    }
+                }
+            }
+            ranking.add(ii, rank);
+        }
+
+        mLastQuery = query;
+        mLastIgnoreCase = ignoreCase;
+        mLastMatches = ranking.getMatches();
+        return ranking.getMethods(mMethods);
+    }
+
+    /**
+     * Returns the methods whose name contains a match for the regular
+     * expression regex, best match first.
+     *
+     * @throws java.util.regex.PatternSyntaxException if regex is not valid
+     */
+    MethodData[] findRegex(String regex) {
+        int flags = SdkUtils.hasUpperCaseCharacter(regex) ? 0 : Pattern.CASE_INSENSITIVE;
+        Matcher matcher = Pattern.compile(regex, flags).matcher("");
+
+        int[] candidates = getCandidates(getLiterals(regex));
+        Ranking ranking = new Ranking(candidates.length);
+        for (int ii : candidates) {
+            String name = mMethods[ii].getName();
+            matcher.reset(name);
+            if (!matcher.find()) {
+                continue;
+            }
+            int rank = isNamePartStart(name, matcher.start()) ? RANK_NAME_PART : RANK_OTHER;
+            int methodNameStart = getMethodNameStart(ii);
+            if (methodNameStart >= 0) {
+                matcher.region(methodNameStart, name.length());
+                if (matcher.lookingAt()) {
+                    rank = RANK_METHOD_NAME;
+                }
+            }
+            ranking.add(ii, rank);
+        }
+        return ranking.getMethods(mMethods);
+    }
+
+    /**
+     * Returns the indexes of the methods whose lower case names contain
+     * every trigram of the given lower case strings, in increasing order.
+     * This is every method if there are no trigrams.
+     */
+    private int[] getCandidates(String[] literals) {
+        ArrayList<int[]> lists = new ArrayList<int[]>();
+        for (String literal : literals) {
+            for (int ii = 0; ii + GRAM <= literal.length(); ii++) {
+                int[] list = mPostings.get(trigram(literal, ii));
+                if (list == null) {
+                    return new int[0];
+                }
+                lists.add(list);
+            }
+        }
+        if (lists.isEmpty()) {
+            int[] all = new int[mMethods.length];
+            for (int ii = 0; ii < all.length; ii++) {
+                all[ii] = ii;
+            }
+            return all;
+        }
+
+        // Intersect the shortest lists first, so that the result shrinks
+        // as quickly as possible.
+        int[][] sorted = lists.toArray(new int[lists.size()][]);
+        Arrays.sort(sorted, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] list1, int[] list2) {
+                return list1.length - list2.length;
+            }
+        });
+        int[] result = sorted[0];
+        int size = result.length;
+        for (int ii = 1; ii < sorted.length && size > 0; ii++) {
+            int[] list = sorted[ii];
+            if (list == sorted[ii - 1]) {
+                continue;
+            }
+            int[] next = new int[size];
+            int nextSize = 0;
+            int jj = 0;
+            for (int kk = 0; kk < size; kk++) {
+                int id = result[kk];
+                while (jj < list.length && list[jj] < id) {
+                    jj++;
+                }
+                if (jj == list.length) {
+                    break;
+                }
+                if (list[jj] == id) {
+                    next[nextSize++] = id;
+                }
+            }
+            result = next;
+            size = nextSize;
+        }
+        return result.length == size ? result : Arrays.copyOf(result, size);
+    }
+
+    /**
+     * Returns the runs of literal characters, in lower case, that every
+     * match of regex must contain.  Runs inside groups or character classes
+     * may not be needed and are left out, and an alternation outside them
+     * means that no run is needed.  Escaped punctuation and quoted text are
+     * literal; any other escape ends the run.
+     */
+    static String[] getLiterals(String regex) {
+        ArrayList<String> literals = new ArrayList<String>();
+        StringBuilder run = new StringBuilder();
+        int depth = 0;
+        for (int ii = 0; ii < regex.length(); ii++) {
+            char c = regex.charAt(ii);
+            if (c == '\\') {
+                char next = ii + 1 < regex.length() ? regex.charAt(ii + 1) : 0;
+                if (next == 'Q') {
+                    int end = regex.indexOf("\\E", ii + 2);
+                    if (end < 0) {
+                        end = regex.length();
+                    }
+                    if (depth == 0) {
+                        run.append(regex, ii + 2, end);
+                        ii = end + 1;
+                        continue;
+                    }
+                    ii = end + 1;
+                } else if (next != 0 && !Character.isLetterOrDigit(next) && depth == 0) {
+                    run.append(next);
+                    ii++;
+                    continue;
+                } else {
+                    ii = skipEscape(regex, ii);
+                }
+            } else if (depth == 0 && "().^$*+?{}[]|".indexOf(c) < 0) {
+                run.append(c);
+                continue;
+            } else if (c == '(' || c == '[') {
+                depth++;
+            } else if (c == ')' || c == ']') {
+                depth = Math.max(depth - 1, 0);
+            } else if (c == '|' && depth == 0) {
+                return new String[0];
+            } else if (c == '*' || c == '?' || c == '{') {
+                // The character before the quantifier may not be there.
+                if (run.length() > 0) {
+                    run.setLength(run.length() - 1);
+                }
+                if (c == '{') {
+                    int end = regex.indexOf('}', ii);
+                    ii = end < 0 ? regex.length() : end;
+                }
+            }
+            if (run.length() >= GRAM) {
+                literals.add(run.toString().toLowerCase());
+            }
+            run.setLength(0);
+        }
+        if (run.length() >= GRAM) {
+            literals.add(run.toString().toLowerCase());
+        }
+        return literals.toArray(new String[literals.size()]);
+    }
+
+    /**
+     * Returns the index of the last character of the escape that starts with
+     * the backslash at index.  Skipping too much only loses literals, so an
+     * escape that runs past the end of the regex ends with it.
+     */
+    private static int skipEscape(String regex, int index) {
+        int last = regex.length() - 1;
+        int ii = index + 1;
+        if (ii > last) {
+            return last;
+        }
+        char c = regex.charAt(ii);
+        char next = ii < last ? regex.charAt(ii + 1) : 0;
+        switch (c) {
+            case 'x':
+                // \xhh or \x{h...h}
+                return next == '{' ? skipTo(regex, '}', ii + 1) : Math.min(ii + 2, last);
+            case 'u':
+                // A UTF-16 code unit in four hex digits
+                return Math.min(ii + 4, last);
+            case '0':
+                // \0o, \0oo or \0ooo
+                int end = ii;
+                while (end < last && end - ii < 3 && regex.charAt(end + 1) >= '0'
+                        && regex.charAt(end + 1) <= '7') {
+                    end++;
+                }
+                return end;
+            case 'c':
+                // \cX
+                return Math.min(ii + 1, last);
+            case 'k':
+                // \k<name>
+                return next == '<' ? skipTo(regex, '>', ii + 1) : ii;
+            case 'p':
+            case 'P':
+            case 'N':
+                // \p{Name}, \pL or \N{name}
+                return next == '{' ? skipTo(regex, '}', ii + 1) : Math.min(ii + 1, last);
+            default:
+                // A back reference takes as many digits as there are.
+                while (Character.isDigit(c) && ii < last && Character.isDigit(next)) {
+                    ii++;
+                    next = ii < last ? regex.charAt(ii + 1) : 0;
+                }
+                return ii;
+        }
+    }
+
+    private static int skipTo(String regex, char c, int index) {
+        int end = regex.indexOf(c, index);
+        return end < 0 ? regex.length() - 1 : end;
+    }
+
+    private int getMethodNameStart(int index) {
+        MethodData md = mMethods[index];
+        if (md.getMethodName() == null) {
+            return -1;
+        }
+        return md.getClassName().length() + 1;
+    }
+
+    private static boolean isNamePartStart(String name, int index) {
+        if (index == 0) {
+            return true;
+        }
+        char c = name.charAt(index - 1);
+        return c == '.' || c == '/' || c == '$' || c == ' ';
+    }
+
+    private static int trigram(String s, int index) {
+        return (s.charAt(index) & 0x3ff) << 20 | (s.charAt(index + 1) & 0x3ff) << 10
+                | (s.charAt(index + 2) & 0x3ff);
+    }
+
+    /**
+     * A growing list of method indexes.  A method is only added once,
+     * however many times the trigram appears in its name.
+     */
+    private static class Postings {
+        int[] mIds = new int[4];
+        int mSize;
+
+        void add(int id) {
+            if (mSize > 0 && mIds[mSize - 1] == id) {
+                return;
+            }
+            if (mSize == mIds.length) {
+                mIds = Arrays.copyOf(mIds, mSize * 2);
+            }
+            mIds[mSize++] = id;
+        }
+    }
+
+    /**
+     * The matches of a query, in buckets by how well they match.  Since the
+     * methods are added in decreasing order of inclusive time, each bucket
+     * stays in that order.
+     */
+    private static class Ranking {
+        private final int[][] mBuckets = new int[NUM_RANKS][];
+        private final int[] mSizes = new int[NUM_RANKS];
+        private final int[] mMatches;
+        private int mNumMatches;
+
+        Ranking(int capacity) {
+            mMatches = new int[capacity];
+        }
+
+        void add(int index, int rank) {
+            int[] bucket = mBuckets[rank];
+            if (bucket == null) {
+                bucket = mBuckets[rank] = new int[mMatches.length];
+            }
+            bucket[mSizes[rank]++] = index;
+            mMatches[mNumMatches++] = index;
+        }
+
+        /**
+         * Returns the indexes of the matches in increasing order.
+         */
+        int[] getMatches() {
+            return Arrays.copyOf(mMatches, mNumMatches);
+        }
+
+        MethodData[] getMethods(MethodData[] methods) {
+            MethodData[] result = new MethodData[mNumMatches];
+            int size = 0;
+            for (int rank = 0; rank < NUM_RANKS; rank++) {
+                for (int ii = 0; ii < mSizes[rank]; ii++) {
+                    result[size++] = methods[mBuckets[rank][ii]];
+                }
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+/**
+ * Sorts methods into decreasing order of a time, such as their inclusive
+ * time in a time base.  The time of each method is read once, before the
+ * sort, so the comparisons only compare cached keys.  Methods with no time
+ * are left out.
+ *
+ * When only the first methods of the order are wanted, they are selected
+ * with a heap of that size, without sorting the others.
+ */
+abstract class MethodSorter {
+    /**
+     * Returns the time of a method to sort by.
+     */
+    abstract long getTime(MethodData md);
+
+    /**
+     * Compares two methods with the same time.  Methods that compare equal
+     * stay in the order they were given in.
+     */
+    int compareTies(MethodData md1, MethodData md2) {
+        return 0;
+    }
+
+    MethodData[] sort(MethodData[] methods) {
+        return sort(Arrays.asList(methods), 0);
+    }
+
+    MethodData[] sort(Collection<MethodData> methods) {
+        return sort(methods, 0);
+    }
+
+    /**
+     * Returns the first limit methods of the order, or all of them if limit
+     * is not positive.
+     */
+    MethodData[] sort(Collection<MethodData> methods, int limit) {
+        Key[] keys = new Key[methods.size()];
+        int numKeys = 0;
+        for (MethodData md : methods) {
+            long time = getTime(md);
+            if (time != 0) {
+                keys[numKeys] = new Key(md, time, numKeys);
+                numKeys++;
+            }
+        }
+
+        Comparator<Key> order = new Comparator<Key>() {
+            @Override
+            public int compare(Key key1, Key key2) {
+                if (key1.mTime != key2.mTime) {
+                    return key1.mTime > key2.mTime ? -1 : 1;
+                }
+                int ties = compareTies(key1.mMethod, key2.mMethod);
+                if (ties != 0) {
+                    return ties;
+                }
+                return key1.mIndex - key2.mIndex;
+            }
+        };
+        if (limit > 0 && limit < numKeys) {
+            keys = select(keys, numKeys, limit, order);
+            numKeys = limit;
+        }
+        Arrays.sort(keys, 0, numKeys, order);
+
+        MethodData[] sorted = new MethodData[numKeys];
+        for (int i = 0; i < numKeys; i++) {
+            sorted[i] = keys[i].mMethod;
+        }
+        return sorted;
+    }
+
+    /**
+     * Returns the first limit of keys[0, numKeys) in order, in no
+     * particular order.
+     */
+    private static Key[] select(Key[] keys, int numKeys, int limit,
+            final Comparator<Key> order) {
+        // The heap keeps the first keys seen so far, with the last of them
+        // at its head.
+        PriorityQueue<Key> first = new PriorityQueue<Key>(limit, new Comparator<Key>() {
+            @Override
+            public int compare(Key key1, Key key2) {
+                return order.compare(key2, key1);
+            }
+        });
+        for (int i = 0; i < numKeys; i++) {
+            if (first.size() < limit) {
+                first.add(keys[i]);
+            } else if (order.compare(keys[i], first.peek()) < 0) {
+                first.poll();
+                first.add(keys[i]);
+            }
+        }
+        return first.toArray(new Key[limit]);
+    }
+
+    private static class Key {
+        final MethodData mMethod;
+        final long mTime;
+        final int mIndex;
+
+        Key(MethodData method, long time, int index) {
+            mMethod = method;
+            mTime = time;
+            mIndex = index;
+        }
+    }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+/**
+ * A call whose times are still being recorded, while the trace is parsed.
+ * The root calls of the threads are also MutableCalls.
+ */
+class MutableCall extends Call {
+    final private ThreadData mThreadData;
+    final private MethodData mMethodData;
+    final MutableCall mCaller; // the caller, or null if this is the root
+
+    private String mName; // shown instead of the name of the method, if set
+    private boolean mIsRecursive;
+
+    long mGlobalStartTime;
+    long mGlobalEndTime;
+
+    long mThreadStartTime;
+    long mThreadEndTime;
+
+    long mInclusiveRealTime; // real time spent in this call including its children
+    long mExclusiveRealTime; // real time spent in this call excluding its children
+
+    long mInclusiveCpuTime; // cpu time spent in this call including its children
+    long mExclusiveCpuTime; // cpu time spent in this call excluding its children
+
+    CallPathNode mCallPath; // the stack this call was made from, if tracked
+
+    int mRow = -1; // the row of this call in its CallTable, once it is added to one
+
+    MutableCall(ThreadData threadData, MethodData methodData, MutableCall caller) {
+        mThreadData = threadData;
+        mMethodData = methodData;
+        mCaller = caller;
+    }
+
+    @Override
+    public long getStartTime() {
+        return mGlobalStartTime;
+    }
+
+    @Override
+    public long getEndTime() {
+        return mGlobalEndTime;
+    }
+
+    @Override
+    long getThreadStartTime() {
+        return mThreadStartTime;
+    }
+
+    @Override
+    long getThreadEndTime() {
+        return mThreadEndTime;
+    }
+
+    @Override
+    public long getExclusiveCpuTime() {
+        return mExclusiveCpuTime;
+    }
+
+    @Override
+    public long getInclusiveCpuTime() {
+        return mInclusiveCpuTime;
+    }
+
+    @Override
+    public long getExclusiveRealTime() {
+        return mExclusiveRealTime;
+    }
+
+    @Override
+    public long getInclusiveRealTime() {
+        return mInclusiveRealTime;
+    }
+
+    @Override
+    public String getName() {
+        if (mName != null) {
+            return mName;
+        }
+        return super.getName();
+    }
+
+    public void setName(String name) {
+        mName = name;
+    }
+
+    @Override
+    public ThreadData getThreadData() {
+        return mThreadData;
+    }
+
+    @Override
+    public MethodData getMethodData() {
+        return mMethodData;
+    }
+
+    @Override
+    MutableCall getCaller() {
+        return mCaller;
+    }
+
+    @Override
+    public boolean isRecursive() {
+        return mIsRecursive;
+    }
+
+    void setRecursive(boolean isRecursive) {
+        mIsRecursive = isRecursive;
+    }
+
+    void addCpuTime(long elapsedCpuTime) {
+        mExclusiveCpuTime += elapsedCpuTime;
+        mInclusiveCpuTime += elapsedCpuTime;
+    }
+
+    /**
+     * Calculate exclusive real-time by subtracting inclusive real time
+     * accumulated by children from the total span.
+     */
+    void updateRealTime() {
+        long realTime = mGlobalEndTime - mGlobalStartTime;
+        mExclusiveRealTime = Math.max(realTime - mInclusiveRealTime, 0);
+        mInclusiveRealTime = realTime;
+    }
+
+    /**
+     * Record time spent in the method call.
+     */
+    void finish() {
+        addTimeToCaller();
+        addToProfile(mMethodData, mCaller != null ? mCaller.mMethodData : null);
+        addToCallPath();
+    }
+
+    /**
+     * Record time spent in the method call in its call path node, if any.
+     */
+    void addToCallPath() {
+        if (mCallPath != null) {
+            mCallPath.add(this);
+        }
+    }
+
+    /**
+     * Add the inclusive time of this call to its caller, without recording
+     * it in the method profile.
+     */
+    void addTimeToCaller() {
+        if (mCaller != null) {
+            mCaller.mInclusiveCpuTime += mInclusiveCpuTime;
+            mCaller.mInclusiveRealTime += mInclusiveRealTime;
+        }
+    }
+}
@@ -47,9 +47,13 @@ public class ProfileData {
     }
 
     public void addElapsedInclusive(long cpuTime, long realTime) {
+        addElapsedInclusive(cpuTime, realTime, 1);
+    }
+
+    void addElapsedInclusive(long cpuTime, long realTime, int numCalls) {
         mElapsedInclusiveCpuTime += cpuTime;
         mElapsedInclusiveRealTime += realTime;
-        mNumCalls += 1;
+        mNumCalls += numCalls;
     }
 
     public void setElapsedInclusive(long cpuTime, long realTime) {
@@ -16,6 +16,10 @@
 
 package com.android.traceview;
 
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Comparator;
+
 public class ProfileNode {
 
     private String mLabel;
@@ -24,6 +28,10 @@ public class ProfileNode {
     private boolean mIsParent;
     private boolean mIsRecursive;
 
+    // The unsorted children, until they are first asked for.
+    private IntMap<ProfileData> mProfileData;
+    private TimeBase mTimeBase;
+
     public ProfileNode(String label, MethodData methodData,
             ProfileData[] children, boolean isParent, boolean isRecursive) {
         mLabel = label;
@@ -33,14 +41,51 @@ public class ProfileNode {
         mIsRecursive = isRecursive;
     }
 
+    /**
+     * Creates a node whose children are sorted into decreasing inclusive
+     * time the first time they are asked for.  The "self" time of the
+     * method is added at the top of the non-recursive children.
+     */
+    ProfileNode(String label, MethodData methodData, IntMap<ProfileData> profileData,
+            TimeBase timeBase, boolean isParent, boolean isRecursive) {
+        this(label, methodData, (ProfileData[]) null, isParent, isRecursive);
+        mProfileData = profileData;
+        mTimeBase = timeBase;
+    }
+
     public String getLabel() {
         return mLabel;
     }
-    
+
+    public MethodData getMethodData() {
+        return mMethodData;
+    }
+
     public ProfileData[] getChildren() {
+        if (mChildren == null) {
+            mChildren = sortProfileData(mProfileData, mTimeBase);
+            if (!mIsParent && !mIsRecursive) {
+                mChildren = addSelf(mChildren);
+            }
+            mProfileData = null;
+        }
         return mChildren;
     }
 
+    /**
+     * Returns the number of children, without sorting them.
+     */
+    public int getChildCount() {
+        if (mChildren != null) {
+            return mChildren.length;
+        }
+        int count = mProfileData.size();
+        if (!mIsParent && !mIsRecursive) {
+            count++;
+        }
+        return count;
+    }
+
     public boolean isParent() {
         return mIsParent;
     }
@@ -48,4 +93,41 @@ public class ProfileNode {
     public boolean isRecursive() {
         return mIsRecursive;
     }
+
+    // Create and return a ProfileData[] array that is a sorted copy
+    // of the given map's values.
+    private static ProfileData[] sortProfileData(IntMap<ProfileData> map,
+            final TimeBase timeBase) {
+        // Convert the hash values to an array of ProfileData
+        Collection<ProfileData> values = map.values();
+        ProfileData[] sorted = values.toArray(new ProfileData[values.size()]);
+
+        // Sort the array by elapsed inclusive time, and methods with the same
+        // time by name, so that the order does not depend on how the trace
+        // was read.
+        Arrays.sort(sorted, new Comparator<ProfileData>() {
+            @Override
+            public int compare(ProfileData pd1, ProfileData pd2) {
+                if (timeBase.getElapsedInclusiveTime(pd2) > timeBase.getElapsedInclusiveTime(pd1))
+                    return 1;
+                if (timeBase.getElapsedInclusiveTime(pd2) < timeBase.getElapsedInclusiveTime(pd1))
+                    return -1;
+                MethodData md1 = pd1.getMethodData();
+                MethodData md2 = pd2.getMethodData();
+                int result = md1.getName().compareTo(md2.getName());
+                if (result != 0) {
+                    return result;
+                }
+                return md1.getId() < md2.getId() ? -1 : (md1.getId() > md2.getId() ? 1 : 0);
+            }
+        });
+        return sorted;
+    }
+
+    private ProfileData[] addSelf(ProfileData[] children) {
+        ProfileData[] pdata = new ProfileData[children.length + 1];
+        System.arraycopy(children, 0, pdata, 1, children.length);
+        pdata[0] = new ProfileSelf(mMethodData);
+        return pdata;
+    }
 }
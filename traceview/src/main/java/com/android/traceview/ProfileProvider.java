@@ -16,11 +16,9 @@
 
 package com.android.traceview;
 
-import com.android.utils.SdkUtils;
-
 import org.eclipse.jface.viewers.IColorProvider;
+import org.eclipse.jface.viewers.ILazyTreeContentProvider;
 import org.eclipse.jface.viewers.ITableLabelProvider;
-import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.LabelProvider;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.viewers.Viewer;
@@ -36,8 +34,9 @@ import org.eclipse.swt.widgets.TreeItem;
 
 import java.io.InputStream;
 import java.util.Arrays;
+import java.util.regex.PatternSyntaxException;
 
-class ProfileProvider implements ITreeContentProvider {
+class ProfileProvider implements ILazyTreeContentProvider {
 
     private MethodData[] mRoots;
     private SelectionAdapter mListener;
@@ -71,8 +70,19 @@ class ProfileProvider implements ITreeContentProvider {
     private static final int COL_REAL_TIME_PER_CALL = 11;
     private long mTotalCpuTime;
     private long mTotalRealTime;
+    private MethodIndex mMethodIndex;
+    private String mMatchQuery;
+    private boolean mMatchRegex;
+    private MethodData[] mMatches;
     private int mPrevMatchIndex = -1;
 
+    // The profile of a range of time that is shown instead of the profile
+    // of the whole trace, if any, with its methods and those of the trace
+    // by id.  The search index only has the methods of the trace.
+    private RangeProfile mRangeProfile;
+    private IntMap<MethodData> mRangeMethods;
+    private IntMap<MethodData> mTraceMethods;
+
     public ProfileProvider(TraceReader reader) {
         mRoots = reader.getMethods();
         mReader = reader;
@@ -87,31 +97,39 @@ class ProfileProvider implements ITreeContentProvider {
         mSortDown = new Image(display, in);
     }
 
-    private MethodData doMatchName(String name, int startIndex) {
-        // Check if the given "name" has any uppercase letters
-        boolean hasUpper = SdkUtils.hasUpperCaseCharacter(name);
-        for (int ii = startIndex; ii < mRoots.length; ++ii) {
-            MethodData md = mRoots[ii];
-            String fullName = md.getName();
-            // If there were no upper case letters in the given name,
-            // then ignore case when matching.
-            if (!hasUpper)
-                fullName = fullName.toLowerCase();
-            if (fullName.indexOf(name) != -1) {
-                mPrevMatchIndex = ii;
-                return md;
-            }
+    private MethodIndex getMethodIndex() {
+        if (mMethodIndex == null) {
+            mMethodIndex = mReader.getMethodIndex();
+            if (mMethodIndex == null)
+                mMethodIndex = new MethodIndex(mReader.getMethods());
         }
-        mPrevMatchIndex = -1;
-        return null;
+        return mMethodIndex;
     }
 
-    public MethodData findMatchingName(String name) {
-        return doMatchName(name, 0);
+    public MethodData findMatchingName(String name, boolean regex) {
+        try {
+            MethodIndex index = getMethodIndex();
+            mMatches = regex ? index.findRegex(name) : index.find(name);
+        } catch (PatternSyntaxException e) {
+            mMatches = new MethodData[0];
+        }
+        mMatchQuery = name;
+        mMatchRegex = regex;
+        mPrevMatchIndex = -1;
+        return findNextMatchingName(name, regex);
     }
 
-    public MethodData findNextMatchingName(String name) {
-        return doMatchName(name, mPrevMatchIndex + 1);
+    public MethodData findNextMatchingName(String name, boolean regex) {
+        if (!name.equals(mMatchQuery) || regex != mMatchRegex)
+            return findMatchingName(name, regex);
+        // Skip the methods that did not run in the range of time shown.
+        while (++mPrevMatchIndex < mMatches.length) {
+            MethodData md = getShownMethod(mMatches[mPrevMatchIndex]);
+            if (md != null)
+                return md;
+        }
+        mPrevMatchIndex = -1;
+        return null;
     }
 
     public MethodData findMatchingTreeItem(TreeItem item) {
@@ -130,6 +148,64 @@ class ProfileProvider implements ITreeContentProvider {
         return null;
     }
 
+    /**
+     * Shows the profile of a range of time, or of the whole trace again if
+     * profile is null.
+     */
+    public void setRangeProfile(RangeProfile profile) {
+        mRangeProfile = profile;
+        if (profile == null) {
+            mRoots = mReader.getMethods();
+            mRangeMethods = null;
+            mTotalCpuTime = mReader.getTotalCpuTime();
+            mTotalRealTime = mReader.getTotalRealTime();
+        } else {
+            mRoots = profile.getMethods();
+            mRangeMethods = new IntMap<MethodData>(mRoots.length);
+            for (MethodData md : mRoots) {
+                mRangeMethods.put(md.getId(), md);
+            }
+            mTotalCpuTime = profile.getTotalCpuTime();
+            mTotalRealTime = profile.getTotalRealTime();
+        }
+        mTreeViewer.collapseAll();
+        mTreeViewer.setChildCount(getRoot(), mRoots.length);
+        mTreeViewer.refresh();
+    }
+
+    public RangeProfile getRangeProfile() {
+        return mRangeProfile;
+    }
+
+    /**
+     * Returns the method that is shown for md, which is md itself, or its
+     * profile in the range of time that is shown, or null if it did not
+     * run in that range.
+     */
+    public MethodData getShownMethod(MethodData md) {
+        if (md == null || mRangeMethods == null)
+            return md;
+        return mRangeMethods.get(md.getId());
+    }
+
+    /**
+     * Returns the method of the trace for md, which may be its profile in a
+     * range of time.
+     */
+    public MethodData getTraceMethod(MethodData md) {
+        if (md == null || mRangeMethods == null)
+            return md;
+        if (mTraceMethods == null) {
+            MethodData[] methods = mReader.getMethods();
+            mTraceMethods = new IntMap<MethodData>(methods.length);
+            for (MethodData method : methods) {
+                mTraceMethods.put(method.getId(), method);
+            }
+        }
+        MethodData method = mTraceMethods.get(md.getId());
+        return method != null ? method : md;
+    }
+
     public void setTreeViewer(TreeViewer treeViewer) {
         mTreeViewer = treeViewer;
     }
@@ -154,6 +230,13 @@ class ProfileProvider implements ITreeContentProvider {
             widths[COL_INCLUSIVE_REAL_TIME_PER] = 0;
             widths[COL_REAL_TIME_PER_CALL] = 0;
         }
+        if (mReader.getSamplingInterval() > 0) {
+            // The calls of a sampled trace are only the changes seen
+            // between samples.
+            widths[COL_CALLS] = 0;
+            widths[COL_CPU_TIME_PER_CALL] = 0;
+            widths[COL_REAL_TIME_PER_CALL] = 0;
+        }
         return widths;
     }
 
@@ -161,36 +244,47 @@ class ProfileProvider implements ITreeContentProvider {
         return mColumnAlignments;
     }
 
+    // The tree is virtual, so the viewer only asks for the rows that are
+    // shown, and the parents and children of a method are only sorted when
+    // the method is expanded.
     @Override
-    public Object[] getChildren(Object element) {
-        if (element instanceof MethodData) {
-            MethodData md = (MethodData) element;
-            return md.getProfileNodes();
-        }
-        if (element instanceof ProfileNode) {
-            ProfileNode pn = (ProfileNode) element;
-            return pn.getChildren();
+    public void updateElement(Object parent, int index) {
+        Object element;
+        if (parent instanceof MethodData) {
+            element = ((MethodData) parent).getProfileNodes()[index];
+        } else if (parent instanceof ProfileNode) {
+            element = ((ProfileNode) parent).getChildren()[index];
+        } else {
+            element = mRoots[index];
         }
-        return new Object[0];
+        mTreeViewer.replace(parent, index, element);
+        updateChildCount(element, -1);
     }
 
     @Override
-    public Object getParent(Object element) {
-        return null;
+    public void updateChildCount(Object element, int currentChildCount) {
+        int count;
+        if (element instanceof MethodData) {
+            ProfileNode[] nodes = ((MethodData) element).getProfileNodes();
+            count = nodes != null ? nodes.length : 0;
+        } else if (element instanceof ProfileNode) {
+            count = ((ProfileNode) element).getChildCount();
+        } else if (element instanceof ProfileData) {
+            count = 0;
+        } else {
+            count = mRoots.length;
+        }
+        if (count != currentChildCount)
+            mTreeViewer.setChildCount(element, count);
     }
 
     @Override
-    public boolean hasChildren(Object element) {
+    public Object getParent(Object element) {
         if (element instanceof MethodData)
-            return true;
+            return getRoot();
         if (element instanceof ProfileNode)
-            return true;
-        return false;
-    }
-
-    @Override
-    public Object[] getElements(Object element) {
-        return mRoots;
+            return ((ProfileNode) element).getMethodData();
+        return null;
     }
 
     @Override
@@ -230,47 +324,47 @@ class ProfileProvider implements ITreeContentProvider {
             traceUnits = mReader.getTraceUnits();
         }
 
+        // Formats a time of a method, and its margin of error if the trace
+        // was sampled.
+        private String formatTime(long time, long totalTime) {
+            double val = traceUnits.getScaledValue(time);
+            int interval = mReader.getSamplingInterval();
+            if (interval == 0)
+                return String.format("%.3f", val);
+            double error = traceUnits.getScaledValue(
+                    SamplingError.get95(time, totalTime, interval));
+            return String.format("%.3f \u00b1%.3f", val, error);
+        }
+
         @Override
         public String getColumnText(Object element, int col) {
             if (element instanceof MethodData) {
                 MethodData md = (MethodData) element;
                 if (col == COL_NAME)
                     return md.getProfileName();
-                if (col == COL_EXCLUSIVE_CPU_TIME) {
-                    double val = md.getElapsedExclusiveCpuTime();
-                    val = traceUnits.getScaledValue(val);
-                    return String.format("%.3f", val);
-                }
+                if (col == COL_EXCLUSIVE_CPU_TIME)
+                    return formatTime(md.getElapsedExclusiveCpuTime(), mTotalCpuTime);
                 if (col == COL_EXCLUSIVE_CPU_TIME_PER) {
                     double val = md.getElapsedExclusiveCpuTime();
                     double per = val * 100.0 / mTotalCpuTime;
                     return String.format("%.1f%%", per);
                 }
-                if (col == COL_INCLUSIVE_CPU_TIME) {
-                    double val = md.getElapsedInclusiveCpuTime();
-                    val = traceUnits.getScaledValue(val);
-                    return String.format("%.3f", val);
-                }
+                if (col == COL_INCLUSIVE_CPU_TIME)
+                    return formatTime(md.getElapsedInclusiveCpuTime(), mTotalCpuTime);
                 if (col == COL_INCLUSIVE_CPU_TIME_PER) {
                     double val = md.getElapsedInclusiveCpuTime();
                     double per = val * 100.0 / mTotalCpuTime;
                     return String.format("%.1f%%", per);
                 }
-                if (col == COL_EXCLUSIVE_REAL_TIME) {
-                    double val = md.getElapsedExclusiveRealTime();
-                    val = traceUnits.getScaledValue(val);
-                    return String.format("%.3f", val);
-                }
+                if (col == COL_EXCLUSIVE_REAL_TIME)
+                    return formatTime(md.getElapsedExclusiveRealTime(), mTotalRealTime);
                 if (col == COL_EXCLUSIVE_REAL_TIME_PER) {
                     double val = md.getElapsedExclusiveRealTime();
                     double per = val * 100.0 / mTotalRealTime;
                     return String.format("%.1f%%", per);
                 }
-                if (col == COL_INCLUSIVE_REAL_TIME) {
-                    double val = md.getElapsedInclusiveRealTime();
-                    val = traceUnits.getScaledValue(val);
-                    return String.format("%.3f", val);
-                }
+                if (col == COL_INCLUSIVE_REAL_TIME)
+                    return formatTime(md.getElapsedInclusiveRealTime(), mTotalRealTime);
                 if (col == COL_INCLUSIVE_REAL_TIME_PER) {
                     double val = md.getElapsedInclusiveRealTime();
                     double per = val * 100.0 / mTotalRealTime;
@@ -25,15 +25,19 @@ import org.eclipse.jface.viewers.StructuredSelection;
 import org.eclipse.jface.viewers.TreeExpansionEvent;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.KeyAdapter;
 import org.eclipse.swt.events.KeyEvent;
 import org.eclipse.swt.events.ModifyEvent;
 import org.eclipse.swt.events.ModifyListener;
 import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Color;
 import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Display;
 import org.eclipse.swt.widgets.Event;
@@ -47,17 +51,33 @@ import org.eclipse.swt.widgets.TreeItem;
 import java.util.ArrayList;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class ProfileView extends Composite implements Observer {
 
     private TreeViewer mTreeViewer;
     private Text mSearchBox;
+    private Button mRegexButton;
+    private Label mRangeLabel;
+    private TraceReader mReader;
     private SelectionController mSelectionController;
     private ProfileProvider mProfileProvider;
     private Color mColorNoMatch;
     private Color mColorMatch;
     private MethodData mCurrentHighlightedMethod;
     private MethodHandler mMethodHandler;
+    private RangeProfile mRangeComputation;
+    private ExecutorService mRangeExecutor = Executors.newSingleThreadExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, "ProfileView range");  //$NON-NLS-1$
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
 
     public interface MethodHandler {
         void handleMethod(MethodData method);
@@ -69,9 +89,10 @@ public class ProfileView extends Composite implements Observer {
         setLayout(new GridLayout(1, false));
         this.mSelectionController = selectController;
         mSelectionController.addObserver(this);
+        mReader = reader;
 
         // Add a tree viewer at the top
-        mTreeViewer = new TreeViewer(this, SWT.MULTI | SWT.NONE);
+        mTreeViewer = new TreeViewer(this, SWT.MULTI | SWT.NONE | SWT.VIRTUAL);
         mTreeViewer.setUseHashlookup(true);
         mProfileProvider = reader.getProfileProvider();
         mProfileProvider.setTreeViewer(mTreeViewer);
@@ -109,7 +130,7 @@ public class ProfileView extends Composite implements Observer {
 
         // Create another composite to hold the label and text box
         Composite composite = new Composite(this, SWT.NONE);
-        composite.setLayout(new GridLayout(2, false));
+        composite.setLayout(new GridLayout(4, false));
         composite.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
 
         // Add a label for the search box
@@ -120,6 +141,22 @@ public class ProfileView extends Composite implements Observer {
         mSearchBox = new Text(composite, SWT.BORDER);
         mSearchBox.setLayoutData(new GridData(GridData.FILL_HORIZONTAL));
 
+        // Add a check box for searching with a regular expression
+        mRegexButton = new Button(composite, SWT.CHECK);
+        mRegexButton.setText("Regex");
+        mRegexButton.addSelectionListener(new SelectionAdapter() {
+            @Override
+            public void widgetSelected(SelectionEvent event) {
+                String query = mSearchBox.getText();
+                if (query.length() == 0)
+                    return;
+                findName(query);
+            }
+        });
+
+        // Add a label for the range of time the profile is limited to
+        mRangeLabel = new Label(composite, SWT.NONE);
+
         Display display = getDisplay();
         mColorNoMatch = new Color(display, 255, 200, 200);
         mColorMatch = mSearchBox.getBackground();
@@ -232,6 +269,7 @@ public class ProfileView extends Composite implements Observer {
                 MethodData md = mProfileProvider.findMatchingTreeItem(treeItem);
                 if (md == null)
                     return;
+                md = mProfileProvider.getTraceMethod(md);
                 ArrayList<Selection> selections = new ArrayList<Selection>();
                 selections.add(Selection.highlight("MethodData", md));
                 mSelectionController.change(selections, "ProfileView");
@@ -241,6 +279,15 @@ public class ProfileView extends Composite implements Observer {
                 }
             }
         });
+
+        addDisposeListener(new DisposeListener() {
+            @Override
+            public void widgetDisposed(DisposeEvent e) {
+                if (mRangeComputation != null)
+                    mRangeComputation.cancel();
+                mRangeExecutor.shutdown();
+            }
+        });
     }
 
     public void setMethodHandler(MethodHandler handler) {
@@ -248,12 +295,14 @@ public class ProfileView extends Composite implements Observer {
     }
 
     private void findName(String query) {
-        MethodData md = mProfileProvider.findMatchingName(query);
+        MethodData md = mProfileProvider.findMatchingName(query,
+                mRegexButton.getSelection());
         selectMethod(md);
     }
 
     private void findNextName(String query) {
-        MethodData md = mProfileProvider.findNextMatchingName(query);
+        MethodData md = mProfileProvider.findNextMatchingName(query,
+                mRegexButton.getSelection());
         selectMethod(md);
     }
 
@@ -279,6 +328,10 @@ public class ProfileView extends Composite implements Observer {
             if (action != Selection.Action.Highlight)
                 continue;
             String name = selection.getName();
+            if (name == "Range") {
+                setRange((long[]) selection.getValue());
+                return;
+            }
             if (name == "MethodData") {
                 MethodData md = (MethodData) selection.getValue();
                 highlightMethod(md, true);
@@ -293,7 +346,63 @@ public class ProfileView extends Composite implements Observer {
         }
     }
 
+    /**
+     * Shows the profile of the time from range[0] to range[1], or of the
+     * whole trace if range is null.  The profile of a range is computed in
+     * the background, and the current profile is shown until it is ready.
+     */
+    private void setRange(long[] range) {
+        if (mRangeComputation != null) {
+            mRangeComputation.cancel();
+            mRangeComputation = null;
+        }
+        if (range == null) {
+            if (mProfileProvider.getRangeProfile() != null)
+                showProfile(null);
+            return;
+        }
+
+        final RangeProfile profile = new RangeProfile(mReader, range[0], range[1]);
+        final Display display = getDisplay();
+        mRangeComputation = profile;
+        mRangeExecutor.execute(new Runnable() {
+            @Override
+            public void run() {
+                if (!profile.compute() || display.isDisposed())
+                    return;
+                display.asyncExec(new Runnable() {
+                    @Override
+                    public void run() {
+                        if (profile != mRangeComputation || isDisposed())
+                            return;
+                        mRangeComputation = null;
+                        showProfile(profile);
+                    }
+                });
+            }
+        });
+    }
+
+    private void showProfile(RangeProfile profile) {
+        MethodData md = mProfileProvider.getTraceMethod(mCurrentHighlightedMethod);
+        mCurrentHighlightedMethod = null;
+        mProfileProvider.setRangeProfile(profile);
+        if (profile == null) {
+            mRangeLabel.setText("");
+        } else {
+            TraceUnits units = mReader.getTraceUnits();
+            mRangeLabel.setText(String.format("Range: %s to %s",
+                    units.labelledString(profile.getStartTime()),
+                    units.labelledString(profile.getEndTime())));
+        }
+        mRangeLabel.getParent().layout();
+
+        // Keep the same method selected, if it ran in the range.
+        highlightMethod(md, false);
+    }
+
     private void highlightMethod(MethodData md, boolean clearSearch) {
+        md = mProfileProvider.getShownMethod(md);
         if (md == null)
             return;
         // Avoid an infinite recursion
@@ -0,0 +1,271 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.ArrayList;
+
+/**
+ * The profile of the methods of a trace from only the time between a start
+ * and an end time.
+ *
+ * The calls that lie entirely inside the range count as they do in the
+ * profile of the whole trace.  The calls that cross one of its ends only
+ * count for the time inside it: their real time is clipped to the range,
+ * and their cpu time, which is only known for the whole call, is scaled
+ * by the share of their real time that is inside it.
+ *
+ * A profile is computed by compute(), which may be called on a background
+ * thread and stops early if the profile is cancelled.
+ */
+class RangeProfile {
+    private final TraceReader mReader;
+    private final long mStartTime;
+    private final long mEndTime;
+    private volatile boolean mCancelled;
+
+    private final IntMap<MethodData> mProfiles = new IntMap<MethodData>();
+    private MethodData[] mMethods;
+    private long mTotalCpuTime;
+    private long mTotalRealTime;
+
+    RangeProfile(TraceReader reader, long startTime, long endTime) {
+        mReader = reader;
+        mStartTime = startTime;
+        mEndTime = endTime;
+    }
+
+    long getStartTime() {
+        return mStartTime;
+    }
+
+    long getEndTime() {
+        return mEndTime;
+    }
+
+    void cancel() {
+        mCancelled = true;
+    }
+
+    boolean isCancelled() {
+        return mCancelled;
+    }
+
+    /**
+     * Computes the profile.  Returns false if the reader does not have the
+     * calls of the trace, or the profile was cancelled.
+     */
+    boolean compute() {
+        CallTable calls = mReader.getCalls(mStartTime, mEndTime);
+        if (calls == null) {
+            return false;
+        }
+        for (ThreadData threadData : mReader.getThreads()) {
+            if (mCancelled) {
+                return false;
+            }
+            addThread(threadData.getRootCall(), calls, calls.getThreadRows(threadData.getId()));
+        }
+
+        final TimeBase timeBase = mReader.getPreferredTimeBase();
+        ArrayList<MethodData> methods = new ArrayList<MethodData>();
+        for (int i = 0; i < mProfiles.size(); i++) {
+            methods.add(mProfiles.valueAt(i));
+        }
+        mMethods = new MethodSorter() {
+            @Override
+            long getTime(MethodData md) {
+                return timeBase.getElapsedInclusiveTime(md);
+            }
+
+            @Override
+            int compareTies(MethodData md1, MethodData md2) {
+                return md1.getRank() - md2.getRank();
+            }
+        }.sort(methods);
+        for (MethodData md : mMethods) {
+            md.analyzeData(timeBase);
+        }
+        return !mCancelled;
+    }
+
+    /**
+     * Returns the profiles of the methods that ran in the range, in
+     * decreasing order of inclusive time.  The profiles are copies of the
+     * methods of the trace, with the same ids and ranks.
+     */
+    MethodData[] getMethods() {
+        return mMethods;
+    }
+
+    long getTotalCpuTime() {
+        return mTotalCpuTime;
+    }
+
+    long getTotalRealTime() {
+        return mTotalRealTime;
+    }
+
+    /**
+     * Adds the calls of a thread that overlap the range, given the rows of
+     * the calls of the thread in the order of CallTable.getThreadRows().
+     */
+    private void addThread(MutableCall rootCall, CallTable calls, int[] rows) {
+        IntList overlapping = new IntList();
+        if (rows != null) {
+            int first = findFirstCall(calls, rows, mStartTime);
+
+            // The calls running at the start of the range are the callers of
+            // the last call that started before it.
+            if (first > 0) {
+                for (int row = rows[first - 1]; row != CallTable.ROOT;
+                        row = calls.getCaller(row)) {
+                    if (calls.getGlobalEndTime(row) > mStartTime) {
+                        overlapping.add(row);
+                    }
+                }
+            }
+            for (int i = first; i < rows.length
+                    && calls.getGlobalStartTime(rows[i]) <= mEndTime; i++) {
+                int row = rows[i];
+                if (calls.getGlobalStartTime(row) < mEndTime
+                        || calls.getGlobalEndTime(row) <= mEndTime) {
+                    overlapping.add(row);
+                }
+            }
+        }
+
+        // Clip the calls that cross an end of the range, then take the time
+        // of their callees inside the range out of their exclusive time.
+        IntMap<Clip> clips = new IntMap<Clip>();
+        for (int i = 0; i < overlapping.size(); i++) {
+            int row = overlapping.get(i);
+            long startTime = calls.getGlobalStartTime(row);
+            long endTime = calls.getGlobalEndTime(row);
+            if (startTime < mStartTime || endTime > mEndTime) {
+                long clippedRealTime = getTimeInRange(startTime, endTime);
+                clips.put(row, new Clip(scale(calls.getInclusiveCpuTime(row), clippedRealTime,
+                        endTime - startTime), clippedRealTime));
+            }
+        }
+        Clip rootClip = new Clip(0, 0);
+        for (int i = 0; i < overlapping.size(); i++) {
+            int row = overlapping.get(i);
+            int caller = calls.getCaller(row);
+            Clip clip = clips.get(row);
+            Clip callerClip = caller == CallTable.ROOT ? rootClip : clips.get(caller);
+            if (callerClip == null) {
+                continue;
+            }
+            if (clip != null) {
+                callerClip.addCallee(clip.mInclusiveCpuTime, clip.mInclusiveRealTime);
+            } else {
+                callerClip.addCallee(calls.getInclusiveCpuTime(row),
+                        calls.getInclusiveRealTime(row));
+            }
+        }
+
+        // The time of the root call is the time of its callees, plus any
+        // time the thread spent outside of them.
+        long rootSpan = rootCall.mGlobalEndTime - rootCall.mGlobalStartTime;
+        long rootSpanInRange = getTimeInRange(rootCall.mGlobalStartTime,
+                rootCall.mGlobalEndTime);
+        long rootCpuTime = scale(rootCall.mExclusiveCpuTime, rootSpanInRange, rootSpan);
+        long rootRealTime = scale(rootCall.mExclusiveRealTime, rootSpanInRange, rootSpan);
+        long inclusiveCpuTime = rootCpuTime + rootClip.mCalleeCpuTime;
+        long inclusiveRealTime = rootRealTime + rootClip.mCalleeRealTime;
+        rootCall.addToProfile(getProfile(rootCall.getMethodData()), null,
+                inclusiveCpuTime, rootCpuTime, inclusiveRealTime, rootRealTime);
+        mTotalCpuTime += inclusiveCpuTime;
+        mTotalRealTime += inclusiveRealTime;
+
+        for (int i = 0; i < overlapping.size(); i++) {
+            int row = overlapping.get(i);
+            Call call = calls.getCall(row);
+            MethodData profile = getProfile(call.getMethodData());
+            MethodData callerProfile = getProfile(call.getCaller().getMethodData());
+            Clip clip = clips.get(row);
+            if (clip == null) {
+                call.addToProfile(profile, callerProfile);
+            } else {
+                call.addToProfile(profile, callerProfile,
+                        clip.mInclusiveCpuTime,
+                        Math.max(clip.mInclusiveCpuTime - clip.mCalleeCpuTime, 0),
+                        clip.mInclusiveRealTime,
+                        Math.max(clip.mInclusiveRealTime - clip.mCalleeRealTime, 0));
+            }
+        }
+    }
+
+    /**
+     * Returns the index in rows of the first call that starts at or after
+     * time.
+     */
+    private static int findFirstCall(CallTable calls, int[] rows, long time) {
+        int low = 0;
+        int high = rows.length;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (calls.getGlobalStartTime(rows[mid]) < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    private long getTimeInRange(long startTime, long endTime) {
+        return Math.max(Math.min(endTime, mEndTime) - Math.max(startTime, mStartTime), 0);
+    }
+
+    private static long scale(long time, long part, long whole) {
+        if (part >= whole) {
+            return time;
+        }
+        return Math.round((double) time * part / whole);
+    }
+
+    private MethodData getProfile(MethodData methodData) {
+        MethodData profile = mProfiles.get(methodData.getId());
+        if (profile == null) {
+            profile = DmTraceReader.getProfile(mProfiles, methodData);
+            profile.setRank(methodData.getRank());
+        }
+        return profile;
+    }
+
+    /**
+     * The times inside the range of a call that crosses one of its ends,
+     * and of its callees.
+     */
+    private static class Clip {
+        final long mInclusiveCpuTime;
+        final long mInclusiveRealTime;
+        long mCalleeCpuTime;
+        long mCalleeRealTime;
+
+        Clip(long inclusiveCpuTime, long inclusiveRealTime) {
+            mInclusiveCpuTime = inclusiveCpuTime;
+            mInclusiveRealTime = inclusiveRealTime;
+        }
+
+        void addCallee(long cpuTime, long realTime) {
+            mCalleeCpuTime += cpuTime;
+            mCalleeRealTime += realTime;
+        }
+    }
+}
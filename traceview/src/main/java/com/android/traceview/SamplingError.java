@@ -0,0 +1,53 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+/**
+ * The uncertainty of the times of a sampled trace.
+ *
+ * A time estimated from samples is the number of samples that landed in a
+ * method times the sampling interval.  Each sample lands in the method with
+ * a probability equal to the method's share of the total time, so the count
+ * is binomial, and the actual time is within 1.96 of its standard
+ * deviations of the estimate 95% of the time.
+ */
+class SamplingError {
+    private static final double Z_95 = 1.96;
+
+    private SamplingError() {
+    }
+
+    /**
+     * Returns the number of samples that a time is made of.
+     */
+    static long getSamples(long time, int interval) {
+        return (time + interval / 2) / interval;
+    }
+
+    /**
+     * Returns the half width of the 95% confidence interval of time, out of
+     * a total time totalTime, sampled every interval.
+     */
+    static long get95(long time, long totalTime, int interval) {
+        if (interval <= 0 || totalTime <= 0) {
+            return 0;
+        }
+        double samples = (double) time / interval;
+        double share = Math.min((double) time / totalTime, 1.0);
+        return Math.round(Z_95 * interval * Math.sqrt(samples * (1 - share)));
+    }
+}
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A pool of the class names, method names, signatures and source files of
+ * a trace, so that each distinct string is kept once however many methods
+ * use it.  A pool is only kept while the key section of a trace is parsed,
+ * by a single thread; the strings then belong to the methods of the trace.
+ *
+ * Strings can be looked up directly from the bytes of a key section, in
+ * which case a String is only created the first time its bytes are seen.
+ */
+class StringPool {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");  //$NON-NLS-1$
+
+    // The strings, in the order they were added, and an open addressing
+    // table of their hash codes in the high half and one more than their
+    // index in the low half, or 0 for an empty slot.  The table is at most
+    // half full, and a probe only looks at a string when its hash matches.
+    private String[] mStrings = new String[512];
+    private long[] mSlots = new long[1024];
+    private int mSize;
+
+    /**
+     * Returns the pooled string equal to the UTF-8 bytes from start to end.
+     */
+    String get(byte[] bytes, int start, int end) {
+        // For ASCII this is the hash code of the string.
+        int hash = 0;
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b < 0) {
+                return get(decode(bytes, start, end));
+            }
+            hash = 31 * hash + b;
+        }
+
+        int mask = mSlots.length - 1;
+        int slot = spread(hash) & mask;
+        for (long entry = mSlots[slot]; entry != 0; entry = mSlots[slot]) {
+            if ((int) (entry >>> 32) == hash) {
+                String s = mStrings[(int) entry - 1];
+                if (equals(s, bytes, start, end)) {
+                    return s;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(decode(bytes, start, end), hash, slot);
+    }
+
+    /**
+     * Returns the pooled string equal to s, adding s if there is none.
+     */
+    String get(String s) {
+        if (s == null) {
+            return null;
+        }
+        int hash = s.hashCode();
+        int mask = mSlots.length - 1;
+        int slot = spread(hash) & mask;
+        for (long entry = mSlots[slot]; entry != 0; entry = mSlots[slot]) {
+            if ((int) (entry >>> 32) == hash) {
+                String pooled = mStrings[(int) entry - 1];
+                if (pooled.equals(s)) {
+                    return pooled;
+                }
+            }
+            slot = (slot + 1) & mask;
+        }
+        return add(s, hash, slot);
+    }
+
+    /**
+     * Decodes bytes from start to end, without pooling them.
+     */
+    static String decode(byte[] bytes, int start, int end) {
+        return new String(bytes, start, end - start, UTF_8);
+    }
+
+    private String add(String s, int hash, int slot) {
+        if (mSize == mStrings.length) {
+            grow();
+            int mask = mSlots.length - 1;
+            slot = spread(hash) & mask;
+            while (mSlots[slot] != 0) {
+                slot = (slot + 1) & mask;
+            }
+        }
+        mStrings[mSize++] = s;
+        mSlots[slot] = (long) hash << 32 | mSize;
+        return s;
+    }
+
+    private void grow() {
+        mStrings = Arrays.copyOf(mStrings, mStrings.length * 2);
+        long[] slots = mSlots;
+        mSlots = new long[slots.length * 2];
+        int mask = mSlots.length - 1;
+        for (long entry : slots) {
+            if (entry != 0) {
+                int slot = spread((int) (entry >>> 32)) & mask;
+                while (mSlots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                mSlots[slot] = entry;
+            }
+        }
+    }
+
+    private static boolean equals(String s, byte[] bytes, int start, int end) {
+        if (s.length() != end - start) {
+            return false;
+        }
+        for (int i = start; i < end; i++) {
+            if (s.charAt(i - start) != bytes[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static int spread(int hash) {
+        // Similar names have similar hash codes, so mix all of the bits
+        // before masking.
+        int h = hash * 0x9e3779b9;
+        return h ^ (h >>> 16);
+    }
+}
@@ -17,7 +17,6 @@
 package com.android.traceview;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 
 class ThreadData implements TimeLineView.Row {
 
@@ -25,11 +24,13 @@ class ThreadData implements TimeLineView.Row {
     private String mName;
     private boolean mIsEmpty;
 
-    private Call mRootCall;
-    private ArrayList<Call> mStack = new ArrayList<Call>();
+    private MutableCall mRootCall;
+    private ArrayList<MutableCall> mStack = new ArrayList<MutableCall>();
 
-    // This is a hash of all the methods that are currently on the stack.
-    private HashMap<MethodData, Integer> mStackMethods = new HashMap<MethodData, Integer>();
+    // The number of times each method is currently on the stack, by method
+    // id.  Entries are kept at zero when a method leaves the stack so that
+    // entering it again does not allocate.
+    private IntMap<int[]> mStackMethods = new IntMap<int[]>();
 
     boolean mHaveGlobalTime;
     long mGlobalStartTime;
@@ -45,20 +46,61 @@ class ThreadData implements TimeLineView.Row {
         mId = id;
         mName = String.format("[%d] %s", id, name);
         mIsEmpty = true;
-        mRootCall = new Call(this, topLevel, null);
+        mRootCall = new MutableCall(this, topLevel, null);
         mRootCall.setName(mName);
+        mRootCall.mCallPath = new CallPathNode(topLevel, null);
         mStack.add(mRootCall);
     }
 
+    /**
+     * Creates an empty copy of the given thread, used to replay the trace
+     * without disturbing the times recorded in the original.  The copy does
+     * not track call paths.
+     */
+    ThreadData(ThreadData threadData) {
+        mId = threadData.mId;
+        mName = threadData.mName;
+        mIsEmpty = true;
+        mRootCall = new MutableCall(this, threadData.mRootCall.getMethodData(), null);
+        mRootCall.setName(mName);
+        mStack.add(mRootCall);
+    }
+
+    private ThreadData(int id, String name, boolean isEmpty, MethodData topLevel) {
+        mId = id;
+        mName = name;
+        mIsEmpty = isEmpty;
+        mRootCall = new MutableCall(this, topLevel, null);
+        mRootCall.setName(mName);
+        mRootCall.mCallPath = new CallPathNode(topLevel, null);
+        mStack.add(mRootCall);
+    }
+
+    /**
+     * Recreates a thread read from a TraceIndex, given the name returned by
+     * getName().
+     */
+    static ThreadData restore(int id, String name, boolean isEmpty, MethodData topLevel) {
+        return new ThreadData(id, name, isEmpty, topLevel);
+    }
+
     @Override
     public String getName() {
         return mName;
     }
 
-    public Call getRootCall() {
+    public MutableCall getRootCall() {
         return mRootCall;
     }
 
+    /**
+     * Returns the root of the call path trie of this thread, or null if this
+     * thread is a copy that does not track call paths.
+     */
+    CallPathNode getCallPaths() {
+        return mRootCall.mCallPath;
+    }
+
     /**
      * Returns true if no calls have ever been recorded for this thread.
      */
@@ -66,7 +108,15 @@ class ThreadData implements TimeLineView.Row {
         return mIsEmpty;
     }
 
-    Call enter(MethodData method, ArrayList<TraceAction> trace) {
+    /**
+     * Records that the thread ran, for sampled traces, whose calls are
+     * not entered.
+     */
+    void setNotEmpty() {
+        mIsEmpty = false;
+    }
+
+    MutableCall enter(MethodData method, ArrayList<TraceAction> trace) {
         if (mIsEmpty) {
             mIsEmpty = false;
             if (trace != null) {
@@ -74,27 +124,31 @@ class ThreadData implements TimeLineView.Row {
             }
         }
 
-        Call caller = top();
-        Call call = new Call(this, method, caller);
+        MutableCall caller = top();
+        MutableCall call = new MutableCall(this, method, caller);
+        if (caller.mCallPath != null) {
+            call.mCallPath = caller.mCallPath.getChild(method);
+        }
         mStack.add(call);
 
         if (trace != null) {
             trace.add(new TraceAction(TraceAction.ACTION_ENTER, call));
         }
 
-        Integer num = mStackMethods.get(method);
+        int[] num = mStackMethods.get(method.getId());
         if (num == null) {
-            num = 0;
-        } else if (num > 0) {
+            num = new int[1];
+            mStackMethods.put(method.getId(), num);
+        } else if (num[0] > 0) {
             call.setRecursive(true);
         }
-        mStackMethods.put(method, num + 1);
+        num[0]++;
 
         return call;
     }
 
-    Call exit(MethodData method, ArrayList<TraceAction> trace) {
-        Call call = top();
+    MutableCall exit(MethodData method, ArrayList<TraceAction> trace) {
+        MutableCall call = top();
         if (call.mCaller == null) {
             return null;
         }
@@ -112,25 +166,21 @@ class ThreadData implements TimeLineView.Row {
             trace.add(new TraceAction(TraceAction.ACTION_EXIT, call));
         }
 
-        Integer num = mStackMethods.get(method);
-        if (num != null) {
-            if (num == 1) {
-                mStackMethods.remove(method);
-            } else {
-                mStackMethods.put(method, num - 1);
-            }
+        int[] num = mStackMethods.get(method.getId());
+        if (num != null && num[0] > 0) {
+            num[0]--;
         }
 
         return call;
     }
 
-    Call top() {
+    MutableCall top() {
         return mStack.get(mStack.size() - 1);
     }
 
     void endTrace(ArrayList<TraceAction> trace) {
         for (int i = mStack.size() - 1; i >= 1; i--) {
-            Call call = mStack.get(i);
+            MutableCall call = mStack.get(i);
             call.mGlobalEndTime = mGlobalEndTime;
             call.mThreadEndTime = mThreadEndTime;
             if (trace != null) {
@@ -19,6 +19,8 @@ package com.android.traceview;
 import org.eclipse.jface.resource.FontRegistry;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.SashForm;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
 import org.eclipse.swt.events.MouseAdapter;
 import org.eclipse.swt.events.MouseEvent;
 import org.eclipse.swt.events.MouseMoveListener;
@@ -45,18 +47,19 @@ import org.eclipse.swt.widgets.ScrollBar;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Observable;
 import java.util.Observer;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
 
 public class TimeLineView extends Composite implements Observer {
 
-    private HashMap<String, RowData> mRowByName;
-    private RowData[] mRows;
-    private Segment[] mSegments;
-    private HashMap<Integer, String> mThreadLabels;
+    private TraceReader mReader;
+    private TimeLineData mData;
     private Timescale mTimescale;
     private Surface mSurface;
     private RowLabels mLabels;
@@ -68,6 +71,7 @@ public class TimeLineView extends Composite implements Observer {
     private static final int LeftMargin = 10; // blank space on left
     private static final int RightMargin = 60; // blank space on right
 
+    private Color mColorBackground;
     private Color mColorBlack;
     private Color mColorGray;
     private Color mColorDarkGray;
@@ -93,7 +97,6 @@ public class TimeLineView extends Composite implements Observer {
     /** start of first row */
     private static final int topMargin = 90;
     private int mMouseRow = -1;
-    private int mNumRows;
     private int mStartRow;
     private int mEndRow;
     private TraceUnits mUnits;
@@ -132,33 +135,23 @@ public class TimeLineView extends Composite implements Observer {
         public String getName();
     }
 
-    public static class Record {
-        Row row;
-        Block block;
-
-        public Record(Row row, Block block) {
-            this.row = row;
-            this.block = block;
-        }
-    }
-
     public TimeLineView(Composite parent, TraceReader reader,
             SelectionController selectionController) {
         super(parent, SWT.NONE);
-        mRowByName = new HashMap<String, RowData>();
+        mReader = reader;
+        mData = new TimeLineData(reader.getThreadLabels());
         this.mSelectionController = selectionController;
         selectionController.addObserver(this);
         mUnits = reader.getTraceUnits();
         mClockSource = reader.getClockSource();
         mHaveCpuTime = reader.haveCpuTime();
         mHaveRealTime = reader.haveRealTime();
-        mThreadLabels = reader.getThreadLabels();
 
         Display display = getDisplay();
         mColorGray = display.getSystemColor(SWT.COLOR_GRAY);
         mColorDarkGray = display.getSystemColor(SWT.COLOR_DARK_GRAY);
         mColorBlack = display.getSystemColor(SWT.COLOR_BLACK);
-        // mColorBackground = display.getSystemColor(SWT.COLOR_WHITE);
+        mColorBackground = display.getSystemColor(SWT.COLOR_WHITE);
         mColorForeground = display.getSystemColor(SWT.COLOR_BLACK);
         mColorRowBack = new Color(display, 240, 240, 255);
         mColorZoomSelection = new Color(display, 230, 230, 230);
@@ -258,7 +251,7 @@ public class TimeLineView extends Composite implements Observer {
                 Point dim = mSurface.getSize();
 
                 // If we don't need the scroll bar then don't display it.
-                if (dim.y >= mNumRows * rowYSpace) {
+                if (dim.y >= mData.mNumRows * rowYSpace) {
                     vBar.setVisible(false);
                 } else {
                     vBar.setVisible(true);
@@ -269,7 +262,7 @@ public class TimeLineView extends Composite implements Observer {
                     vBar.setSelection(newScrollOffsetY);
                 }
 
-                int spaceNeeded = mNumRows * rowYSpace;
+                int spaceNeeded = mData.mNumRows * rowYSpace;
                 vBar.setMaximum(spaceNeeded);
                 vBar.setThumb(dim.y);
 
@@ -340,7 +333,8 @@ public class TimeLineView extends Composite implements Observer {
             }
         });
 
-        setData(reader.getThreadTimeRecords());
+        setData(reader.getTimeLineCalls());
+        mSurface.setLoadedRange(reader.getTimeRecordsMinDuration());
     }
 
     @Override
@@ -377,166 +371,35 @@ public class TimeLineView extends Composite implements Observer {
             mSurface.clearHighlights();
     }
 
-    public void setData(ArrayList<Record> records) {
-        if (records == null)
-            records = new ArrayList<Record>();
+    void setData(CallTable calls) {
+        if (calls == null)
+            calls = new CallTable(0);
 
         if (false) {
-            System.out.println("TimelineView() list of records:");  //$NON-NLS-1$
-            for (Record r : records) {
-                System.out.printf("row '%s' block '%s' [%d, %d]\n", r.row  //$NON-NLS-1$
-                        .getName(), r.block.getName(), r.block.getStartTime(),
-                        r.block.getEndTime());
-                if (r.block.getStartTime() > r.block.getEndTime()) {
+            System.out.println("TimelineView() list of calls:");  //$NON-NLS-1$
+            for (int row = 0; row < calls.size(); row++) {
+                System.out.printf("row '%s' block '%s' [%d, %d]\n",  //$NON-NLS-1$
+                        calls.getThreadData(row).getName(),
+                        calls.getMethodData(row).getProfileName(),
+                        calls.getGlobalStartTime(row), calls.getGlobalEndTime(row));
+                if (calls.getGlobalStartTime(row) > calls.getGlobalEndTime(row)) {
                     System.err.printf("Error: block startTime > endTime\n");  //$NON-NLS-1$
                     System.exit(1);
                 }
             }
         }
 
-        // Sort the records into increasing start time, and decreasing end time
-        Collections.sort(records, new Comparator<Record>() {
-            @Override
-            public int compare(Record r1, Record r2) {
-                long start1 = r1.block.getStartTime();
-                long start2 = r2.block.getStartTime();
-                if (start1 > start2)
-                    return 1;
-                if (start1 < start2)
-                    return -1;
-
-                // The start times are the same, so compare the end times
-                long end1 = r1.block.getEndTime();
-                long end2 = r2.block.getEndTime();
-                if (end1 > end2)
-                    return -1;
-                if (end1 < end2)
-                    return 1;
-
-                return 0;
-            }
-        });
-
-        ArrayList<Segment> segmentList = new ArrayList<Segment>();
-
-        // The records are sorted into increasing start time,
-        // so the minimum start time is the start time of the first record.
-        double minVal = 0;
-        if (records.size() > 0)
-            minVal = records.get(0).block.getStartTime();
-
-        // Sum the time spent in each row and block, and
-        // keep track of the maximum end time.
-        double maxVal = 0;
-        for (Record rec : records) {
-            Row row = rec.row;
-            Block block = rec.block;
-            if (block.isIgnoredBlock()) {
-                continue;
-            }
-
-            String rowName = row.getName();
-            RowData rd = mRowByName.get(rowName);
-            if (rd == null) {
-                rd = new RowData(row);
-                mRowByName.put(rowName, rd);
-            }
-            long blockStartTime = block.getStartTime();
-            long blockEndTime = block.getEndTime();
-            if (blockEndTime > rd.mEndTime) {
-                long start = Math.max(blockStartTime, rd.mEndTime);
-                rd.mElapsed += blockEndTime - start;
-                rd.mEndTime = blockEndTime;
-            }
-            if (blockEndTime > maxVal)
-                maxVal = blockEndTime;
-
-            // Keep track of nested blocks by using a stack (for each row).
-            // Create a Segment object for each visible part of a block.
-            Block top = rd.top();
-            if (top == null) {
-                rd.push(block);
-                continue;
-            }
-
-            long topStartTime = top.getStartTime();
-            long topEndTime = top.getEndTime();
-            if (topEndTime >= blockStartTime) {
-                // Add this segment if it has a non-zero elapsed time.
-                if (topStartTime < blockStartTime) {
-                    Segment segment = new Segment(rd, top, topStartTime,
-                            blockStartTime);
-                    segmentList.add(segment);
-                }
-
-                // If this block starts where the previous (top) block ends,
-                // then pop off the top block.
-                if (topEndTime == blockStartTime)
-                    rd.pop();
-                rd.push(block);
-            } else {
-                // We may have to pop several frames here.
-                popFrames(rd, top, blockStartTime, segmentList);
-                rd.push(block);
-            }
-        }
-
-        // Clean up the stack of each row
-        for (RowData rd : mRowByName.values()) {
-            Block top = rd.top();
-            popFrames(rd, top, Integer.MAX_VALUE, segmentList);
-        }
-
+        mData.setData(mReader.getThreads(), calls);
+        double minVal = mData.getMinTime();
+        double maxVal = mData.getMaxTime();
         mSurface.setRange(minVal, maxVal);
         mSurface.setLimitRange(minVal, maxVal);
 
-        // Sort the rows into decreasing elapsed time
-        Collection<RowData> rv = mRowByName.values();
-        mRows = rv.toArray(new RowData[rv.size()]);
-        Arrays.sort(mRows, new Comparator<RowData>() {
-            @Override
-            public int compare(RowData rd1, RowData rd2) {
-                return (int) (rd2.mElapsed - rd1.mElapsed);
-            }
-        });
-
-        // Assign ranks to the sorted rows
-        for (int ii = 0; ii < mRows.length; ++ii) {
-            mRows[ii].mRank = ii;
-        }
-
-        // Compute the number of rows with data
-        mNumRows = 0;
-        for (int ii = 0; ii < mRows.length; ++ii) {
-            if (mRows[ii].mElapsed == 0)
-                break;
-            mNumRows += 1;
-        }
-
-        // Sort the blocks into increasing rows, and within rows into
-        // increasing start values.
-        mSegments = segmentList.toArray(new Segment[segmentList.size()]);
-        Arrays.sort(mSegments, new Comparator<Segment>() {
-            @Override
-            public int compare(Segment bd1, Segment bd2) {
-                RowData rd1 = bd1.mRowData;
-                RowData rd2 = bd2.mRowData;
-                int diff = rd1.mRank - rd2.mRank;
-                if (diff == 0) {
-                    long timeDiff = bd1.mStartTime - bd2.mStartTime;
-                    if (timeDiff == 0)
-                        timeDiff = bd1.mEndTime - bd2.mEndTime;
-                    return (int) timeDiff;
-                }
-                return diff;
-            }
-        });
-
         if (false) {
-            for (Segment segment : mSegments) {
+            for (Segment segment : mData.mSegments) {
                 System.out.printf("seg '%s' [%6d, %6d] %s\n",
                         segment.mRowData.mName, segment.mStartTime,
-                        segment.mEndTime, segment.mBlock.getName());
+                        segment.mEndTime, segment.getMethodData().getProfileName());
                 if (segment.mStartTime > segment.mEndTime) {
                     System.err.printf("Error: segment startTime > endTime\n");
                     System.exit(1);
@@ -545,28 +408,15 @@ public class TimeLineView extends Composite implements Observer {
         }
     }
 
-    private static void popFrames(RowData rd, Block top, long startTime,
-            ArrayList<Segment> segmentList) {
-        long topEndTime = top.getEndTime();
-        long lastEndTime = top.getStartTime();
-        while (topEndTime <= startTime) {
-            if (topEndTime > lastEndTime) {
-                Segment segment = new Segment(rd, top, lastEndTime, topEndTime);
-                segmentList.add(segment);
-                lastEndTime = topEndTime;
-            }
-            rd.pop();
-            top = rd.top();
-            if (top == null)
-                return;
-            topEndTime = top.getEndTime();
-        }
-
-        // If we get here, then topEndTime > startTime
-        if (lastEndTime < startTime) {
-            Segment bd = new Segment(rd, top, lastEndTime, startTime);
-            segmentList.add(bd);
-        }
+    /**
+     * Replaces the calls shown in the timeline without changing the visible
+     * range.  This is used with streaming readers, which only keep the calls
+     * for part of the trace.
+     */
+    private void setVisibleData(CallTable calls) {
+        // The strip thread reads the segments that are about to be replaced.
+        mSurface.stopStripComputation();
+        mData.setVisibleData(calls);
     }
 
     private class RowLabels extends Canvas {
@@ -574,6 +424,8 @@ public class TimeLineView extends Composite implements Observer {
         /** The space between the row label and the sash line */
         private static final int labelMarginX = 2;
 
+        private BufferImage mBufferImage = new BufferImage(this);
+
         public RowLabels(Composite parent) {
             super(parent, SWT.NO_BACKGROUND);
             addPaintListener(new PaintListener() {
@@ -594,26 +446,30 @@ public class TimeLineView extends Composite implements Observer {
         }
 
         private void draw(Display display, GC gc) {
-            if (mSegments.length == 0) {
+            if (mData.mSegments.length == 0) {
                 // gc.setBackground(colorBackground);
                 // gc.fillRectangle(getBounds());
                 return;
             }
             Point dim = getSize();
 
-            // Create an image for double-buffering
-            Image image = new Image(display, getBounds());
+            // Reuse the image for double-buffering
+            Image image = mBufferImage.get();
 
             // Set up the off-screen gc
             GC gcImage = new GC(image);
             if (mSetFonts)
                 gcImage.setFont(mFontRegistry.get("medium"));  //$NON-NLS-1$
 
-            if (mNumRows > 2) {
+            // Draw the background
+            gcImage.setBackground(mColorBackground);
+            gcImage.fillRectangle(image.getBounds());
+
+            if (mData.mNumRows > 2) {
                 // Draw the row background stripes
                 gcImage.setBackground(mColorRowBack);
-                for (int ii = 1; ii < mNumRows; ii += 2) {
-                    RowData rd = mRows[ii];
+                for (int ii = 1; ii < mData.mNumRows; ii += 2) {
+                    RowData rd = mData.mRows[ii];
                     int y1 = rd.mRank * rowYSpace - mScrollOffsetY;
                     gcImage.fillRectangle(0, y1, dim.x, rowYSpace);
                 }
@@ -622,7 +478,7 @@ public class TimeLineView extends Composite implements Observer {
             // Draw the row labels
             int offsetY = rowYMarginHalf - mScrollOffsetY;
             for (int ii = mStartRow; ii <= mEndRow; ++ii) {
-                RowData rd = mRows[ii];
+                RowData rd = mData.mRows[ii];
                 int y1 = rd.mRank * rowYSpace + offsetY;
                 Point extent = gcImage.stringExtent(rd.mName);
                 int x1 = dim.x - extent.x - labelMarginX;
@@ -640,7 +496,6 @@ public class TimeLineView extends Composite implements Observer {
             gc.drawImage(image, 0, 0);
 
             // Clean up
-            image.dispose();
             gcImage.dispose();
         }
     }
@@ -658,12 +513,8 @@ public class TimeLineView extends Composite implements Observer {
         }
 
         private void draw(Display display, GC gc) {
-            // Create a blank image and draw it to the canvas
-            Image image = new Image(display, getBounds());
-            gc.drawImage(image, 0, 0);
-
-            // Clean up
-            image.dispose();
+            gc.setBackground(mColorBackground);
+            gc.fillRectangle(getClientArea());
         }
     }
 
@@ -677,6 +528,7 @@ public class TimeLineView extends Composite implements Observer {
         private int mDetailsStartY;
         private int mMarkStartX;
         private int mMarkEndX;
+        private BufferImage mBufferImage = new BufferImage(this);
 
         /** The space between the colored block and the method name */
         private static final int METHOD_BLOCK_MARGIN = 10;
@@ -743,14 +595,18 @@ public class TimeLineView extends Composite implements Observer {
         private void draw(Display display, GC gc) {
             Point dim = getSize();
 
-            // Create an image for double-buffering
-            Image image = new Image(display, getBounds());
+            // Reuse the image for double-buffering
+            Image image = mBufferImage.get();
 
             // Set up the off-screen gc
             GC gcImage = new GC(image);
             if (mSetFonts)
                 gcImage.setFont(mFontRegistry.get("medium"));  //$NON-NLS-1$
 
+            // Draw the background
+            gcImage.setBackground(mColorBackground);
+            gcImage.fillRectangle(image.getBounds());
+
             if (mSurface.drawingSelection()) {
                 drawSelection(display, gcImage);
             }
@@ -774,7 +630,6 @@ public class TimeLineView extends Composite implements Observer {
             gc.drawImage(image, 0, 0);
 
             // Clean up
-            image.dispose();
             gcImage.dispose();
         }
 
@@ -940,6 +795,15 @@ public class TimeLineView extends Composite implements Observer {
                     animateHighlight();
                 }
             };
+
+            addDisposeListener(new DisposeListener() {
+                @Override
+                public void widgetDisposed(DisposeEvent e) {
+                    if (mStripComputation != null)
+                        mStripComputation.mCancelled = true;
+                    mStripExecutor.shutdown();
+                }
+            });
         }
 
         private void initZoomFractionsWithExp() {
@@ -979,6 +843,39 @@ public class TimeLineView extends Composite implements Observer {
             mLimitMaxVal = maxVal;
         }
 
+        /**
+         * Records that the calls for the whole trace, down to the given
+         * duration, are loaded.
+         */
+        public void setLoadedRange(long minDuration) {
+            mLoadedMinVal = mLimitMinVal;
+            mLoadedMaxVal = mLimitMaxVal;
+            mLoadedMinDuration = minDuration;
+        }
+
+        /**
+         * Streaming readers only keep the calls that we may draw.  If the
+         * visible range is not loaded, or was loaded at a lower resolution,
+         * then ask the reader for the calls in and around the visible range.
+         */
+        private void loadVisibleCalls(int numPixels) {
+            double minVal = mScaleInfo.getMinVal();
+            double maxVal = mScaleInfo.getMaxVal();
+            long minDuration = (long) ((maxVal - minVal) / Math.max(numPixels, 1));
+            if (minVal >= mLoadedMinVal && maxVal <= mLoadedMaxVal
+                    && mLoadedMinDuration <= Math.max(2 * minDuration, 1))
+                return;
+
+            // Load an extra screen on each side so that scrolling a little
+            // doesn't require replaying the trace again.
+            double visibleRange = maxVal - minVal;
+            mLoadedMinVal = Math.max(mLimitMinVal, minVal - visibleRange);
+            mLoadedMaxVal = Math.min(mLimitMaxVal, maxVal + visibleRange);
+            mLoadedMinDuration = minDuration;
+            setVisibleData(mReader.getTimeLineCalls((long) mLoadedMinVal,
+                    (long) Math.ceil(mLoadedMaxVal), minDuration));
+        }
+
         public void resetScale() {
             mScaleInfo.setMinVal(mLimitMinVal);
             mScaleInfo.setMaxVal(mLimitMaxVal);
@@ -1020,14 +917,14 @@ public class TimeLineView extends Composite implements Observer {
         }
 
         private void draw(Display display, GC gc) {
-            if (mSegments.length == 0) {
+            if (mData.mSegments.length == 0) {
                 // gc.setBackground(colorBackground);
                 // gc.fillRectangle(getBounds());
                 return;
             }
 
-            // Create an image for double-buffering
-            Image image = new Image(display, getBounds());
+            // Reuse the image for double-buffering
+            Image image = mBufferImage.get();
 
             // Set up the off-screen gc
             GC gcImage = new GC(image);
@@ -1035,8 +932,8 @@ public class TimeLineView extends Composite implements Observer {
                 gcImage.setFont(mFontRegistry.get("small"));  //$NON-NLS-1$
 
             // Draw the background
-            // gcImage.setBackground(colorBackground);
-            // gcImage.fillRectangle(image.getBounds());
+            gcImage.setBackground(mColorBackground);
+            gcImage.fillRectangle(image.getBounds());
 
             if (mGraphicsState == GraphicsState.Scaling) {
                 double diff = mMouse.x - mMouseMarkStartX;
@@ -1078,18 +975,26 @@ public class TimeLineView extends Composite implements Observer {
                 if (mLimitMaxVal < mScaleInfo.getMaxVal())
                     mLimitMaxVal = mScaleInfo.getMaxVal();
 
-                // Compute the strips
-                computeStrips();
+                // Load the calls for the visible range when streaming, but
+                // not while the range is still changing.
+                if (mReader.isStreaming()
+                        && (mGraphicsState == GraphicsState.Normal
+                        || mGraphicsState == GraphicsState.Scrolling)) {
+                    loadVisibleCalls(xdim);
+                }
+
+                // Compute the strips in the background
+                startStripComputation();
 
                 // Update the horizontal scrollbar.
                 updateHorizontalScrollBar();
             }
 
-            if (mNumRows > 2) {
+            if (mData.mNumRows > 2) {
                 // Draw the row background stripes
                 gcImage.setBackground(mColorRowBack);
-                for (int ii = 1; ii < mNumRows; ii += 2) {
-                    RowData rd = mRows[ii];
+                for (int ii = 1; ii < mData.mNumRows; ii += 2) {
+                    RowData rd = mData.mRows[ii];
                     int y1 = rd.mRank * rowYSpace - mScrollOffsetY;
                     gcImage.fillRectangle(0, y1, dim.x, rowYSpace);
                 }
@@ -1123,38 +1028,43 @@ public class TimeLineView extends Composite implements Observer {
                 gcImage.setBackground(strip.mColor);
                 gcImage.fillRectangle(strip.mX, strip.mY - mScrollOffsetY, strip.mWidth,
                         strip.mHeight);
-                if (mMouseRow == strip.mRowData.mRank) {
-                    if (mMouse.x >= strip.mX
-                            && mMouse.x < strip.mX + strip.mWidth) {
-                        Block block = strip.mSegment.mBlock;
-                        blockName = block.getName();
-                        blockColor = strip.mColor;
-                        if (mHaveCpuTime) {
-                            if (mHaveRealTime) {
-                                blockDetails = String.format(
-                                        "excl cpu %s, incl cpu %s, "
-                                        + "excl real %s, incl real %s",
-                                        mUnits.labelledString(block.getExclusiveCpuTime()),
-                                        mUnits.labelledString(block.getInclusiveCpuTime()),
-                                        mUnits.labelledString(block.getExclusiveRealTime()),
-                                        mUnits.labelledString(block.getInclusiveRealTime()));
-                            } else {
-                                blockDetails = String.format(
-                                        "excl cpu %s, incl cpu %s",
-                                        mUnits.labelledString(block.getExclusiveCpuTime()),
-                                        mUnits.labelledString(block.getInclusiveCpuTime()));
-                            }
-                        } else {
+            }
+
+            // Look up the blocks under the mouse and under the last click in
+            // the segments of the row, rather than in the strips.
+            if (mMouseRow >= 0 && mMouseRow < mData.mNumRows) {
+                RowData rd = mData.mRows[mMouseRow];
+                Segment segment = findSegment(rd, mMouse.x - LeftMargin);
+                if (segment != null) {
+                    Block block = segment.getCall();
+                    blockName = block.getName();
+                    blockColor = block.getColor();
+                    if (mHaveCpuTime) {
+                        if (mHaveRealTime) {
                             blockDetails = String.format(
-                                    "excl real %s, incl real %s",
+                                    "excl cpu %s, incl cpu %s, "
+                                    + "excl real %s, incl real %s",
+                                    mUnits.labelledString(block.getExclusiveCpuTime()),
+                                    mUnits.labelledString(block.getInclusiveCpuTime()),
                                     mUnits.labelledString(block.getExclusiveRealTime()),
                                     mUnits.labelledString(block.getInclusiveRealTime()));
+                        } else {
+                            blockDetails = String.format(
+                                    "excl cpu %s, incl cpu %s",
+                                    mUnits.labelledString(block.getExclusiveCpuTime()),
+                                    mUnits.labelledString(block.getInclusiveCpuTime()));
                         }
+                    } else {
+                        blockDetails = String.format(
+                                "excl real %s, incl real %s",
+                                mUnits.labelledString(block.getExclusiveRealTime()),
+                                mUnits.labelledString(block.getInclusiveRealTime()));
                     }
-                    if (mMouseSelect.x >= strip.mX
-                            && mMouseSelect.x < strip.mX + strip.mWidth) {
-                        selectBlock = strip.mSegment.mBlock;
-                    }
+                }
+                if (mMouseSelect.x != 0) {
+                    segment = findSegment(rd, mMouseSelect.x - LeftMargin);
+                    if (segment != null)
+                        selectBlock = segment.getCall();
                 }
             }
             mMouseSelect.x = 0;
@@ -1163,7 +1073,7 @@ public class TimeLineView extends Composite implements Observer {
             if (selectBlock != null) {
                 ArrayList<Selection> selections = new ArrayList<Selection>();
                 // Get the row label
-                RowData rd = mRows[mMouseRow];
+                RowData rd = mData.mRows[mMouseRow];
                 selections.add(Selection.highlight("Thread", rd.mName));  //$NON-NLS-1$
                 selections.add(Selection.highlight("Call", selectBlock));  //$NON-NLS-1$
 
@@ -1182,7 +1092,7 @@ public class TimeLineView extends Composite implements Observer {
             // highlighing of a call or method because the inclusive
             // highlight bar passes through the highlight box and
             // causes an annoying flashing artifact.
-            if (mMouseRow >= 0 && mMouseRow < mNumRows && mHighlightStep == 0) {
+            if (mMouseRow >= 0 && mMouseRow < mData.mNumRows && mHighlightStep == 0) {
                 gcImage.setForeground(mColorGray);
                 int y1 = mMouseRow * rowYSpace - mScrollOffsetY;
                 gcImage.drawLine(0, y1, dim.x, y1);
@@ -1194,7 +1104,7 @@ public class TimeLineView extends Composite implements Observer {
 
             // Draw a vertical line where the mouse is.
             gcImage.setForeground(mColorDarkGray);
-            int lineEnd = Math.min(dim.y, mNumRows * rowYSpace);
+            int lineEnd = Math.min(dim.y, mData.mNumRows * rowYSpace);
             gcImage.drawLine(mMouse.x, 0, mMouse.x, lineEnd);
 
             if (blockName != null) {
@@ -1225,7 +1135,6 @@ public class TimeLineView extends Composite implements Observer {
             gc.drawImage(image, 0, 0);
 
             // Clean up
-            image.dispose();
             gcImage.dispose();
         }
 
@@ -1334,288 +1243,93 @@ public class TimeLineView extends Composite implements Observer {
             gc.fillRectangle(x, 0, width, dim.y);
         }
 
-        private void computeStrips() {
-            double minVal = mScaleInfo.getMinVal();
-            double maxVal = mScaleInfo.getMaxVal();
-
-            // Allocate space for the pixel data
-            Pixel[] pixels = new Pixel[mNumRows];
-            for (int ii = 0; ii < mNumRows; ++ii)
-                pixels[ii] = new Pixel();
-
-            // Clear the per-block pixel data
-            for (int ii = 0; ii < mSegments.length; ++ii) {
-                mSegments[ii].mBlock.clearWeight();
-            }
-
-            mStripList.clear();
-            mHighlightExclusive.clear();
-            mHighlightInclusive.clear();
-            MethodData callMethod = null;
-            long callStart = 0;
-            long callEnd = -1;
-            RowData callRowData = null;
-            int prevMethodStart = -1;
-            int prevMethodEnd = -1;
-            int prevCallStart = -1;
-            int prevCallEnd = -1;
-            if (mHighlightCall != null) {
-                int callPixelStart = -1;
-                int callPixelEnd = -1;
-                callStart = mHighlightCall.getStartTime();
-                callEnd = mHighlightCall.getEndTime();
-                callMethod = mHighlightCall.getMethodData();
-                if (callStart >= minVal)
-                    callPixelStart = mScaleInfo.valueToPixel(callStart);
-                if (callEnd <= maxVal)
-                    callPixelEnd = mScaleInfo.valueToPixel(callEnd);
-                // System.out.printf("callStart,End %d,%d minVal,maxVal %f,%f
-                // callPixelStart,End %d,%d\n",
-                // callStart, callEnd, minVal, maxVal, callPixelStart,
-                // callPixelEnd);
-                int threadId = mHighlightCall.getThreadId();
-                String threadName = mThreadLabels.get(threadId);
-                callRowData = mRowByName.get(threadName);
-                int y1 = callRowData.mRank * rowYSpace + rowYMarginHalf;
-                Color color = callMethod.getColor();
-                mHighlightInclusive.add(new Range(callPixelStart + LeftMargin,
-                        callPixelEnd + LeftMargin, y1, color));
-            }
-            for (Segment segment : mSegments) {
-                if (segment.mEndTime <= minVal)
-                    continue;
-                if (segment.mStartTime >= maxVal)
-                    continue;
-
-                Block block = segment.mBlock;
-
-                // Skip over blocks that were not assigned a color, including the
-                // top level block and others that have zero inclusive time.
-                Color color = block.getColor();
-                if (color == null)
-                    continue;
-
-                double recordStart = Math.max(segment.mStartTime, minVal);
-                double recordEnd = Math.min(segment.mEndTime, maxVal);
-                if (recordStart == recordEnd)
-                    continue;
-                int pixelStart = mScaleInfo.valueToPixel(recordStart);
-                int pixelEnd = mScaleInfo.valueToPixel(recordEnd);
-                int width = pixelEnd - pixelStart;
-                boolean isContextSwitch = segment.mIsContextSwitch;
-
-                RowData rd = segment.mRowData;
-                MethodData md = block.getMethodData();
-
-                // We will add the scroll offset later when we draw the strips
-                int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
-
-                // If we can't display any more rows, then quit
-                if (rd.mRank > mEndRow)
-                    break;
-
-                // System.out.printf("segment %s val: [%.1f, %.1f] frac [%f, %f]
-                // pixel: [%d, %d] pix.start %d weight %.2f %s\n",
-                // block.getName(), recordStart, recordEnd,
-                // scaleInfo.valueToPixelFraction(recordStart),
-                // scaleInfo.valueToPixelFraction(recordEnd),
-                // pixelStart, pixelEnd, pixels[rd.rank].start,
-                // pixels[rd.rank].maxWeight,
-                // pixels[rd.rank].segment != null
-                // ? pixels[rd.rank].segment.block.getName()
-                // : "null");
-
-                if (mHighlightMethodData != null) {
-                    if (mHighlightMethodData == md) {
-                        if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
-                            prevMethodStart = pixelStart;
-                            prevMethodEnd = pixelEnd;
-                            int rangeWidth = width;
-                            if (rangeWidth == 0)
-                                rangeWidth = 1;
-                            mHighlightExclusive.add(new Range(pixelStart
-                                    + LeftMargin, rangeWidth, y1, color));
-                            callStart = block.getStartTime();
-                            int callPixelStart = -1;
-                            if (callStart >= minVal)
-                                callPixelStart = mScaleInfo.valueToPixel(callStart);
-                            int callPixelEnd = -1;
-                            callEnd = block.getEndTime();
-                            if (callEnd <= maxVal)
-                                callPixelEnd = mScaleInfo.valueToPixel(callEnd);
-                            if (prevCallStart != callPixelStart || prevCallEnd != callPixelEnd) {
-                                prevCallStart = callPixelStart;
-                                prevCallEnd = callPixelEnd;
-                                mHighlightInclusive.add(new Range(
-                                        callPixelStart + LeftMargin,
-                                        callPixelEnd + LeftMargin, y1, color));
-                            }
-                        }
-                    } else if (mFadeColors) {
-                        color = md.getFadedColor();
-                    }
-                } else if (mHighlightCall != null) {
-                    if (segment.mStartTime >= callStart
-                            && segment.mEndTime <= callEnd && callMethod == md
-                            && callRowData == rd) {
-                        if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
-                            prevMethodStart = pixelStart;
-                            prevMethodEnd = pixelEnd;
-                            int rangeWidth = width;
-                            if (rangeWidth == 0)
-                                rangeWidth = 1;
-                            mHighlightExclusive.add(new Range(pixelStart
-                                    + LeftMargin, rangeWidth, y1, color));
-                        }
-                    } else if (mFadeColors) {
-                        color = md.getFadedColor();
-                    }
-                }
-
-                // Cases:
-                // 1. This segment starts on a different pixel than the
-                // previous segment started on. In this case, emit
-                // the pixel strip, if any, and:
-                // A. If the width is 0, then add this segment's
-                // weight to the Pixel.
-                // B. If the width > 0, then emit a strip for this
-                // segment (no partial Pixel data).
-                //
-                // 2. Otherwise (the new segment starts on the same
-                // pixel as the previous segment): add its "weight"
-                // to the current pixel, and:
-                // A. If the new segment has width 1,
-                // then emit the pixel strip and then
-                // add the segment's weight to the pixel.
-                // B. If the new segment has width > 1,
-                // then emit the pixel strip, and emit the rest
-                // of the strip for this segment (no partial Pixel
-                // data).
-
-                Pixel pix = pixels[rd.mRank];
-                if (pix.mStart != pixelStart) {
-                    if (pix.mSegment != null) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
-                    }
-
-                    if (width == 0) {
-                        // Compute the "weight" of this segment for the first
-                        // pixel. For a pixel N, the "weight" of a segment is
-                        // how much of the region [N - 0.5, N + 0.5] is covered
-                        // by the segment.
-                        double weight = computeWeight(recordStart, recordEnd,
-                                isContextSwitch, pixelStart);
-                        weight = block.addWeight(pixelStart, rd.mRank, weight);
-                        if (weight > pix.mMaxWeight) {
-                            pix.setFields(pixelStart, weight, segment, color,
-                                    rd);
+        /**
+         * Starts computing the strips for the current range and rows on the
+         * strip thread, cancelling the previous computation if it is still
+         * running.  The view keeps drawing the previous strips until the
+         * new ones are ready.
+         */
+        private void startStripComputation() {
+            if (mStripComputation != null)
+                mStripComputation.mCancelled = true;
+            final StripComputation computation = new StripComputation(mData, mScaleInfo,
+                    mEndRow, mHighlightMethodData, mHighlightCall, mFadeColors,
+                    mColorBlack, mColorGray);
+            final Display display = getDisplay();
+            mStripComputation = computation;
+            mStripExecutor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    computation.computeStrips();
+                    if (computation.mCancelled || display.isDisposed())
+                        return;
+                    display.asyncExec(new Runnable() {
+                        @Override
+                        public void run() {
+                            finishStrips(computation);
                         }
-                    } else {
-                        int x1 = pixelStart + LeftMargin;
-                        Strip strip = new Strip(
-                                x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
-                                width, isContextSwitch ? 1 : rowHeight,
-                                rd, segment, color);
-                        mStripList.add(strip);
-                    }
-                } else {
-                    double weight = computeWeight(recordStart, recordEnd,
-                            isContextSwitch, pixelStart);
-                    weight = block.addWeight(pixelStart, rd.mRank, weight);
-                    if (weight > pix.mMaxWeight) {
-                        pix.setFields(pixelStart, weight, segment, color, rd);
-                    }
-                    if (width == 1) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
-
-                        // Compute the weight for the next pixel
-                        pixelStart += 1;
-                        weight = computeWeight(recordStart, recordEnd,
-                                isContextSwitch, pixelStart);
-                        weight = block.addWeight(pixelStart, rd.mRank, weight);
-                        pix.setFields(pixelStart, weight, segment, color, rd);
-                    } else if (width > 1) {
-                        // Emit the pixel strip. This also clears the pixel.
-                        emitPixelStrip(rd, y1, pix);
-
-                        // Emit a strip for the rest of the segment.
-                        pixelStart += 1;
-                        width -= 1;
-                        int x1 = pixelStart + LeftMargin;
-                        Strip strip = new Strip(
-                                x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
-                                width, isContextSwitch ? 1 : rowHeight,
-                                rd,segment, color);
-                        mStripList.add(strip);
-                    }
-                }
-            }
-
-            // Emit the last pixels of each row, if any
-            for (int ii = 0; ii < mNumRows; ++ii) {
-                Pixel pix = pixels[ii];
-                if (pix.mSegment != null) {
-                    RowData rd = pix.mRowData;
-                    int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
-                    // Emit the pixel strip. This also clears the pixel.
-                    emitPixelStrip(rd, y1, pix);
+                    });
                 }
-            }
+            });
+        }
 
-            if (false) {
-                System.out.printf("computeStrips()\n");
-                for (Strip strip : mStripList) {
-                    System.out.printf("%3d, %3d width %3d height %d %s\n",
-                            strip.mX, strip.mY, strip.mWidth, strip.mHeight,
-                            strip.mSegment.mBlock.getName());
-                }
-            }
+        private void finishStrips(StripComputation computation) {
+            if (computation != mStripComputation || isDisposed())
+                return;
+            mStripList = computation.mStrips;
+            mHighlightExclusive = computation.mExclusiveRanges;
+            mHighlightInclusive = computation.mInclusiveRanges;
+            redraw();
         }
 
-        private double computeWeight(double start, double end,
-                boolean isContextSwitch, int pixel) {
-            if (isContextSwitch) {
-                return 0;
+        /**
+         * Cancels any strip computation and waits for the strip thread to
+         * stop using the segments, so that they can be replaced.
+         */
+        private void stopStripComputation() {
+            if (mStripComputation == null)
+                return;
+            mStripComputation.mCancelled = true;
+            try {
+                mStripExecutor.submit(new Runnable() {
+                    @Override
+                    public void run() {
+                    }
+                }).get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (ExecutionException e) {
+                throw new RuntimeException(e);
             }
-            double pixelStartFraction = mScaleInfo.valueToPixelFraction(start);
-            double pixelEndFraction = mScaleInfo.valueToPixelFraction(end);
-            double leftEndPoint = Math.max(pixelStartFraction, pixel - 0.5);
-            double rightEndPoint = Math.min(pixelEndFraction, pixel + 0.5);
-            double weight = rightEndPoint - leftEndPoint;
-            return weight;
+            // Force a recomputation of the strips
+            mCachedEndRow = -1;
         }
 
-        private void emitPixelStrip(RowData rd, int y, Pixel pixel) {
-            Strip strip;
-
-            if (pixel.mSegment == null)
-                return;
+        /**
+         * Returns the segment of a row drawn at the given pixel: the one at
+         * the time in the middle of the pixel or, if there is none, the
+         * first one that starts within the pixel.
+         */
+        private Segment findSegment(RowData rd, int pixel) {
+            double minVal = mScaleInfo.getMinVal();
+            double maxVal = mScaleInfo.getMaxVal();
+            double pixelsPerRange = mScaleInfo.getPixelsPerRange();
+            if (pixelsPerRange <= 0)
+                return null;
+            double start = Math.max(minVal, minVal + (pixel - 0.5) / pixelsPerRange);
+            double end = Math.min(maxVal, minVal + (pixel + 0.5) / pixelsPerRange);
+            double middle = mScaleInfo.pixelToValue(pixel);
+            int index = mData.findFirstSegment(rd, middle);
+            if (index == rd.mSegmentEnd || mData.mSegments[index].mStartTime > middle)
+                index = mData.findFirstSegment(rd, start);
+            if (index == rd.mSegmentEnd || mData.mSegments[index].mStartTime >= end)
+                return null;
 
-            int x = pixel.mStart + LeftMargin;
-            // Compute the percentage of the row height proportional to
-            // the weight of this pixel. But don't let the proportion
-            // exceed 3/4 of the row height so that we can easily see
-            // if a given time range includes more than one method.
-            int height = (int) (pixel.mMaxWeight * rowHeight * 0.75);
-            if (height < mMinStripHeight)
-                height = mMinStripHeight;
-            int remainder = rowHeight - height;
-            if (remainder > 0) {
-                strip = new Strip(x, y, 1, remainder, rd, pixel.mSegment,
-                        mFadeColors ? mColorGray : mColorBlack);
-                mStripList.add(strip);
-                // System.out.printf("emitPixel (%d, %d) height %d black\n",
-                // x, y, remainder);
-            }
-            strip = new Strip(x, y + remainder, 1, height, rd, pixel.mSegment,
-                    pixel.mColor);
-            mStripList.add(strip);
-            // System.out.printf("emitPixel (%d, %d) height %d %s\n",
-            // x, y + remainder, height, pixel.segment.block.getName());
-            pixel.mSegment = null;
-            pixel.mMaxWeight = 0.0;
+            // Blocks without a color are not drawn.
+            Segment segment = mData.mSegments[index];
+            if (segment.getMethodData().getColor() == null)
+                return null;
+            return segment;
         }
 
         private void mouseMove(MouseEvent me) {
@@ -1705,6 +1419,27 @@ public class TimeLineView extends Composite implements Observer {
             int dist = mMouseMarkEndX - mMouseMarkStartX;
             if (dist < 0)
                 dist = -dist;
+
+            // With the shift key down, a drag limits the profile to the
+            // marked range of time instead of zooming, and a click shows
+            // the profile of the whole trace again.
+            if ((me.stateMask & SWT.SHIFT) != 0) {
+                mGraphicsState = GraphicsState.Normal;
+                long[] range = null;
+                if (dist > 2) {
+                    int startX = Math.min(mMouseMarkStartX, mMouseMarkEndX) - LeftMargin;
+                    int endX = Math.max(mMouseMarkStartX, mMouseMarkEndX) - LeftMargin;
+                    double startVal = Math.max(mScaleInfo.pixelToValue(startX), mMinDataVal);
+                    double endVal = Math.min(mScaleInfo.pixelToValue(endX), mMaxDataVal);
+                    range = new long[] { Math.round(startVal), Math.round(endVal) };
+                }
+                ArrayList<Selection> selections = new ArrayList<Selection>();
+                selections.add(Selection.highlight("Range", range));  //$NON-NLS-1$
+                mSelectionController.change(selections, "TimeLineView");  //$NON-NLS-1$
+                redraw();
+                return;
+            }
+
             if (dist <= 2) {
                 mGraphicsState = GraphicsState.Normal;
 
@@ -1975,9 +1710,19 @@ public class TimeLineView extends Composite implements Observer {
         private int mMouseMarkEndX;
         private boolean mDebug = false;
         private ArrayList<Strip> mStripList = new ArrayList<Strip>();
+        private StripComputation mStripComputation;
+        private ExecutorService mStripExecutor = Executors.newSingleThreadExecutor(
+                new ThreadFactory() {
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread thread = new Thread(r, "TimeLineView strips");  //$NON-NLS-1$
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                });
+        private BufferImage mBufferImage = new BufferImage(this);
         private ArrayList<Range> mHighlightExclusive = new ArrayList<Range>();
         private ArrayList<Range> mHighlightInclusive = new ArrayList<Range>();
-        private int mMinStripHeight = 2;
         private double mCachedMinVal;
         private double mCachedMaxVal;
         private int mCachedStartRow;
@@ -1987,6 +1732,9 @@ public class TimeLineView extends Composite implements Observer {
         private double mScaleMaxVal;
         private double mLimitMinVal;
         private double mLimitMaxVal;
+        private double mLoadedMinVal;
+        private double mLoadedMaxVal;
+        private long mLoadedMinDuration;
         private double mMinDataVal;
         private double mMaxDataVal;
         private Cursor mNormalCursor;
@@ -2027,7 +1775,7 @@ public class TimeLineView extends Composite implements Observer {
         // If we resize, then move the bottom row down.  Don't allow the scroll
         // to waste space at the bottom.
         int offsetY = mScrollOffsetY;
-        int spaceNeeded = mNumRows * rowYSpace;
+        int spaceNeeded = mData.mNumRows * rowYSpace;
         if (offsetY + ydim > spaceNeeded) {
             offsetY = spaceNeeded - ydim;
             if (offsetY < 0) {
@@ -2036,8 +1784,8 @@ public class TimeLineView extends Composite implements Observer {
         }
         mStartRow = offsetY / rowYSpace;
         mEndRow = (offsetY + ydim) / rowYSpace;
-        if (mEndRow >= mNumRows) {
-            mEndRow = mNumRows - 1;
+        if (mEndRow >= mData.mNumRows) {
+            mEndRow = mData.mNumRows - 1;
         }
 
         return offsetY;
@@ -2052,55 +1800,1043 @@ public class TimeLineView extends Composite implements Observer {
         getDisplay().timerExec(0, mSurface.mHighlightAnimator);
     }
 
+    /**
+     * The image a canvas draws into before copying it to the screen.  It is
+     * kept between paints and only reallocated when the canvas changes size.
+     */
+    private static class BufferImage implements DisposeListener {
+        private Canvas mCanvas;
+        private Image mImage;
+
+        BufferImage(Canvas canvas) {
+            mCanvas = canvas;
+            canvas.addDisposeListener(this);
+        }
+
+        Image get() {
+            Rectangle bounds = mCanvas.getBounds();
+            if (mImage != null) {
+                Rectangle size = mImage.getBounds();
+                if (size.width == bounds.width && size.height == bounds.height)
+                    return mImage;
+                mImage.dispose();
+            }
+            mImage = new Image(mCanvas.getDisplay(), bounds);
+            return mImage;
+        }
+
+        @Override
+        public void widgetDisposed(DisposeEvent e) {
+            if (mImage != null) {
+                mImage.dispose();
+                mImage = null;
+            }
+        }
+    }
+
+    /**
+     * The rows of the timeline and their segments, with the indexes used to
+     * find the segments of a row in a range of time.  It does not use the
+     * widgets, so the strips can be computed from it on another thread, or
+     * without a Display.
+     */
+    static class TimeLineData {
+        private final HashMap<Integer, String> mThreadLabels;
+        private final HashMap<String, RowData> mRowByName = new HashMap<String, RowData>();
+        private RowData[] mRows = new RowData[0];
+        private Segment[] mSegments = new Segment[0];
+        private long[] mMaxEndTimes = new long[0];
+        private int mNumRows;
+        private long mMinTime;
+        private long mMaxTime;
+
+        TimeLineData(HashMap<Integer, String> threadLabels) {
+            mThreadLabels = threadLabels;
+        }
+
+        void setData(ThreadData[] threads, CallTable calls) {
+            ArrayList<Segment> segmentList = computeSegments(calls);
+
+            // The minimum time is the earliest start time of any call, or of
+            // any thread, which may have started in a call entered before
+            // the trace.
+            long minTime = Long.MAX_VALUE;
+            if (threads != null) {
+                for (ThreadData threadData : threads) {
+                    if (!threadData.isEmpty() && threadData.getId() != 0) {
+                        minTime = Math.min(minTime, threadData.getRootCall().getStartTime());
+                    }
+                }
+            }
+            for (int row = 0; row < calls.size(); row++) {
+                minTime = Math.min(minTime, calls.getGlobalStartTime(row));
+            }
+            mMinTime = minTime != Long.MAX_VALUE ? minTime : 0;
+
+            // The maximum end time is the latest end time of any row.
+            mMaxTime = 0;
+            for (RowData rd : mRowByName.values()) {
+                if (rd.mEndTime > mMaxTime)
+                    mMaxTime = rd.mEndTime;
+            }
+
+            rankRows();
+            mSegments = sortSegments(segmentList);
+            indexRows();
+        }
+
+        /**
+         * Replaces the segments without changing the order of the rows,
+         * unless a thread showed up that had no calls long enough to be
+         * loaded before.
+         */
+        void setVisibleData(CallTable calls) {
+            int numRows = mRowByName.size();
+            for (RowData rd : mRowByName.values()) {
+                rd.mElapsed = 0;
+                rd.mEndTime = 0;
+            }
+            ArrayList<Segment> segmentList = computeSegments(calls);
+            if (mRowByName.size() != numRows)
+                rankRows();
+            mSegments = sortSegments(segmentList);
+            indexRows();
+        }
+
+        long getMinTime() {
+            return mMinTime;
+        }
+
+        long getMaxTime() {
+            return mMaxTime;
+        }
+
+        int getNumRows() {
+            return mNumRows;
+        }
+
+        RowData getRow(int threadId) {
+            return mRowByName.get(mThreadLabels.get(threadId));
+        }
+
+        private ArrayList<Segment> computeSegments(CallTable calls) {
+            ArrayList<Segment> segmentList = new ArrayList<Segment>();
+            for (int threadId : mThreadLabels.keySet()) {
+                // The rows of a thread are sorted into increasing start time,
+                // and decreasing end time.
+                int[] rows = calls.getThreadRows(threadId);
+                if (rows != null)
+                    computeSegments(calls, rows, segmentList);
+            }
+            return segmentList;
+        }
+
+        private void computeSegments(CallTable calls, int[] rows,
+                ArrayList<Segment> segmentList) {
+            RowData rd = null;
+
+            // Sum the time spent in the row, and keep track of its end time.
+            for (int row : rows) {
+                // Ignore context switches within the top-level call.
+                if (calls.getCaller(row) == CallTable.ROOT && isContextSwitch(calls, row))
+                    continue;
+
+                if (rd == null) {
+                    String rowName = calls.getThreadData(row).getName();
+                    rd = mRowByName.get(rowName);
+                    if (rd == null) {
+                        rd = new RowData(rowName);
+                        mRowByName.put(rowName, rd);
+                    }
+                }
+                long blockStartTime = calls.getGlobalStartTime(row);
+                long blockEndTime = calls.getGlobalEndTime(row);
+                if (blockEndTime > rd.mEndTime) {
+                    long start = Math.max(blockStartTime, rd.mEndTime);
+                    rd.mElapsed += blockEndTime - start;
+                    rd.mEndTime = blockEndTime;
+                }
+
+                // Keep track of nested calls by using a stack of rows.
+                // Create a Segment object for each visible part of a call.
+                int top = rd.top();
+                if (top < 0) {
+                    rd.push(row);
+                    continue;
+                }
+
+                long topStartTime = calls.getGlobalStartTime(top);
+                long topEndTime = calls.getGlobalEndTime(top);
+                if (topEndTime >= blockStartTime) {
+                    // Add this segment if it has a non-zero elapsed time.
+                    if (topStartTime < blockStartTime) {
+                        Segment segment = new Segment(rd, calls, top, topStartTime,
+                                blockStartTime);
+                        segmentList.add(segment);
+                    }
+
+                    // If this call starts where the previous (top) call ends,
+                    // then pop off the top call.
+                    if (topEndTime == blockStartTime)
+                        rd.pop();
+                    rd.push(row);
+                } else {
+                    // We may have to pop several frames here.
+                    popFrames(rd, calls, top, blockStartTime, segmentList);
+                    rd.push(row);
+                }
+            }
+
+            // Clean up the stack of the row
+            if (rd != null && rd.top() >= 0)
+                popFrames(rd, calls, rd.top(), Integer.MAX_VALUE, segmentList);
+        }
+
+        private static boolean isContextSwitch(CallTable calls, int row) {
+            return calls.getMethodData(row).getId() == -1;
+        }
+
+        private void rankRows() {
+            // Sort the rows into decreasing elapsed time
+            Collection<RowData> rv = mRowByName.values();
+            mRows = rv.toArray(new RowData[rv.size()]);
+            Arrays.sort(mRows, new Comparator<RowData>() {
+                @Override
+                public int compare(RowData rd1, RowData rd2) {
+                    return (int) (rd2.mElapsed - rd1.mElapsed);
+                }
+            });
+
+            // Assign ranks to the sorted rows
+            for (int ii = 0; ii < mRows.length; ++ii) {
+                mRows[ii].mRank = ii;
+            }
+
+            // Compute the number of rows with data
+            mNumRows = 0;
+            for (int ii = 0; ii < mRows.length; ++ii) {
+                if (mRows[ii].mElapsed == 0)
+                    break;
+                mNumRows += 1;
+            }
+        }
+
+        private static Segment[] sortSegments(ArrayList<Segment> segmentList) {
+            // Sort the blocks into increasing rows, and within rows into
+            // increasing start values.
+            Segment[] segments = segmentList.toArray(new Segment[segmentList.size()]);
+            Arrays.sort(segments, new Comparator<Segment>() {
+                @Override
+                public int compare(Segment bd1, Segment bd2) {
+                    RowData rd1 = bd1.mRowData;
+                    RowData rd2 = bd2.mRowData;
+                    int diff = rd1.mRank - rd2.mRank;
+                    if (diff == 0) {
+                        long timeDiff = bd1.mStartTime - bd2.mStartTime;
+                        if (timeDiff == 0)
+                            timeDiff = bd1.mEndTime - bd2.mEndTime;
+                        return (int) timeDiff;
+                    }
+                    return diff;
+                }
+            });
+            return segments;
+        }
+
+        /**
+         * Records where the segments of each row start and end in mSegments, and
+         * builds the indexes used to find the segments of a row in a time range
+         * and to draw rows with many segments.
+         */
+        private void indexRows() {
+            for (RowData rd : mRowByName.values()) {
+                rd.mSegmentStart = 0;
+                rd.mSegmentEnd = 0;
+                rd.mSummary = null;
+            }
+            mMaxEndTimes = new long[mSegments.length];
+            int start = 0;
+            for (int ii = 0; ii < mSegments.length; ++ii) {
+                Segment segment = mSegments[ii];
+                if (segment.mRowData != mSegments[start].mRowData)
+                    start = ii;
+                mMaxEndTimes[ii] = segment.mEndTime;
+                if (ii > start && mMaxEndTimes[ii - 1] > segment.mEndTime)
+                    mMaxEndTimes[ii] = mMaxEndTimes[ii - 1];
+                if (ii + 1 == mSegments.length
+                        || mSegments[ii + 1].mRowData != segment.mRowData) {
+                    RowData rd = segment.mRowData;
+                    rd.mSegmentStart = start;
+                    rd.mSegmentEnd = ii + 1;
+                    rd.mSummary = SegmentSummary.build(mSegments, start, ii + 1);
+                }
+            }
+        }
+
+        /**
+         * Returns the index in mSegments of the first segment of a row that may
+         * end after the given time, or the end of the row if there is none.
+         * The segments of a row are sorted by start time, and mMaxEndTimes holds
+         * the latest end time of each segment and those before it in the row,
+         * so all of the segments that overlap a time range are found by
+         * scanning from here until one starts after the range.
+         */
+        private int findFirstSegment(RowData rd, double time) {
+            int low = rd.mSegmentStart;
+            int high = rd.mSegmentEnd;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mMaxEndTimes[mid] <= time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        /**
+         * Returns the index in mSegments of the first segment of a row that
+         * starts at or after the given time, or the end of the row if there is
+         * none.
+         */
+        private int findSegmentAfter(RowData rd, double time) {
+            int low = rd.mSegmentStart;
+            int high = rd.mSegmentEnd;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mSegments[mid].mStartTime < time)
+                    low = mid + 1;
+                else
+                    high = mid;
+            }
+            return low;
+        }
+
+        private static void popFrames(RowData rd, CallTable calls, int top, long startTime,
+                ArrayList<Segment> segmentList) {
+            long topEndTime = calls.getGlobalEndTime(top);
+            long lastEndTime = calls.getGlobalStartTime(top);
+            while (topEndTime <= startTime) {
+                if (topEndTime > lastEndTime) {
+                    Segment segment = new Segment(rd, calls, top, lastEndTime, topEndTime);
+                    segmentList.add(segment);
+                    lastEndTime = topEndTime;
+                }
+                rd.pop();
+                top = rd.top();
+                if (top < 0)
+                    return;
+                topEndTime = calls.getGlobalEndTime(top);
+            }
+
+            // If we get here, then topEndTime > startTime
+            if (lastEndTime < startTime) {
+                Segment bd = new Segment(rd, calls, top, lastEndTime, startTime);
+                segmentList.add(bd);
+            }
+        }
+    }
+
+    /**
+     * Computes the strips for one visible range from a snapshot of the
+     * timeline.  It does not use the widgets, so it runs on the strip thread
+     * while the UI thread keeps drawing the previous strips, and it can run
+     * without a Display at all.  The computation is cancelled if a newer one
+     * is started before it finishes.
+     */
+    static class StripComputation {
+        private static final int MinStripHeight = 2;
+
+        private final TimeLineData mData;
+        private final TickScaler mScaler;
+        private final int mLastRow;
+        private final MethodData mHighlightedMethod;
+        private final Call mHighlightedCall;
+        private final boolean mFaded;
+        private final Color mColorBlack;
+        private final Color mColorGray;
+        private final ArrayList<Strip> mStrips = new ArrayList<Strip>();
+        private final ArrayList<Range> mExclusiveRanges = new ArrayList<Range>();
+        private final ArrayList<Range> mInclusiveRanges = new ArrayList<Range>();
+        private volatile boolean mCancelled;
+
+        StripComputation(TimeLineData data, TickScaler scaleInfo, int lastRow,
+                MethodData highlightedMethod, Call highlightedCall, boolean faded,
+                Color colorBlack, Color colorGray) {
+            mData = data;
+            mScaler = new TickScaler(scaleInfo.getMinVal(), scaleInfo.getMaxVal(),
+                    scaleInfo.getNumPixels(), PixelsPerTick);
+            mScaler.setPixelsPerRange(scaleInfo.getPixelsPerRange());
+            mLastRow = lastRow;
+            mHighlightedMethod = highlightedMethod;
+            mHighlightedCall = highlightedCall;
+            mFaded = faded;
+            mColorBlack = colorBlack;
+            mColorGray = colorGray;
+        }
+
+        int getNumStrips() {
+            return mStrips.size();
+        }
+
+        void computeStrips() {
+            double minVal = mScaler.getMinVal();
+            double maxVal = mScaler.getMaxVal();
+
+            // Allocate space for the pixel data
+            Pixel[] pixels = new Pixel[mData.mNumRows];
+            for (int ii = 0; ii < mData.mNumRows; ++ii)
+                pixels[ii] = new Pixel();
+
+            MethodData callMethod = null;
+            long callStart = 0;
+            long callEnd = -1;
+            RowData callRowData = null;
+            int prevMethodStart = -1;
+            int prevMethodEnd = -1;
+            int prevCallStart = -1;
+            int prevCallEnd = -1;
+            if (mHighlightedCall != null) {
+                int callPixelStart = -1;
+                int callPixelEnd = -1;
+                callStart = mHighlightedCall.getStartTime();
+                callEnd = mHighlightedCall.getEndTime();
+                callMethod = mHighlightedCall.getMethodData();
+                if (callStart >= minVal)
+                    callPixelStart = mScaler.valueToPixel(callStart);
+                if (callEnd <= maxVal)
+                    callPixelEnd = mScaler.valueToPixel(callEnd);
+                // System.out.printf("callStart,End %d,%d minVal,maxVal %f,%f
+                // callPixelStart,End %d,%d\n",
+                // callStart, callEnd, minVal, maxVal, callPixelStart,
+                // callPixelEnd);
+                int threadId = mHighlightedCall.getThreadId();
+                callRowData = mData.getRow(threadId);
+                int y1 = callRowData.mRank * rowYSpace + rowYMarginHalf;
+                Color color = callMethod.getColor();
+                mInclusiveRanges.add(new Range(callPixelStart + LeftMargin,
+                        callPixelEnd + LeftMargin, y1, color));
+            }
+
+            // Rows with a summary are drawn from it when each pixel spans
+            // several of its buckets, unless some of their calls are
+            // highlighted.
+            double pixelsPerRange = mScaler.getPixelsPerRange();
+            double rangePerPixel = pixelsPerRange > 0 ? 1.0 / pixelsPerRange : 0;
+            int endRow = Math.min(mLastRow, mData.mNumRows - 1);
+            for (int row = 0; row <= endRow; ++row) {
+                if (mCancelled)
+                    return;
+                RowData rowData = mData.mRows[row];
+                SegmentSummary summary = rowData.mSummary;
+                if (summary != null && mHighlightedMethod == null
+                        && rowData != callRowData) {
+                    int level = summary.getLevel(rangePerPixel);
+                    if (level >= 0) {
+                        computeSummaryStrips(rowData, level, pixels[row]);
+                        continue;
+                    }
+                }
+
+                // Only visit the segments that overlap the visible range.
+                int firstSegment = mData.findFirstSegment(rowData, minVal);
+                int endSegment = mData.findSegmentAfter(rowData, maxVal);
+
+                // Clear the per-block pixel data
+                for (int ii = firstSegment; ii < endSegment; ++ii) {
+                    mData.mSegments[ii].getMethodData().clearWeight();
+                }
+
+                for (int ii = firstSegment; ii < endSegment; ++ii) {
+                    Segment segment = mData.mSegments[ii];
+                    if (segment.mEndTime <= minVal)
+                        continue;
+                    if (segment.mStartTime >= maxVal)
+                        continue;
+
+                    MethodData md = segment.getMethodData();
+
+                    // Skip over blocks that were not assigned a color, including the
+                    // top level block and others that have zero inclusive time.
+                    Color color = md.getColor();
+                    if (color == null)
+                        continue;
+
+                    double recordStart = Math.max(segment.mStartTime, minVal);
+                    double recordEnd = Math.min(segment.mEndTime, maxVal);
+                    if (recordStart == recordEnd)
+                        continue;
+                    int pixelStart = mScaler.valueToPixel(recordStart);
+                    int pixelEnd = mScaler.valueToPixel(recordEnd);
+                    int width = pixelEnd - pixelStart;
+                    boolean isContextSwitch = segment.mIsContextSwitch;
+
+                    RowData rd = segment.mRowData;
+
+                    // We will add the scroll offset later when we draw the strips
+                    int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+
+                    // System.out.printf("segment %s val: [%.1f, %.1f] frac [%f, %f]
+                    // pixel: [%d, %d] pix.start %d weight %.2f %s\n",
+                    // block.getName(), recordStart, recordEnd,
+                    // scaleInfo.valueToPixelFraction(recordStart),
+                    // scaleInfo.valueToPixelFraction(recordEnd),
+                    // pixelStart, pixelEnd, pixels[rd.rank].start,
+                    // pixels[rd.rank].maxWeight,
+                    // pixels[rd.rank].segment != null
+                    // ? pixels[rd.rank].segment.block.getName()
+                    // : "null");
+
+                    if (mHighlightedMethod != null) {
+                        if (mHighlightedMethod == md) {
+                            if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
+                                prevMethodStart = pixelStart;
+                                prevMethodEnd = pixelEnd;
+                                int rangeWidth = width;
+                                if (rangeWidth == 0)
+                                    rangeWidth = 1;
+                                mExclusiveRanges.add(new Range(pixelStart
+                                        + LeftMargin, rangeWidth, y1, color));
+                                callStart = segment.getCallStartTime();
+                                int callPixelStart = -1;
+                                if (callStart >= minVal)
+                                    callPixelStart = mScaler.valueToPixel(callStart);
+                                int callPixelEnd = -1;
+                                callEnd = segment.getCallEndTime();
+                                if (callEnd <= maxVal)
+                                    callPixelEnd = mScaler.valueToPixel(callEnd);
+                                if (prevCallStart != callPixelStart
+                                        || prevCallEnd != callPixelEnd) {
+                                    prevCallStart = callPixelStart;
+                                    prevCallEnd = callPixelEnd;
+                                    mInclusiveRanges.add(new Range(
+                                            callPixelStart + LeftMargin,
+                                            callPixelEnd + LeftMargin, y1, color));
+                                }
+                            }
+                        } else if (mFaded) {
+                            color = md.getFadedColor();
+                        }
+                    } else if (mHighlightedCall != null) {
+                        if (segment.mStartTime >= callStart
+                                && segment.mEndTime <= callEnd && callMethod == md
+                                && callRowData == rd) {
+                            if (prevMethodStart != pixelStart || prevMethodEnd != pixelEnd) {
+                                prevMethodStart = pixelStart;
+                                prevMethodEnd = pixelEnd;
+                                int rangeWidth = width;
+                                if (rangeWidth == 0)
+                                    rangeWidth = 1;
+                                mExclusiveRanges.add(new Range(pixelStart
+                                        + LeftMargin, rangeWidth, y1, color));
+                            }
+                        } else if (mFaded) {
+                            color = md.getFadedColor();
+                        }
+                    }
+
+                    // Cases:
+                    // 1. This segment starts on a different pixel than the
+                    // previous segment started on. In this case, emit
+                    // the pixel strip, if any, and:
+                    // A. If the width is 0, then add this segment's
+                    // weight to the Pixel.
+                    // B. If the width > 0, then emit a strip for this
+                    // segment (no partial Pixel data).
+                    //
+                    // 2. Otherwise (the new segment starts on the same
+                    // pixel as the previous segment): add its "weight"
+                    // to the current pixel, and:
+                    // A. If the new segment has width 1,
+                    // then emit the pixel strip and then
+                    // add the segment's weight to the pixel.
+                    // B. If the new segment has width > 1,
+                    // then emit the pixel strip, and emit the rest
+                    // of the strip for this segment (no partial Pixel
+                    // data).
+
+                    Pixel pix = pixels[rd.mRank];
+                    if (pix.mStart != pixelStart) {
+                        if (pix.mSegment != null) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+                        }
+
+                        if (width == 0) {
+                            // Compute the "weight" of this segment for the first
+                            // pixel. For a pixel N, the "weight" of a segment is
+                            // how much of the region [N - 0.5, N + 0.5] is covered
+                            // by the segment.
+                            double weight = computeWeight(recordStart, recordEnd,
+                                    isContextSwitch, pixelStart);
+                            weight = md.addWeight(pixelStart, rd.mRank, weight);
+                            if (weight > pix.mMaxWeight) {
+                                pix.setFields(pixelStart, weight, segment, color,
+                                        rd);
+                            }
+                        } else {
+                            int x1 = pixelStart + LeftMargin;
+                            Strip strip = new Strip(
+                                    x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
+                                    width, isContextSwitch ? 1 : rowHeight,
+                                    rd, segment, color);
+                            mStrips.add(strip);
+                        }
+                    } else {
+                        double weight = computeWeight(recordStart, recordEnd,
+                                isContextSwitch, pixelStart);
+                        weight = md.addWeight(pixelStart, rd.mRank, weight);
+                        if (weight > pix.mMaxWeight) {
+                            pix.setFields(pixelStart, weight, segment, color, rd);
+                        }
+                        if (width == 1) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+
+                            // Compute the weight for the next pixel
+                            pixelStart += 1;
+                            weight = computeWeight(recordStart, recordEnd,
+                                    isContextSwitch, pixelStart);
+                            weight = md.addWeight(pixelStart, rd.mRank, weight);
+                            pix.setFields(pixelStart, weight, segment, color, rd);
+                        } else if (width > 1) {
+                            // Emit the pixel strip. This also clears the pixel.
+                            emitPixelStrip(rd, y1, pix);
+
+                            // Emit a strip for the rest of the segment.
+                            pixelStart += 1;
+                            width -= 1;
+                            int x1 = pixelStart + LeftMargin;
+                            Strip strip = new Strip(
+                                    x1, isContextSwitch ? y1 + rowHeight - 1 : y1,
+                                    width, isContextSwitch ? 1 : rowHeight,
+                                    rd,segment, color);
+                            mStrips.add(strip);
+                        }
+                    }
+                }
+            }
+
+            // Emit the last pixels of each row, if any
+            for (int ii = 0; ii < mData.mNumRows; ++ii) {
+                Pixel pix = pixels[ii];
+                if (pix.mSegment != null) {
+                    RowData rd = pix.mRowData;
+                    int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+                    // Emit the pixel strip. This also clears the pixel.
+                    emitPixelStrip(rd, y1, pix);
+                }
+            }
+
+            if (false) {
+                System.out.printf("computeStrips()\n");
+                for (Strip strip : mStrips) {
+                    System.out.printf("%3d, %3d width %3d height %d %s\n",
+                            strip.mX, strip.mY, strip.mWidth, strip.mHeight,
+                            strip.mSegment.getMethodData().getProfileName());
+                }
+            }
+        }
+
+        private double computeWeight(double start, double end,
+                boolean isContextSwitch, int pixel) {
+            if (isContextSwitch) {
+                return 0;
+            }
+            double pixelStartFraction = mScaler.valueToPixelFraction(start);
+            double pixelEndFraction = mScaler.valueToPixelFraction(end);
+            double leftEndPoint = Math.max(pixelStartFraction, pixel - 0.5);
+            double rightEndPoint = Math.min(pixelEndFraction, pixel + 0.5);
+            double weight = rightEndPoint - leftEndPoint;
+            return weight;
+        }
+
+        /**
+         * Computes the strips of a row from the given level of its summary.
+         * Each pixel is drawn in the color of the method that covers most
+         * of the buckets under it.
+         */
+        private void computeSummaryStrips(RowData rd, int level, Pixel pix) {
+            SegmentSummary summary = rd.mSummary;
+            double minVal = mScaler.getMinVal();
+            double maxVal = mScaler.getMaxVal();
+            double pixelsPerRange = mScaler.getPixelsPerRange();
+            double bucketPixels = summary.getBucketDuration(level) * pixelsPerRange;
+            int y1 = rd.mRank * rowYSpace + rowYMarginHalf;
+            int pixelStart = mScaler.valueToPixel(Math.max(minVal, summary.getStartTime()));
+            int pixelEnd = mScaler.valueToPixel(Math.min(maxVal, summary.getEndTime()));
+            Strip strip = null;
+            for (int pixel = pixelStart; pixel <= pixelEnd; ++pixel) {
+                double start = Math.max(minVal, minVal + (pixel - 0.5) / pixelsPerRange);
+                double end = Math.min(maxVal, minVal + (pixel + 0.5) / pixelsPerRange);
+                int firstBucket = summary.getBucket(level, start);
+                int lastBucket = summary.getBucket(level, end);
+
+                // There are only a few buckets per pixel, so add up the
+                // weight of each bucket's method by rescanning them.
+                Segment segment = null;
+                double weight = 0;
+                for (int bucket = firstBucket; bucket < lastBucket; ++bucket) {
+                    Segment bucketSegment = summary.getSegment(level, bucket);
+                    if (bucketSegment == null)
+                        continue;
+                    MethodData bucketMethod = bucketSegment.getMethodData();
+                    double methodWeight = 0;
+                    for (int other = firstBucket; other < lastBucket; ++other) {
+                        Segment otherSegment = summary.getSegment(level, other);
+                        if (otherSegment != null
+                                && otherSegment.getMethodData() == bucketMethod)
+                            methodWeight += summary.getWeight(level, other);
+                    }
+                    methodWeight *= bucketPixels;
+                    if (segment == null || methodWeight > weight) {
+                        segment = bucketSegment;
+                        weight = methodWeight;
+                    }
+                }
+                if (segment == null) {
+                    strip = null;
+                    continue;
+                }
+                MethodData md = segment.getMethodData();
+                Color color = md.getColor();
+                if (mHighlightedCall != null && mFaded)
+                    color = md.getFadedColor();
+
+                // Draw the pixels that one call covers completely as a
+                // single strip, like a wide segment.
+                if (weight >= 1.0 && !segment.mIsContextSwitch) {
+                    int x1 = pixel + LeftMargin;
+                    if (strip != null && strip.mSegment == segment
+                            && strip.mX + strip.mWidth == x1) {
+                        strip.mWidth += 1;
+                    } else {
+                        strip = new Strip(x1, y1, 1, rowHeight, rd, segment, color);
+                        mStrips.add(strip);
+                    }
+                } else {
+                    // Emit the pixel strip. This also clears the pixel.
+                    pix.setFields(pixel, weight, segment, color, rd);
+                    emitPixelStrip(rd, y1, pix);
+                    strip = null;
+                }
+            }
+        }
+
+        private void emitPixelStrip(RowData rd, int y, Pixel pixel) {
+            Strip strip;
+
+            if (pixel.mSegment == null)
+                return;
+
+            int x = pixel.mStart + LeftMargin;
+            // Compute the percentage of the row height proportional to
+            // the weight of this pixel. But don't let the proportion
+            // exceed 3/4 of the row height so that we can easily see
+            // if a given time range includes more than one method.
+            int height = (int) (pixel.mMaxWeight * rowHeight * 0.75);
+            if (height < MinStripHeight)
+                height = MinStripHeight;
+            int remainder = rowHeight - height;
+            if (remainder > 0) {
+                strip = new Strip(x, y, 1, remainder, rd, pixel.mSegment,
+                        mFaded ? mColorGray : mColorBlack);
+                mStrips.add(strip);
+                // System.out.printf("emitPixel (%d, %d) height %d black\n",
+                // x, y, remainder);
+            }
+            strip = new Strip(x, y + remainder, 1, height, rd, pixel.mSegment,
+                    pixel.mColor);
+            mStrips.add(strip);
+            // System.out.printf("emitPixel (%d, %d) height %d %s\n",
+            // x, y + remainder, height, pixel.segment.block.getName());
+            pixel.mSegment = null;
+            pixel.mMaxWeight = 0.0;
+        }
+    }
+
     private static class RowData {
-        RowData(Row row) {
-            mName = row.getName();
-            mStack = new ArrayList<Block>();
+        RowData(String name) {
+            mName = name;
         }
 
-        public void push(Block block) {
-            mStack.add(block);
+        public void push(int row) {
+            if (mStackSize == mStack.length)
+                mStack = Arrays.copyOf(mStack, mStackSize * 2);
+            mStack[mStackSize++] = row;
         }
 
-        public Block top() {
-            if (mStack.size() == 0)
-                return null;
-            return mStack.get(mStack.size() - 1);
+        /**
+         * Returns the row of the call at the top of the stack, or -1 if the
+         * stack is empty.
+         */
+        public int top() {
+            if (mStackSize == 0)
+                return -1;
+            return mStack[mStackSize - 1];
         }
 
         public void pop() {
-            if (mStack.size() == 0)
+            if (mStackSize == 0)
                 return;
-            mStack.remove(mStack.size() - 1);
+            mStackSize--;
         }
 
         private String mName;
         private int mRank;
         private long mElapsed;
         private long mEndTime;
-        private ArrayList<Block> mStack;
+        private int[] mStack = new int[16];
+        private int mStackSize;
+
+        // The segments of this row are mSegments[mSegmentStart, mSegmentEnd).
+        private int mSegmentStart;
+        private int mSegmentEnd;
+        private SegmentSummary mSummary;
     }
 
+    /**
+     * A visible part of a call, which reads the call from its row of the
+     * call table.  A context switch is shown as part of its caller.
+     */
     private static class Segment {
-        Segment(RowData rowData, Block block, long startTime, long endTime) {
+        Segment(RowData rowData, CallTable calls, int row, long startTime, long endTime) {
             mRowData = rowData;
-            if (block.isContextSwitch()) {
-                mBlock = block.getParentBlock();
+            mCalls = calls;
+            if (TimeLineData.isContextSwitch(calls, row)) {
+                mRow = calls.getCaller(row);
                 mIsContextSwitch = true;
             } else {
-                mBlock = block;
+                mRow = row;
             }
             mStartTime = startTime;
             mEndTime = endTime;
         }
 
+        MethodData getMethodData() {
+            return mCalls.getMethodData(mRow);
+        }
+
+        long getCallStartTime() {
+            return mCalls.getGlobalStartTime(mRow);
+        }
+
+        long getCallEndTime() {
+            return mCalls.getGlobalEndTime(mRow);
+        }
+
+        Call getCall() {
+            return mCalls.getCall(mRow);
+        }
+
         private RowData mRowData;
-        private Block mBlock;
+        private CallTable mCalls;
+        private int mRow;
         private long mStartTime;
         private long mEndTime;
         private boolean mIsContextSwitch;
     }
 
+    /**
+     * Summarizes the segments of one row at several resolutions, so that a
+     * zoomed out row can be drawn in time proportional to its width in
+     * pixels instead of to its number of segments.  Level 0 has the finest
+     * buckets, and each level above it merges pairs of buckets from the level
+     * below.  Each bucket keeps a segment of the method that covers most of
+     * it, and the fraction of the bucket covered by that method.  Merging
+     * keeps the method of the heavier bucket, so the upper levels are only
+     * an approximation, which is good enough when each pixel spans several
+     * buckets.
+     */
+    private static class SegmentSummary {
+        // Rows with fewer segments are quick enough to draw directly.
+        private static final int MIN_SEGMENTS = 4096;
+        private static final int SEGMENTS_PER_BUCKET = 4;
+        private static final int MAX_BUCKETS = 1 << 16;
+
+        private long mStartTime;
+        private long mEndTime;
+        private long mBucketDuration;
+        private Segment[][] mSegments;
+        private float[][] mWeights;
+
+        /**
+         * Returns the summary of segments[start, end), which must all be in
+         * the same row and be sorted by start time, or null if the row is
+         * small enough that it doesn't need one.
+         */
+        static SegmentSummary build(Segment[] segments, int start, int end) {
+            int numSegments = end - start;
+            if (numSegments < MIN_SEGMENTS)
+                return null;
+            long startTime = segments[start].mStartTime;
+            long endTime = startTime;
+            for (int ii = start; ii < end; ++ii) {
+                endTime = Math.max(endTime, segments[ii].mEndTime);
+            }
+            if (endTime == startTime)
+                return null;
+
+            SegmentSummary summary = new SegmentSummary();
+            int maxBuckets = Math.min(MAX_BUCKETS, numSegments / SEGMENTS_PER_BUCKET);
+            long duration = (endTime - startTime + maxBuckets - 1) / maxBuckets;
+            int numBuckets = (int) ((endTime - startTime + duration - 1) / duration);
+            summary.mStartTime = startTime;
+            summary.mEndTime = endTime;
+            summary.mBucketDuration = duration;
+
+            ArrayList<Segment[]> segmentLevels = new ArrayList<Segment[]>();
+            ArrayList<float[]> weightLevels = new ArrayList<float[]>();
+            Segment[] bucketSegments = new Segment[numBuckets];
+            float[] bucketWeights = new float[numBuckets];
+            summary.fillBuckets(segments, start, end, bucketSegments, bucketWeights);
+            segmentLevels.add(bucketSegments);
+            weightLevels.add(bucketWeights);
+            while (numBuckets > 1) {
+                Segment[] childSegments = bucketSegments;
+                float[] childWeights = bucketWeights;
+                int numChildren = numBuckets;
+                numBuckets = (numChildren + 1) / 2;
+                bucketSegments = new Segment[numBuckets];
+                bucketWeights = new float[numBuckets];
+                for (int ii = 0; ii < numBuckets; ++ii) {
+                    int left = 2 * ii;
+                    int right = left + 1;
+                    Segment segment = childSegments[left];
+                    float weight = childWeights[left];
+                    if (right < numChildren && childSegments[right] != null) {
+                        Segment rightSegment = childSegments[right];
+                        float rightWeight = childWeights[right];
+                        if (segment == null) {
+                            segment = rightSegment;
+                            weight = rightWeight;
+                        } else if (segment.getMethodData()
+                                == rightSegment.getMethodData()) {
+                            if (rightWeight > weight)
+                                segment = rightSegment;
+                            weight += rightWeight;
+                        } else if (rightWeight > weight) {
+                            segment = rightSegment;
+                            weight = rightWeight;
+                        }
+                    }
+                    bucketSegments[ii] = segment;
+                    bucketWeights[ii] = weight / 2;
+                }
+                segmentLevels.add(bucketSegments);
+                weightLevels.add(bucketWeights);
+            }
+            summary.mSegments = segmentLevels.toArray(new Segment[segmentLevels.size()][]);
+            summary.mWeights = weightLevels.toArray(new float[weightLevels.size()][]);
+            return summary;
+        }
+
+        private void fillBuckets(Segment[] segments, int start, int end,
+                Segment[] bucketSegments, float[] bucketWeights) {
+            HashMap<MethodData, Coverage> coverage = new HashMap<MethodData, Coverage>();
+            int bucket = -1;
+            for (int ii = start; ii < end; ++ii) {
+                Segment segment = segments[ii];
+
+                // Blocks without a color are never drawn.
+                MethodData md = segment.getMethodData();
+                if (md.getColor() == null)
+                    continue;
+                long time = segment.mStartTime;
+                int index = (int) ((time - mStartTime) / mBucketDuration);
+                while (time < segment.mEndTime) {
+                    if (index != bucket) {
+                        if (bucket >= 0)
+                            fillBucket(coverage, bucket, bucketSegments, bucketWeights);
+                        coverage.clear();
+                        bucket = index;
+                    }
+                    long bucketEnd = mStartTime + (index + 1) * mBucketDuration;
+                    long pieceEnd = Math.min(segment.mEndTime, bucketEnd);
+
+                    // Context switches are drawn but have no weight.
+                    long piece = segment.mIsContextSwitch ? 0 : pieceEnd - time;
+                    Coverage c = coverage.get(md);
+                    if (c == null) {
+                        c = new Coverage();
+                        coverage.put(md, c);
+                    }
+                    c.mTime += piece;
+                    if (c.mSegment == null || piece > c.mLongestPiece) {
+                        c.mSegment = segment;
+                        c.mLongestPiece = piece;
+                    }
+                    time = pieceEnd;
+                    index += 1;
+                }
+            }
+            if (bucket >= 0)
+                fillBucket(coverage, bucket, bucketSegments, bucketWeights);
+        }
+
+        private void fillBucket(HashMap<MethodData, Coverage> coverage, int bucket,
+                Segment[] bucketSegments, float[] bucketWeights) {
+            Coverage max = null;
+            for (Coverage c : coverage.values()) {
+                if (max == null || c.mTime > max.mTime)
+                    max = c;
+            }
+            if (max != null) {
+                bucketSegments[bucket] = max.mSegment;
+                bucketWeights[bucket] = (float) max.mTime / mBucketDuration;
+            }
+        }
+
+        long getStartTime() {
+            return mStartTime;
+        }
+
+        long getEndTime() {
+            return mEndTime;
+        }
+
+        long getBucketDuration(int level) {
+            return mBucketDuration << level;
+        }
+
+        /**
+         * Returns the coarsest level whose buckets are at most half as long
+         * as a pixel, or -1 if even the finest buckets are too long and the
+         * segments should be drawn directly.
+         */
+        int getLevel(double rangePerPixel) {
+            int level = -1;
+            while (level + 1 < mSegments.length
+                    && 2.0 * getBucketDuration(level + 1) <= rangePerPixel) {
+                level += 1;
+            }
+            return level;
+        }
+
+        /**
+         * Returns the first bucket of a level whose middle is at or after
+         * the given time.  Each bucket thus belongs to exactly one pixel.
+         */
+        int getBucket(int level, double time) {
+            double bucket = Math.ceil((time - mStartTime) / getBucketDuration(level) - 0.5);
+            return (int) Math.max(0, Math.min(bucket, mSegments[level].length));
+        }
+
+        Segment getSegment(int level, int bucket) {
+            return mSegments[level][bucket];
+        }
+
+        float getWeight(int level, int bucket) {
+            return mWeights[level][bucket];
+        }
+
+        private static class Coverage {
+            long mTime;
+            long mLongestPiece;
+            Segment mSegment;
+        }
+    }
+
     private static class Strip {
         Strip(int x, int y, int width, int height, RowData rowData,
                 Segment segment, Color color) {
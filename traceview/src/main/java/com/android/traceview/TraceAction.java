@@ -22,9 +22,9 @@ final class TraceAction {
     public static final int ACTION_INCOMPLETE = 2;
 
     public final int mAction;
-    public final Call mCall;
+    public final MutableCall mCall;
 
-    public TraceAction(int action, Call call) {
+    public TraceAction(int action, MutableCall call) {
         mAction = action;
         mCall = call;
     }
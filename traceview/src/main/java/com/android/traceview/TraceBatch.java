@@ -0,0 +1,423 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+/**
+ * Aggregates the method profiles of many traces, such as the traces of a
+ * nightly performance run, into one report of how the time of each method
+ * is distributed across the traces: its mean, median, 95th percentile and
+ * variance, for both inclusive and exclusive time in one clock.
+ *
+ * The traces are loaded concurrently on a fixed number of threads, and
+ * streamed, since only their profiles are needed.  A trace only starts
+ * loading once its estimated heap fits in the memory budget along with the
+ * traces already loading, and its reader is dropped as soon as its profile
+ * has been merged, so the budget bounds the memory of the readers whatever
+ * the number of traces.
+ *
+ * As in TraceDiff, methods are matched by name, and a method that does not
+ * appear in a trace counts as taking no time in it.
+ */
+class TraceBatch {
+    // The heap that loading a trace takes, per byte of the trace file.  This
+    // is measured for traces of ordinary calls, and is larger than what a
+    // streaming reader keeps once it is done.
+    private static final long HEAP_PER_TRACE_BYTE = 12;
+
+    private static final String[] TRACE_COLUMNS = {
+            "table", "index", "name", "time", "error" };
+    private static final String[] METHOD_COLUMNS = {
+            "table", "rank", "method", "traces", "incl_mean", "incl_p50", "incl_p95",
+            "incl_variance", "excl_mean", "excl_p50", "excl_p95", "excl_variance",
+            "calls_mean" };
+
+    private final String[] mTraceNames;
+    private final TraceReport.SortKey mSortKey;
+    private final TimeBase mTimeBase;
+    private int mThreads = Runtime.getRuntime().availableProcessors();
+    private long mMemoryBudget = Runtime.getRuntime().maxMemory() / 2;
+    private int mSamplingInterval;
+    private TraceReport.Format mFormat = TraceReport.Format.CSV;
+    private int mLimit = 20;
+    private String mMethodFilter;
+
+    // The total time of each trace, or the reason it could not be read.
+    private final long[] mTraceTimes;
+    private final String[] mErrors;
+    private final HashMap<String, MethodStats> mMethods = new HashMap<String, MethodStats>();
+
+    /**
+     * Creates a batch of the given traces, whose methods are ranked by the
+     * mean of the given time.  The clock of the sort key is the clock of
+     * every time in the report.
+     */
+    TraceBatch(String[] traceNames, TraceReport.SortKey sortKey) {
+        mTraceNames = traceNames;
+        mSortKey = sortKey;
+        mTimeBase = sortKey.isCpu() ? TimeBase.CPU_TIME : TimeBase.REAL_TIME;
+        mTraceTimes = new long[traceNames.length];
+        mErrors = new String[traceNames.length];
+    }
+
+    /**
+     * Sets the number of traces that are loaded at once.
+     */
+    void setThreads(int threads) {
+        mThreads = threads;
+    }
+
+    /**
+     * Sets the number of bytes of heap that the traces being loaded may use
+     * between them.  A trace that needs more than the whole budget is
+     * loaded on its own.
+     */
+    void setMemoryBudget(long memoryBudget) {
+        mMemoryBudget = memoryBudget;
+    }
+
+    /**
+     * Sets the sampling interval of the traces, in microseconds, or 0 if
+     * they were not sampled.
+     */
+    void setSamplingInterval(int samplingInterval) {
+        mSamplingInterval = samplingInterval;
+    }
+
+    void setFormat(TraceReport.Format format) {
+        mFormat = format;
+    }
+
+    /**
+     * Sets the number of methods to report, or 0 to report all of them.
+     */
+    void setLimit(int limit) {
+        mLimit = limit;
+    }
+
+    /**
+     * Only reports the methods whose name contains the given string, as in
+     * TraceReport.
+     */
+    void setMethodFilter(String methodFilter) {
+        mMethodFilter = methodFilter;
+    }
+
+    /**
+     * Loads every trace and merges its profile.  A trace that cannot be read
+     * is reported with its error, and left out of the statistics.
+     */
+    void run() throws InterruptedException {
+        // The budget is counted in kilobytes so that it fits in the permits
+        // of a semaphore.
+        final int budget = (int) Math.min(Math.max(mMemoryBudget / 1024, 1), Integer.MAX_VALUE);
+        final Semaphore memory = new Semaphore(budget, true);
+
+        ExecutorService executor = Executors.newFixedThreadPool(mThreads);
+        ArrayList<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int i = 0; i < mTraceNames.length; i++) {
+            final int index = i;
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    String traceName = mTraceNames[index];
+                    long estimate = new File(traceName).length() * HEAP_PER_TRACE_BYTE / 1024;
+                    int permits = (int) Math.min(Math.max(estimate, 1), budget);
+                    memory.acquire(permits);
+                    try {
+                        merge(index, new DmTraceReader(traceName, false, true, false,
+                                mSamplingInterval));
+                    } finally {
+                        memory.release(permits);
+                    }
+                    return null;
+                }
+            }));
+        }
+        executor.shutdown();
+
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                try {
+                    futures.get(i).get();
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof Error) {
+                        throw (Error) cause;
+                    }
+                    mErrors[i] = String.valueOf(cause.getMessage());
+                    System.err.printf("Failed to read %s: %s%n", mTraceNames[i], cause);
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private synchronized void merge(int index, DmTraceReader reader) {
+        if (mTimeBase == TimeBase.CPU_TIME && !reader.haveCpuTime()) {
+            throw new IllegalArgumentException("The trace has no cpu time");
+        }
+
+        long total = 0;
+        for (ThreadData threadData : reader.getThreads()) {
+            total += mTimeBase.getTime(threadData);
+        }
+        mTraceTimes[index] = total;
+
+        for (MethodData md : reader.getMethods()) {
+            long inclusive = mTimeBase.getElapsedInclusiveTime(md);
+            if (inclusive == 0) {
+                continue;
+            }
+            MethodStats stats = mMethods.get(md.getName());
+            if (stats == null) {
+                stats = new MethodStats(md.getName());
+                mMethods.put(md.getName(), stats);
+            }
+            stats.add(inclusive, mTimeBase.getElapsedExclusiveTime(md), md.getNumCalls());
+        }
+    }
+
+    /**
+     * Returns the number of traces that were read.
+     */
+    private int getTraceCount() {
+        int count = 0;
+        for (String error : mErrors) {
+            if (error == null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    void write(Writer out) throws IOException {
+        int traces = getTraceCount();
+        MethodStats[] methods = selectMethods(traces);
+        if (mFormat == TraceReport.Format.JSON) {
+            writeJson(out, methods, traces);
+        } else {
+            writeCsv(out, methods, traces);
+        }
+        out.flush();
+    }
+
+    private MethodStats[] selectMethods(final int traces) {
+        ArrayList<MethodStats> methods = new ArrayList<MethodStats>();
+        for (MethodStats stats : mMethods.values()) {
+            if (TraceReport.matches(stats.mName, mMethodFilter)) {
+                methods.add(stats);
+            }
+        }
+
+        final boolean inclusive = mSortKey == TraceReport.SortKey.INCLUSIVE_CPU
+                || mSortKey == TraceReport.SortKey.INCLUSIVE_REAL;
+        MethodStats[] sorted = methods.toArray(new MethodStats[methods.size()]);
+        Arrays.sort(sorted, new Comparator<MethodStats>() {
+            @Override
+            public int compare(MethodStats stats1, MethodStats stats2) {
+                double mean1 = stats1.getDistribution(inclusive, traces).mMean;
+                double mean2 = stats2.getDistribution(inclusive, traces).mMean;
+                if (mean1 > mean2)
+                    return -1;
+                if (mean1 < mean2)
+                    return 1;
+                return stats1.mName.compareTo(stats2.mName);
+            }
+        });
+        if (mLimit > 0 && sorted.length > mLimit) {
+            sorted = Arrays.copyOf(sorted, mLimit);
+        }
+        return sorted;
+    }
+
+    private void writeCsv(Writer out, MethodStats[] methods, int traces) throws IOException {
+        TraceReport.writeCsvRow(out, TRACE_COLUMNS);
+        for (int i = 0; i < mTraceNames.length; i++) {
+            TraceReport.writeCsvRow(out, "trace", Integer.toString(i), mTraceNames[i],
+                    mErrors[i] == null ? Long.toString(mTraceTimes[i]) : "",
+                    mErrors[i] == null ? "" : mErrors[i]);
+        }
+
+        out.write('\n');
+        TraceReport.writeCsvRow(out, METHOD_COLUMNS);
+        for (int rank = 0; rank < methods.length; rank++) {
+            MethodStats stats = methods[rank];
+            Distribution incl = stats.getDistribution(true, traces);
+            Distribution excl = stats.getDistribution(false, traces);
+            TraceReport.writeCsvRow(out, "method", Integer.toString(rank), stats.mName,
+                    Integer.toString(stats.mCount),
+                    Long.toString(Math.round(incl.mMean)), Long.toString(incl.mP50),
+                    Long.toString(incl.mP95), Long.toString(Math.round(incl.mVariance)),
+                    Long.toString(Math.round(excl.mMean)), Long.toString(excl.mP50),
+                    Long.toString(excl.mP95), Long.toString(Math.round(excl.mVariance)),
+                    Long.toString(Math.round(stats.getMeanCalls(traces))));
+        }
+    }
+
+    private void writeJson(Writer out, MethodStats[] methods, int traces) throws IOException {
+        out.write("{\"clock\":");
+        TraceReport.writeJsonString(out, mTimeBase == TimeBase.CPU_TIME ? "cpu" : "real");
+        out.write(",\"sort\":");
+        TraceReport.writeJsonString(out, mSortKey.mName);
+
+        out.write(",\n\"traces\":[");
+        for (int i = 0; i < mTraceNames.length; i++) {
+            out.write(i == 0 ? "\n" : ",\n");
+            out.write("{\"index\":");
+            out.write(Integer.toString(i));
+            out.write(",\"name\":");
+            TraceReport.writeJsonString(out, mTraceNames[i]);
+            if (mErrors[i] == null) {
+                TraceReport.writeJsonLong(out, "time", mTraceTimes[i]);
+            } else {
+                out.write(",\"error\":");
+                TraceReport.writeJsonString(out, mErrors[i]);
+            }
+            out.write('}');
+        }
+
+        out.write("],\n\"methods\":[");
+        for (int rank = 0; rank < methods.length; rank++) {
+            MethodStats stats = methods[rank];
+            out.write(rank == 0 ? "\n" : ",\n");
+            out.write("{\"rank\":");
+            out.write(Integer.toString(rank));
+            out.write(",\"method\":");
+            TraceReport.writeJsonString(out, stats.mName);
+            TraceReport.writeJsonLong(out, "traces", stats.mCount);
+            writeJsonDistribution(out, "incl", stats.getDistribution(true, traces));
+            writeJsonDistribution(out, "excl", stats.getDistribution(false, traces));
+            TraceReport.writeJsonLong(out, "calls_mean", Math.round(stats.getMeanCalls(traces)));
+            out.write('}');
+        }
+        out.write("]}\n");
+    }
+
+    private static void writeJsonDistribution(Writer out, String prefix,
+            Distribution distribution) throws IOException {
+        TraceReport.writeJsonLong(out, prefix + "_mean", Math.round(distribution.mMean));
+        TraceReport.writeJsonLong(out, prefix + "_p50", distribution.mP50);
+        TraceReport.writeJsonLong(out, prefix + "_p95", distribution.mP95);
+        TraceReport.writeJsonLong(out, prefix + "_variance", Math.round(distribution.mVariance));
+    }
+
+    /**
+     * The times of a method in the traces it appears in.  Its time in the
+     * other traces is zero, and is not stored.
+     */
+    private static class MethodStats {
+        final String mName;
+        private long[] mInclusive = new long[4];
+        private long[] mExclusive = new long[4];
+        private long mCalls;
+        int mCount;
+
+        private Distribution mInclusiveDistribution;
+        private Distribution mExclusiveDistribution;
+
+        MethodStats(String name) {
+            mName = name;
+        }
+
+        void add(long inclusive, long exclusive, int calls) {
+            if (mCount == mInclusive.length) {
+                mInclusive = Arrays.copyOf(mInclusive, mCount * 2);
+                mExclusive = Arrays.copyOf(mExclusive, mCount * 2);
+            }
+            mInclusive[mCount] = inclusive;
+            mExclusive[mCount] = exclusive;
+            mCount++;
+            mCalls += calls;
+            mInclusiveDistribution = null;
+            mExclusiveDistribution = null;
+        }
+
+        double getMeanCalls(int traces) {
+            return traces > 0 ? (double) mCalls / traces : 0;
+        }
+
+        Distribution getDistribution(boolean inclusive, int traces) {
+            if (inclusive) {
+                if (mInclusiveDistribution == null) {
+                    mInclusiveDistribution = new Distribution(mInclusive, mCount, traces);
+                }
+                return mInclusiveDistribution;
+            }
+            if (mExclusiveDistribution == null) {
+                mExclusiveDistribution = new Distribution(mExclusive, mCount, traces);
+            }
+            return mExclusiveDistribution;
+        }
+    }
+
+    /**
+     * The statistics of count times, padded with zeros to the given number
+     * of traces.  Percentiles are by nearest rank, and the variance is the
+     * sample variance.
+     */
+    private static class Distribution {
+        final double mMean;
+        final double mVariance;
+        final long mP50;
+        final long mP95;
+
+        Distribution(long[] times, int count, int traces) {
+            long[] sorted = Arrays.copyOf(times, count);
+            Arrays.sort(sorted);
+            int zeros = traces - count;
+
+            double sum = 0;
+            for (long time : sorted) {
+                sum += time;
+            }
+            mMean = traces > 0 ? sum / traces : 0;
+
+            double squares = zeros * mMean * mMean;
+            for (long time : sorted) {
+                squares += (time - mMean) * (time - mMean);
+            }
+            mVariance = traces > 1 ? squares / (traces - 1) : 0;
+
+            mP50 = getPercentile(sorted, zeros, traces, 50);
+            mP95 = getPercentile(sorted, zeros, traces, 95);
+        }
+
+        private static long getPercentile(long[] sorted, int zeros, int traces, int percent) {
+            if (traces == 0) {
+                return 0;
+            }
+            int rank = (int) Math.ceil(percent / 100.0 * traces) - 1;
+            rank = Math.max(rank, 0);
+            return rank < zeros ? 0 : sorted[rank - zeros];
+        }
+    }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+
+/**
+ * The differences between the profiles of two traces, typically taken
+ * before and after a change.  Methods are matched by their class, method
+ * name and signature, which together make up MethodData.getName(), so the
+ * matching is a hash lookup per method however large the traces are.
+ * Methods that only appear in one of the traces are kept, with the other
+ * side treated as zero.
+ */
+class TraceDiff {
+    private final TraceReader mBase;
+    private final TraceReader mCurrent;
+    private final TimeBase mTimeBase;
+    private final MethodDiff[] mMethods;
+
+    TraceDiff(TraceReader base, TraceReader current) {
+        mBase = base;
+        mCurrent = current;
+        if (base.haveCpuTime() && current.haveCpuTime()) {
+            mTimeBase = TimeBase.CPU_TIME;
+        } else {
+            mTimeBase = TimeBase.REAL_TIME;
+        }
+
+        MethodData[] baseMethods = base.getMethods();
+        MethodData[] currentMethods = current.getMethods();
+        HashMap<String, MethodData> byName =
+                new HashMap<String, MethodData>(baseMethods.length * 2);
+        for (MethodData md : baseMethods) {
+            byName.put(md.getName(), md);
+        }
+
+        ArrayList<MethodDiff> methods =
+                new ArrayList<MethodDiff>(currentMethods.length + baseMethods.length / 8);
+        for (MethodData md : currentMethods) {
+            methods.add(new MethodDiff(byName.remove(md.getName()), md));
+        }
+        for (MethodData md : byName.values()) {
+            methods.add(new MethodDiff(md, null));
+        }
+
+        mMethods = methods.toArray(new MethodDiff[methods.size()]);
+        Arrays.sort(mMethods, new Comparator<MethodDiff>() {
+            @Override
+            public int compare(MethodDiff diff1, MethodDiff diff2) {
+                long delta1 = diff1.getInclusiveDelta(mTimeBase);
+                long delta2 = diff2.getInclusiveDelta(mTimeBase);
+                if (delta1 > delta2)
+                    return -1;
+                if (delta1 < delta2)
+                    return 1;
+                return diff1.getName().compareTo(diff2.getName());
+            }
+        });
+    }
+
+    TraceReader getBase() {
+        return mBase;
+    }
+
+    TraceReader getCurrent() {
+        return mCurrent;
+    }
+
+    /**
+     * Returns the clock that the methods are ranked by: cpu time if both
+     * traces have it, otherwise real time.
+     */
+    TimeBase getTimeBase() {
+        return mTimeBase;
+    }
+
+    /**
+     * Returns the methods of both traces, the largest regressions in
+     * inclusive time first and the largest improvements last.
+     */
+    MethodDiff[] getMethods() {
+        return mMethods;
+    }
+
+    /**
+     * A method of either trace.  One of the two MethodData may be null.
+     */
+    static class MethodDiff {
+        private final MethodData mBase;
+        private final MethodData mCurrent;
+        private DiffNode[] mNodes;
+
+        MethodDiff(MethodData base, MethodData current) {
+            mBase = base;
+            mCurrent = current;
+        }
+
+        MethodData getBase() {
+            return mBase;
+        }
+
+        MethodData getCurrent() {
+            return mCurrent;
+        }
+
+        String getName() {
+            return mCurrent != null ? mCurrent.getName() : mBase.getName();
+        }
+
+        long getInclusiveDelta(TimeBase timeBase) {
+            return getInclusiveTime(mCurrent, timeBase) - getInclusiveTime(mBase, timeBase);
+        }
+
+        long getInclusiveCpuDelta() {
+            return getInclusiveDelta(TimeBase.CPU_TIME);
+        }
+
+        long getExclusiveCpuDelta() {
+            return getExclusiveTime(mCurrent, TimeBase.CPU_TIME)
+                    - getExclusiveTime(mBase, TimeBase.CPU_TIME);
+        }
+
+        long getInclusiveRealDelta() {
+            return getInclusiveDelta(TimeBase.REAL_TIME);
+        }
+
+        long getExclusiveRealDelta() {
+            return getExclusiveTime(mCurrent, TimeBase.REAL_TIME)
+                    - getExclusiveTime(mBase, TimeBase.REAL_TIME);
+        }
+
+        int getCallsDelta() {
+            return getTotalCalls(mCurrent) - getTotalCalls(mBase);
+        }
+
+        /**
+         * Returns the differences in the non-recursive callers and callees
+         * of this method, computed the first time they are asked for.
+         */
+        DiffNode[] getNodes() {
+            if (mNodes == null) {
+                ArrayList<DiffNode> nodes = new ArrayList<DiffNode>(2);
+                CallDiff[] parents = diffCalls(true);
+                if (parents.length != 0) {
+                    nodes.add(new DiffNode("Parents", parents, true));
+                }
+                CallDiff[] children = diffCalls(false);
+                if (children.length != 0) {
+                    nodes.add(new DiffNode("Children", children, false));
+                }
+                mNodes = nodes.toArray(new DiffNode[nodes.size()]);
+            }
+            return mNodes;
+        }
+
+        private CallDiff[] diffCalls(boolean parents) {
+            HashMap<String, ProfileData> baseCalls = new HashMap<String, ProfileData>();
+            for (ProfileData pd : getCalls(mBase, parents)) {
+                baseCalls.put(pd.getMethodData().getName(), pd);
+            }
+
+            ArrayList<CallDiff> calls = new ArrayList<CallDiff>();
+            for (ProfileData pd : getCalls(mCurrent, parents)) {
+                String name = pd.getMethodData().getName();
+                calls.add(new CallDiff(name, baseCalls.remove(name), pd, parents));
+            }
+            for (ProfileData pd : baseCalls.values()) {
+                calls.add(new CallDiff(pd.getMethodData().getName(), pd, null, parents));
+            }
+
+            CallDiff[] sorted = calls.toArray(new CallDiff[calls.size()]);
+            Arrays.sort(sorted, new Comparator<CallDiff>() {
+                @Override
+                public int compare(CallDiff diff1, CallDiff diff2) {
+                    long delta1 = Math.abs(diff1.getInclusiveCpuDelta())
+                            + Math.abs(diff1.getInclusiveRealDelta());
+                    long delta2 = Math.abs(diff2.getInclusiveCpuDelta())
+                            + Math.abs(diff2.getInclusiveRealDelta());
+                    if (delta1 > delta2)
+                        return -1;
+                    if (delta1 < delta2)
+                        return 1;
+                    return diff1.getName().compareTo(diff2.getName());
+                }
+            });
+            return sorted;
+        }
+
+        private static ArrayList<ProfileData> getCalls(MethodData md, boolean parents) {
+            ArrayList<ProfileData> calls = new ArrayList<ProfileData>();
+            if (md == null || md.getProfileNodes() == null) {
+                return calls;
+            }
+            for (ProfileNode node : md.getProfileNodes()) {
+                if (node.isParent() != parents || node.isRecursive()) {
+                    continue;
+                }
+                for (ProfileData pd : node.getChildren()) {
+                    if (!(pd instanceof ProfileSelf)) {
+                        calls.add(pd);
+                    }
+                }
+            }
+            return calls;
+        }
+
+        private static long getInclusiveTime(MethodData md, TimeBase timeBase) {
+            return md != null ? timeBase.getElapsedInclusiveTime(md) : 0;
+        }
+
+        private static long getExclusiveTime(MethodData md, TimeBase timeBase) {
+            return md != null ? timeBase.getElapsedExclusiveTime(md) : 0;
+        }
+
+        private static int getTotalCalls(MethodData md) {
+            return md != null ? md.getTotalCalls() : 0;
+        }
+    }
+
+    /**
+     * The "Parents" or "Children" of a MethodDiff.
+     */
+    static class DiffNode {
+        private final String mLabel;
+        private final CallDiff[] mChildren;
+        private final boolean mIsParent;
+
+        DiffNode(String label, CallDiff[] children, boolean isParent) {
+            mLabel = label;
+            mChildren = children;
+            mIsParent = isParent;
+        }
+
+        String getLabel() {
+            return mLabel;
+        }
+
+        CallDiff[] getChildren() {
+            return mChildren;
+        }
+
+        boolean isParent() {
+            return mIsParent;
+        }
+    }
+
+    /**
+     * A caller or callee of a method in either trace.  One of the two
+     * ProfileData may be null.
+     */
+    static class CallDiff {
+        private final String mName;
+        private final ProfileData mBase;
+        private final ProfileData mCurrent;
+        private final boolean mIsParent;
+
+        CallDiff(String name, ProfileData base, ProfileData current, boolean isParent) {
+            mName = name;
+            mBase = base;
+            mCurrent = current;
+            mIsParent = isParent;
+        }
+
+        String getName() {
+            return mName;
+        }
+
+        boolean isParent() {
+            return mIsParent;
+        }
+
+        /**
+         * Returns the method in the current trace, or null if it was only
+         * called in the base trace.
+         */
+        MethodData getCurrentMethod() {
+            return mCurrent != null ? mCurrent.getMethodData() : null;
+        }
+
+        long getInclusiveCpuDelta() {
+            return (mCurrent != null ? mCurrent.getElapsedInclusiveCpuTime() : 0)
+                    - (mBase != null ? mBase.getElapsedInclusiveCpuTime() : 0);
+        }
+
+        long getInclusiveRealDelta() {
+            return (mCurrent != null ? mCurrent.getElapsedInclusiveRealTime() : 0)
+                    - (mBase != null ? mBase.getElapsedInclusiveRealTime() : 0);
+        }
+
+        int getCallsDelta() {
+            return (mCurrent != null ? mCurrent.mNumCalls : 0)
+                    - (mBase != null ? mBase.mNumCalls : 0);
+        }
+    }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Writes the calls of a trace as JSON in the Chrome trace event format, so
+ * that the trace can be opened in chrome://tracing or Perfetto.
+ *
+ * Each call is a complete event, written as soon as the call exits while
+ * the trace is replayed, so the calls are never all in memory and a trace
+ * of any length is exported in constant memory.  The events are in the
+ * order the calls exit, which the viewers sort out.  The threads of the
+ * trace are the threads of a single process, named by metadata events.
+ *
+ * Times are in microseconds, as in the trace.  With both clocks, the thread
+ * time of each call is written as its tts and tdur; with only the thread
+ * clock, it is used for the timestamps themselves.
+ */
+class TraceEventWriter implements DmTraceReader.CallListener {
+    private static final int PID = 1;
+
+    private final DmTraceReader mReader;
+    private final Writer mOut;
+    private final boolean mHaveRealTime;
+    private final boolean mHaveCpuTime;
+
+    // The start of the event of each method, by method id, up to the tid.
+    private final IntMap<String> mEventStarts = new IntMap<String>();
+    private final StringWriter mScratch = new StringWriter();
+    private boolean mFirstEvent = true;
+    private IOException mError;
+
+    TraceEventWriter(DmTraceReader reader, Writer out) {
+        mReader = reader;
+        mOut = out;
+        mHaveRealTime = reader.haveRealTime();
+        mHaveCpuTime = reader.haveCpuTime();
+    }
+
+    /**
+     * Writes the whole trace, replaying it from its file.
+     */
+    void write() throws IOException {
+        mOut.write("{\"traceEvents\":[");
+        for (ThreadData threadData : mReader.getThreads()) {
+            startEvent();
+            mOut.write("{\"name\":\"thread_name\",\"ph\":\"M\",\"pid\":");
+            mOut.write(Integer.toString(PID));
+            mOut.write(",\"tid\":");
+            mOut.write(Integer.toString(threadData.getId()));
+            mOut.write(",\"args\":{\"name\":");
+            TraceReport.writeJsonString(mOut, threadData.getName());
+            mOut.write("}}");
+        }
+
+        mReader.replayCalls(this);
+        if (mError != null) {
+            throw mError;
+        }
+
+        // The properties of the trace, such as its clock, go in otherData.
+        mOut.write("\n],\"displayTimeUnit\":\"ms\",\"otherData\":{");
+        Map<String, String> properties = new TreeMap<String, String>(mReader.getProperties());
+        boolean first = true;
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            if (!first) {
+                mOut.write(',');
+            }
+            first = false;
+            TraceReport.writeJsonString(mOut, entry.getKey());
+            mOut.write(':');
+            TraceReport.writeJsonString(mOut, entry.getValue());
+        }
+        mOut.write("}}\n");
+        mOut.flush();
+    }
+
+    @Override
+    public boolean callExited(Call call) {
+        // The replay stops at the first error, which is reported once the
+        // replay returns.
+        try {
+            startEvent();
+            mOut.write(getEventStart(call.getMethodData()));
+            mOut.write(Integer.toString(call.getThreadId()));
+            long startTime = mHaveRealTime ? call.getStartTime() : call.getThreadStartTime();
+            long endTime = mHaveRealTime ? call.getEndTime() : call.getThreadEndTime();
+            TraceReport.writeJsonLong(mOut, "ts", startTime);
+            TraceReport.writeJsonLong(mOut, "dur", endTime - startTime);
+            if (mHaveRealTime && mHaveCpuTime) {
+                TraceReport.writeJsonLong(mOut, "tts", call.getThreadStartTime());
+                TraceReport.writeJsonLong(mOut, "tdur",
+                        call.getThreadEndTime() - call.getThreadStartTime());
+            }
+            mOut.write('}');
+            return true;
+        } catch (IOException e) {
+            mError = e;
+            return false;
+        }
+    }
+
+    private void startEvent() throws IOException {
+        mOut.write(mFirstEvent ? "\n" : ",\n");
+        mFirstEvent = false;
+    }
+
+    private String getEventStart(MethodData md) throws IOException {
+        String start = mEventStarts.get(md.getId());
+        if (start == null) {
+            mScratch.getBuffer().setLength(0);
+            mScratch.write("{\"name\":");
+            TraceReport.writeJsonString(mScratch, md.getName());
+            mScratch.write(",\"ph\":\"X\",\"pid\":" + PID + ",\"tid\":");
+            start = mScratch.toString();
+            mEventStarts.put(md.getId(), start);
+        }
+        return start;
+    }
+}
@@ -0,0 +1,445 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The analyzed contents of a trace, saved next to it (foo.trace.tvidx) so
+ * that reopening the trace does not parse it again.
+ *
+ * The index holds the key section, the profile of every method and the
+ * calls of every thread.  It is only used while the trace file keeps the
+ * size and modification time it had when the index was written.
+ *
+ * The file starts with a fixed size header, followed by the strings,
+ * properties, threads, methods and call path tries of the threads, followed
+ * by one fixed size record per call.  The call records are mapped into memory a window at a time.
+ */
+class TraceIndex {
+    static final String SUFFIX = ".tvidx";  //$NON-NLS-1$
+
+    private static final int MAGIC = 0x54564958;  // "TVIX"
+    private static final int FORMAT_VERSION = 2;
+
+    // magic, format version, trace length, trace modified, streaming, size
+    // of the metadata that follows the header.
+    private static final int HEADER_SIZE = 4 + 4 + 8 + 8 + 1 + 4;
+
+    // thread id, method id, depth, flags, global start/end, thread
+    // start/end, inclusive/exclusive cpu and real times.
+    private static final int CALL_SIZE = 4 + 4 + 4 + 1 + 8 * 8;
+    private static final int CALL_RECURSIVE = 0x01;
+
+    private static final long MAP_WINDOW_SIZE = 64L * 1024 * 1024;
+
+    boolean mStreaming;
+    int mVersionNumber;
+    int mClockSource;
+    int mRecordSize;
+    long mDataOffset;
+    long mTimeRecordsMinDuration;
+    long mTotalCpuTime;
+    long mTotalRealTime;
+    HashMap<String, String> mPropertiesMap;
+    IntMap<MethodData> mMethodMap;
+    IntMap<ThreadData> mThreadMap;
+    ThreadData[] mSortedThreads;
+    MethodData[] mSortedMethods;
+    CallTable mCalls;
+
+    static File getIndexFile(String traceFileName) {
+        return new File(traceFileName + SUFFIX);
+    }
+
+    /**
+     * Writes the index for the given trace.  The index is written to a
+     * temporary file first, so that a partial index is never read.
+     */
+    void write(String traceFileName) throws IOException {
+        File traceFile = new File(traceFileName);
+        File indexFile = getIndexFile(traceFileName);
+        File tempFile = new File(indexFile.getPath() + ".tmp");  //$NON-NLS-1$
+
+        ByteArrayOutputStream metadata = new ByteArrayOutputStream();
+        writeMetadata(new DataOutputStream(metadata));
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(tempFile), 1 << 16));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(FORMAT_VERSION);
+            out.writeLong(traceFile.length());
+            out.writeLong(traceFile.lastModified());
+            out.writeBoolean(mStreaming);
+            out.writeInt(metadata.size());
+            metadata.writeTo(out);
+            writeCalls(out);
+        } finally {
+            out.close();
+        }
+
+        if (!tempFile.renameTo(indexFile)) {
+            // Windows does not replace existing files on rename.
+            indexFile.delete();
+            if (!tempFile.renameTo(indexFile)) {
+                tempFile.delete();
+                throw new IOException("Cannot create " + indexFile);
+            }
+        }
+    }
+
+    /**
+     * Reads the index of the given trace, or returns null if there is no
+     * index for the trace as it is now, or if the index was written with
+     * a different streaming mode.
+     */
+    static TraceIndex read(String traceFileName, boolean streaming) throws IOException {
+        File traceFile = new File(traceFileName);
+        File indexFile = getIndexFile(traceFileName);
+        if (!indexFile.isFile()) {
+            return null;
+        }
+
+        FileInputStream file = new FileInputStream(indexFile);
+        try {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(file, 1 << 16));
+            if (in.readInt() != MAGIC || in.readInt() != FORMAT_VERSION
+                    || in.readLong() != traceFile.length()
+                    || in.readLong() != traceFile.lastModified()
+                    || in.readBoolean() != streaming) {
+                return null;
+            }
+            int metadataSize = in.readInt();
+
+            TraceIndex index = new TraceIndex();
+            index.mStreaming = streaming;
+            index.readMetadata(in);
+            index.readCalls(file.getChannel(), HEADER_SIZE + metadataSize);
+            return index;
+        } finally {
+            file.close();
+        }
+    }
+
+    private void writeMetadata(DataOutputStream out) throws IOException {
+        out.writeInt(mVersionNumber);
+        out.writeInt(mClockSource);
+        out.writeInt(mRecordSize);
+        out.writeLong(mDataOffset);
+        out.writeLong(mTimeRecordsMinDuration);
+        out.writeLong(mTotalCpuTime);
+        out.writeLong(mTotalRealTime);
+
+        // Class names and file names repeat across methods, so every string
+        // is written once and referred to by its index.
+        HashMap<String, Integer> strings = new HashMap<String, Integer>();
+        ArrayList<String> stringList = new ArrayList<String>();
+        for (Map.Entry<String, String> entry : mPropertiesMap.entrySet()) {
+            addString(entry.getKey(), strings, stringList);
+            addString(entry.getValue(), strings, stringList);
+        }
+        for (int i = 0; i < mThreadMap.size(); i++) {
+            addString(mThreadMap.valueAt(i).getName(), strings, stringList);
+        }
+        for (int i = 0; i < mMethodMap.size(); i++) {
+            MethodData md = mMethodMap.valueAt(i);
+            addString(md.getClassName(), strings, stringList);
+            addString(md.getMethodName(), strings, stringList);
+            addString(md.getSignature(), strings, stringList);
+            addString(md.getPathname(), strings, stringList);
+        }
+        out.writeInt(stringList.size());
+        for (String string : stringList) {
+            out.writeUTF(string);
+        }
+
+        out.writeInt(mPropertiesMap.size());
+        for (Map.Entry<String, String> entry : mPropertiesMap.entrySet()) {
+            out.writeInt(strings.get(entry.getKey()));
+            out.writeInt(strings.get(entry.getValue()));
+        }
+
+        HashMap<ThreadData, Integer> threadRanks = new HashMap<ThreadData, Integer>();
+        for (int i = 0; i < mSortedThreads.length; i++) {
+            threadRanks.put(mSortedThreads[i], i);
+        }
+        out.writeInt(mThreadMap.size());
+        for (int i = 0; i < mThreadMap.size(); i++) {
+            ThreadData td = mThreadMap.valueAt(i);
+            Integer rank = threadRanks.get(td);
+            out.writeInt(td.getId());
+            out.writeInt(strings.get(td.getName()));
+            out.writeInt(rank != null ? rank : -1);
+            out.writeBoolean(td.isEmpty());
+            out.writeBoolean(td.mHaveGlobalTime);
+            out.writeLong(td.mGlobalStartTime);
+            out.writeLong(td.mGlobalEndTime);
+            out.writeBoolean(td.mHaveThreadTime);
+            out.writeLong(td.mThreadStartTime);
+            out.writeLong(td.mThreadEndTime);
+            writeCallTimes(out, td.getRootCall());
+        }
+
+        out.writeInt(mMethodMap.size());
+        for (int i = 0; i < mMethodMap.size(); i++) {
+            MethodData md = mMethodMap.valueAt(i);
+            out.writeInt(md.getId());
+            out.writeInt(strings.get(md.getClassName()));
+            out.writeInt(getStringIndex(md.getMethodName(), strings));
+            out.writeInt(getStringIndex(md.getSignature(), strings));
+            out.writeInt(getStringIndex(md.getPathname(), strings));
+            out.writeInt(md.getLineNumber());
+            out.writeInt(md.getRank());
+        }
+        out.writeInt(mSortedMethods.length);
+        for (int i = 0; i < mMethodMap.size(); i++) {
+            mMethodMap.valueAt(i).writeProfile(out);
+        }
+
+        for (int i = 0; i < mThreadMap.size(); i++) {
+            mThreadMap.valueAt(i).getCallPaths().write(out);
+        }
+    }
+
+    private void readMetadata(DataInputStream in) throws IOException {
+        mVersionNumber = in.readInt();
+        mClockSource = in.readInt();
+        mRecordSize = in.readInt();
+        mDataOffset = in.readLong();
+        mTimeRecordsMinDuration = in.readLong();
+        mTotalCpuTime = in.readLong();
+        mTotalRealTime = in.readLong();
+
+        // The strings are written once each, so they need no pooling.
+        String[] strings = new String[in.readInt()];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = in.readUTF();
+        }
+
+        mPropertiesMap = new HashMap<String, String>();
+        for (int count = in.readInt(); count > 0; count--) {
+            String key = getString(in.readInt(), strings);
+            mPropertiesMap.put(key, getString(in.readInt(), strings));
+        }
+
+        // The threads and their root calls refer to the top level method,
+        // which is read with the other methods below.
+        MethodData topLevel = new MethodData(0, "(toplevel)");  //$NON-NLS-1$
+
+        int numThreads = in.readInt();
+        mThreadMap = new IntMap<ThreadData>(numThreads);
+        ThreadData[] sortedThreads = new ThreadData[numThreads];
+        int numSortedThreads = 0;
+        for (int i = 0; i < numThreads; i++) {
+            int id = in.readInt();
+            String name = getString(in.readInt(), strings);
+            int rank = in.readInt();
+            ThreadData td = ThreadData.restore(id, name, in.readBoolean(), topLevel);
+            td.mHaveGlobalTime = in.readBoolean();
+            td.mGlobalStartTime = in.readLong();
+            td.mGlobalEndTime = in.readLong();
+            td.mHaveThreadTime = in.readBoolean();
+            td.mThreadStartTime = in.readLong();
+            td.mThreadEndTime = in.readLong();
+            readCallTimes(in, td.getRootCall());
+            mThreadMap.put(id, td);
+            if (rank >= 0) {
+                if (rank >= numThreads || sortedThreads[rank] != null) {
+                    throw new IOException("Corrupt thread rank " + rank);
+                }
+                sortedThreads[rank] = td;
+                numSortedThreads++;
+            }
+        }
+        mSortedThreads = new ThreadData[numSortedThreads];
+        System.arraycopy(sortedThreads, 0, mSortedThreads, 0, numSortedThreads);
+
+        int numMethods = in.readInt();
+        mMethodMap = new IntMap<MethodData>(numMethods);
+        int[] ranks = new int[numMethods];
+        for (int i = 0; i < numMethods; i++) {
+            int id = in.readInt();
+            String className = getString(in.readInt(), strings);
+            String methodName = getString(in.readInt(), strings);
+            String signature = getString(in.readInt(), strings);
+            String pathname = getString(in.readInt(), strings);
+            int lineNumber = in.readInt();
+            ranks[i] = in.readInt();
+
+            MethodData md;
+            if (id == 0) {
+                md = topLevel;
+            } else {
+                md = new MethodData(id, className, methodName, signature, pathname,
+                        lineNumber);
+            }
+            mMethodMap.put(id, md);
+        }
+        mSortedMethods = new MethodData[in.readInt()];
+        for (int i = 0; i < numMethods; i++) {
+            MethodData md = mMethodMap.valueAt(i);
+            md.readProfile(in, mMethodMap);
+            int rank = ranks[i];
+            if (rank >= 0) {
+                if (rank >= mSortedMethods.length || mSortedMethods[rank] != null) {
+                    throw new IOException("Corrupt method rank " + rank);
+                }
+                md.setRank(rank);
+                mSortedMethods[rank] = md;
+            }
+        }
+        if (mMethodMap.get(0) != topLevel || mMethodMap.get(-1) == null) {
+            throw new IOException("Missing the top level or context switch methods");
+        }
+
+        for (int i = 0; i < numThreads; i++) {
+            mThreadMap.valueAt(i).getCallPaths().read(in, mMethodMap);
+        }
+    }
+
+    /**
+     * Writes the calls in the order of their table, where every call comes
+     * after its caller, with its depth below the root call of its thread.
+     */
+    private void writeCalls(DataOutputStream out) throws IOException {
+        out.writeInt(mCalls.size());
+        for (int row = 0; row < mCalls.size(); row++) {
+            out.writeInt(mCalls.getThreadData(row).getId());
+            out.writeInt(mCalls.getMethodData(row).getId());
+            out.writeInt(mCalls.getDepth(row));
+            out.writeByte(mCalls.isRecursive(row) ? CALL_RECURSIVE : 0);
+            writeCallTimes(out, mCalls.getCall(row));
+        }
+    }
+
+    private void readCalls(FileChannel fc, long offset) throws IOException {
+        MappedByteBuffer buffer = fc.map(FileChannel.MapMode.READ_ONLY, offset, 4);
+        int numCalls = buffer.getInt();
+        offset += 4;
+        if (numCalls < 0 || fc.size() - offset < (long) numCalls * CALL_SIZE) {
+            throw new IOException("Truncated trace index");
+        }
+
+        // The calls that are currently open on each thread, by depth.
+        IntMap<ArrayList<MutableCall>> stacks =
+                new IntMap<ArrayList<MutableCall>>(mThreadMap.size());
+        for (int i = 0; i < mThreadMap.size(); i++) {
+            ThreadData td = mThreadMap.valueAt(i);
+            ArrayList<MutableCall> stack = new ArrayList<MutableCall>();
+            stack.add(td.getRootCall());
+            stacks.put(td.getId(), stack);
+        }
+
+        mCalls = new CallTable(numCalls);
+        final long windowSize = MAP_WINDOW_SIZE - MAP_WINDOW_SIZE % CALL_SIZE;
+        final long end = offset + (long) numCalls * CALL_SIZE;
+        while (offset < end) {
+            buffer = fc.map(FileChannel.MapMode.READ_ONLY, offset,
+                    Math.min(windowSize, end - offset));
+            offset += buffer.capacity();
+
+            while (buffer.remaining() >= CALL_SIZE) {
+                int threadId = buffer.getInt();
+                int methodId = buffer.getInt();
+                int depth = buffer.getInt();
+                int flags = buffer.get();
+
+                ThreadData td = mThreadMap.get(threadId);
+                MethodData md = mMethodMap.get(methodId);
+                ArrayList<MutableCall> stack = stacks.get(threadId);
+                if (td == null || md == null || depth < 1 || depth > stack.size()) {
+                    throw new IOException("Corrupt call in trace index");
+                }
+                while (stack.size() > depth) {
+                    stack.remove(stack.size() - 1);
+                }
+
+                MutableCall call = new MutableCall(td, md, stack.get(depth - 1));
+                call.setRecursive((flags & CALL_RECURSIVE) != 0);
+                call.mGlobalStartTime = buffer.getLong();
+                call.mGlobalEndTime = buffer.getLong();
+                call.mThreadStartTime = buffer.getLong();
+                call.mThreadEndTime = buffer.getLong();
+                call.mInclusiveCpuTime = buffer.getLong();
+                call.mExclusiveCpuTime = buffer.getLong();
+                call.mInclusiveRealTime = buffer.getLong();
+                call.mExclusiveRealTime = buffer.getLong();
+                stack.add(call);
+                mCalls.add(call);
+            }
+        }
+    }
+
+    private static void writeCallTimes(DataOutputStream out, Call call) throws IOException {
+        out.writeLong(call.getStartTime());
+        out.writeLong(call.getEndTime());
+        out.writeLong(call.getThreadStartTime());
+        out.writeLong(call.getThreadEndTime());
+        out.writeLong(call.getInclusiveCpuTime());
+        out.writeLong(call.getExclusiveCpuTime());
+        out.writeLong(call.getInclusiveRealTime());
+        out.writeLong(call.getExclusiveRealTime());
+    }
+
+    private static void readCallTimes(DataInputStream in, MutableCall call)
+            throws IOException {
+        call.mGlobalStartTime = in.readLong();
+        call.mGlobalEndTime = in.readLong();
+        call.mThreadStartTime = in.readLong();
+        call.mThreadEndTime = in.readLong();
+        call.mInclusiveCpuTime = in.readLong();
+        call.mExclusiveCpuTime = in.readLong();
+        call.mInclusiveRealTime = in.readLong();
+        call.mExclusiveRealTime = in.readLong();
+    }
+
+    private static void addString(String string, HashMap<String, Integer> strings,
+            ArrayList<String> stringList) {
+        if (string != null && !strings.containsKey(string)) {
+            strings.put(string, stringList.size());
+            stringList.add(string);
+        }
+    }
+
+    private static int getStringIndex(String string, HashMap<String, Integer> strings) {
+        return string != null ? strings.get(string) : -1;
+    }
+
+    private static String getString(int index, String[] strings) throws IOException {
+        if (index == -1) {
+            return null;
+        }
+        if (index < 0 || index >= strings.length) {
+            throw new IOException("Corrupt string index " + index);
+        }
+        return strings[index];
+    }
+}
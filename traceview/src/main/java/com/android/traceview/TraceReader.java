@@ -16,7 +16,6 @@
 
 package com.android.traceview;
 
-import java.util.ArrayList;
 import java.util.HashMap;
 
 public abstract class TraceReader {
@@ -29,7 +28,43 @@ public abstract class TraceReader {
         return mTraceUnits;
     }
 
-    public ArrayList<TimeLineView.Record> getThreadTimeRecords() {
+    /**
+     * Returns the calls that the timeline shows, or null if there are none.
+     */
+    CallTable getTimeLineCalls() {
+        return null;
+    }
+
+    /**
+     * Returns the calls that overlap [startTime, endTime] and last at least
+     * minDuration.  Readers that keep every call in memory return all of
+     * them.
+     */
+    CallTable getTimeLineCalls(long startTime, long endTime, long minDuration) {
+        return getTimeLineCalls();
+    }
+
+    /**
+     * Returns true if the reader only keeps the calls that the timeline is
+     * currently showing.
+     */
+    public boolean isStreaming() {
+        return false;
+    }
+
+    /**
+     * Returns the minimum duration of the calls in getTimeLineCalls(),
+     * or 0 if every call is included.
+     */
+    public long getTimeRecordsMinDuration() {
+        return 0;
+    }
+
+    /**
+     * Returns a table of the calls that may overlap [startTime, endTime], or
+     * null if the reader does not have the calls.
+     */
+    CallTable getCalls(long startTime, long endTime) {
         return null;
     }
 
@@ -69,6 +104,18 @@ public abstract class TraceReader {
         return null;
     }
 
+    public MethodIndex getMethodIndex() {
+        return null;
+    }
+
+    /**
+     * Returns the interval in microseconds at which the trace was sampled,
+     * or 0 if it was recorded by instrumenting every call.
+     */
+    public int getSamplingInterval() {
+        return 0;
+    }
+
     public TimeBase getPreferredTimeBase() {
         return TimeBase.CPU_TIME;
     }
@@ -0,0 +1,430 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import com.android.utils.SdkUtils;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Writes the profile of a trace as CSV or JSON without opening a window, for
+ * scripts that look at many traces.  The report has the time of each
+ * thread, the top methods by one of the profile times, and the callers and
+ * callees of those methods.  Times are in the units of the trace.
+ *
+ * The CSV output has one table after another, separated by blank lines.
+ * The first column of every row names its table, and the first row of each
+ * table is its header.
+ *
+ * For a sampled trace, each method also has the number of samples of its
+ * time in the sort key, and the margin of error of that time at 95%
+ * confidence.
+ */
+class TraceReport {
+    enum Format {
+        CSV, JSON
+    }
+
+    enum SortKey {
+        INCLUSIVE_CPU("incl-cpu"),
+        EXCLUSIVE_CPU("excl-cpu"),
+        INCLUSIVE_REAL("incl-real"),
+        EXCLUSIVE_REAL("excl-real");
+
+        final String mName;
+
+        SortKey(String name) {
+            mName = name;
+        }
+
+        boolean isCpu() {
+            return this == INCLUSIVE_CPU || this == EXCLUSIVE_CPU;
+        }
+
+        long getTime(MethodData md) {
+            switch (this) {
+                case INCLUSIVE_CPU:
+                    return md.getElapsedInclusiveCpuTime();
+                case EXCLUSIVE_CPU:
+                    return md.getElapsedExclusiveCpuTime();
+                case INCLUSIVE_REAL:
+                    return md.getElapsedInclusiveRealTime();
+                default:
+                    return md.getElapsedExclusiveRealTime();
+            }
+        }
+
+        static SortKey fromName(String name) {
+            for (SortKey key : values()) {
+                if (key.mName.equals(name)) {
+                    return key;
+                }
+            }
+            return null;
+        }
+    }
+
+    private static final String[] THREAD_COLUMNS = {
+            "table", "id", "name", "cpu_time", "real_time" };
+    private static final String[] METHOD_COLUMNS = {
+            "table", "rank", "method", "incl_cpu_time", "excl_cpu_time",
+            "incl_real_time", "excl_real_time", "calls", "recursive_calls" };
+    private static final String[] SAMPLED_METHOD_COLUMNS = {
+            "table", "rank", "method", "incl_cpu_time", "excl_cpu_time",
+            "incl_real_time", "excl_real_time", "calls", "recursive_calls",
+            "samples", "error" };
+    private static final String[] CALL_COLUMNS = {
+            "table", "method", "other", "recursive", "incl_cpu_time", "incl_real_time",
+            "calls" };
+
+    private final DmTraceReader mReader;
+    private Format mFormat = Format.CSV;
+    private SortKey mSortKey;
+    private int mLimit = 20;
+    private String mThreadFilter;
+    private String mMethodFilter;
+
+    TraceReport(DmTraceReader reader) {
+        mReader = reader;
+        mSortKey = reader.haveCpuTime() ? SortKey.INCLUSIVE_CPU : SortKey.INCLUSIVE_REAL;
+    }
+
+    void setFormat(Format format) {
+        mFormat = format;
+    }
+
+    void setSortKey(SortKey sortKey) {
+        mSortKey = sortKey;
+    }
+
+    /**
+     * Sets the number of methods to report, or 0 to report all of them.
+     */
+    void setLimit(int limit) {
+        mLimit = limit;
+    }
+
+    /**
+     * Only reports the threads whose name contains the given string, and
+     * computes the method profiles from the calls of those threads.
+     */
+    void setThreadFilter(String threadFilter) {
+        mThreadFilter = threadFilter;
+    }
+
+    /**
+     * Only reports the methods whose name contains the given string.  As in
+     * the profile view's search, case is ignored unless the string has an
+     * upper case letter.
+     */
+    void setMethodFilter(String methodFilter) {
+        mMethodFilter = methodFilter;
+    }
+
+    void write(Writer out) throws IOException {
+        ThreadData[] threads = selectThreads();
+        MethodData[] methods = selectMethods(threads);
+
+        if (mFormat == Format.JSON) {
+            writeJson(out, threads, methods);
+        } else {
+            writeCsv(out, threads, methods);
+        }
+        out.flush();
+    }
+
+    private ThreadData[] selectThreads() {
+        ArrayList<ThreadData> threads = new ArrayList<ThreadData>();
+        for (ThreadData threadData : mReader.getThreads()) {
+            if (threadData.isEmpty()) {
+                continue;
+            }
+            if (mThreadFilter != null && !threadData.getName().contains(mThreadFilter)) {
+                continue;
+            }
+            threads.add(threadData);
+        }
+        return threads.toArray(new ThreadData[threads.size()]);
+    }
+
+    private MethodData[] selectMethods(ThreadData[] threads) {
+        MethodData[] all;
+        if (mThreadFilter != null) {
+            all = mReader.getThreadProfiles(threads);
+        } else {
+            all = mReader.getMethods();
+        }
+
+        ArrayList<MethodData> methods = new ArrayList<MethodData>();
+        for (MethodData md : all) {
+            if (mSortKey.getTime(md) != 0 && matches(md.getName(), mMethodFilter)) {
+                methods.add(md);
+            }
+        }
+
+        // Only the methods that are written need to be sorted.  Methods with
+        // the same time are sorted by name, so that the report is the same
+        // however the trace was read.
+        return new MethodSorter() {
+            @Override
+            long getTime(MethodData md) {
+                return mSortKey.getTime(md);
+            }
+
+            @Override
+            int compareTies(MethodData md1, MethodData md2) {
+                return md1.getName().compareTo(md2.getName());
+            }
+        }.sort(methods, mLimit);
+    }
+
+    /**
+     * Returns true if name contains filter, ignoring case unless filter has
+     * an upper case letter, or if there is no filter.
+     */
+    static boolean matches(String name, String filter) {
+        if (filter == null) {
+            return true;
+        }
+        if (!SdkUtils.hasUpperCaseCharacter(filter)) {
+            name = name.toLowerCase();
+        }
+        return name.contains(filter);
+    }
+
+    private void writeCsv(Writer out, ThreadData[] threads, MethodData[] methods)
+            throws IOException {
+        writeCsvRow(out, THREAD_COLUMNS);
+        for (ThreadData threadData : threads) {
+            writeCsvRow(out, "thread", Integer.toString(threadData.getId()),
+                    threadData.getName(), Long.toString(threadData.getCpuTime()),
+                    Long.toString(threadData.getRealTime()));
+        }
+
+        out.write('\n');
+        int interval = mReader.getSamplingInterval();
+        long totalTime = getTotalTime(threads);
+        writeCsvRow(out, interval > 0 ? SAMPLED_METHOD_COLUMNS : METHOD_COLUMNS);
+        for (int rank = 0; rank < methods.length; rank++) {
+            MethodData md = methods[rank];
+            String[] fields = {
+                    "method", Integer.toString(rank), md.getName(),
+                    Long.toString(md.getElapsedInclusiveCpuTime()),
+                    Long.toString(md.getElapsedExclusiveCpuTime()),
+                    Long.toString(md.getElapsedInclusiveRealTime()),
+                    Long.toString(md.getElapsedExclusiveRealTime()),
+                    Integer.toString(md.getNumCalls()),
+                    Integer.toString(md.getNumRecursiveCalls()) };
+            if (interval > 0) {
+                long time = mSortKey.getTime(md);
+                fields = Arrays.copyOf(fields, SAMPLED_METHOD_COLUMNS.length);
+                fields[fields.length - 2] =
+                        Long.toString(SamplingError.getSamples(time, interval));
+                fields[fields.length - 1] =
+                        Long.toString(SamplingError.get95(time, totalTime, interval));
+            }
+            writeCsvRow(out, fields);
+        }
+
+        out.write('\n');
+        writeCsvRow(out, CALL_COLUMNS);
+        for (MethodData md : methods) {
+            for (ProfileNode node : profileNodes(md)) {
+                String table = node.isParent() ? "caller" : "callee";
+                String recursive = Boolean.toString(node.isRecursive());
+                for (ProfileData pd : node.getChildren()) {
+                    if (pd instanceof ProfileSelf) {
+                        continue;
+                    }
+                    writeCsvRow(out, table, md.getName(), pd.getMethodData().getName(),
+                            recursive, Long.toString(pd.getElapsedInclusiveCpuTime()),
+                            Long.toString(pd.getElapsedInclusiveRealTime()),
+                            Integer.toString(pd.mNumCalls));
+                }
+            }
+        }
+    }
+
+    /**
+     * Returns the total time of the given threads in the clock of the sort
+     * key.
+     */
+    private long getTotalTime(ThreadData[] threads) {
+        long total = 0;
+        for (ThreadData threadData : threads) {
+            total += mSortKey.isCpu() ? threadData.getCpuTime() : threadData.getRealTime();
+        }
+        return total;
+    }
+
+    static void writeCsvRow(Writer out, String... fields) throws IOException {
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            writeCsvField(out, fields[i]);
+        }
+        out.write('\n');
+    }
+
+    private static void writeCsvField(Writer out, String field) throws IOException {
+        boolean quote = false;
+        for (int i = 0; i < field.length() && !quote; i++) {
+            char c = field.charAt(i);
+            quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+        }
+        if (!quote) {
+            out.write(field);
+            return;
+        }
+        out.write('"');
+        out.write(field.replace("\"", "\"\""));
+        out.write('"');
+    }
+
+    private void writeJson(Writer out, ThreadData[] threads, MethodData[] methods)
+            throws IOException {
+        out.write("{\"clock\":");
+        writeJsonString(out, mReader.getClockSource());
+        out.write(",\"sort\":");
+        writeJsonString(out, mSortKey.mName);
+        int interval = mReader.getSamplingInterval();
+        long totalTime = getTotalTime(threads);
+        if (interval > 0) {
+            writeJsonLong(out, "sampling_interval", interval);
+        }
+
+        out.write(",\n\"threads\":[");
+        for (int i = 0; i < threads.length; i++) {
+            ThreadData threadData = threads[i];
+            out.write(i == 0 ? "\n" : ",\n");
+            out.write("{\"id\":");
+            out.write(Integer.toString(threadData.getId()));
+            out.write(",\"name\":");
+            writeJsonString(out, threadData.getName());
+            writeJsonLong(out, "cpu_time", threadData.getCpuTime());
+            writeJsonLong(out, "real_time", threadData.getRealTime());
+            out.write('}');
+        }
+
+        out.write("],\n\"methods\":[");
+        for (int rank = 0; rank < methods.length; rank++) {
+            MethodData md = methods[rank];
+            out.write(rank == 0 ? "\n" : ",\n");
+            out.write("{\"rank\":");
+            out.write(Integer.toString(rank));
+            out.write(",\"method\":");
+            writeJsonString(out, md.getName());
+            writeJsonLong(out, "incl_cpu_time", md.getElapsedInclusiveCpuTime());
+            writeJsonLong(out, "excl_cpu_time", md.getElapsedExclusiveCpuTime());
+            writeJsonLong(out, "incl_real_time", md.getElapsedInclusiveRealTime());
+            writeJsonLong(out, "excl_real_time", md.getElapsedExclusiveRealTime());
+            writeJsonLong(out, "calls", md.getNumCalls());
+            writeJsonLong(out, "recursive_calls", md.getNumRecursiveCalls());
+            if (interval > 0) {
+                long time = mSortKey.getTime(md);
+                writeJsonLong(out, "samples", SamplingError.getSamples(time, interval));
+                writeJsonLong(out, "error", SamplingError.get95(time, totalTime, interval));
+            }
+            writeJsonCalls(out, "callers", md, true);
+            writeJsonCalls(out, "callees", md, false);
+            out.write('}');
+        }
+        out.write("]}\n");
+    }
+
+    private static void writeJsonCalls(Writer out, String name, MethodData md,
+            boolean parents) throws IOException {
+        out.write(",\"");
+        out.write(name);
+        out.write("\":[");
+        boolean first = true;
+        for (ProfileNode node : profileNodes(md)) {
+            if (node.isParent() != parents) {
+                continue;
+            }
+            for (ProfileData pd : node.getChildren()) {
+                if (pd instanceof ProfileSelf) {
+                    continue;
+                }
+                if (!first) {
+                    out.write(',');
+                }
+                first = false;
+                out.write("{\"method\":");
+                writeJsonString(out, pd.getMethodData().getName());
+                out.write(",\"recursive\":");
+                out.write(Boolean.toString(node.isRecursive()));
+                writeJsonLong(out, "incl_cpu_time", pd.getElapsedInclusiveCpuTime());
+                writeJsonLong(out, "incl_real_time", pd.getElapsedInclusiveRealTime());
+                writeJsonLong(out, "calls", pd.mNumCalls);
+                out.write('}');
+            }
+        }
+        out.write(']');
+    }
+
+    static void writeJsonLong(Writer out, String name, long value) throws IOException {
+        out.write(",\"");
+        out.write(name);
+        out.write("\":");
+        out.write(Long.toString(value));
+    }
+
+    static void writeJsonString(Writer out, String value) throws IOException {
+        if (value == null) {
+            out.write("null");
+            return;
+        }
+        out.write('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    out.write("\\\"");
+                    break;
+                case '\\':
+                    out.write("\\\\");
+                    break;
+                case '\n':
+                    out.write("\\n");
+                    break;
+                case '\r':
+                    out.write("\\r");
+                    break;
+                case '\t':
+                    out.write("\\t");
+                    break;
+                default:
+                    if (c < 0x20) {
+                        out.write(String.format("\\u%04x", (int) c));
+                    } else {
+                        out.write(c);
+                    }
+            }
+        }
+        out.write('"');
+    }
+
+    private static ProfileNode[] profileNodes(MethodData md) {
+        ProfileNode[] nodes = md.getProfileNodes();
+        return nodes != null ? nodes : new ProfileNode[0];
+    }
+}
@@ -0,0 +1,286 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+
+public class DmTraceReaderTest extends TestCase {
+    // Enough records to be parsed in parallel.
+    private static final int RECORDS = 100000;
+
+    private File mTrace;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mTrace != null) {
+            mTrace.delete();
+        }
+    }
+
+    /**
+     * Writes a wall clock trace with the given key section, where the main
+     * thread calls each of methodIds in turn.
+     */
+    private void writeTrace(String key, int... methodIds) throws IOException {
+        mTrace = File.createTempFile("keys", ".trace");
+        OutputStream out = new FileOutputStream(mTrace);
+        try {
+            out.write(key.getBytes("UTF-8"));
+            ByteBuffer data = ByteBuffer.allocate(32 + 20 * methodIds.length)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            data.putInt(0x574f4c53);
+            data.putShort((short) 3);  // version
+            data.putShort((short) 32); // header length
+            data.putLong(0);           // start time
+            data.putShort((short) 10); // record size
+            data.position(32);
+            int time = 100;
+            for (int methodId : methodIds) {
+                data.putShort((short) 1).putInt(methodId).putInt(time += 10);
+                data.putShort((short) 1).putInt(methodId | 1).putInt(time += 10);
+            }
+            out.write(data.array());
+        } finally {
+            out.close();
+        }
+    }
+
+    private static MethodData getMethod(DmTraceReader reader, int id) {
+        for (MethodData md : reader.getMethods()) {
+            if (md.getId() == id) {
+                return md;
+            }
+        }
+        fail("No method " + id);
+        return null;
+    }
+
+    public void testKeySection() throws IOException {
+        writeTrace("*version\r\n3\r\nclock=wall\r\nvm=dalvik\r\n"
+                + "*threads\r\n1\tmain\r\n2\tworker thread\r\n"
+                + "*methods\r\n"
+                + "0x1000\tcom/example/Foo\tbar\t(I)V\tFoo.java\t12\r\n"
+                + "0x1004\tcom/example/Foo\tbaz\t()V\r\n"
+                + "0x1008\tcom/example/Bar\tBar.java\t7\r\n"
+                + "0x100c\tcom/example/Baz\r\n"
+                + "0x1010\tcom/example/Qux\tquux\t()V\tQux.java\t3\t\t\r\n"
+                + "0x1014\tcom/example/\u00e9t\u00e9\t\u00e9t\u00e9\t()V\n"
+                + "*end\r\n", 0x1000, 0x1004, 0x1008, 0x100c, 0x1010, 0x1014);
+        DmTraceReader reader = new DmTraceReader(mTrace.getPath(), false);
+
+        assertEquals("wall", reader.getProperties().get("clock"));
+        assertEquals("dalvik", reader.getProperties().get("vm"));
+        assertEquals("[1] main", reader.getThreadLabels().get(1));
+        assertEquals("[2] worker thread", reader.getThreadLabels().get(2));
+
+        MethodData md = getMethod(reader, 0x1000);
+        assertEquals("com/example/Foo", md.getClassName());
+        assertEquals("bar", md.getMethodName());
+        assertEquals("(I)V", md.getSignature());
+        assertEquals("com/example/Foo.java", md.getPathname());
+        assertEquals(12, md.getLineNumber());
+
+        md = getMethod(reader, 0x1004);
+        assertSame(getMethod(reader, 0x1000).getClassName(), md.getClassName());
+        assertEquals("baz", md.getMethodName());
+        assertEquals("()V", md.getSignature());
+        assertNull(md.getPathname());
+
+        md = getMethod(reader, 0x1008);
+        assertNull(md.getMethodName());
+        assertEquals("Bar.java", md.getPathname());
+        assertEquals(7, md.getLineNumber());
+
+        md = getMethod(reader, 0x100c);
+        assertEquals("com/example/Baz", md.getClassName());
+        assertNull(md.getMethodName());
+        assertNull(md.getPathname());
+
+        // Trailing empty fields are dropped.
+        md = getMethod(reader, 0x1010);
+        assertEquals("quux", md.getMethodName());
+        assertEquals("com/example/Qux.java", md.getPathname());
+        assertEquals(3, md.getLineNumber());
+
+        md = getMethod(reader, 0x1014);
+        assertEquals("com/example/\u00e9t\u00e9", md.getClassName());
+        assertEquals("\u00e9t\u00e9", md.getMethodName());
+    }
+
+    public void testMethodWithoutClassName() throws IOException {
+        writeTrace("*version\n3\nclock=wall\n*threads\n1\tmain\n*methods\n"
+                + "0x1000\tcom/example/Foo\tbar\t()V\n"
+                + "0x1004\n"
+                + "*end\n", 0x1000);
+        try {
+            new DmTraceReader(mTrace.getPath(), false);
+            fail();
+        } catch (ArrayIndexOutOfBoundsException expected) {
+        }
+    }
+
+    public void testMethodWithBadId() throws IOException {
+        writeTrace("*version\n3\nclock=wall\n*threads\n1\tmain\n*methods\n"
+                + "0x10g0\tcom/example/Foo\tbar\t()V\n"
+                + "*end\n", 0x1000);
+        try {
+            new DmTraceReader(mTrace.getPath(), false);
+            fail();
+        } catch (NumberFormatException expected) {
+        }
+    }
+
+    /**
+     * Loads the trace in regression mode, and returns what the reader dumped
+     * followed by the profile of every method.
+     */
+    private static String load(DmTraceReader reader) throws IOException {
+        ByteArrayOutputStream dump = new ByteArrayOutputStream();
+        PrintStream out = System.out;
+        System.setOut(new PrintStream(dump, true, "UTF-8"));
+        try {
+            reader.mRegression = true;
+            reader.generateTrees();
+        } finally {
+            System.setOut(out);
+        }
+        return dump.toString("UTF-8") + dumpProfiles(reader);
+    }
+
+    static String dumpProfiles(DmTraceReader reader) {
+        StringBuilder sb = new StringBuilder();
+        for (MethodData md : reader.getMethods()) {
+            sb.append(md.getProfileName()).append(' ').append(md.getCalls())
+                    .append(' ').append(md.getTopExclusiveCpuTime())
+                    .append(' ').append(md.getTopExclusiveRealTime()).append('\n');
+            ProfileNode[] nodes = md.getProfileNodes();
+            if (nodes == null) {
+                continue;
+            }
+            for (ProfileNode node : nodes) {
+                sb.append("  ").append(node.getLabel()).append('\n');
+                for (ProfileData pd : node.getChildren()) {
+                    sb.append("    ").append(pd.getProfileName())
+                            .append(' ').append(pd.getNumCalls())
+                            .append(' ').append(pd.getElapsedInclusiveCpuTime())
+                            .append(' ').append(pd.getElapsedInclusiveRealTime()).append('\n');
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    private void checkParallelParse(String clock, int threads) throws IOException {
+        mTrace = new SyntheticTrace(clock, threads, 500, RECORDS, 42).write();
+
+        DmTraceReader serial = new DmTraceReader(mTrace.getPath());
+        serial.mParallel = false;
+        DmTraceReader parallel = new DmTraceReader(mTrace.getPath());
+        parallel.mParallel = true;
+
+        assertEquals(load(serial), load(parallel));
+    }
+
+    public void testParallelParseDual() throws IOException {
+        checkParallelParse("dual", 8);
+    }
+
+    public void testParallelParseWall() throws IOException {
+        checkParallelParse("wall", 8);
+    }
+
+    public void testParallelParseSingleThread() throws IOException {
+        checkParallelParse("dual", 1);
+    }
+
+    private static boolean inRange(Call call, long startTime, long endTime, long minDuration) {
+        long start = call.getStartTime();
+        long end = call.getEndTime();
+        return end >= startTime && start <= endTime && end - start >= minDuration;
+    }
+
+    private static String describe(Call call) {
+        return String.format("%d %d %d %d %d %d %d %s < %s", call.getThreadId(),
+                call.getStartTime(), call.getEndTime(),
+                call.getThreadStartTime(), call.getThreadEndTime(),
+                call.getInclusiveCpuTime(), call.getExclusiveCpuTime(),
+                call.getMethodData().getName(), call.getCaller().getMethodData().getName());
+    }
+
+    /**
+     * Describes the calls that overlap [startTime, endTime] and last at least
+     * minDuration, in a fixed order.
+     */
+    static ArrayList<String> describeCalls(CallTable calls, long startTime,
+            long endTime, long minDuration) {
+        ArrayList<String> descriptions = new ArrayList<String>();
+        for (int row = 0; row < calls.size(); row++) {
+            Call call = calls.getCall(row);
+            if (inRange(call, startTime, endTime, minDuration)) {
+                descriptions.add(describe(call));
+            }
+        }
+        Collections.sort(descriptions);
+        return descriptions;
+    }
+
+    public void testStreamingMatchesFullLoad() throws IOException {
+        mTrace = new SyntheticTrace("dual", 4, 200, 20000, 7).write();
+        DmTraceReader full = new DmTraceReader(mTrace.getPath(), false, false);
+        DmTraceReader streaming = new DmTraceReader(mTrace.getPath(), false, true);
+        assertFalse(full.isStreaming());
+        assertTrue(streaming.isStreaming());
+
+        assertEquals(full.getTotalCpuTime(), streaming.getTotalCpuTime());
+        assertEquals(full.getTotalRealTime(), streaming.getTotalRealTime());
+        assertEquals(dumpProfiles(full), dumpProfiles(streaming));
+
+        // The initial timeline only has the calls that are long enough to draw.
+        long minDuration = streaming.getTimeRecordsMinDuration();
+        assertTrue(minDuration > 0);
+        CallTable all = full.getCalls(Long.MIN_VALUE, Long.MAX_VALUE);
+        ArrayList<String> kept = describeCalls(all, Long.MIN_VALUE, Long.MAX_VALUE,
+                minDuration);
+        assertFalse(kept.isEmpty());
+        ArrayList<String> timeline = new ArrayList<String>();
+        CallTable initial = streaming.getTimeLineCalls();
+        for (int row = 0; row < initial.size(); row++) {
+            timeline.add(describe(initial.getCall(row)));
+        }
+        Collections.sort(timeline);
+        assertEquals(kept, timeline);
+
+        // Zooming in replays the trace for every call in the range, including
+        // those that were too short for the initial timeline.
+        long startTime = all.getGlobalStartTime(all.size() / 2);
+        long endTime = startTime + 20000;
+        ArrayList<String> range = describeCalls(all, startTime, endTime, 0);
+        assertTrue(range.size() > describeCalls(all, startTime, endTime, minDuration).size());
+        assertEquals(range, describeCalls(streaming.getCalls(startTime, endTime),
+                startTime, endTime, 0));
+    }
+}
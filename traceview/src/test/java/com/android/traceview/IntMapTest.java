@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Random;
+
+public class IntMapTest extends TestCase {
+    public void testPutAndGet() {
+        IntMap<String> map = new IntMap<String>();
+        assertEquals(0, map.size());
+        assertNull(map.get(0));
+
+        assertNull(map.put(0, "zero"));
+        assertNull(map.put(-1, "minus one"));
+        assertNull(map.put(Integer.MIN_VALUE, "min"));
+        assertEquals("zero", map.put(0, "nil"));
+        assertEquals(3, map.size());
+
+        assertEquals("nil", map.get(0));
+        assertEquals("minus one", map.get(-1));
+        assertEquals("min", map.get(Integer.MIN_VALUE));
+        assertNull(map.get(1));
+    }
+
+    public void testNullValue() {
+        IntMap<String> map = new IntMap<String>();
+        try {
+            map.put(1, null);
+            fail();
+        } catch (NullPointerException expected) {
+        }
+        assertEquals(0, map.size());
+    }
+
+    /**
+     * Checks the map against a HashMap with keys like the method ids of a
+     * trace, which all collide in their low bits, through several resizes.
+     */
+    public void testMatchesHashMap() {
+        IntMap<Integer> map = new IntMap<Integer>();
+        HashMap<Integer, Integer> expected = new HashMap<Integer, Integer>();
+        Random random = new Random(42);
+        for (int i = 0; i < 5000; i++) {
+            int key = 0x1000 + 4 * random.nextInt(3000);
+            assertEquals(expected.put(key, i), map.put(key, i));
+        }
+        assertEquals(expected.size(), map.size());
+        for (int key = 0; key < 0x1000 + 4 * 3000; key++) {
+            assertEquals(expected.get(key), map.get(key));
+        }
+    }
+
+    public void testInsertionOrder() {
+        IntMap<Integer> map = new IntMap<Integer>(1);
+        for (int i = 0; i < 100; i++) {
+            map.put(1000 - 7 * i, i);
+        }
+        map.put(1000, -1);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(1000 - 7 * i, map.keyAt(i));
+            assertEquals(i == 0 ? -1 : i, map.valueAt(i).intValue());
+        }
+
+        Iterator<Integer> values = map.values().iterator();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(values.hasNext());
+            assertEquals(map.valueAt(i), values.next());
+        }
+        assertFalse(values.hasNext());
+        try {
+            values.next();
+            fail();
+        } catch (NoSuchElementException expected) {
+        }
+        assertEquals(100, map.values().size());
+    }
+
+    public void testClear() {
+        IntMap<String> map = new IntMap<String>();
+        for (int i = 0; i < 20; i++) {
+            map.put(i, Integer.toString(i));
+        }
+        map.clear();
+        assertEquals(0, map.size());
+        assertNull(map.get(3));
+        assertFalse(map.values().iterator().hasNext());
+
+        map.put(3, "three");
+        assertEquals("three", map.get(3));
+        assertEquals(1, map.size());
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+public class MethodIndexTest extends TestCase {
+    private static void assertLiterals(String regex, String... expected) {
+        assertEquals(Arrays.asList(expected), Arrays.asList(MethodIndex.getLiterals(regex)));
+    }
+
+    public void testPlainLiterals() {
+        assertLiterals("foobar", "foobar");
+        assertLiterals("FooBar", "foobar");
+        assertLiterals("foo.bar", "foo", "bar");
+        assertLiterals("fooo*bar", "foo", "bar");
+        assertLiterals("foo(bar)baz", "foo", "baz");
+        assertLiterals("foo|bar");
+        assertLiterals("ab");
+        assertLiterals("foo\\.bar", "foo.bar");
+        assertLiterals("foo\\.?bar", "foo", "bar");
+    }
+
+    public void testEscapes() {
+        assertLiterals("abc\\x41def", "abc", "def");
+        assertLiterals("abc\\x{1F600}def", "abc", "def");
+        assertLiterals("abc\\u0041def", "abc", "def");
+        assertLiterals("abc\\0101def", "abc", "def");
+        assertLiterals("abc\\cMdef", "abc", "def");
+        assertLiterals("(?<n>abc)xyz\\k<n>def", "xyz", "def");
+        assertLiterals("abc\\p{Lu}def", "abc", "def");
+        assertLiterals("abc\\pLdef", "abc", "def");
+        assertLiterals("(a)bcd\\1234", "bcd");
+        assertLiterals("abc\\ddef", "abc", "def");
+        assertLiterals("abc\\tdef", "abc", "def");
+        assertLiterals("[\\x41-\\x5a]bcdef", "bcdef");
+    }
+
+    public void testQuotes() {
+        assertLiterals("\\Qa.b*c\\E", "a.b*c");
+        assertLiterals("foo\\Q(bar)\\Ebaz", "foo(bar)baz");
+        assertLiterals("foo\\Qbar\\E?", "fooba");
+        assertLiterals("\\Qfoo.bar", "foo.bar");
+        assertLiterals("[\\Qxyz]\\E]abc", "abc");
+    }
+
+    public void testTrailingEscape() {
+        assertLiterals("abc\\x4", "abc");
+        assertLiterals("abc\\u00", "abc");
+        assertLiterals("abc\\p{L", "abc");
+        assertLiterals("abc\\", "abc");
+    }
+
+    private static MethodData[] createMethods(String... names) {
+        MethodData[] methods = new MethodData[names.length];
+        for (int ii = 0; ii < names.length; ii++) {
+            String[] parts = names[ii].split("\\.");
+            methods[ii] = new MethodData(ii + 1, parts[0], parts[1], "()V", null, 0);
+            methods[ii].setRank(ii);
+        }
+        return methods;
+    }
+
+    /**
+     * Checks that findRegex finds the same methods as matching every name.
+     */
+    public void testFindRegex() {
+        MethodData[] methods = createMethods("com/example/Abc.run", "com/example/ABC.call",
+                "com/example/Foo.bar", "com/example/FooBar.baz", "java/lang/Object.<init>",
+                "com/example/\u00c9t\u00e9.\u00e9t\u00e9", "com/example/A.b");
+        MethodIndex index = new MethodIndex(methods);
+        String[] regexes = {
+            "abc", "Abc", "\\x41bc", "\\x{41}BC", "\\u0041bc", "\\0101bc", "\\Qexample/Foo\\E",
+            "\\p{Lu}bc", "(a)b\\1?c", "foo.*baz", "\\x3cinit\\x3e", "\\u00e9t\\u00e9",
+            "<init>|run", "[\\x41a]bc\\.", "A\\.b",
+        };
+        for (String regex : regexes) {
+            int flags = regex.matches(".*\\p{Lu}.*") ? 0 : Pattern.CASE_INSENSITIVE;
+            Pattern pattern = Pattern.compile(regex, flags);
+            Set<MethodData> expected = new HashSet<MethodData>();
+            for (MethodData md : methods) {
+                if (pattern.matcher(md.getName()).find()) {
+                    expected.add(md);
+                }
+            }
+            assertEquals(regex, expected,
+                    new HashSet<MethodData>(Arrays.asList(index.findRegex(regex))));
+        }
+    }
+}
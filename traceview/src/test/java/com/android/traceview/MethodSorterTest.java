@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+public class MethodSorterTest extends TestCase {
+    /**
+     * Sorts by the line number of the methods, which stands for their time.
+     */
+    private static class LineSorter extends MethodSorter {
+        @Override
+        long getTime(MethodData md) {
+            return md.getLineNumber();
+        }
+    }
+
+    private static MethodData method(int id, int time) {
+        return new MethodData(id, "com/example/C", "m" + id, "()V", null, time);
+    }
+
+    private static List<MethodData> randomMethods(int count, int maxTime, long seed) {
+        Random random = new Random(seed);
+        List<MethodData> methods = new ArrayList<MethodData>();
+        for (int i = 0; i < count; i++) {
+            methods.add(method(i, random.nextInt(maxTime)));
+        }
+        return methods;
+    }
+
+    public void testSort() {
+        MethodData[] sorted = new LineSorter().sort(
+                new MethodData[] { method(1, 5), method(2, 0), method(3, 9), method(4, 5) });
+        // Methods with no time are left out, and ties keep their order.
+        assertEquals(3, sorted.length);
+        assertEquals(3, sorted[0].getId());
+        assertEquals(1, sorted[1].getId());
+        assertEquals(4, sorted[2].getId());
+    }
+
+    public void testCompareTies() {
+        MethodSorter sorter = new LineSorter() {
+            @Override
+            int compareTies(MethodData md1, MethodData md2) {
+                return md2.getId() - md1.getId();
+            }
+        };
+        MethodData[] sorted = sorter.sort(
+                new MethodData[] { method(1, 5), method(2, 7), method(3, 5) });
+        assertEquals(2, sorted[0].getId());
+        assertEquals(3, sorted[1].getId());
+        assertEquals(1, sorted[2].getId());
+    }
+
+    /**
+     * The first methods selected with a limit are the first methods of the
+     * full sort, however many of them tie.
+     */
+    public void testLimitMatchesFullSort() {
+        for (int maxTime : new int[] { 3, 50, 1000000 }) {
+            List<MethodData> methods = randomMethods(2000, maxTime, maxTime);
+            MethodData[] all = new LineSorter().sort(methods);
+            for (int limit : new int[] { 1, 2, 10, 100, 1999, 2000, 5000 }) {
+                MethodData[] first = new LineSorter().sort(methods, limit);
+                int expected = Math.min(limit, all.length);
+                assertEquals(expected, first.length);
+                assertTrue(Arrays.equals(Arrays.copyOf(all, expected), first));
+            }
+        }
+    }
+
+    public void testNoLimit() {
+        List<MethodData> methods = randomMethods(100, 10, 1);
+        MethodData[] all = new LineSorter().sort(methods);
+        assertTrue(Arrays.equals(all, new LineSorter().sort(methods, 0)));
+        assertTrue(Arrays.equals(all, new LineSorter().sort(methods, -1)));
+        for (int i = 1; i < all.length; i++) {
+            assertTrue(all[i - 1].getLineNumber() >= all[i].getLineNumber());
+        }
+    }
+}
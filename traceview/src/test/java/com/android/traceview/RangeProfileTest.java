@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+public class RangeProfileTest extends TestCase {
+    private static final int A = 0x1000;
+    private static final int B = 0x1004;
+
+    private File mTrace;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mTrace != null) {
+            mTrace.delete();
+        }
+    }
+
+    /**
+     * Writes a dual clock trace of one thread, where each record is a method
+     * id with its action bits and a time.  The thread is never switched out,
+     * so its thread time is its global time.
+     */
+    private DmTraceReader load(int... records) throws IOException {
+        mTrace = File.createTempFile("range", ".trace");
+        OutputStream out = new FileOutputStream(mTrace);
+        try {
+            out.write(("*version\n3\nclock=dual\n*threads\n1\tmain\n*methods\n"
+                    + "0x1000\tcom/example/A\ta\t()V\n"
+                    + "0x1004\tcom/example/B\tb\t()V\n"
+                    + "*end\n").getBytes("UTF-8"));
+            ByteBuffer data = ByteBuffer.allocate(32 + 14 * records.length / 2)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            data.putInt(0x574f4c53);
+            data.putShort((short) 3);  // version
+            data.putShort((short) 32); // header length
+            data.putLong(0);           // start time
+            data.putShort((short) 14); // record size
+            data.position(32);
+            for (int i = 0; i < records.length; i += 2) {
+                data.putShort((short) 1).putInt(records[i]);
+                data.putInt(records[i + 1]).putInt(records[i + 1]);
+            }
+            out.write(data.array());
+        } finally {
+            out.close();
+        }
+        return new DmTraceReader(mTrace.getPath(), false);
+    }
+
+    private static RangeProfile compute(DmTraceReader reader, long startTime, long endTime) {
+        RangeProfile profile = new RangeProfile(reader, startTime, endTime);
+        assertTrue(profile.compute());
+        return profile;
+    }
+
+    private static MethodData getMethod(MethodData[] methods, int id) {
+        for (MethodData md : methods) {
+            if (md.getId() == id) {
+                return md;
+            }
+        }
+        return null;
+    }
+
+    private static void assertTimes(MethodData md, long inclusive, long exclusive) {
+        assertEquals(inclusive, md.getElapsedInclusiveRealTime());
+        assertEquals(exclusive, md.getElapsedExclusiveRealTime());
+        // The thread time of the trace is its global time.
+        assertEquals(inclusive, md.getElapsedInclusiveCpuTime());
+        assertEquals(exclusive, md.getElapsedExclusiveCpuTime());
+    }
+
+    public void testClipping() throws IOException {
+        // A runs from 100 to 200, and calls B from 120 to 160.
+        DmTraceReader reader = load(A, 100, B, 120, B | 1, 160, A | 1, 200);
+
+        RangeProfile profile = compute(reader, 100, 200);
+        assertTimes(getMethod(profile.getMethods(), A), 100, 60);
+        assertTimes(getMethod(profile.getMethods(), B), 40, 40);
+        assertEquals(100, profile.getTotalRealTime());
+
+        // Both calls cross the ends of the range.
+        profile = compute(reader, 130, 170);
+        assertTimes(getMethod(profile.getMethods(), A), 40, 10);
+        assertTimes(getMethod(profile.getMethods(), B), 30, 30);
+        assertEquals(40, profile.getTotalRealTime());
+        assertEquals(40, profile.getTotalCpuTime());
+
+        // B lies inside the range and counts whole.
+        profile = compute(reader, 110, 190);
+        assertTimes(getMethod(profile.getMethods(), A), 80, 40);
+        assertTimes(getMethod(profile.getMethods(), B), 40, 40);
+
+        // B has not started yet.
+        profile = compute(reader, 0, 110);
+        assertTimes(getMethod(profile.getMethods(), A), 10, 10);
+        assertNull(getMethod(profile.getMethods(), B));
+        assertEquals(10, profile.getTotalRealTime());
+
+        // Nothing runs after the end of the trace.
+        profile = compute(reader, 300, 400);
+        assertNull(getMethod(profile.getMethods(), A));
+        assertEquals(0, profile.getTotalRealTime());
+    }
+
+    public void testWholeTrace() throws IOException {
+        mTrace = new SyntheticTrace("dual", 4, 200, 20000, 3).write();
+        DmTraceReader reader = new DmTraceReader(mTrace.getPath(), false);
+        RangeProfile profile = compute(reader, Long.MIN_VALUE / 2, Long.MAX_VALUE / 2);
+
+        assertEquals(reader.getTotalCpuTime(), profile.getTotalCpuTime());
+        assertEquals(reader.getTotalRealTime(), profile.getTotalRealTime());
+        assertEquals(reader.getMethods().length, profile.getMethods().length);
+        for (MethodData md : reader.getMethods()) {
+            MethodData range = getMethod(profile.getMethods(), md.getId());
+            assertEquals(md.getRank(), range.getRank());
+            assertEquals(md.getElapsedInclusiveRealTime(), range.getElapsedInclusiveRealTime());
+            assertEquals(md.getElapsedExclusiveRealTime(), range.getElapsedExclusiveRealTime());
+            assertEquals(md.getElapsedInclusiveCpuTime(), range.getElapsedInclusiveCpuTime());
+            assertEquals(md.getElapsedExclusiveCpuTime(), range.getElapsedExclusiveCpuTime());
+            assertEquals(md.getCalls(), range.getCalls());
+        }
+    }
+
+    /**
+     * The real time of two adjacent ranges adds up to the real time of
+     * both, up to the rounding of the time of the root calls.
+     */
+    public void testAdjacentRanges() throws IOException {
+        mTrace = new SyntheticTrace("dual", 4, 200, 20000, 5).write();
+        DmTraceReader reader = new DmTraceReader(mTrace.getPath(), false);
+        long start = 50000;
+        long middle = 150000;
+        long end = 250000;
+
+        RangeProfile first = compute(reader, start, middle);
+        RangeProfile second = compute(reader, middle, end);
+        RangeProfile both = compute(reader, start, end);
+        long threads = reader.getThreads().length;
+        assertTrue(both.getTotalRealTime() > 0);
+        assertEquals(both.getTotalRealTime(),
+                first.getTotalRealTime() + second.getTotalRealTime(), threads);
+        for (MethodData md : both.getMethods()) {
+            if (md.getId() == 0) {
+                continue;
+            }
+            MethodData md1 = getMethod(first.getMethods(), md.getId());
+            MethodData md2 = getMethod(second.getMethods(), md.getId());
+            long exclusive = (md1 != null ? md1.getElapsedExclusiveRealTime() : 0)
+                    + (md2 != null ? md2.getElapsedExclusiveRealTime() : 0);
+            assertEquals(md.getElapsedExclusiveRealTime(), exclusive);
+        }
+    }
+}
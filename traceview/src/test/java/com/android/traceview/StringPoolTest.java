@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+import java.io.UnsupportedEncodingException;
+
+public class StringPoolTest extends TestCase {
+    private static byte[] bytes(String s) throws UnsupportedEncodingException {
+        return ("\t" + s + "\t").getBytes("UTF-8");
+    }
+
+    private static String get(StringPool pool, String s) throws UnsupportedEncodingException {
+        byte[] bytes = bytes(s);
+        return pool.get(bytes, 1, bytes.length - 1);
+    }
+
+    public void testPooling() throws UnsupportedEncodingException {
+        StringPool pool = new StringPool();
+        String foo = get(pool, "com/example/Foo");
+        assertEquals("com/example/Foo", foo);
+        assertSame(foo, get(pool, "com/example/Foo"));
+        assertSame(foo, pool.get(new String("com/example/Foo")));
+
+        String bar = new String("com/example/Bar");
+        assertSame(bar, pool.get(bar));
+        assertSame(bar, get(pool, "com/example/Bar"));
+
+        assertNull(pool.get(null));
+        assertEquals("", get(pool, ""));
+    }
+
+    public void testNonAscii() throws UnsupportedEncodingException {
+        StringPool pool = new StringPool();
+        String s = get(pool, "\u00e9t\u00e9");
+        assertEquals("\u00e9t\u00e9", s);
+        assertSame(s, get(pool, "\u00e9t\u00e9"));
+        assertSame(s, pool.get("\u00e9t\u00e9"));
+    }
+
+    public void testManyStrings() throws UnsupportedEncodingException {
+        StringPool pool = new StringPool();
+        String[] strings = new String[5000];
+        for (int i = 0; i < strings.length; i++) {
+            strings[i] = get(pool, "m" + i);
+        }
+        for (int i = 0; i < strings.length; i++) {
+            assertSame(strings[i], get(pool, "m" + i));
+            assertSame(strings[i], pool.get("m" + i));
+        }
+    }
+
+    /**
+     * "Aa" and "BB" have the same hash code.
+     */
+    public void testHashCollision() throws UnsupportedEncodingException {
+        StringPool pool = new StringPool();
+        String aa = get(pool, "Aa");
+        String bb = get(pool, "BB");
+        assertEquals("Aa", aa);
+        assertEquals("BB", bb);
+        assertSame(aa, get(pool, "Aa"));
+        assertSame(bb, pool.get("BB"));
+    }
+}
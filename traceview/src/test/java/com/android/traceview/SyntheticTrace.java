@@ -0,0 +1,187 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.android.traceview;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Random;
+
+/**
+ * Writes version 3 method traces with random call stacks, for tests and
+ * benchmarks.  The stacks of each thread wander between empty and the
+ * maximum depth, and are never unwound at the end of the trace.
+ */
+class SyntheticTrace {
+    private static final int TRACE_MAGIC = 0x574f4c53;
+    private static final int FIRST_METHOD_ID = 0x1000;
+    static final int DEFAULT_MAX_DEPTH = 12;
+
+    // The clock as named in the trace key: "wall", "dual" or "thread-cpu".
+    final String mClock;
+    final int mNumThreads;
+    final int mNumMethods;
+    final int mNumRecords;
+    final int mMaxDepth;
+    final long mSeed;
+
+    SyntheticTrace(String clock, int numThreads, int numMethods, int numRecords, long seed) {
+        this(clock, numThreads, numMethods, numRecords, DEFAULT_MAX_DEPTH, seed);
+    }
+
+    SyntheticTrace(String clock, int numThreads, int numMethods, int numRecords,
+            int maxDepth, long seed) {
+        mClock = clock;
+        mNumThreads = numThreads;
+        mNumMethods = numMethods;
+        mNumRecords = numRecords;
+        mMaxDepth = maxDepth;
+        mSeed = seed;
+    }
+
+    static int methodId(int method) {
+        return FIRST_METHOD_ID + 4 * method;
+    }
+
+    /**
+     * Returns the method id of each record, including its action bits, in
+     * the order they are written.
+     */
+    int[] methodIds() {
+        final int[] ids = new int[mNumRecords];
+        generate(new RecordSink() {
+            private int mIndex;
+
+            @Override
+            public void record(int threadId, int methodId, int threadTime, int globalTime) {
+                ids[mIndex++] = methodId;
+            }
+        });
+        return ids;
+    }
+
+    File write() throws IOException {
+        File file = File.createTempFile("synthetic", ".trace");
+        file.deleteOnExit();
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            out.write(key().getBytes("US-ASCII"));
+
+            final int recordSize = mClock.equals("dual") ? 14 : 10;
+            ByteBuffer header = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+            header.putInt(TRACE_MAGIC);
+            header.putShort((short) 3);  // version
+            header.putShort((short) 32); // header length
+            header.putLong(0);           // start time
+            header.putShort((short) recordSize);
+            out.write(header.array());
+
+            final ByteBuffer record = ByteBuffer.allocate(recordSize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            final IOException[] error = new IOException[1];
+            generate(new RecordSink() {
+                @Override
+                public void record(int threadId, int methodId, int threadTime, int globalTime) {
+                    record.clear();
+                    record.putShort((short) threadId);
+                    record.putInt(methodId);
+                    if (mClock.equals("wall")) {
+                        record.putInt(globalTime);
+                    } else if (mClock.equals("dual")) {
+                        record.putInt(threadTime);
+                        record.putInt(globalTime);
+                    } else {
+                        record.putInt(threadTime);
+                    }
+                    try {
+                        out.write(record.array());
+                    } catch (IOException e) {
+                        error[0] = e;
+                    }
+                }
+            });
+            if (error[0] != null) {
+                throw error[0];
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    private String key() {
+        StringBuilder key = new StringBuilder();
+        key.append("*version\n3\n");
+        key.append("data-file-overflow=false\n");
+        key.append("clock=").append(mClock).append('\n');
+        key.append("vm=dalvik\n");
+        key.append("*threads\n");
+        for (int t = 1; t <= mNumThreads; t++) {
+            key.append(t).append("\tthread-").append(t).append('\n');
+        }
+        key.append("*methods\n");
+        for (int m = 0; m < mNumMethods; m++) {
+            key.append(String.format("0x%x\tcom/example/C%d\tm%d\t(I)V\tC%d.java\t%d\n",
+                    methodId(m), m % 97, m, m % 97, m));
+        }
+        key.append("*end\n");
+        return key.toString();
+    }
+
+    private interface RecordSink {
+        void record(int threadId, int methodId, int threadTime, int globalTime);
+    }
+
+    private void generate(RecordSink sink) {
+        Random random = new Random(mSeed);
+        ArrayList<ArrayList<Integer>> stacks = new ArrayList<ArrayList<Integer>>();
+        int[] threadTimes = new int[mNumThreads + 1];
+        for (int t = 0; t <= mNumThreads; t++) {
+            stacks.add(new ArrayList<Integer>());
+            threadTimes[t] = 1000;
+        }
+
+        int globalTime = 1000;
+        int thread = 1;
+        for (int i = 0; i < mNumRecords; i++) {
+            if (random.nextInt(100) < 15) {
+                thread = 1 + random.nextInt(mNumThreads);
+            }
+            globalTime += 1 + random.nextInt(30);
+            threadTimes[thread] += random.nextInt(21);
+
+            ArrayList<Integer> stack = stacks.get(thread);
+            int methodId;
+            if (!stack.isEmpty() && (random.nextInt(100) < 45 || stack.size() >= mMaxDepth)) {
+                methodId = stack.remove(stack.size() - 1) | 1;  // exit
+            } else {
+                if (!stack.isEmpty() && random.nextInt(10) == 0) {
+                    methodId = stack.get(stack.size() - 1);     // recursion
+                } else {
+                    methodId = methodId(random.nextInt(mNumMethods));
+                }
+                stack.add(methodId);                            // enter
+            }
+            sink.record(thread, methodId, threadTimes[thread], globalTime);
+        }
+    }
+}
@@ -0,0 +1,309 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+public class TraceEventWriterTest extends TestCase {
+    private File mTrace;
+
+    @Override
+    protected void tearDown() throws Exception {
+        if (mTrace != null) {
+            mTrace.delete();
+        }
+    }
+
+    private String export(String clock) throws IOException {
+        mTrace = new SyntheticTrace(clock, 3, 100, 5000, 9).write();
+        StringWriter out = new StringWriter();
+        new TraceEventWriter(DmTraceReader.readHeader(mTrace.getPath()), out).write();
+        return out.toString();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void checkExport(String clock, boolean haveThreadTime) throws IOException {
+        Map<String, Object> json = (Map<String, Object>) new JsonParser(export(clock)).parse();
+        assertEquals("ms", json.get("displayTimeUnit"));
+        assertEquals(clock, ((Map<String, Object>) json.get("otherData")).get("clock"));
+
+        int threads = 0;
+        int calls = 0;
+        for (Object e : (List<Object>) json.get("traceEvents")) {
+            Map<String, Object> event = (Map<String, Object>) e;
+            assertEquals(1L, event.get("pid"));
+            long tid = (Long) event.get("tid");
+            assertTrue(tid >= 1 && tid <= 3);
+            if (event.get("ph").equals("M")) {
+                assertEquals("thread_name", event.get("name"));
+                Map<String, Object> args = (Map<String, Object>) event.get("args");
+                assertEquals("[" + tid + "] thread-" + tid, args.get("name"));
+                threads++;
+            } else {
+                assertEquals("X", event.get("ph"));
+                assertTrue(event.get("name") instanceof String);
+                assertTrue((Long) event.get("dur") >= 0);
+                assertEquals(haveThreadTime, event.containsKey("tdur"));
+                if (haveThreadTime) {
+                    assertTrue((Long) event.get("tdur") >= 0);
+                }
+                calls++;
+            }
+        }
+        assertEquals(3, threads);
+
+        // Every call of the trace, including the context switches.
+        DmTraceReader reader = new DmTraceReader(mTrace.getPath(), false);
+        assertEquals(reader.getCalls(Long.MIN_VALUE, Long.MAX_VALUE).size(), calls);
+    }
+
+    public void testExportDual() throws IOException {
+        checkExport("dual", true);
+    }
+
+    public void testExportWall() throws IOException {
+        checkExport("wall", false);
+    }
+
+    public void testExportThreadCpu() throws IOException {
+        mTrace = new SyntheticTrace("thread-cpu", 2, 50, 2000, 4).write();
+        StringWriter out = new StringWriter();
+        new TraceEventWriter(DmTraceReader.readHeader(mTrace.getPath()), out).write();
+        assertNotNull(new JsonParser(out.toString()).parse());
+    }
+
+    public void testJsonString() throws IOException {
+        String[] strings = {
+            "", "plain", "quote\"d", "back\\slash", "line\nbreak\r\ttab",
+            "\u0001\u001f", "\u00e9t\u00e9 \u2603",
+        };
+        for (String s : strings) {
+            StringWriter out = new StringWriter();
+            TraceReport.writeJsonString(out, s);
+            assertEquals(s, new JsonParser(out.toString()).parse());
+        }
+    }
+
+    /**
+     * A writer that fails once it has been written to a given number of
+     * times, and counts the writes that failed.
+     */
+    private static class FailingWriter extends Writer {
+        private int mWritesLeft;
+        int mFailures;
+
+        FailingWriter(int writes) {
+            mWritesLeft = writes;
+        }
+
+        @Override
+        public void write(char[] buffer, int offset, int length) throws IOException {
+            if (mWritesLeft-- <= 0) {
+                mFailures++;
+                throw new IOException("disk full");
+            }
+        }
+
+        @Override
+        public void flush() {
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    public void testStopsAtFirstError() throws IOException {
+        mTrace = new SyntheticTrace("dual", 3, 100, 5000, 9).write();
+        FailingWriter out = new FailingWriter(100);
+        try {
+            new TraceEventWriter(DmTraceReader.readHeader(mTrace.getPath()), out).write();
+            fail();
+        } catch (IOException expected) {
+            assertEquals("disk full", expected.getMessage());
+        }
+        assertEquals(1, out.mFailures);
+    }
+
+    public void testReplayStops() throws IOException {
+        mTrace = new SyntheticTrace("dual", 3, 100, 5000, 9).write();
+        final int[] calls = new int[1];
+        DmTraceReader.readHeader(mTrace.getPath()).replayCalls(new DmTraceReader.CallListener() {
+            @Override
+            public boolean callExited(Call call) {
+                return ++calls[0] < 10;
+            }
+        });
+        assertEquals(10, calls[0]);
+    }
+
+    /**
+     * Parses JSON text into maps, lists, strings, longs, doubles, booleans
+     * and nulls, failing the test if the text is not valid JSON.
+     */
+    private static class JsonParser {
+        private final String mText;
+        private int mPos;
+
+        JsonParser(String text) {
+            mText = text;
+        }
+
+        Object parse() {
+            Object value = parseValue();
+            skipSpace();
+            assertEquals("Trailing text", mText.length(), mPos);
+            return value;
+        }
+
+        private Object parseValue() {
+            skipSpace();
+            assertTrue("Unexpected end of text", mPos < mText.length());
+            char c = mText.charAt(mPos);
+            if (c == '{') {
+                Map<String, Object> map = new LinkedHashMap<String, Object>();
+                mPos++;
+                skipSpace();
+                if (!consume('}')) {
+                    do {
+                        skipSpace();
+                        String key = parseString();
+                        skipSpace();
+                        expect(':');
+                        assertNull("Duplicate key " + key, map.put(key, parseValue()));
+                        skipSpace();
+                    } while (consume(','));
+                    expect('}');
+                }
+                return map;
+            }
+            if (c == '[') {
+                List<Object> list = new ArrayList<Object>();
+                mPos++;
+                skipSpace();
+                if (!consume(']')) {
+                    do {
+                        list.add(parseValue());
+                        skipSpace();
+                    } while (consume(','));
+                    expect(']');
+                }
+                return list;
+            }
+            if (c == '"') {
+                return parseString();
+            }
+            if (mText.startsWith("true", mPos)) {
+                mPos += 4;
+                return Boolean.TRUE;
+            }
+            if (mText.startsWith("false", mPos)) {
+                mPos += 5;
+                return Boolean.FALSE;
+            }
+            if (mText.startsWith("null", mPos)) {
+                mPos += 4;
+                return null;
+            }
+            return parseNumber();
+        }
+
+        private String parseString() {
+            expect('"');
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                assertTrue("Unterminated string", mPos < mText.length());
+                char c = mText.charAt(mPos++);
+                if (c == '"') {
+                    return sb.toString();
+                }
+                assertTrue("Control character in string", c >= 0x20);
+                if (c != '\\') {
+                    sb.append(c);
+                    continue;
+                }
+                c = mText.charAt(mPos++);
+                switch (c) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        sb.append(c);
+                        break;
+                    case 'b':
+                        sb.append('\b');
+                        break;
+                    case 'f':
+                        sb.append('\f');
+                        break;
+                    case 'n':
+                        sb.append('\n');
+                        break;
+                    case 'r':
+                        sb.append('\r');
+                        break;
+                    case 't':
+                        sb.append('\t');
+                        break;
+                    case 'u':
+                        sb.append((char) Integer.parseInt(mText.substring(mPos, mPos + 4), 16));
+                        mPos += 4;
+                        break;
+                    default:
+                        fail("Bad escape \\" + c);
+                }
+            }
+        }
+
+        private Object parseNumber() {
+            int start = mPos;
+            boolean integral = true;
+            while (mPos < mText.length() && "+-0123456789.eE".indexOf(mText.charAt(mPos)) >= 0) {
+                integral &= Character.isDigit(mText.charAt(mPos)) || mText.charAt(mPos) == '-';
+                mPos++;
+            }
+            String number = mText.substring(start, mPos);
+            assertTrue("Bad value at " + start, number.length() > 0);
+            return integral ? (Object) Long.valueOf(number) : (Object) Double.valueOf(number);
+        }
+
+        private void skipSpace() {
+            while (mPos < mText.length() && " \t\r\n".indexOf(mText.charAt(mPos)) >= 0) {
+                mPos++;
+            }
+        }
+
+        private boolean consume(char c) {
+            if (mPos < mText.length() && mText.charAt(mPos) == c) {
+                mPos++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char c) {
+            assertTrue("Expected " + c + " at " + mPos, consume(c));
+        }
+    }
+}
@@ -0,0 +1,142 @@
+/*
+ * Copyright (C) 2015 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.traceview;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+public class TraceIndexTest extends TestCase {
+    private File mTrace;
+    private File mIndex;
+
+    @Override
+    protected void setUp() throws Exception {
+        mTrace = new SyntheticTrace("dual", 4, 300, 20000, 11).write();
+        mIndex = TraceIndex.getIndexFile(mTrace.getPath());
+    }
+
+    @Override
+    protected void tearDown() throws Exception {
+        mTrace.delete();
+        mIndex.delete();
+    }
+
+    private static String describe(DmTraceReader reader) {
+        StringBuilder sb = new StringBuilder();
+        sb.append(reader.getTotalCpuTime()).append(' ').append(reader.getTotalRealTime())
+                .append(' ').append(reader.getTimeRecordsMinDuration()).append('\n');
+        for (ThreadData td : reader.getThreads()) {
+            sb.append(td.getId()).append(' ').append(td.getName())
+                    .append(' ').append(td.getCpuTime())
+                    .append(' ').append(td.getRealTime()).append('\n');
+        }
+        sb.append(DmTraceReaderTest.dumpProfiles(reader));
+        // Streaming readers replay the trace for any range, so this only
+        // compares the calls they kept for the initial timeline.
+        CallTable calls = reader.getTimeLineCalls();
+        for (int row = 0; row < calls.size(); row++) {
+            Call call = calls.getCall(row);
+            sb.append(call.getThreadId()).append(' ').append(call.getName())
+                    .append(' ').append(call.getStartTime())
+                    .append(' ').append(call.getEndTime())
+                    .append(' ').append(call.getInclusiveCpuTime()).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private void checkRoundTrip(boolean streaming) throws IOException {
+        String expected = describe(new DmTraceReader(mTrace.getPath(), false, streaming));
+        assertFalse(mIndex.exists());
+
+        assertEquals(expected, describe(
+                new DmTraceReader(mTrace.getPath(), false, streaming, true)));
+        assertNotNull(TraceIndex.read(mTrace.getPath(), streaming));
+        assertNull(TraceIndex.read(mTrace.getPath(), !streaming));
+
+        assertEquals(expected, describe(
+                new DmTraceReader(mTrace.getPath(), false, streaming, true)));
+    }
+
+    public void testRoundTrip() throws IOException {
+        checkRoundTrip(false);
+    }
+
+    public void testRoundTripStreaming() throws IOException {
+        checkRoundTrip(true);
+    }
+
+    public void testStaleIndex() throws IOException {
+        String expected = describe(new DmTraceReader(mTrace.getPath(), false));
+        new DmTraceReader(mTrace.getPath(), false, false, true);
+        long written = mIndex.lastModified();
+        assertNotNull(TraceIndex.read(mTrace.getPath(), false));
+
+        assertTrue(mTrace.setLastModified(mTrace.lastModified() - 10000));
+        assertNull(TraceIndex.read(mTrace.getPath(), false));
+
+        // The trace is parsed again, and the index replaced.
+        assertEquals(expected, describe(new DmTraceReader(mTrace.getPath(), false, false, true)));
+        assertNotNull(TraceIndex.read(mTrace.getPath(), false));
+        assertTrue(mIndex.lastModified() >= written);
+    }
+
+    public void testTruncatedIndex() throws IOException {
+        String expected = describe(new DmTraceReader(mTrace.getPath(), false));
+        new DmTraceReader(mTrace.getPath(), false, false, true);
+        long length = mIndex.length();
+
+        // In the header, in the metadata, and in the calls.
+        for (long truncated : new long[] { 10, 100, length - 10 }) {
+            RandomAccessFile file = new RandomAccessFile(mIndex, "rw");
+            try {
+                file.setLength(truncated);
+            } finally {
+                file.close();
+            }
+            try {
+                assertNull(TraceIndex.read(mTrace.getPath(), false));
+            } catch (IOException expectedError) {
+            }
+            assertEquals(expected,
+                    describe(new DmTraceReader(mTrace.getPath(), false, false, true)));
+            assertEquals(length, mIndex.length());
+        }
+    }
+
+    public void testCorruptCall() throws IOException {
+        String expected = describe(new DmTraceReader(mTrace.getPath(), false));
+        new DmTraceReader(mTrace.getPath(), false, false, true);
+
+        // Point the last call at a thread that does not exist.
+        RandomAccessFile file = new RandomAccessFile(mIndex, "rw");
+        try {
+            file.seek(file.length() - (4 + 4 + 4 + 1 + 8 * 8));
+            file.writeInt(12345);
+        } finally {
+            file.close();
+        }
+        try {
+            TraceIndex.read(mTrace.getPath(), false);
+            fail();
+        } catch (IOException expectedError) {
+        }
+        assertEquals(expected, describe(new DmTraceReader(mTrace.getPath(), false, false, true)));
+        assertNotNull(TraceIndex.read(mTrace.getPath(), false));
+    }
+}